@@ -0,0 +1,41 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import ch.usi.inf.nodeprof.jalangi.CallbackInlining;
+
+public class CallbackInliningTest {
+
+    @Test
+    public void testParse() {
+        HashMap<String, CallbackInlining> policies = CallbackInlining.parse("*=boundary, getField=Split,invokeFun=inline,putField=x,binary");
+        assertEquals(3, policies.size());
+        assertEquals(CallbackInlining.BOUNDARY, policies.get("*"));
+        assertEquals(CallbackInlining.SPLIT, policies.get("getField"));
+        assertEquals(CallbackInlining.INLINE, policies.get("invokeFun"));
+        assertNull(CallbackInlining.fromName("shared"));
+        assertTrue(CallbackInlining.parse(null).isEmpty());
+    }
+}
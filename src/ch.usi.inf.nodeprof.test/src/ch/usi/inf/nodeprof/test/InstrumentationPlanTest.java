@@ -0,0 +1,74 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.InstrumentationPlan;
+import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
+
+public class InstrumentationPlanTest {
+
+    @Test
+    public void testWithoutInputs() {
+        InstrumentationPlan plan = InstrumentationPlan.compute("test", EnumSet.of(ProfiledTagEnum.LITERAL, ProfiledTagEnum.VAR_READ));
+        assertArrayEquals(new ProfiledTagEnum[]{ProfiledTagEnum.VAR_READ, ProfiledTagEnum.LITERAL}, plan.getTags());
+        assertFalse(plan.hasExpressionTag());
+        assertFalse(plan.hasInputs());
+        assertNull(plan.getInputFilter());
+    }
+
+    @Test
+    public void testWithInputs() {
+        InstrumentationPlan plan = InstrumentationPlan.compute("test", EnumSet.of(ProfiledTagEnum.LITERAL, ProfiledTagEnum.PROPERTY_WRITE));
+        assertFalse(plan.hasExpressionTag());
+        assertTrue(plan.hasInputs());
+        assertNotNull(plan.getInputFilter());
+    }
+
+    @Test
+    public void testWithReads() {
+        // reads are told apart from the targets of calls only with the expression tag
+        InstrumentationPlan plan = InstrumentationPlan.compute("test", EnumSet.of(ProfiledTagEnum.PROPERTY_READ));
+        assertTrue(plan.hasExpressionTag());
+        assertTrue(plan.hasInputs());
+    }
+
+    @Test
+    public void testInputMasks() {
+        // no factory of the tags expecting inputs reads them
+        long[] masks = new long[ProfiledTagEnum.values().length];
+        masks[ProfiledTagEnum.LITERAL.ordinal()] = BaseEventHandlerNode.ALL_INPUTS;
+        InstrumentationPlan plan = InstrumentationPlan.compute("test", EnumSet.of(ProfiledTagEnum.LITERAL, ProfiledTagEnum.CF_BRANCH), masks);
+        assertFalse(plan.hasInputs());
+        assertNull(plan.getInputFilter());
+
+        masks[ProfiledTagEnum.CF_BRANCH.ordinal()] = 1L;
+        plan = InstrumentationPlan.compute("test", EnumSet.of(ProfiledTagEnum.LITERAL, ProfiledTagEnum.CF_BRANCH), masks);
+        assertTrue(plan.hasInputs());
+        assertNotNull(plan.getInputFilter());
+    }
+}
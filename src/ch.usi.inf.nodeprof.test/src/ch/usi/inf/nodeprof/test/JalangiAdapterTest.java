@@ -0,0 +1,612 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Source;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.usi.inf.nodeprof.NodeProfInstrument;
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.OverheadGovernor;
+import ch.usi.inf.nodeprof.jalangi.NodeProfJalangi;
+import ch.usi.inf.nodeprof.jalangi.factory.AbstractFactory;
+import ch.usi.inf.nodeprof.utils.AttachCostTracer;
+import ch.usi.inf.nodeprof.utils.AttachCostTracer.Phase;
+import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
+import ch.usi.inf.nodeprof.utils.GlobalObjectCache;
+import ch.usi.inf.nodeprof.utils.SourceMapping;
+
+/**
+ * Tests for the NodeProf-Jalangi API used by jalangi.js, without the Node.js parts of jalangi.js
+ */
+public class JalangiAdapterTest {
+    private Context context;
+    private NodeProfJalangi jalangi;
+
+    @Before
+    public void init() throws Exception {
+        GlobalObjectCache.reset();
+        this.context = Context.create("js");
+        context.eval("js", "");
+        NodeProfInstrument instrument = context.getEngine().getInstruments().get(NodeProfInstrument.ID).lookup(NodeProfInstrument.class);
+        context.enter();
+        try {
+            this.jalangi = new NodeProfJalangi(instrument.getInstrumenter(), instrument.getEnv());
+            this.jalangi.onLoad();
+        } finally {
+            context.leave();
+        }
+    }
+
+    @After
+    public void dispose() {
+        NodeProfInstrument.cleanAnalysis();
+        SourceMapping.reset();
+        context.close();
+    }
+
+    /**
+     * register the callbacks of the analysis object and instrument all sources evaluated
+     * afterwards
+     */
+    private void addAnalysis(String analysis, String... oncePerSite) {
+        StringBuilder once = new StringBuilder();
+        for (String name : oncePerSite) {
+            once.append("__jalangiAdapter.oncePerSite(analysis, '").append(name).append("');\n");
+        }
+        addConfiguredAnalysis(analysis, once.toString());
+    }
+
+    /**
+     * load another NodeProfJalangi analysis, whose adapter replaces __jalangiAdapter
+     */
+    private void loadJalangi() throws Exception {
+        NodeProfInstrument instrument = context.getEngine().getInstruments().get(NodeProfInstrument.ID).lookup(NodeProfInstrument.class);
+        context.enter();
+        try {
+            new NodeProfJalangi(instrument.getInstrumenter(), instrument.getEnv()).onLoad();
+        } finally {
+            context.leave();
+        }
+    }
+
+    /**
+     * @param config the adapter calls configuring the analysis before onReady
+     */
+    private void addConfiguredAnalysis(String analysis, String config) {
+        context.eval("js", "var analysis = " + analysis + ";\n" +
+                        "for (var key in analysis) {\n" +
+                        "  __jalangiAdapter.registerCallback(analysis, key, analysis[key]);\n" +
+                        "}\n" +
+                        config +
+                        "__jalangiAdapter.onReady(analysis, function (src) { return true; });");
+    }
+
+    private String eval(String name, String code) {
+        return context.eval(Source.newBuilder("js", code, name).buildLiteral()).toString();
+    }
+
+    @Test
+    public void testInstrumentationSwitch() {
+        eval("log.js", "var log = [];");
+        addAnalysis("{ getField: function (iid, base, offset, val) { log.push(offset); } }");
+        eval("test.js", "var o = {x: 1, y: 2};\n" +
+                        "function f() { return o.x; }\n" +
+                        "function g() { return o.y; }");
+
+        // switch of the analysis
+        assertEquals("x,y", eval("run1.js", "log = []; f(); g(); log.join()"));
+        assertEquals("false", eval("switch1.js", "__jalangiAdapter.instrumentationSwitch(false)"));
+        assertEquals("", eval("run2.js", "log = []; f(); g(); log.join()"));
+        assertEquals("true", eval("switch2.js", "__jalangiAdapter.instrumentationSwitch(true)"));
+        assertEquals("x,y", eval("run3.js", "log = []; f(); g(); log.join()"));
+
+        // switch of a function root
+        eval("switch3.js", "__jalangiAdapter.instrumentationSwitch(false, {function: f})");
+        assertEquals("y", eval("run4.js", "log = []; f(); g(); log.join()"));
+        eval("switch4.js", "__jalangiAdapter.instrumentationSwitch(true, {function: f})");
+
+        // switch of a callback or a tag
+        eval("switch5.js", "__jalangiAdapter.instrumentationSwitch(false, {tag: 'getField'})");
+        assertEquals("", eval("run5.js", "log = []; f(); g(); log.join()"));
+        assertEquals("false", eval("switch6.js", "__jalangiAdapter.instrumentationSwitch(undefined, {tag: 'PROPERTY_READ'})"));
+        eval("switch7.js", "__jalangiAdapter.instrumentationSwitch(true, {tag: 'PROPERTY_READ'})");
+        assertEquals("x,y", eval("run6.js", "log = []; f(); g(); log.join()"));
+
+        // switch of a source
+        eval("switch8.js", "__jalangiAdapter.instrumentationSwitch(false, {source: 'test.js'})");
+        assertEquals("", eval("run7.js", "log = []; f(); g(); log.join()"));
+        assertEquals("1", eval("run8.js", "log = []; o.x; log.length"));
+        eval("switch9.js", "__jalangiAdapter.instrumentationSwitch(true, {source: 'test.js'})");
+        assertEquals("x,y", eval("run9.js", "log = []; f(); g(); log.join()"));
+    }
+
+    @Test
+    public void testInstrumentationSwitchPerAnalysis() throws Exception {
+        // the scoped switches of an analysis do not switch the other analyses sharing the nodes
+        eval("log.js", "var log = [];");
+        addAnalysis("{ getField: function (iid, base, offset, val) { log.push('a' + offset); } }");
+        eval("first.js", "var first = __jalangiAdapter;");
+        loadJalangi();
+        addAnalysis("{ getField: function (iid, base, offset, val) { log.push('b' + offset); } }");
+        eval("test.js", "var o = {x: 1};\n" +
+                        "function f() { return o.x; }");
+        assertEquals("ax,bx", eval("run1.js", "log = []; f(); log.join()"));
+        eval("switch1.js", "first.instrumentationSwitch(false, {tag: 'getField'})");
+        assertEquals("bx", eval("run2.js", "log = []; f(); log.join()"));
+        eval("switch2.js", "__jalangiAdapter.instrumentationSwitch(false, {function: f})");
+        assertEquals("", eval("run3.js", "log = []; f(); log.join()"));
+        eval("switch3.js", "first.instrumentationSwitch(true, {tag: 'getField'})");
+        assertEquals("ax", eval("run4.js", "log = []; f(); log.join()"));
+    }
+
+    @Test
+    public void testNestedCallbacks() {
+        // property reads in the callback must not be reported to the analysis itself
+        eval("log.js", "var log = [];");
+        addAnalysis("{ getField: function (iid, base, offset, val) { log.push(base.x + ':' + offset); } }");
+        eval("test.js", "var o = {x: 1, y: 2};\n" +
+                        "function f() { var x = o.x; return o.y; }");
+        assertEquals("1:x,1:y", eval("run.js", "log = []; f(); log.join()"));
+    }
+
+    @Test
+    public void testChainedAnalyses() {
+        eval("log.js", "var log = [];");
+        addAnalysis("{ getField: function (iid, base, offset, val) { log.push('a:' + offset); } }");
+        eval("test.js", "var o = {x: 1};\n" +
+                        "function f() { return o.x; }");
+        assertEquals("a:x", eval("run1.js", "log = []; f(); log.join()"));
+
+        // the nodes already instrumented get the callbacks of the analysis added later
+        addAnalysis("{ getField: function (iid, base, offset, val) { log.push('b:' + offset); } }");
+        assertEquals("a:x,b:x", eval("run2.js", "log = []; f(); log.join()"));
+    }
+
+    @Test
+    public void testOncePerSite() {
+        eval("log.js", "var log = [];");
+        addAnalysis("{ functionEnter: function (iid, f) { log.push(f.name); } }", "functionEnter");
+        eval("test.js", "function f() {}\n" +
+                        "function g() {}");
+        assertEquals("f,g", eval("run1.js", "log = []; f(); f(); g(); f(); g(); log.join()"));
+        assertEquals("", eval("run2.js", "log = []; f(); g(); log.join()"));
+    }
+
+    @Test
+    public void testInitialRootRemovedOnEntry() {
+        // the initial root handler is removed on the first entry of a root, not after its nested
+        // executions
+        eval("log.js", "var log = [];");
+        addAnalysis("{ newSource: function (src, code) { log.push(src.name); } }");
+        eval("test.js", "function r(n) { return n > 0 ? r(n - 1) : 0; }");
+        long pre = ProfiledTagEnum.ROOT.getPreHitCount();
+        eval("run.js", "r(5)");
+        // the roots of run.js and r
+        assertEquals(2, ProfiledTagEnum.ROOT.getPreHitCount() - pre);
+    }
+
+    @Test
+    public void testOncePerSiteMixed() {
+        // functionExit shares the handler with functionEnter, thus the handler is not removed
+        eval("log.js", "var log = [];");
+        addAnalysis("{ functionEnter: function (iid, f) { log.push(f.name); },\n" +
+                        "  functionExit: function (iid) { log.push('exit'); } }", "functionEnter");
+        eval("test.js", "function f() {}");
+        assertEquals("f,exit,f,exit", eval("run.js", "log = []; f(); f(); log.join()"));
+    }
+
+    @Test
+    public void testSampling() {
+        eval("log.js", "var log = [];");
+        addConfiguredAnalysis("{ getField: function (iid, base, offset, val) { log.push(base[offset]); } }",
+                        "__jalangiAdapter.samplingRate(analysis, 'getField', 2, 3);\n");
+        eval("test.js", "function f(o) { return o.x; }");
+        assertEquals("1,2,5,8", eval("run1.js", "log = []; for (var i = 1; i <= 9; i++) f({x: i}); log.join()"));
+        // the countdown is per site
+        eval("test2.js", "function g(o) { return o.x; }");
+        assertEquals("1,2", eval("run2.js", "log = []; g({x: 1}); g({x: 2}); g({x: 3}); log.join()"));
+    }
+
+    @Test
+    public void testSamplingMixed() {
+        // getFieldPre is not sampled, getField keeps its own rate on the same sites
+        eval("log.js", "var log = [];");
+        addConfiguredAnalysis("{ getFieldPre: function (iid, base, offset) { log.push('pre'); },\n" +
+                        "  getField: function (iid, base, offset, val) { log.push(val); } }",
+                        "__jalangiAdapter.samplingRate(analysis, 'getField', 0, 2);\n");
+        eval("test.js", "function f(o) { return o.x; }");
+        assertEquals("pre,1,pre,pre,3", eval("run.js", "log = []; for (var i = 1; i <= 3; i++) f({x: i}); log.join()"));
+    }
+
+    @Test
+    public void testSamplingPerAnalysis() throws Exception {
+        // the sampled analysis keeps its rate on the sites shared with an analysis not sampled
+        eval("log.js", "var log = [];");
+        addConfiguredAnalysis("{ getField: function (iid, base, offset, val) { log.push('a' + val); } }",
+                        "__jalangiAdapter.samplingRate(analysis, 'getField', 0, 2);\n");
+        loadJalangi();
+        addAnalysis("{ getField: function (iid, base, offset, val) { log.push('b' + val); } }");
+        eval("test.js", "function f(o) { return o.x; }");
+        assertEquals("a1,b1,b2,a3,b3", eval("run.js", "log = []; for (var i = 1; i <= 3; i++) f({x: i}); log.join()"));
+    }
+
+    @Test
+    public void testSamplingPerTag() {
+        GlobalConfiguration.SAMPLING = "PROPERTY_READ=2";
+        try {
+            eval("log.js", "var log = [];");
+            addAnalysis("{ getField: function (iid, base, offset, val) { log.push(val); },\n" +
+                            "  putField: function (iid, base, offset, val) { log.push('w'); } }");
+            eval("test.js", "function f(o) { o.y = o.x; }");
+            assertEquals("1,w,w,3,w,w", eval("run.js", "log = []; for (var i = 1; i <= 4; i++) f({x: i}); log.join()"));
+        } finally {
+            GlobalConfiguration.SAMPLING = "";
+        }
+    }
+
+    @Test
+    public void testInlining() {
+        // the callbacks get the same events and can replace results with every policy
+        eval("log.js", "var log = [];");
+        addConfiguredAnalysis("{ getField: function (iid, base, offset, val) { log.push(val); if (offset === 'x') return {result: val * 10}; },\n" +
+                        "  putField: function (iid, base, offset, val) { log.push('w' + val); },\n" +
+                        "  unary: function (iid, op, left, result) { log.push(op); } }",
+                        "__jalangiAdapter.inlining(analysis, 'getField', 'boundary');\n" +
+                                        "__jalangiAdapter.inlining(analysis, 'putField', 'split');\n" +
+                                        "__jalangiAdapter.inlining(analysis, 'unary', 'inline');\n" +
+                                        "__jalangiAdapter.inlining(analysis, 'binary', 'unknown');\n");
+        eval("test.js", "function f(o) { o.y = -o.x; return o.y; }");
+        assertEquals("-10,-20", eval("run.js", "log = []; var r = [f({x: 1}), f({x: 2})]; r.join()"));
+        assertEquals("1,-,w-10,-10,2,-,w-20,-20", eval("run2.js", "log.join()"));
+    }
+
+    @Test
+    public void testInliningOption() {
+        GlobalConfiguration.CALLBACK_INLINING = "*=boundary,putField=split";
+        try {
+            eval("log.js", "var log = [];");
+            addAnalysis("{ getField: function (iid, base, offset, val) { log.push(val); },\n" +
+                            "  putField: function (iid, base, offset, val) { log.push('w'); } }");
+            eval("test.js", "function f(o) { o.y = o.x; }");
+            assertEquals("1,w,2,w", eval("run.js", "log = []; for (var i = 1; i <= 2; i++) f({x: i}); log.join()"));
+        } finally {
+            GlobalConfiguration.CALLBACK_INLINING = "";
+        }
+    }
+
+    @Test
+    public void testBatch() {
+        // the batched callbacks are not called, their events are delivered to onBatch
+        eval("log.js", "var log = []; var ids = [];");
+        addConfiguredAnalysis("{ getField: function () { log.push('called'); },\n" +
+                        "  putField: function () { log.push('called'); } }",
+                        "__jalangiAdapter.batch(analysis, ['putField', 'getField'], new Int32Array(6 * 4), function (events, count) {\n" +
+                                        "  log.push(count);\n" +
+                                        "  for (var i = 0; i < count; i++) { ids.push(events[6 * i + 1]); o.x; }\n" +
+                                        "});\n");
+        eval("test.js", "var o = {x: 1};\n" +
+                        "function f() { o.y = o.x; }");
+        assertEquals("4,4", eval("run1.js", "log = []; ids = []; for (var i = 0; i < 5; i++) f(); log.join()"));
+        assertEquals("1,0,1,0,1,0,1,0", eval("ids1.js", "ids.join()"));
+        assertEquals("2", eval("run2.js", "log = []; ids = []; __jalangiAdapter.flushBatch(analysis); log.join()"));
+        assertEquals("1,0", eval("ids2.js", "ids.join()"));
+        assertEquals("", eval("run3.js", "log = []; __jalangiAdapter.flushBatch(analysis); log.join()"));
+    }
+
+    @Test
+    public void testBatchInvoke() {
+        // the arguments of a batched callback are not computed, whatever it declares
+        eval("log.js", "var log = [];");
+        addConfiguredAnalysis("{ invokeFunPre: function (iid, f, base, args, isConstructor, isMethod, scope) { log.push('called'); } }",
+                        "__jalangiAdapter.batch(analysis, ['invokeFunPre'], new Int32Array(6), function (events, count) {\n" +
+                                        "  log.push(events[1]);\n" +
+                                        "});\n");
+        eval("test.js", "function g(a) { return a; }\n" +
+                        "function f() { return g(1); }");
+        assertEquals("0,0,0,0,0,0", eval("run.js", "log = []; for (var i = 0; i < 3; i++) f(); '' + log"));
+    }
+
+    @Test
+    public void testBatchRecords() {
+        // the records tell the tag of the event and hold its primitive value
+        eval("log.js", "var log = [];");
+        addConfiguredAnalysis("{ invokeFun: function () { log.push('called'); },\n" +
+                        "  binary: function () { log.push('called'); } }",
+                        "var events = new Int32Array(6 * 16);\n" +
+                                        "var values = new Float64Array(events.buffer);\n" +
+                                        "__jalangiAdapter.batch(analysis, ['invokeFun', 'binary'], events, function (events, count) {\n" +
+                                        "  for (var i = 0; i < count; i++) {\n" +
+                                        "    log.push(events[6 * i + 1] + ':' + events[6 * i + 2] + ':' + events[6 * i + 3] + ':' + values[3 * i + 2]);\n" +
+                                        "  }\n" +
+                                        "});\n");
+        eval("test.js", "function F() { this.x = 1; }\n" +
+                        "function g(a) { return a * 0.5; }\n" +
+                        "function f() { g(3); new F(); }");
+        eval("run.js", "f(); __jalangiAdapter.flushBatch(analysis);");
+        String binary = "1:" + ProfiledTagEnum.BINARY.ordinal() + ":5:1.5";
+        String call = "0:" + ProfiledTagEnum.INVOKE.ordinal() + ":5:1.5";
+        String allocation = "0:" + ProfiledTagEnum.NEW.ordinal() + ":11:0";
+        String undefinedCall = "0:" + ProfiledTagEnum.INVOKE.ordinal() + ":1:0";
+        // the call of f ends after the calls in f
+        assertEquals(binary + "," + call + "," + allocation + "," + undefinedCall, eval("log.js", "log.join()"));
+    }
+
+    @Test
+    public void testGovernor() {
+        GlobalConfiguration.GOVERNOR_SITE_BUDGET = 1;
+        try {
+            // the slow callback of the site is timed once in its first MEASURE_PERIOD calls
+            eval("log.js", "var log = [];");
+            addAnalysis("{ getField: function (iid, base, offset, val) { log.push(val); var t = Date.now(); while (Date.now() - t < 2); } }");
+            eval("test.js", "function f(o) { return o.x; }");
+            int calls = 2 * OverheadGovernor.MEASURE_PERIOD;
+            assertEquals(String.valueOf(OverheadGovernor.MEASURE_PERIOD), eval("run.js", "log = []; for (var i = 0; i < " + calls + "; i++) f({x: i}); log.length"));
+            assertEquals(1, jalangi.getGovernor().getThrottled(ProfiledTagEnum.PROPERTY_READ));
+        } finally {
+            GlobalConfiguration.GOVERNOR_SITE_BUDGET = 0;
+            jalangi.getGovernor().report();
+        }
+    }
+
+    @Test
+    public void testGovernorWindow() {
+        GlobalConfiguration.GOVERNOR_TAG_BUDGET = 8;
+        try {
+            OverheadGovernor governor = new OverheadGovernor();
+            long ms = 1000_000L;
+            // the tag exceeds its budget, but only the expensive sites are throttled
+            assertFalse(governor.exceedsBudget(ProfiledTagEnum.PROPERTY_READ, 5, 5 * ms, 5 * ms));
+            assertFalse(governor.exceedsBudget(ProfiledTagEnum.PROPERTY_READ, 5, ms / 2, 4 * ms));
+            assertTrue(governor.exceedsBudget(ProfiledTagEnum.PROPERTY_READ, 5, 6 * ms, ms));
+            // the other tags have their own budget
+            assertFalse(governor.exceedsBudget(ProfiledTagEnum.PROPERTY_WRITE, 5, 6 * ms, 6 * ms));
+            // the time of the previous window does not count
+            assertFalse(governor.exceedsBudget(ProfiledTagEnum.PROPERTY_READ, 6, 6 * ms, 6 * ms));
+            assertTrue(governor.exceedsBudget(ProfiledTagEnum.PROPERTY_READ, 6, 9 * ms, 3 * ms));
+        } finally {
+            GlobalConfiguration.GOVERNOR_TAG_BUDGET = 0;
+        }
+    }
+
+    @Test
+    public void testGovernorSampling() {
+        GlobalConfiguration.GOVERNOR_SITE_BUDGET = 1;
+        GlobalConfiguration.GOVERNOR_THROTTLE_PERIOD = 4;
+        try {
+            eval("log.js", "var log = [];");
+            addAnalysis("{ getField: function (iid, base, offset, val) { log.push(val); var t = Date.now(); while (Date.now() - t < 2); } }");
+            eval("test.js", "function f(o) { return o.x; }");
+            int calls = 2 * OverheadGovernor.MEASURE_PERIOD;
+            // all calls up to the throttling, then one in 4
+            int expected = OverheadGovernor.MEASURE_PERIOD + OverheadGovernor.MEASURE_PERIOD / 4;
+            assertEquals(String.valueOf(expected), eval("run.js", "log = []; for (var i = 0; i < " + calls + "; i++) f({x: i}); log.length"));
+        } finally {
+            GlobalConfiguration.GOVERNOR_SITE_BUDGET = 0;
+            GlobalConfiguration.GOVERNOR_THROTTLE_PERIOD = 0;
+            jalangi.getGovernor().report();
+        }
+    }
+
+    @Test
+    public void testArguments() {
+        // every call gets its own arguments array, also if the number of arguments changes
+        eval("log.js", "var log = []; var on = false;");
+        addAnalysis("{ invokeFunPre: function (iid, f, base, args) { if (on) log.push(args); },\n" +
+                        "  functionEnter: function (iid, f, dis, args) { if (on) log.push(args); } }");
+        eval("test.js", "function f(a, b) {}\n" +
+                        "on = true;\n" +
+                        "for (var i = 0; i < 3; i++) {\n" +
+                        "  f(i, 'x');\n" +
+                        "}\n" +
+                        "f();\n" +
+                        "on = false;");
+        assertEquals("0,x|0,x|1,x|1,x|2,x|2,x||", eval("run.js", "log.map(function (a) { return a.join(); }).join('|')"));
+    }
+
+    @Test
+    public void testArity() {
+        // the parameters after the declared ones are not computed, unless the callback may read them
+        eval("log.js", "var log = []; var on = false;");
+        addAnalysis("{ invokeFunPre: function (iid, f, base, args) { if (on) log.push('pre:' + args.length); },\n" +
+                        "  invokeFun: (iid, f) => { if (on) log.push('post:' + typeof f); },\n" +
+                        "  functionEnter: function () { if (on) log.push('enter:' + arguments[3].length); },\n" +
+                        "  builtinEnter: function (name, f, dis, args = null) { if (on && name === 'Math.max') log.push('builtin:' + args.length); } }");
+        eval("test.js", "function f(a, b) {}\n" +
+                        "on = true;\n" +
+                        "f(1, 2);\n" +
+                        "Math.max(1, 2, 3);\n" +
+                        "on = false;");
+        assertEquals("pre:2,enter:2,post:function,pre:3,builtin:3,post:function", eval("run.js", "log.join()"));
+    }
+
+    @Test
+    public void testArityRestAndDefault() {
+        // the callbacks with rest or default parameters get all parameters
+        eval("log.js", "var log = []; var on = false;");
+        addAnalysis("{ invokeFunPre: function (iid, f, base = null, ...rest) { if (on) log.push('pre:' + rest[0].length); },\n" +
+                        "  invokeFun: (iid, f = null, ...[base, args]) => { if (on) log.push('post:' + args.length); } }");
+        eval("test.js", "function f(a, b) {}\n" +
+                        "on = true;\n" +
+                        "f(1, 2);\n" +
+                        "on = false;");
+        assertEquals("pre:2,post:2", eval("run.js", "log.join()"));
+    }
+
+    @Test
+    public void testMayReadMoreParameters() {
+        assertFalse(AbstractFactory.mayReadMoreParameters("function (iid, f) { return f; }"));
+        assertFalse(AbstractFactory.mayReadMoreParameters("x => x + 1"));
+        assertFalse(AbstractFactory.mayReadMoreParameters("getField(iid, base) { base.x = 1; }"));
+        assertFalse(AbstractFactory.mayReadMoreParameters("function (arguments1, myeval) { return iid == 1 || iid / 2; }"));
+        assertTrue(AbstractFactory.mayReadMoreParameters("function (iid) { return arguments[1]; }"));
+        assertTrue(AbstractFactory.mayReadMoreParameters("function (iid) { return eval('arguments[1]'); }"));
+        // the check is conservative, comments and literals count
+        assertTrue(AbstractFactory.mayReadMoreParameters("function (iid) { // arguments\n return iid; }"));
+        assertTrue(AbstractFactory.mayReadMoreParameters("function (iid) { log.push('...'); }"));
+        assertTrue(AbstractFactory.mayReadMoreParameters("function (iid, f = 'x') {}"));
+        assertTrue(AbstractFactory.mayReadMoreParameters("(iid, ...rest) => rest"));
+        assertTrue(AbstractFactory.mayReadMoreParameters("async function (iid, {f} = {}) {}"));
+    }
+
+    @Test
+    public void testDeactivateAcrossRegistrations() throws Exception {
+        // the deactivated and once per site handlers stay deactivated when the bindings are
+        // attached again for the callbacks of another analysis
+        eval("log.js", "var log = [];");
+        addAnalysis("{ getField: function (iid, base, offset, val) { log.push('a' + offset); if (offset === 'x') return {deactivate: true}; }," +
+                        "  putField: function (iid, base, offset, val) { log.push('p' + offset); } }", "putField");
+        eval("test.js", "var o = {x: 1, y: 2};\n" +
+                        "function f() { var x = o.x; o.z = o.y; }");
+        assertEquals("ax,ay,pz", eval("run1.js", "log = []; f(); log.join()"));
+        assertEquals("ay", eval("run2.js", "log = []; f(); log.join()"));
+        loadJalangi();
+        addAnalysis("{ getField: function (iid, base, offset, val) { log.push('b' + offset); } }");
+        assertEquals("bx,ay,by", eval("run3.js", "log = []; f(); log.join()"));
+    }
+
+    @Test
+    public void testDeactivateSentinel() {
+        // J$.DEACTIVATE and {deactivate: true} deactivate the site, {result: x} substitutes the result
+        eval("log.js", "var log = []; var on = false; var DEACTIVATE = __jalangiAdapter.getDeactivate();");
+        addAnalysis("{ invokeFun: function (iid, f, base, args, result) {\n" +
+                        "    if (!on || f.name === 'push') return;\n" +
+                        "    log.push(f.name);\n" +
+                        "    if (f.name === 'f') return DEACTIVATE;\n" +
+                        "    if (f.name === 'g') return {deactivate: true};\n" +
+                        "    if (f.name === 'h') return {result: result + 1};\n" +
+                        "  } }");
+        eval("test.js", "function f() { return 1; }\n" +
+                        "function g() { return 2; }\n" +
+                        "function h() { return 3; }\n" +
+                        "var results = [];\n" +
+                        "on = true;\n" +
+                        "for (var i = 0; i < 3; i++) {\n" +
+                        "  results.push(f(), g(), h());\n" +
+                        "}\n" +
+                        "on = false;");
+        assertEquals("f,g,h,h,h", eval("run.js", "log.join()"));
+        assertEquals("1,2,4,1,2,4,1,2,4", eval("run2.js", "results.join()"));
+        assertEquals("true", eval("run3.js", "Object.isFrozen(DEACTIVATE) && DEACTIVATE.deactivate"));
+    }
+
+    @Test
+    public void testExceptional() {
+        // the exits by exception get the error objects thrown by the user and by the runtime
+        eval("log.js", "var log = []; var on = false;");
+        addAnalysis("{ functionExit: function (iid, ret, exc) { if (on) log.push('exit:' + (exc.exception ? exc.exception.message : '-')); } }");
+        eval("test.js", "function f(x) { if (x) throw new Error('e' + x); return x; }\n" +
+                        "function g() { return null.x; }\n" +
+                        "on = true;\n" +
+                        "for (var i = 0; i < 3; i++) {\n" +
+                        "  try { f(i); } catch (e) {}\n" +
+                        "}\n" +
+                        "try { g(); } catch (e) {}\n" +
+                        "on = false;");
+        assertEquals("exit:-,exit:e1,exit:e2,exit:" + eval("msg.js", "try { null.x; } catch (e) { e.message }"), eval("run.js", "log.join()"));
+    }
+
+    @Test
+    public void testReplaceNested() {
+        // the replaced results are the inputs of their parents only, also on every execution
+        eval("log.js", "var log = []; var on = false;");
+        addAnalysis("{ literal: function (iid, val) { if (on && val === 1) return {result: 5}; },\n" +
+                        "  binary: function (iid, op, left, right, result) { if (on && op === '+') log.push(left + op + right); } }");
+        eval("test.js", "var results = [];\n" +
+                        "on = true;\n" +
+                        "for (var i = 0; i < 3; i++) {\n" +
+                        "  results.push(1 + i + 3);\n" +
+                        "}\n" +
+                        "on = false;");
+        assertEquals("8,9,10", eval("run.js", "results.join()"));
+        assertEquals("5+0,5+3,5+1,6+3,5+2,7+3", eval("run2.js", "log.join()"));
+    }
+
+    @Test
+    public void testApiDispatch() {
+        // the IIDs given as int (fast path) and as string (slow path) give the same locations
+        eval("log.js", "var log = []; var on = false;");
+        addAnalysis("{ getField: function (iid, base, offset, val) {\n" +
+                        "    if (on) log.push(__jalangiAdapter.iidToLocation(iid) === __jalangiAdapter.iidToLocation('' + iid));\n" +
+                        "    if (on) log.push(__jalangiAdapter.iidToCode(iid));\n" +
+                        "  } }");
+        eval("test.js", "var o = {x: 1};\n" +
+                        "on = true;\n" +
+                        "for (var i = 0; i < 2; i++) {\n" +
+                        "  o.x;\n" +
+                        "}\n" +
+                        "on = false;");
+        assertEquals("true,o.x,true,o.x", eval("run.js", "log.join()"));
+        assertEquals("jalangi-adapter", eval("valueOf.js", "__jalangiAdapter.valueOf()"));
+        assertEquals("0", eval("unknown.js", "__jalangiAdapter.unknownMember(1)"));
+        assertEquals("undefined", eval("missing.js", "typeof __jalangiAdapter.iidToLocation(123456789)"));
+    }
+
+    @Test
+    public void testIIDTable() {
+        // the rows of the table match the source objects of the IIDs
+        eval("log.js", "var iids = []; var on = false;");
+        addAnalysis("{ getField: function (iid) { if (on) iids.push(iid); } }");
+        eval("test.js", "var o = {x: 1};\n" +
+                        "on = true;\n" +
+                        "o.x;\n" +
+                        "  o\n" +
+                        "   .x;\n" +
+                        "on = false;");
+        assertEquals("true", eval("run.js", "var count = __jalangiAdapter.iidCount();\n" +
+                        "var table = new Int32Array(count * 7);\n" +
+                        "var rows = __jalangiAdapter.iidTable(table, 1);\n" +
+                        "var sources = __jalangiAdapter.iidSources();\n" +
+                        "rows === count && iids.length === 2 && iids.every(function (iid) {\n" +
+                        "  var row = (iid - 1) * 7;\n" +
+                        "  var expected = __jalangiAdapter.iidToSourceObject(iid);\n" +
+                        "  return sources[table[row]].name === expected.name && table[row + 1] === expected.loc.start.line &&\n" +
+                        "    table[row + 2] === expected.loc.start.column && table[row + 3] === expected.loc.end.line &&\n" +
+                        "    table[row + 4] === expected.loc.end.column && table[row + 5] === expected.range[0] && table[row + 6] === expected.range[1];\n" +
+                        "})"));
+        // the rows are bounded by the size of the table
+        assertEquals("1", eval("run2.js", "__jalangiAdapter.iidTable(new Int32Array(10), 1)"));
+        assertEquals("0", eval("run3.js", "__jalangiAdapter.iidTable(new Int32Array(7), __jalangiAdapter.iidCount() + 1)"));
+    }
+
+    @Test
+    public void testAttachCost() {
+        GlobalConfiguration.TRACE_ATTACH_COST = true;
+        try {
+            eval("log.js", "var log = [];");
+            addAnalysis("{ getField: function (iid, base, offset, val) { log.push(offset); } }");
+            eval("cost.js", "var o = {x: 1};\n" +
+                            "function f() { return o.x; }\n" +
+                            "f();");
+            assertTrue(AttachCostTracer.getNodes("cost.js") > 0);
+            assertTrue(AttachCostTracer.getNanos("cost.js", Phase.CREATE) > 0);
+            assertTrue(AttachCostTracer.getNanos("cost.js", Phase.IID) > 0);
+            assertTrue(AttachCostTracer.getNanos("cost.js", Phase.ATTRIBUTES) > 0);
+            assertEquals(0, AttachCostTracer.getNodes("log.js"));
+        } finally {
+            GlobalConfiguration.TRACE_ATTACH_COST = false;
+            AttachCostTracer.report();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Source;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.frame.FrameDescriptor;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.instrumentation.EventContext;
+import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.SourceSectionFilter;
+import com.oracle.truffle.api.instrumentation.StandardTags;
+import com.oracle.truffle.js.nodes.instrumentation.JSTags;
+
+import ch.usi.inf.nodeprof.NodeProfInstrument;
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.ProfilerExecutionEventNode;
+import ch.usi.inf.nodeprof.analysis.SamplingRate;
+import ch.usi.inf.nodeprof.handlers.PropertyReadEventHandler;
+import ch.usi.inf.nodeprof.utils.GlobalObjectCache;
+
+/**
+ * Tests for the state of the executions of ProfilerExecutionEventNode kept in the frames, for a
+ * site executed with frames of several descriptors (e.g., of a split or cloned root)
+ */
+public class ProfilerExecutionEventNodeTest {
+    private Context context;
+    private Instrumenter instrumenter;
+    private final List<String> log = new ArrayList<>();
+
+    /**
+     * the event node of the property read of test.js, whose events can also be sent with frames of
+     * other descriptors
+     */
+    private static final class TestEventNode extends ProfilerExecutionEventNode {
+        private TestEventNode(EventContext context, PropertyReadEventHandler child) {
+            super(ProfiledTagEnum.PROPERTY_READ, context, child);
+        }
+
+        private void enter(VirtualFrame frame) {
+            onEnter(frame);
+        }
+
+        private void input(VirtualFrame frame, Object receiver) {
+            onInputValue(frame, null, 0, receiver);
+        }
+
+        private void exit(VirtualFrame frame, Object result) {
+            onReturnValue(frame, result);
+        }
+    }
+
+    private TestEventNode node;
+
+    @Before
+    public void init() {
+        GlobalObjectCache.reset();
+        this.context = Context.create("js");
+        context.eval("js", "");
+        this.instrumenter = context.getEngine().getInstruments().get(NodeProfInstrument.ID).lookup(NodeProfInstrument.class).getInstrumenter();
+    }
+
+    @After
+    public void dispose() {
+        context.close();
+    }
+
+    /**
+     * instrument the property read of test.js with a handler reading its receiver by index and
+     * logging it with the result
+     */
+    private void instrument(SamplingRate rate) {
+        instrumenter.attachExecutionEventFactory(
+                        SourceSectionFilter.newBuilder().tagIs(JSTags.ReadPropertyTag.class).sourceIs(source -> "test.js".equals(source.getName())).build(),
+                        SourceSectionFilter.newBuilder().tagIs(StandardTags.ExpressionTag.class, JSTags.InputNodeTag.class).build(),
+                        eventContext -> {
+                            PropertyReadEventHandler handler = new PropertyReadEventHandler(eventContext) {
+                                @Override
+                                public boolean usesIndexedInputs() {
+                                    return true;
+                                }
+
+                                @Override
+                                public Object executePost(VirtualFrame frame, Object result, Object[] inputs) {
+                                    if (!isGlobal(frame, inputs)) {
+                                        Object receiver = getReceiver(frame, inputs);
+                                        log.add((receiver instanceof String ? receiver : receiver == null ? "null" : "js") + "=" + result);
+                                    }
+                                    return null;
+                                }
+                            };
+                            if (rate != null) {
+                                handler.setSamplingRate(rate);
+                            }
+                            TestEventNode eventNode = new TestEventNode(eventContext, handler);
+                            if ("x".equals(handler.getProperty().toString())) {
+                                node = eventNode;
+                            }
+                            return eventNode;
+                        });
+        context.eval(Source.newBuilder("js", "var o = {x: 1};\n" +
+                        "function f() { return o.x; }\n" +
+                        "f();", "test.js").buildLiteral());
+    }
+
+    private static VirtualFrame createFrame() {
+        return Truffle.getRuntime().createVirtualFrame(new Object[0], FrameDescriptor.newBuilder().build());
+    }
+
+    @Test
+    public void testTwoDescriptors() {
+        instrument(null);
+        // the executions in frames of other descriptors get their own slots, also if interleaved
+        VirtualFrame first = createFrame();
+        VirtualFrame second = createFrame();
+        node.enter(first);
+        node.enter(second);
+        node.input(first, "a");
+        node.input(second, "b");
+        node.exit(second, 3);
+        node.exit(first, 2);
+        assertEquals("[js=1, b=3, a=2]", log.toString());
+    }
+
+    @Test
+    public void testSamplingTwoDescriptors() {
+        instrument(SamplingRate.create(0, 2));
+        // the countdown is per site, also across descriptors
+        VirtualFrame frame = createFrame();
+        for (String receiver : new String[]{"a", "b", "c"}) {
+            node.enter(frame);
+            node.input(frame, receiver);
+            node.exit(frame, 0);
+        }
+        assertEquals("[js=1, b=0]", log.toString());
+    }
+}
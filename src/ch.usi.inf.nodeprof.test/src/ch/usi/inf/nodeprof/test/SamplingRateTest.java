@@ -0,0 +1,54 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumMap;
+
+import org.junit.Test;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.SampleCountdown;
+import ch.usi.inf.nodeprof.analysis.SamplingRate;
+
+public class SamplingRateTest {
+
+    @Test
+    public void testParse() {
+        EnumMap<ProfiledTagEnum, SamplingRate> rates = SamplingRate.parse("PROPERTY_READ=100, INVOKE=10:1000,UNKNOWN=2,NEW=x,BINARY=1");
+        assertEquals(3, rates.size());
+        assertEquals(SamplingRate.create(0, 100), rates.get(ProfiledTagEnum.PROPERTY_READ));
+        assertEquals(SamplingRate.create(10, 1000), rates.get(ProfiledTagEnum.INVOKE));
+        assertTrue(rates.get(ProfiledTagEnum.BINARY).isAll());
+        assertTrue(SamplingRate.parse("").isEmpty());
+    }
+
+    @Test
+    public void testCountdown() {
+        // the first executions, then one in period
+        SampleCountdown countdown = new SampleCountdown(SamplingRate.create(2, 3));
+        StringBuilder sampled = new StringBuilder();
+        for (int i = 1; i <= 9; i++) {
+            if (countdown.sample()) {
+                sampled.append(i).append(' ');
+            }
+        }
+        assertEquals("1 2 5 8 ", sampled.toString());
+    }
+}
@@ -0,0 +1,194 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.oracle.truffle.api.source.Source;
+import com.oracle.truffle.api.source.SourceSection;
+
+import ch.usi.inf.nodeprof.utils.ChunkedArray;
+import ch.usi.inf.nodeprof.utils.PackedSections;
+import ch.usi.inf.nodeprof.utils.SourceMapping;
+
+public class SourceMappingTest {
+
+    @After
+    public void reset() {
+        SourceMapping.reset();
+    }
+
+    @Test
+    public void testConcurrentIIDs() throws Exception {
+        // the threads instrumenting the same sections get the same IIDs, and the IIDs are dense
+        SourceMapping.reset();
+        int sections = 5000;
+        Source source = Source.newBuilder("js", new String(new char[sections + 1]).replace('\0', 'x'), "test.js").build();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<int[]>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                results.add(pool.submit(() -> {
+                    int[] iids = new int[sections];
+                    for (int i = 0; i < sections; i++) {
+                        iids[i] = SourceMapping.getIIDForSourceSection(source.createSection(i, 1));
+                    }
+                    return iids;
+                }));
+            }
+            int[] first = results.get(0).get();
+            for (Future<int[]> result : results) {
+                int[] iids = result.get();
+                for (int i = 0; i < sections; i++) {
+                    assertEquals(first[i], iids[i]);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(sections, SourceMapping.getIIDCount());
+        assertEquals(1, SourceMapping.getSourceCount());
+        for (int iid = 1; iid <= sections; iid++) {
+            SourceSection section = SourceMapping.getSourceSectionForIID(iid);
+            assertEquals(iid, SourceMapping.getIIDForSourceSection(section));
+        }
+        assertNull(SourceMapping.getSourceSectionForIID(sections + 1));
+        assertNull(SourceMapping.getLocationForIID(0));
+    }
+
+    @Test
+    public void testPackedSections() {
+        // the sections are created again from their sources and ranges, equal to the instrumented
+        PackedSections packed = new PackedSections();
+        Source a = Source.newBuilder("js", "var x = 1;\nx + 2;\n", "a.js").build();
+        Source b = Source.newBuilder("js", "f();", "b.js").build();
+        int n = 0;
+        for (int length = 0; length < 6; length++) {
+            for (int i = 0; i + length <= a.getLength(); i++) {
+                assertEquals(++n, packed.getIID(a.createSection(i, length)));
+            }
+        }
+        int unavailable = packed.getIID(b.createUnavailableSection());
+        int nullIID = packed.getIID(null);
+        assertEquals(n + 2, packed.getCount());
+        assertEquals(2, packed.getSourceCount());
+        for (int iid = 1; iid <= n; iid++) {
+            SourceSection section = packed.get(iid);
+            assertSame(a, section.getSource());
+            assertEquals(iid, packed.getIID(section));
+            assertEquals(0, packed.getSourceIndex(iid));
+        }
+        assertEquals(a.createSection(11, 5), packed.get(packed.lookup(a.createSection(11, 5))));
+        assertEquals(2, packed.get(packed.lookup(a.createSection(11, 5))).getStartLine());
+        assertFalse(packed.get(unavailable).isAvailable());
+        assertEquals(unavailable, packed.getIID(b.createUnavailableSection()));
+        assertEquals(1, packed.getSourceIndex(unavailable));
+        assertNull(packed.get(nullIID));
+        assertEquals(nullIID, packed.getIID(null));
+        assertEquals(0, packed.lookup(b.createSection(0, 1)));
+        assertEquals(n + 2, packed.getCount());
+    }
+
+    @Test
+    public void testConcurrentPackedSections() throws Exception {
+        // the threads allocating the sections in different orders, while the index grows, agree
+        // on their IIDs and the IIDs are dense
+        PackedSections packed = new PackedSections();
+        int sections = 20000;
+        int[] first;
+        Source source = Source.newBuilder("js", new String(new char[sections + 1]).replace('\0', 'x'), "test.js").build();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<int[]>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                // coprime with sections, to visit every section
+                final int stride = new int[]{1, 3, 7, 9}[t];
+                results.add(pool.submit(() -> {
+                    int[] iids = new int[sections + 1];
+                    for (int k = 0; k < sections; k++) {
+                        int i = (int) ((long) k * stride % sections);
+                        iids[i] = packed.getIID(source.createSection(i, 1));
+                    }
+                    iids[sections] = packed.getIID(null);
+                    return iids;
+                }));
+            }
+            first = results.get(0).get();
+            for (Future<int[]> result : results) {
+                assertArrayEquals(first, result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(sections + 1, packed.getCount());
+        boolean[] seen = new boolean[sections + 2];
+        for (int i = 0; i <= sections; i++) {
+            int iid = first[i];
+            assertFalse(seen[iid]);
+            seen[iid] = true;
+            assertEquals(iid, packed.lookup(i < sections ? packed.get(iid) : null));
+        }
+    }
+
+    @Test
+    public void testChunkedArray() {
+        ChunkedArray<Integer> array = new ChunkedArray<>();
+        assertNull(array.get(-1));
+        assertNull(array.get(1 << 20));
+        for (int i = 0; i < 100_000; i += 7) {
+            array.set(i, i);
+        }
+        for (int i = 0; i < 100_000; i++) {
+            assertEquals(i % 7 == 0 ? Integer.valueOf(i) : null, array.get(i));
+        }
+        Integer value = 42;
+        array.set(3, value);
+        assertSame(value, array.get(3));
+        array.clear();
+        assertNull(array.get(3));
+    }
+
+    @Test
+    public void testCachedLocations() {
+        // the locations and the code are cached once asked for
+        SourceMapping.reset();
+        Source source = Source.newBuilder("js", "var x = 1;", "c.js").build();
+        int iid = SourceMapping.getIIDForSourceSection(source.createSection(4, 5));
+        assertNull(SourceMapping.getCachedLocationForIID(iid));
+        assertNull(SourceMapping.getCachedCodeForIID(iid));
+        String location = SourceMapping.getLocationForIID(iid);
+        assertSame(location, SourceMapping.getCachedLocationForIID(iid));
+        assertEquals("x = 1", SourceMapping.getCodeForIID(iid));
+        assertEquals("x = 1", SourceMapping.getCachedCodeForIID(iid));
+        SourceMapping.reset();
+        assertNull(SourceMapping.getCachedLocationForIID(iid));
+        assertNull(SourceMapping.getCachedCodeForIID(iid));
+    }
+}
@@ -0,0 +1,324 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+
+import org.graalvm.polyglot.Context;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.usi.inf.nodeprof.NodeProfInstrument;
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.AnalysisFilterSourceList;
+import ch.usi.inf.nodeprof.analysis.NodeProfAnalysis;
+import ch.usi.inf.nodeprof.jalangi.NodeProfJalangi;
+import ch.usi.inf.nodeprof.trace.TraceDispatcher;
+import ch.usi.inf.nodeprof.trace.TraceFormat;
+import ch.usi.inf.nodeprof.trace.TraceReader;
+import ch.usi.inf.nodeprof.trace.TraceRecorder;
+import ch.usi.inf.nodeprof.trace.TraceWriter;
+import ch.usi.inf.nodeprof.utils.GlobalObjectCache;
+import ch.usi.inf.nodeprof.utils.SourceMapping;
+
+/**
+ * Tests for recording a trace and replaying it offline
+ */
+public class TraceTest {
+    private Context context;
+    private File dir;
+
+    @Before
+    public void init() throws IOException {
+        this.context = Context.create("js");
+        context.eval("js", "");
+        this.dir = Files.createTempDirectory("nodeprof-trace").toFile();
+    }
+
+    @After
+    public void dispose() {
+        SourceMapping.reset();
+        context.close();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * sums the results of the calls and counts the events per tag
+     */
+    private static class CallSums implements TraceReader.Listener {
+        private long calls = 0;
+        private long sum = 0;
+        private final HashMap<ProfiledTagEnum, Long> events = new HashMap<>();
+        private final HashMap<Integer, Long> sites = new HashMap<>();
+
+        @Override
+        public void onEvent(int iid, ProfiledTagEnum tag, int kind, int type, long payload) {
+            events.merge(tag, 1L, Long::sum);
+            sites.merge(iid, 1L, Long::sum);
+            if (tag == ProfiledTagEnum.INVOKE && kind == TraceFormat.POST) {
+                assertEquals(TraceFormat.INT, type);
+                calls++;
+                sum += payload;
+            }
+        }
+    }
+
+    @Test
+    public void testRecordAndReplay() throws IOException {
+        NodeProfInstrument instrument = context.getEngine().getInstruments().get(NodeProfInstrument.ID).lookup(NodeProfInstrument.class);
+        // small segments to replay several shards
+        TraceRecorder recorder = new TraceRecorder(instrument.getInstrumenter(), instrument.getEnv(), new TraceWriter(dir, 4096));
+        recorder.initCallbacks();
+        recorder.analysisReady(AnalysisFilterSourceList.makeSingleIncludeFilter("Unnamed"));
+        context.eval("js", "function f(x) { return x + 1; }\n" +
+                        "for (var i = 0; i < 1000; i++) {\n" +
+                        "  f(i);\n" +
+                        "}");
+        recorder.onDispose();
+
+        assertTrue(TraceReader.getSegments(dir).length > 3);
+        List<CallSums> shards = TraceReader.replay(dir, 3, CallSums::new);
+        assertEquals(3, shards.size());
+        long calls = 0;
+        long sum = 0;
+        long binary = 0;
+        HashMap<Integer, String> locations = TraceReader.readLocations(dir);
+        for (CallSums shard : shards) {
+            assertTrue(shard.calls > 0);
+            calls += shard.calls;
+            sum += shard.sum;
+            binary += shard.events.getOrDefault(ProfiledTagEnum.BINARY, 0L);
+            for (int iid : shard.sites.keySet()) {
+                assertTrue(locations.get(iid).contains("Unnamed:"));
+            }
+        }
+        assertEquals(1000, calls);
+        assertEquals(500500, sum);
+        // x + 1 and i < 1000: pre, two inputs and post
+        assertEquals((1000 + 1001) * 4, binary);
+    }
+
+    /**
+     * sums the inputs of the binary operations by index
+     */
+    private static class InputSums extends TraceDispatcher {
+        private final long[] sums = new long[2];
+        private long posts = 0;
+
+        InputSums() {
+            onCallback(ProfiledTagEnum.BINARY, new TagHandler() {
+                @Override
+                public void onInput(int iid, int index, int type, long payload) {
+                    assertEquals(TraceFormat.INT, type);
+                    sums[index] += payload;
+                }
+
+                @Override
+                public void onPost(int iid, int type, long payload) {
+                    posts++;
+                }
+            });
+        }
+    }
+
+    @Test
+    public void testDispatch() throws IOException {
+        NodeProfInstrument instrument = context.getEngine().getInstruments().get(NodeProfInstrument.ID).lookup(NodeProfInstrument.class);
+        TraceRecorder recorder = new TraceRecorder(instrument.getInstrumenter(), instrument.getEnv(), new TraceWriter(dir, 4096));
+        recorder.initCallbacks();
+        recorder.analysisReady(AnalysisFilterSourceList.makeSingleIncludeFilter("Unnamed"));
+        context.eval("js", "for (var i = 0; i < 100; i++) {\n" +
+                        "  i * 2;\n" +
+                        "}");
+        recorder.onDispose();
+
+        long[] sums = new long[2];
+        long posts = 0;
+        for (InputSums shard : TraceReader.replay(dir, 1, InputSums::new)) {
+            sums[0] += shard.sums[0];
+            sums[1] += shard.sums[1];
+            posts += shard.posts;
+        }
+        // i < 100 and i * 2
+        assertEquals(101 + 100, posts);
+        assertEquals(4950 * 2 + 100, sums[0]);
+        assertEquals(101 * 100 + 100 * 2, sums[1]);
+    }
+
+    /**
+     * an analysis replaying the binary operations of a trace
+     */
+    private static class BinaryReplay extends NodeProfAnalysis {
+        private long posts = 0;
+        private long results = 0;
+
+        BinaryReplay(NodeProfInstrument instrument) {
+            super("BinaryReplay", instrument.getInstrumenter(), instrument.getEnv());
+        }
+
+        @Override
+        public void initCallbacks() {
+        }
+
+        @Override
+        public void initReplayCallbacks(TraceDispatcher dispatcher) {
+            dispatcher.onCallback(ProfiledTagEnum.BINARY, new TraceDispatcher.TagHandler() {
+                @Override
+                public void onPost(int iid, int type, long payload) {
+                    posts++;
+                    if (type == TraceFormat.INT) {
+                        results += payload;
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onClear() {
+        }
+
+        @Override
+        public void printResult() {
+        }
+    }
+
+    private void record(NodeProfInstrument instrument, String code) {
+        TraceRecorder recorder = new TraceRecorder(instrument.getInstrumenter(), instrument.getEnv(), new TraceWriter(dir, 4096));
+        recorder.initCallbacks();
+        recorder.analysisReady(AnalysisFilterSourceList.makeSingleIncludeFilter("Unnamed"));
+        context.eval("js", code);
+        recorder.onDispose();
+    }
+
+    @Test
+    public void testReplayAnalysis() throws IOException {
+        NodeProfInstrument instrument = context.getEngine().getInstruments().get(NodeProfInstrument.ID).lookup(NodeProfInstrument.class);
+        record(instrument, "for (var i = 0; i < 10; i++) {\n" +
+                        "  i * 2;\n" +
+                        "}");
+        BinaryReplay analysis = new BinaryReplay(instrument);
+        assertTrue(analysis.replay(dir) > 0);
+        // i < 10 and i * 2
+        assertEquals(11 + 10, analysis.posts);
+        assertEquals(90, analysis.results);
+    }
+
+    @Test
+    public void testReplayJalangi() throws Exception {
+        GlobalObjectCache.reset();
+        NodeProfInstrument instrument = context.getEngine().getInstruments().get(NodeProfInstrument.ID).lookup(NodeProfInstrument.class);
+        context.enter();
+        try {
+            new NodeProfJalangi(instrument.getInstrumenter(), instrument.getEnv()).onLoad();
+        } finally {
+            context.leave();
+        }
+        record(instrument, "function f(x) { return x + 1; }\n" +
+                        "for (var i = 0; i < 10; i++) {\n" +
+                        "  f(i);\n" +
+                        "}");
+        // the callbacks are registered without instrumenting the application
+        context.eval("js", "var calls = 0, sum = 0, left = 0, binaryPre = 0;\n" +
+                        "var analysis = {\n" +
+                        "  invokeFun: function (iid) { calls++; sum += arguments[arguments.length - 1]; },\n" +
+                        "  binaryPre: function (iid) { binaryPre++; },\n" +
+                        "  binary: function (iid, l, r, result) { left += l; }\n" +
+                        "};\n" +
+                        "for (var key in analysis) {\n" +
+                        "  __jalangiAdapter.registerCallback(analysis, key, analysis[key]);\n" +
+                        "}");
+        assertEquals(10 + 21 + 21, context.eval("js", "__jalangiAdapter.replayTrace(analysis, '" + dir.getAbsolutePath() + "')").asInt());
+        assertEquals(10, context.eval("js", "calls").asInt());
+        assertEquals(55, context.eval("js", "sum").asInt());
+        // x + 1 and i < 10
+        assertEquals(21, context.eval("js", "binaryPre").asInt());
+        assertEquals(45 + 55, context.eval("js", "left").asInt());
+    }
+
+    @Test
+    public void testThreadStreams() throws Exception {
+        // the records of each thread stay in order
+        TraceWriter writer = new TraceWriter(dir, 256);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int iid = t + 1;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    writer.write(iid, 0, TraceFormat.POST, i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        writer.close(new HashMap<>());
+
+        long[] next = new long[threads.length + 1];
+        for (File segment : TraceReader.getSegments(dir)) {
+            TraceReader.read(segment, (iid, tag, kind, type, payload) -> {
+                assertEquals(next[iid]++, payload);
+            });
+        }
+        for (int t = 1; t <= threads.length; t++) {
+            assertEquals(1000, next[t]);
+        }
+        assertEquals(0, dir.listFiles((d, name) -> name.startsWith(TraceFormat.STREAM_PREFIX)).length);
+    }
+
+    @Test
+    public void testFormat() {
+        ByteBuffer buffer = ByteBuffer.allocate(TraceFormat.MAX_RECORD_SIZE * 4);
+        TraceFormat.putRecord(buffer, Integer.MAX_VALUE, ProfiledTagEnum.EXPRESSION.ordinal(), TraceFormat.EXCEPTION, TraceFormat.INT, Long.MIN_VALUE);
+        TraceFormat.putRecord(buffer, 1, 0, TraceFormat.POST, TraceFormat.DOUBLE, Double.doubleToRawLongBits(-0.5));
+        TraceFormat.putRecord(buffer, 300, 1, TraceFormat.INPUT, TraceFormat.INT, -1);
+        assertTrue(buffer.position() <= TraceFormat.MAX_RECORD_SIZE * 3);
+        buffer.flip();
+
+        assertEquals(Integer.MAX_VALUE, TraceFormat.getVarint(buffer));
+        assertEquals(ProfiledTagEnum.EXPRESSION.ordinal() << 2 | TraceFormat.EXCEPTION, buffer.get() & 0xFF);
+        assertEquals(TraceFormat.INT, buffer.get());
+        assertEquals(Long.MIN_VALUE, TraceFormat.getPayload(buffer, TraceFormat.INT));
+
+        assertEquals(1, TraceFormat.getVarint(buffer));
+        assertEquals(TraceFormat.POST, buffer.get());
+        assertEquals(TraceFormat.DOUBLE, buffer.get());
+        assertEquals(-0.5, Double.longBitsToDouble(TraceFormat.getPayload(buffer, TraceFormat.DOUBLE)), 0);
+
+        assertEquals(300, TraceFormat.getVarint(buffer));
+        assertEquals(1 << 2 | TraceFormat.INPUT, buffer.get());
+        assertEquals(TraceFormat.INT, buffer.get());
+        // small negative integers take one byte
+        assertEquals(1, buffer.remaining());
+        assertEquals(-1, TraceFormat.getPayload(buffer, TraceFormat.INT));
+    }
+}
@@ -0,0 +1,169 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.test.examples;
+
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.instrumentation.EventContext;
+import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.AnalysisFactory;
+import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
+import ch.usi.inf.nodeprof.handlers.ElementReadEventHandler;
+import ch.usi.inf.nodeprof.handlers.ElementWriteEventHandler;
+import ch.usi.inf.nodeprof.handlers.PropertyReadEventHandler;
+import ch.usi.inf.nodeprof.handlers.PropertyWriteEventHandler;
+import ch.usi.inf.nodeprof.test.TestableNodeProfAnalysis;
+
+/**
+ * Analysis reading the inputs of property and element accesses by index, i.e., without an input
+ * array being created for the events
+ *
+ * If arrayElementReads is set, an additional handler reading its inputs from the array is
+ * registered for element reads, which makes both handlers fall back to the input array.
+ */
+public final class IndexedInputLogger extends TestableNodeProfAnalysis {
+
+    private final boolean arrayElementReads;
+
+    public IndexedInputLogger(Instrumenter instrumenter, Env env, boolean arrayElementReads) {
+        super("IndexedInputLogger", instrumenter, env);
+        this.arrayElementReads = arrayElementReads;
+    }
+
+    private void addInputEvent(String eventName, int iid, ProfiledTagEnum tag, Object[] inputs, Object... data) {
+        if (inputs != null) {
+            addDebugEvent("UNEXPECTED_INPUTS", iid, tag);
+        }
+        addDebugEvent(eventName, iid, tag, data);
+    }
+
+    @Override
+    public void initCallbacks() {
+        this.onCallback(ProfiledTagEnum.PROPERTY_READ, new AnalysisFactory<BaseEventHandlerNode>() {
+            @Override
+            public BaseEventHandlerNode create(EventContext context) {
+                return new PropertyReadEventHandler(context) {
+                    @Override
+                    public boolean usesIndexedInputs() {
+                        return true;
+                    }
+
+                    @Override
+                    public Object executePost(VirtualFrame frame, Object result, Object[] inputs) {
+                        if (!isGlobal(frame, inputs)) {
+                            addInputEvent("POST", getSourceIID(), tag, inputs, getProperty().toString(), result);
+                        }
+                        return null;
+                    }
+                };
+            }
+        });
+
+        this.onCallback(ProfiledTagEnum.PROPERTY_WRITE, new AnalysisFactory<BaseEventHandlerNode>() {
+            @Override
+            public BaseEventHandlerNode create(EventContext context) {
+                return new PropertyWriteEventHandler(context) {
+                    @Override
+                    public boolean usesIndexedInputs() {
+                        return true;
+                    }
+
+                    @Override
+                    public Object executePost(VirtualFrame frame, Object result, Object[] inputs) {
+                        if (!isGlobal(frame, inputs)) {
+                            addInputEvent("POST", getSourceIID(), tag, inputs, getProperty().toString(), getValue(frame, inputs));
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public Object executeExceptional(VirtualFrame frame, Throwable exception, Object[] inputs) {
+                        if (!isGlobal(frame, inputs)) {
+                            addInputEvent("EXCEPTIONAL", getSourceIID(), tag, inputs, getProperty().toString(), getValue(frame, inputs));
+                        }
+                        return null;
+                    }
+                };
+            }
+        });
+
+        this.onCallback(ProfiledTagEnum.ELEMENT_READ, new AnalysisFactory<BaseEventHandlerNode>() {
+            @Override
+            public BaseEventHandlerNode create(EventContext context) {
+                return new ElementReadEventHandler(context) {
+                    @Override
+                    public boolean usesIndexedInputs() {
+                        return true;
+                    }
+
+                    @Override
+                    public Object executePost(VirtualFrame frame, Object result, Object[] inputs) {
+                        if (arrayElementReads) {
+                            addDebugEvent("POST", getSourceIID(), tag, getProperty(frame, inputs), result);
+                        } else {
+                            addInputEvent("POST", getSourceIID(), tag, inputs, getProperty(frame, inputs), result);
+                        }
+                        return null;
+                    }
+                };
+            }
+        });
+
+        if (arrayElementReads) {
+            this.onCallback(ProfiledTagEnum.ELEMENT_READ, new AnalysisFactory<BaseEventHandlerNode>() {
+                @Override
+                public BaseEventHandlerNode create(EventContext context) {
+                    return new ElementReadEventHandler(context) {
+                        @Override
+                        public Object executePost(VirtualFrame frame, Object result, Object[] inputs) {
+                            addDebugEvent("POST_ARRAY", getSourceIID(), tag, getProperty(inputs), result);
+                            return null;
+                        }
+                    };
+                }
+            });
+        }
+
+        this.onCallback(ProfiledTagEnum.ELEMENT_WRITE, new AnalysisFactory<BaseEventHandlerNode>() {
+            @Override
+            public BaseEventHandlerNode create(EventContext context) {
+                return new ElementWriteEventHandler(context) {
+                    @Override
+                    public boolean usesIndexedInputs() {
+                        return true;
+                    }
+
+                    @Override
+                    public Object executePost(VirtualFrame frame, Object result, Object[] inputs) {
+                        addInputEvent("POST", getSourceIID(), tag, inputs, getProperty(frame, inputs), getValue(frame, inputs));
+                        return null;
+                    }
+                };
+            }
+        });
+    }
+
+    @Override
+    public void onClear() {
+    }
+
+    @Override
+    public void printResult() {
+    }
+}
@@ -0,0 +1,73 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.test.examples;
+
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.instrumentation.EventContext;
+import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.AnalysisFactory;
+import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
+import ch.usi.inf.nodeprof.handlers.ElementWriteEventHandler;
+import ch.usi.inf.nodeprof.test.TestableNodeProfAnalysis;
+
+/**
+ * Analysis declaring that it only reads the receiver and the value of element writes
+ */
+public final class InputMaskLogger extends TestableNodeProfAnalysis {
+
+    public InputMaskLogger(Instrumenter instrumenter, Env env) {
+        super("InputMaskLogger", instrumenter, env);
+    }
+
+    @Override
+    public void initCallbacks() {
+        this.onCallback(ProfiledTagEnum.ELEMENT_WRITE, new AnalysisFactory<BaseEventHandlerNode>() {
+            @Override
+            public BaseEventHandlerNode create(EventContext context) {
+                return new ElementWriteEventHandler(context) {
+                    @Override
+                    public long getInputMask() {
+                        return 0b101;
+                    }
+
+                    @Override
+                    public Object executePost(VirtualFrame frame, Object result, Object[] inputs) {
+                        addDebugEvent("POST", getSourceIID(), tag, inputs.length, getProperty(inputs), getValue(inputs));
+                        return null;
+                    }
+
+                    @Override
+                    public Object executeExceptional(VirtualFrame frame, Throwable exception, Object[] inputs) {
+                        addDebugEvent("EXCEPTIONAL", getSourceIID(), tag, inputs.length, getProperty(inputs));
+                        return null;
+                    }
+                };
+            }
+        });
+    }
+
+    @Override
+    public void onClear() {
+    }
+
+    @Override
+    public void printResult() {
+    }
+}
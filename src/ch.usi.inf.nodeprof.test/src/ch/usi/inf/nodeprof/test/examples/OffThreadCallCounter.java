@@ -0,0 +1,105 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.test.examples;
+
+import java.util.HashMap;
+import java.util.Map.Entry;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.instrumentation.EventContext;
+import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.AnalysisFactory;
+import ch.usi.inf.nodeprof.analysis.EventPipeline;
+import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
+import ch.usi.inf.nodeprof.handlers.FunctionCallEventHandler;
+import ch.usi.inf.nodeprof.test.TestableNodeProfAnalysis;
+import ch.usi.inf.nodeprof.utils.Logger;
+
+/**
+ * Counts the calls per site, the handlers only publish the IID of the call site to an event
+ * pipeline and the counting is done by its consumer threads.
+ */
+public class OffThreadCallCounter extends TestableNodeProfAnalysis {
+
+    private static final int CONSUMERS = 2;
+    private static final int CAPACITY = 1024;
+
+    private static class CallCounts implements EventPipeline.Consumer {
+        private final HashMap<Integer, Long> counts = new HashMap<>();
+
+        @Override
+        public void consume(int iid, int kind, long value) {
+            counts.merge(iid, value, Long::sum);
+        }
+    }
+
+    private EventPipeline pipeline;
+
+    public OffThreadCallCounter(Instrumenter instrumenter, Env env) {
+        super("OffThreadCallCounter", instrumenter, env);
+    }
+
+    /**
+     * @return the number of calls per call site, complete after the pipelines are closed
+     */
+    @TruffleBoundary
+    public HashMap<Integer, Long> getCounts() {
+        HashMap<Integer, Long> result = new HashMap<>();
+        for (EventPipeline.Consumer consumer : pipeline.getConsumers()) {
+            for (Entry<Integer, Long> entry : ((CallCounts) consumer).counts.entrySet()) {
+                result.merge(entry.getKey(), entry.getValue(), Long::sum);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void onClear() {
+        for (EventPipeline.Consumer consumer : pipeline.getConsumers()) {
+            ((CallCounts) consumer).counts.clear();
+        }
+    }
+
+    @Override
+    public void printResult() {
+        Logger.info("OffThreadCallCounter analysis finishes.");
+        for (Entry<Integer, Long> entry : getCounts().entrySet()) {
+            Logger.info(entry.getKey(), "OffThreadCallCounter calls " + entry.getValue());
+        }
+    }
+
+    @Override
+    public void initCallbacks() {
+        pipeline = createPipeline(CONSUMERS, CAPACITY, CallCounts::new);
+        this.onCallback(ProfiledTagEnum.INVOKE, new AnalysisFactory<BaseEventHandlerNode>() {
+            @Override
+            public BaseEventHandlerNode create(EventContext context) {
+                return new FunctionCallEventHandler(context, ProfiledTagEnum.INVOKE) {
+                    @Override
+                    public Object executePost(VirtualFrame frame, Object result, Object[] inputs) {
+                        pipeline.publish(getSourceIID(), 0, 1);
+                        return null;
+                    }
+                };
+            }
+        });
+    }
+}
@@ -0,0 +1,94 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.test.examples.tests;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.AnalysisFilterSourceList;
+import ch.usi.inf.nodeprof.test.BasicAnalysisTest;
+import ch.usi.inf.nodeprof.test.TestableNodeProfAnalysis;
+import ch.usi.inf.nodeprof.test.examples.IndexedInputLogger;
+import ch.usi.inf.nodeprof.utils.ThreadState;
+
+/**
+ * Tests for the event counters of ProfiledTagEnum
+ */
+public class CounterTest extends BasicAnalysisTest {
+
+    @Override
+    public TestableNodeProfAnalysis getAnalysis(Instrumenter instrumenter, TruffleInstrument.Env env) {
+        return new IndexedInputLogger(instrumenter, env, false);
+    }
+
+    @Override
+    public AnalysisFilterSourceList getFilter() {
+        return AnalysisFilterSourceList.makeSingleIncludeFilter("Unnamed");
+    }
+
+    @Test
+    public void testHitCounts() {
+        long pre = ProfiledTagEnum.ELEMENT_WRITE.getPreHitCount();
+        long post = ProfiledTagEnum.ELEMENT_WRITE.getPostHitCount();
+        context.eval("js", "function t() {\n" +
+                        "  var a = [];\n" +
+                        "  for (var i = 0; i < 10; i++) {\n" +
+                        "    a[i] = i;\n" +
+                        "  }\n" +
+                        "}\n" +
+                        "t();");
+        assertEquals(10, ProfiledTagEnum.ELEMENT_WRITE.getPreHitCount() - pre);
+        assertEquals(10, ProfiledTagEnum.ELEMENT_WRITE.getPostHitCount() - post);
+    }
+
+    @Test
+    public void testThreadCounters() throws InterruptedException {
+        // the counters of all threads are summed, including the ones of finished threads
+        long before = ThreadState.sum(0);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                ThreadState state = new ThreadState();
+                for (int j = 0; j < 1000; j++) {
+                    state.count(0);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4000, ThreadState.sum(0) - before);
+    }
+
+    @Test
+    public void testRetiredCounters() {
+        // the counters of a retired state are still summed, once
+        long before = ThreadState.sum(0);
+        ThreadState state = new ThreadState();
+        state.count(0);
+        state.count(0);
+        state.retire();
+        state.retire();
+        assertEquals(2, ThreadState.sum(0) - before);
+    }
+}
@@ -0,0 +1,164 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2020, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.test.examples.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument;
+
+import ch.usi.inf.nodeprof.analysis.AnalysisFilterSourceList;
+import ch.usi.inf.nodeprof.analysis.EventPipeline;
+import ch.usi.inf.nodeprof.test.BasicAnalysisTest;
+import ch.usi.inf.nodeprof.test.TestableNodeProfAnalysis;
+import ch.usi.inf.nodeprof.test.examples.OffThreadCallCounter;
+import ch.usi.inf.nodeprof.utils.ThreadState;
+
+public class EventPipelineTest extends BasicAnalysisTest {
+
+    @Override
+    public TestableNodeProfAnalysis getAnalysis(Instrumenter instrumenter, TruffleInstrument.Env env) {
+        return new OffThreadCallCounter(instrumenter, env);
+    }
+
+    @Override
+    public AnalysisFilterSourceList getFilter() {
+        return AnalysisFilterSourceList.makeSingleIncludeFilter("Unnamed");
+    }
+
+    @Test
+    public void testCallCounts() {
+        context.eval("js", "function f() {}\n" +
+                        "for (var i = 0; i < 3000; i++) {\n" +
+                        "  f();\n" +
+                        "}\n" +
+                        "f();");
+        analysis.closePipelines();
+        HashMap<Integer, Long> counts = ((OffThreadCallCounter) analysis).getCounts();
+        assertEquals(2, counts.size());
+        assertTrue(counts.containsValue(3000L));
+        assertTrue(counts.containsValue(1L));
+    }
+
+    /**
+     * records published by several threads into small rings are all consumed, in order per thread
+     */
+    @Test
+    public void testProducers() throws InterruptedException {
+        final int producers = 4;
+        final int records = 20000;
+        final AtomicLong[] sums = new AtomicLong[producers];
+        final AtomicLong outOfOrder = new AtomicLong();
+        for (int i = 0; i < producers; i++) {
+            sums[i] = new AtomicLong();
+        }
+        EventPipeline pipeline = new EventPipeline("test", null, 2, 8, () -> new EventPipeline.Consumer() {
+            private final long[] last = new long[producers];
+
+            @Override
+            public void consume(int iid, int kind, long value) {
+                if (value != last[iid] + 1) {
+                    outOfOrder.incrementAndGet();
+                }
+                last[iid] = value;
+                sums[iid].addAndGet(value);
+            }
+        });
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            final int iid = i;
+            threads[i] = new Thread(() -> {
+                for (int j = 1; j <= records; j++) {
+                    pipeline.publish(iid, 0, j);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        pipeline.awaitDrained();
+        pipeline.close();
+        assertEquals(producers * records, pipeline.getPublished());
+        assertEquals(0, outOfOrder.get());
+        for (int i = 0; i < producers; i++) {
+            assertEquals((long) records * (records + 1) / 2, sums[i].get());
+        }
+        // the records published after close are dropped
+        pipeline.publish(0, 0, 1);
+        assertEquals(producers * records, pipeline.getPublished());
+    }
+
+    /**
+     * the rings of the disposed threads are forgotten once drained
+     */
+    @Test
+    public void testRetiredRings() throws InterruptedException {
+        final AtomicLong consumed = new AtomicLong();
+        EventPipeline pipeline = new EventPipeline("test", null, 1, 8, () -> (iid, kind, value) -> consumed.incrementAndGet());
+        Thread thread = new Thread(() -> {
+            for (int j = 0; j < 100; j++) {
+                pipeline.publish(0, 0, j);
+            }
+            // as done for the disposed threads of a context
+            ThreadState.get(null).retire();
+        });
+        thread.start();
+        thread.join();
+        pipeline.awaitDrained();
+        for (int i = 0; i < 1000 && pipeline.getNumRings() > 0; i++) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, pipeline.getNumRings());
+        assertEquals(100, consumed.get());
+        pipeline.close();
+    }
+
+    /**
+     * the records racing with close are either consumed or counted as dropped
+     */
+    @Test
+    public void testCloseWhilePublishing() throws InterruptedException {
+        final int producers = 4;
+        final AtomicLong consumed = new AtomicLong();
+        final AtomicLong attempts = new AtomicLong();
+        EventPipeline pipeline = new EventPipeline("test", null, 2, 8, () -> (iid, kind, value) -> consumed.incrementAndGet());
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    pipeline.publish(0, 0, j);
+                    attempts.incrementAndGet();
+                }
+            });
+            threads[i].start();
+        }
+        Thread.sleep(1);
+        pipeline.close();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(pipeline.getPublished(), consumed.get());
+        assertEquals(attempts.get(), pipeline.getPublished() + pipeline.getDropped());
+    }
+}
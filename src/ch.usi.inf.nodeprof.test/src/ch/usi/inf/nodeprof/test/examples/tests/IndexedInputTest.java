@@ -0,0 +1,139 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.test.examples.tests;
+
+import org.junit.Test;
+
+import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument;
+import com.oracle.truffle.js.runtime.objects.Undefined;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.AnalysisFilterSourceList;
+import ch.usi.inf.nodeprof.test.AnalysisEventsVerifier;
+import ch.usi.inf.nodeprof.test.BasicAnalysisTest;
+import ch.usi.inf.nodeprof.test.TestableNodeProfAnalysis;
+import ch.usi.inf.nodeprof.test.examples.IndexedInputLogger;
+
+/**
+ * Tests for handlers reading their inputs by index
+ */
+public class IndexedInputTest extends BasicAnalysisTest {
+
+    @Override
+    public TestableNodeProfAnalysis getAnalysis(Instrumenter instrumenter, TruffleInstrument.Env env) {
+        return new IndexedInputLogger(instrumenter, env, false);
+    }
+
+    @Override
+    public AnalysisFilterSourceList getFilter() {
+        return AnalysisFilterSourceList.makeSingleIncludeFilter("Unnamed");
+    }
+
+    @Test
+    public void testPropertyAndElement() {
+        context.eval("js", "function t() {\n" +
+                        "  var o = {};\n" +
+                        "  o.p = 41;\n" +
+                        "  var a = [1];\n" +
+                        "  a[0] = o.p + 1;\n" +
+                        "  var p = o.p;\n" +
+                        "  return a[0];\n" +
+                        "}\n" +
+                        "t();");
+        AnalysisEventsVerifier verifier = new AnalysisEventsVerifier(this.analysis.getAnalysisEvents()) {
+            @Override
+            public void verify() {
+                dequeueAndVerifyEvent("POST", 3, ProfiledTagEnum.PROPERTY_WRITE, "p", 41);
+                dequeueAndVerifyEvent("POST", 5, ProfiledTagEnum.ELEMENT_WRITE, 0, 42);
+                dequeueAndVerifyEvent("POST", 6, ProfiledTagEnum.PROPERTY_READ, "p", 41);
+                dequeueAndVerifyEvent("POST", 7, ProfiledTagEnum.ELEMENT_READ, 0, 42);
+                finish();
+            }
+        };
+        verifier.verify();
+    }
+
+    @Test
+    public void testLoop() {
+        // inputs saved in a previous iteration must not be visible in the next one
+        context.eval("js", "function t() {\n" +
+                        "  var a = [3, 4];\n" +
+                        "  for (var i = 0; i < 2; i++) {\n" +
+                        "    a[i] = a[i] * 2;\n" +
+                        "  }\n" +
+                        "}\n" +
+                        "t();");
+        AnalysisEventsVerifier verifier = new AnalysisEventsVerifier(this.analysis.getAnalysisEvents()) {
+            @Override
+            public void verify() {
+                dequeueAndVerifyEvent("POST", 4, ProfiledTagEnum.ELEMENT_WRITE, 0, 6);
+                dequeueAndVerifyEvent("POST", 4, ProfiledTagEnum.ELEMENT_WRITE, 1, 8);
+                finish();
+            }
+        };
+        verifier.verify();
+    }
+
+    @Test
+    public void testExceptional() {
+        context.eval("js", "function t() {\n" +
+                        "  var o = {};\n" +
+                        "  for (var i = 0; i < 2; i++) {\n" +
+                        "    try {\n" +
+                        "      o.p = i == 0 ? i : f();\n" +
+                        "    } catch (e) {}\n" +
+                        "  }\n" +
+                        "}\n" +
+                        "function f() { throw 42; }\n" +
+                        "t();");
+        AnalysisEventsVerifier verifier = new AnalysisEventsVerifier(this.analysis.getAnalysisEvents()) {
+            @Override
+            public void verify() {
+                dequeueAndVerifyEvent("POST", 5, ProfiledTagEnum.PROPERTY_WRITE, "p", 0);
+                dequeueAndVerifyEvent("EXCEPTIONAL", 5, ProfiledTagEnum.PROPERTY_WRITE, "p", Undefined.instance);
+                finish();
+            }
+        };
+        verifier.verify();
+    }
+
+    @Test
+    public void testMixedHandlers() {
+        // a handler reading the input array makes all handlers of the node use the array
+        this.analysis.onDispose();
+        this.analysis = new IndexedInputLogger(instrument.getInstrumenter(), instrument.getEnv(), true);
+        this.analysis.initCallbacks();
+        this.analysis.enableTest();
+        this.analysis.analysisReady(getFilter());
+
+        context.eval("js", "function t() {\n" +
+                        "  var a = [1, 2];\n" +
+                        "  return a[1];\n" +
+                        "}\n" +
+                        "t();");
+        AnalysisEventsVerifier verifier = new AnalysisEventsVerifier(this.analysis.getAnalysisEvents()) {
+            @Override
+            public void verify() {
+                dequeueAndVerifyEvent("POST", 3, ProfiledTagEnum.ELEMENT_READ, 1, 2);
+                dequeueAndVerifyEvent("POST_ARRAY", 3, ProfiledTagEnum.ELEMENT_READ, 1, 2);
+                finish();
+            }
+        };
+        verifier.verify();
+    }
+}
@@ -0,0 +1,74 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.test.examples.tests;
+
+import org.junit.Test;
+
+import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument;
+import com.oracle.truffle.js.runtime.objects.Undefined;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.AnalysisFilterSourceList;
+import ch.usi.inf.nodeprof.test.AnalysisEventsVerifier;
+import ch.usi.inf.nodeprof.test.BasicAnalysisTest;
+import ch.usi.inf.nodeprof.test.TestableNodeProfAnalysis;
+import ch.usi.inf.nodeprof.test.examples.InputMaskLogger;
+
+/**
+ * Tests for handlers declaring the inputs they read
+ */
+public class InputMaskTest extends BasicAnalysisTest {
+
+    @Override
+    public TestableNodeProfAnalysis getAnalysis(Instrumenter instrumenter, TruffleInstrument.Env env) {
+        return new InputMaskLogger(instrumenter, env);
+    }
+
+    @Override
+    public AnalysisFilterSourceList getFilter() {
+        return AnalysisFilterSourceList.makeSingleIncludeFilter("Unnamed");
+    }
+
+    @Test
+    public void testInputMask() {
+        // the property is not saved, the other inputs keep their index
+        context.eval("js", "function t() {\n" +
+                        "  var a = [];\n" +
+                        "  a[0] = 42;\n" +
+                        "  for (var i = 0; i < 2; i++) {\n" +
+                        "    try {\n" +
+                        "      a[i == 0 ? i : f()] = 43;\n" +
+                        "    } catch (e) {}\n" +
+                        "  }\n" +
+                        "}\n" +
+                        "function f() { throw 42; }\n" +
+                        "t();");
+        AnalysisEventsVerifier verifier = new AnalysisEventsVerifier(this.analysis.getAnalysisEvents()) {
+            @Override
+            public void verify() {
+                dequeueAndVerifyEvent("POST", 3, ProfiledTagEnum.ELEMENT_WRITE, 3, Undefined.instance, 42);
+                dequeueAndVerifyEvent("POST", 6, ProfiledTagEnum.ELEMENT_WRITE, 3, Undefined.instance, 43);
+                // the inputs up to the missing value are kept, as the property is not read its
+                // exception is only visible in the missing value
+                dequeueAndVerifyEvent("EXCEPTIONAL", 6, ProfiledTagEnum.ELEMENT_WRITE, 2, Undefined.instance);
+                finish();
+            }
+        };
+        verifier.verify();
+    }
+}
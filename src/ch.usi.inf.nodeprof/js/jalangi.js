@@ -58,11 +58,18 @@ J$ = {};
         sandbox.getGlobalIID = function (iid) {
             return iid;
         };
-        sandbox.enableAnalysis = function () {
-            return sandbox.adapter.instrumentationSwitch(true);
+        /*
+         * J$.enableAnalysis([scope]) / J$.disableAnalysis([scope])
+         * - switch the instrumentation of this analysis on/off
+         * - the optional scope object limits the switch to a tag or callback name (scope.tag, e.g.,
+         *   'getField' or 'PROPERTY_READ'), a source name (scope.source) or a function (scope.function)
+         * - only code instrumented under the given scope gets invalidated
+         */
+        sandbox.enableAnalysis = function (scope) {
+            return sandbox.adapter.instrumentationSwitch(true, scope);
         }
-        sandbox.disableAnalysis = function () {
-            return sandbox.adapter.instrumentationSwitch(false);
+        sandbox.disableAnalysis = function (scope) {
+            return sandbox.adapter.instrumentationSwitch(false, scope);
         }
         sandbox.hasTaint = function (obj, depth) {
             return sandbox.adapter.hasTaint(obj, depth);
@@ -70,6 +77,18 @@ J$ = {};
         sandbox.checkTaints = function (obj, depth) {
             return sandbox.adapter.checkTaints(obj, depth);
         }
+        // the locations of all IIDs, for symbolizing many IIDs at once: the row of an IID starts
+        // at (iid - 1) * columns in table, with the index of its source in sources, the start
+        // line and column, the end line and column and the char range
+        sandbox.iidTable = function () {
+            var columns = 7;
+            var count = sandbox.adapter.iidCount();
+            var table = new Int32Array(count * columns);
+            sandbox.adapter.iidTable(table, 1);
+            return {count: count, columns: columns, table: table, sources: sandbox.adapter.iidSources()};
+        }
+        // callbacks return J$.DEACTIVATE to remove their instrumentation of the site
+        sandbox.DEACTIVATE = sandbox.adapter.getDeactivate();
     } catch (e) {
         console.log("cannot load nodeprof jalangi adapter");
     }
@@ -94,6 +113,43 @@ J$ = {};
                 sandbox.adapter.registerCallback(analysis, key, analysis[key]);
             }
         }
+        // callbacks only called for the first execution of each site, e.g., for coverage
+        if (Array.isArray(analysis.oncePerSite)) {
+            analysis.oncePerSite.forEach(function (key) {
+                sandbox.adapter.oncePerSite(analysis, key);
+            });
+        }
+        // callbacks only called for a sample of the executions of each site, given as
+        // {name: period} or {name: {first: F, period: N}}
+        if (analysis.sampling && typeof analysis.sampling == 'object') {
+            Object.keys(analysis.sampling).forEach(function (key) {
+                var rate = analysis.sampling[key];
+                if (typeof rate == 'number') {
+                    sandbox.adapter.samplingRate(analysis, key, 0, rate);
+                } else if (rate && typeof rate == 'object') {
+                    sandbox.adapter.samplingRate(analysis, key, rate.first || 0, rate.period || 1);
+                }
+            });
+        }
+        // how the sites call the callbacks, given as {name: 'inline' | 'split' | 'boundary'}
+        if (analysis.inlining && typeof analysis.inlining == 'object') {
+            Object.keys(analysis.inlining).forEach(function (key) {
+                sandbox.adapter.inlining(analysis, key, analysis.inlining[key]);
+            });
+        }
+        // callbacks only aggregating their events get them in batches, given as
+        // {callbacks: [names], size: records, onBatch: function (events, count), interval: ms},
+        // the records of events are laid out as documented at EventBatch.flush
+        if (analysis.batch && Array.isArray(analysis.batch.callbacks) && typeof analysis.batch.onBatch == 'function') {
+            var size = analysis.batch.size || 1024;
+            sandbox.adapter.batch(analysis, analysis.batch.callbacks, new Int32Array(6 * size), analysis.batch.onBatch);
+            if (analysis.batch.interval) {
+                // deliver the pending events regularly without keeping the event loop alive
+                setInterval(function () {
+                    sandbox.adapter.flushBatch(analysis);
+                }, analysis.batch.interval).unref();
+            }
+        }
         if (!filterConfig) {
             sandbox.adapter.onReady(analysis);
         } else {
@@ -132,12 +188,23 @@ J$ = {};
 
     sandbox.endExecution = function (code) {
         sandbox.analyses.forEach(analysis => {
+            if (analysis.batch) {
+                sandbox.adapter.flushBatch(analysis);
+            }
             if (analysis.endExecution && (typeof analysis.endExecution == 'function')) {
                 analysis.endExecution(code);
             }
         });
     }
 
+    // replay a trace recorded with the TraceRecorder analysis to the callbacks of the analyses,
+    // the callbacks get the IIDs and the primitive values of the recorded execution
+    sandbox.replayTrace = function (dir) {
+        sandbox.analyses.forEach(analysis => {
+            sandbox.adapter.replayTrace(analysis, dir);
+        });
+    }
+
     Object.defineProperty(sandbox, 'analysis', {
         get: function () {
             return sandbox.analyses;
@@ -61,6 +61,42 @@ public class NodeProfCLI {
     @Option(name = "SymbolicLocations", help = symLocHelp, category = OptionCategory.USER)//
     public static final OptionKey<Boolean> SYMBOLIC_LOCATIONS = new OptionKey<>(false);
 
+    static final String counterSnapshotHelp = "Interval in milliseconds to log snapshots of the event counters (0 to disable).";
+    @Option(name = "CounterSnapshotInterval", help = counterSnapshotHelp, category = OptionCategory.USER)//
+    public static final OptionKey<Integer> COUNTER_SNAPSHOT_INTERVAL = new OptionKey<>(0);
+
+    static final String traceAttachCostHelp = "Record the time spent instrumenting each source and report it at exit.";
+    @Option(name = "TraceAttachCost", help = traceAttachCostHelp, category = OptionCategory.USER)//
+    public static final OptionKey<Boolean> TRACE_ATTACH_COST = new OptionKey<>(false);
+
+    static final String samplingHelp = "Sample the events of each instrumented node, per tag as TAG=N (one in N executions) or TAG=F:N (the first F, then one in N), separated by ','.";
+    @Option(name = "Sampling", help = samplingHelp, category = OptionCategory.USER)//
+    public static final OptionKey<String> SAMPLING = new OptionKey<>("");
+
+    static final String governorSiteBudgetHelp = "Throttle the sites spending more than this time in milliseconds per second in Jalangi callbacks (0 to disable).";
+    @Option(name = "GovernorSiteBudget", help = governorSiteBudgetHelp, category = OptionCategory.USER)//
+    public static final OptionKey<Integer> GOVERNOR_SITE_BUDGET = new OptionKey<>(0);
+
+    static final String governorTagBudgetHelp = "Throttle the expensive sites of a tag once its sites spend more than this time in milliseconds per second in Jalangi callbacks (0 to disable).";
+    @Option(name = "GovernorTagBudget", help = governorTagBudgetHelp, category = OptionCategory.USER)//
+    public static final OptionKey<Integer> GOVERNOR_TAG_BUDGET = new OptionKey<>(0);
+
+    static final String governorThrottlePeriodHelp = "Throttled sites only get one in this number of executions (0 to deactivate them).";
+    @Option(name = "GovernorThrottlePeriod", help = governorThrottlePeriodHelp, category = OptionCategory.USER)//
+    public static final OptionKey<Integer> GOVERNOR_THROTTLE_PERIOD = new OptionKey<>(0);
+
+    static final String callbackInliningHelp = "How the instrumented sites call the Jalangi callbacks, as NAME=POLICY with NAME a callback or '*' for all, and POLICY 'inline', 'split' (a copy per site) or 'boundary' (out of the compiled code), separated by ','.";
+    @Option(name = "CallbackInlining", help = callbackInliningHelp, category = OptionCategory.USER)//
+    public static final OptionKey<String> CALLBACK_INLINING = new OptionKey<>("");
+
+    static final String traceDirHelp = "Directory of the segment files written by the TraceRecorder analysis.";
+    @Option(name = "TraceDir", help = traceDirHelp, category = OptionCategory.USER)//
+    public static final OptionKey<String> TRACE_DIR = new OptionKey<>("nodeprof-trace");
+
+    static final String traceSegmentSizeHelp = "Size in megabytes of the segment files written by the TraceRecorder analysis.";
+    @Option(name = "TraceSegmentSize", help = traceSegmentSizeHelp, category = OptionCategory.USER)//
+    public static final OptionKey<Integer> TRACE_SEGMENT_SIZE = new OptionKey<>(16);
+
     public static OptionDescriptor[] ods = {
                     OptionDescriptor.newBuilder(ENABLED, "nodeprof").deprecated(false).help(enabledHelp).category(OptionCategory.USER).build(),
                     OptionDescriptor.newBuilder(DEBUG, "nodeprof.Debug").deprecated(false).help(debugHelp).category(OptionCategory.USER).build(),
@@ -71,5 +107,14 @@ public class NodeProfCLI {
                     OptionDescriptor.newBuilder(IGNORE_JALANGI_EXCEPTION, "nodeprof.IgnoreJalangiException").deprecated(false).help(ignoreJExpHelp).category(OptionCategory.USER).build(),
                     OptionDescriptor.newBuilder(LOG_ABSOLUTE_PATH, "nodeprof.LogAbsolutePath").deprecated(false).help(logAbsPathHelp).category(OptionCategory.USER).build(),
                     OptionDescriptor.newBuilder(SYMBOLIC_LOCATIONS, "nodeprof.SymbolicLocations").deprecated(false).help(symLocHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(COUNTER_SNAPSHOT_INTERVAL, "nodeprof.CounterSnapshotInterval").deprecated(false).help(counterSnapshotHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(TRACE_ATTACH_COST, "nodeprof.TraceAttachCost").deprecated(false).help(traceAttachCostHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(SAMPLING, "nodeprof.Sampling").deprecated(false).help(samplingHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(GOVERNOR_SITE_BUDGET, "nodeprof.GovernorSiteBudget").deprecated(false).help(governorSiteBudgetHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(GOVERNOR_TAG_BUDGET, "nodeprof.GovernorTagBudget").deprecated(false).help(governorTagBudgetHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(GOVERNOR_THROTTLE_PERIOD, "nodeprof.GovernorThrottlePeriod").deprecated(false).help(governorThrottlePeriodHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(CALLBACK_INLINING, "nodeprof.CallbackInlining").deprecated(false).help(callbackInliningHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(TRACE_DIR, "nodeprof.TraceDir").deprecated(false).help(traceDirHelp).category(OptionCategory.USER).build(),
+                    OptionDescriptor.newBuilder(TRACE_SEGMENT_SIZE, "nodeprof.TraceSegmentSize").deprecated(false).help(traceSegmentSizeHelp).category(OptionCategory.USER).build(),
     };
 }
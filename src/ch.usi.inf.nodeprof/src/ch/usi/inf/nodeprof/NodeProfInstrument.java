@@ -16,19 +16,30 @@
  * *****************************************************************************/
 package ch.usi.inf.nodeprof;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.graalvm.options.OptionDescriptors;
 
+import com.oracle.truffle.api.ContextThreadLocal;
 import com.oracle.truffle.api.TruffleContext;
 import com.oracle.truffle.api.instrumentation.ContextsListener;
 import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.ThreadsListener;
 import com.oracle.truffle.api.instrumentation.TruffleInstrument;
 import com.oracle.truffle.api.instrumentation.TruffleInstrument.Registration;
 import com.oracle.truffle.api.nodes.LanguageInfo;
 
+import ch.usi.inf.nodeprof.analysis.InstrumentationMultiplexer;
+import ch.usi.inf.nodeprof.analysis.InstrumentationSwitch;
 import ch.usi.inf.nodeprof.analysis.NodeProfAnalysis;
+import ch.usi.inf.nodeprof.analysis.OverheadGovernor;
+import ch.usi.inf.nodeprof.utils.AttachCostTracer;
+import ch.usi.inf.nodeprof.utils.CounterSnapshotExporter;
 import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
 import ch.usi.inf.nodeprof.utils.Logger;
 import ch.usi.inf.nodeprof.utils.RawEventsTracingSupport;
+import ch.usi.inf.nodeprof.utils.SourceMapping;
+import ch.usi.inf.nodeprof.utils.ThreadState;
 
 /**
  * TruffleInstrument for the profiler
@@ -36,7 +47,7 @@ import ch.usi.inf.nodeprof.utils.RawEventsTracingSupport;
  * @since 0.30
  */
 @Registration(id = NodeProfInstrument.ID, name = "NodeProf profiling agent", version = "0.1", services = {NodeProfInstrument.class})
-public class NodeProfInstrument extends TruffleInstrument implements ContextsListener {
+public class NodeProfInstrument extends TruffleInstrument implements ContextsListener, ThreadsListener {
     public static final String ID = "nodeprof";
     private Instrumenter instrumenter;
     private Env instrumentEnv;
@@ -49,10 +60,55 @@ public class NodeProfInstrument extends TruffleInstrument implements ContextsLis
 
     private boolean loaded = false;
 
+    private final ContextThreadLocal<ThreadState> threadStates = createContextThreadLocal((context, thread) -> new ThreadState());
+
+    // the overhead governor of the callbacks of the analyses of this engine
+    private final OverheadGovernor governor = new OverheadGovernor();
+
+    // the periodic counter snapshots of this engine, stopped on dispose
+    private final CounterSnapshotExporter exporter = new CounterSnapshotExporter();
+
+    // the instruments of the live engines by their environment, see getThreadStates
+    private static final ConcurrentHashMap<Env, NodeProfInstrument> instruments = new ConcurrentHashMap<>();
+
     public NodeProfInstrument() {
         super();
     }
 
+    /**
+     * @return the states of the threads of the contexts of this engine
+     */
+    public ContextThreadLocal<ThreadState> getThreadStates() {
+        return threadStates;
+    }
+
+    /**
+     * @param env the environment of the instrument
+     * @return the states of the threads of the engine of env, or null if its instrument is not
+     *         created or already disposed
+     */
+    public static ContextThreadLocal<ThreadState> getThreadStates(Env env) {
+        NodeProfInstrument instrument = env == null ? null : instruments.get(env);
+        return instrument == null ? null : instrument.getThreadStates();
+    }
+
+    /**
+     * @return the overhead governor of this engine
+     */
+    public OverheadGovernor getGovernor() {
+        return governor;
+    }
+
+    /**
+     * @param env the environment of the instrument
+     * @return the overhead governor of the engine of env, or null if its instrument is not created
+     *         or already disposed
+     */
+    public static OverheadGovernor getGovernor(Env env) {
+        NodeProfInstrument instrument = env == null ? null : instruments.get(env);
+        return instrument == null ? null : instrument.getGovernor();
+    }
+
     @Override
     protected OptionDescriptors getOptionDescriptors() {
         return new NodeProfOptionsDescriptors();
@@ -61,23 +117,32 @@ public class NodeProfInstrument extends TruffleInstrument implements ContextsLis
     @Override
     protected void onCreate(final Env env) {
         this.instrumentEnv = env;
+        instruments.put(env, this);
         GlobalConfiguration.setup(env);
         Logger.debug("NodeProf has been enabled");
         instrumenter = env.getInstrumenter();
         env.registerService(this);
+        exporter.start(GlobalConfiguration.COUNTER_SNAPSHOT_INTERVAL);
         /**
          * enable analyses based on
          */
         env.getInstrumenter().attachContextsListener(this, true);
+        env.getInstrumenter().attachThreadsListener(this, false);
     }
 
     @Override
     protected void onDispose(final Env env) {
         cleanAnalysis();
+        InstrumentationMultiplexer.dispose(instrumenter);
+        exporter.stop();
+        AttachCostTracer.report();
+        governor.report();
+        SourceMapping.report();
         /**
          * Dump execution counters for every tag
          */
         ProfiledTagEnum.dump();
+        instruments.remove(env);
     }
 
     public Instrumenter getInstrumenter() {
@@ -96,6 +161,7 @@ public class NodeProfInstrument extends TruffleInstrument implements ContextsLis
                 analysis.onDispose();
             }
         }
+        InstrumentationSwitch.reset();
     }
 
     @Override
@@ -150,4 +216,21 @@ public class NodeProfInstrument extends TruffleInstrument implements ContextsLis
     public void onContextClosed(TruffleContext context) {
 
     }
+
+    @Override
+    public void onThreadInitialized(TruffleContext context, Thread thread) {
+
+    }
+
+    /**
+     * retire the states of the disposed thread, so that their counters are kept but not the states
+     */
+    @Override
+    public void onThreadDisposed(TruffleContext context, Thread thread) {
+        ThreadState state = threadStates.get(context, thread);
+        if (state != null) {
+            state.retire();
+        }
+        ThreadState.retireUninitialized(thread);
+    }
 }
@@ -16,12 +16,16 @@
  * *****************************************************************************/
 package ch.usi.inf.nodeprof;
 
+import java.util.concurrent.atomic.LongAdder;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
 import com.oracle.truffle.api.instrumentation.StandardTags;
 import com.oracle.truffle.api.instrumentation.Tag;
 import com.oracle.truffle.js.nodes.instrumentation.JSTags;
 
 import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
 import ch.usi.inf.nodeprof.utils.Logger;
+import ch.usi.inf.nodeprof.utils.ThreadState;
 
 public enum ProfiledTagEnum {
     UNARY(JSTags.UnaryOperationTag.class, -1), // have multiple case
@@ -63,11 +67,72 @@ public enum ProfiledTagEnum {
      * counting the instrumentation
      */
     public int usedAnalysis = 0;
-    public long nodeCount = 0;
-    public long preHitCount = 0;
-    public long postHitCount = 0;
-    public long exceptionHitCount = 0;
-    public long deactivatedCount = 0;
+    private final LongAdder nodeCount = new LongAdder();
+    private final LongAdder deactivatedCount = new LongAdder();
+
+    /**
+     * counting the events, with one counter per thread and kind of event (see ThreadState.count)
+     */
+    private static final int PRE_HIT = 0;
+    private static final int POST_HIT = 1;
+    private static final int EXCEPTION_HIT = 2;
+    private static final int NUM_HIT_KINDS = 3;
+
+    /**
+     * @return the number of event counters of all tags
+     */
+    public static int getNumCounters() {
+        return values().length * NUM_HIT_KINDS;
+    }
+
+    private int counterIndex(int kind) {
+        return ordinal() * NUM_HIT_KINDS + kind;
+    }
+
+    public void countPreHit(ThreadState state) {
+        state.count(counterIndex(PRE_HIT));
+    }
+
+    public void countPostHit(ThreadState state) {
+        state.count(counterIndex(POST_HIT));
+    }
+
+    public void countExceptionHit(ThreadState state) {
+        state.count(counterIndex(EXCEPTION_HIT));
+    }
+
+    public long getPreHitCount() {
+        return ThreadState.sum(counterIndex(PRE_HIT));
+    }
+
+    public long getPostHitCount() {
+        return ThreadState.sum(counterIndex(POST_HIT));
+    }
+
+    public long getExceptionHitCount() {
+        return ThreadState.sum(counterIndex(EXCEPTION_HIT));
+    }
+
+    /**
+     * counting instrumented nodes (not on the fast path)
+     */
+    @TruffleBoundary
+    public void countNode() {
+        nodeCount.increment();
+    }
+
+    @TruffleBoundary
+    public void countDeactivated() {
+        deactivatedCount.increment();
+    }
+
+    public long getNodeCount() {
+        return nodeCount.sum();
+    }
+
+    public long getDeactivatedCount() {
+        return deactivatedCount.sum();
+    }
 
     ProfiledTagEnum(Class<? extends Tag> clazz, int expectedNumInputs) {
         this.clazz = clazz;
@@ -86,23 +151,54 @@ public enum ProfiledTagEnum {
             for (ProfiledTagEnum cb : ProfiledTagEnum.values()) {
                 if (cb.usedAnalysis > 0) {
                     Logger.debug("Callback registered times: " + cb.toString() + " " + cb.usedAnalysis);
-                    if (cb.nodeCount > 0) {
-                        Logger.debug("InstrumentedNodes: " + cb.toString() + " " + cb.nodeCount);
+                    long nodes = cb.getNodeCount();
+                    if (nodes > 0) {
+                        Logger.debug("InstrumentedNodes: " + cb.toString() + " " + nodes);
+                    }
+                    long pre = cb.getPreHitCount();
+                    if (pre > 0) {
+                        Logger.debug("CounterPre: " + cb.toString() + " " + pre);
                     }
-                    if (cb.preHitCount > 0) {
-                        Logger.debug("CounterPre: " + cb.toString() + " " + cb.preHitCount);
+                    long post = cb.getPostHitCount();
+                    if (post > 0) {
+                        Logger.debug("CounterPost: " + cb.toString() + " " + post);
                     }
-                    if (cb.postHitCount > 0) {
-                        Logger.debug("CounterPost: " + cb.toString() + " " + cb.postHitCount);
+                    long exceptions = cb.getExceptionHitCount();
+                    if (exceptions > 0) {
+                        Logger.debug("CounterException: " + cb.toString() + " " + exceptions);
                     }
-                    if (cb.deactivatedCount > 0) {
-                        Logger.debug("Deactivated: " + cb.toString() + " " + cb.deactivatedCount);
+                    long deactivated = cb.getDeactivatedCount();
+                    if (deactivated > 0) {
+                        Logger.debug("Deactivated: " + cb.toString() + " " + deactivated);
                     }
                 }
             }
         }
     }
 
+    /**
+     * @return a one-line snapshot of the counters of all tags with events or instrumented nodes
+     */
+    @TruffleBoundary
+    public static String snapshot() {
+        StringBuilder sb = new StringBuilder();
+        for (ProfiledTagEnum cb : ProfiledTagEnum.values()) {
+            long nodes = cb.getNodeCount();
+            long pre = cb.getPreHitCount();
+            long post = cb.getPostHitCount();
+            long exceptions = cb.getExceptionHitCount();
+            if (nodes == 0 && pre == 0 && post == 0 && exceptions == 0) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(cb).append("[nodes=").append(nodes).append(",pre=").append(pre).append(",post=").append(post).append(",exceptions=").append(exceptions).append(
+                            ",deactivated=").append(cb.getDeactivatedCount()).append(']');
+        }
+        return sb.toString();
+    }
+
     /**
      * Returns an array that contains all Graal.js tags used by NodeProf
      */
@@ -27,4 +27,62 @@ import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
  */
 public interface AnalysisFactory<T extends BaseEventHandlerNode> {
     T create(EventContext context);
+
+    /**
+     * The inputs read by the handlers created, in executeOnInput as well. The bindings only request
+     * input events if a factory of one of their tags reads some of its inputs.
+     *
+     * @return a bitmask as returned by BaseEventHandlerNode.getInputMask, covering the masks of all
+     *         handlers created
+     */
+    default long getInputMask() {
+        return BaseEventHandlerNode.ALL_INPUTS;
+    }
+
+    /**
+     * @param factory the factory to wrap
+     * @return a factory creating the handlers of factory as once per site handlers, see
+     *         BaseEventHandlerNode.setOncePerSite
+     */
+    static <T extends BaseEventHandlerNode> AnalysisFactory<T> oncePerSite(AnalysisFactory<T> factory) {
+        return new AnalysisFactory<T>() {
+            @Override
+            public T create(EventContext context) {
+                T handler = factory.create(context);
+                if (handler != null) {
+                    handler.setOncePerSite();
+                }
+                return handler;
+            }
+
+            @Override
+            public long getInputMask() {
+                return factory.getInputMask();
+            }
+        };
+    }
+
+    /**
+     * @param factory the factory to wrap
+     * @param rate the executions to deliver to the handlers
+     * @return a factory creating the handlers of factory with the sampling rate, see
+     *         BaseEventHandlerNode.setSamplingRate
+     */
+    static <T extends BaseEventHandlerNode> AnalysisFactory<T> sampled(AnalysisFactory<T> factory, SamplingRate rate) {
+        return new AnalysisFactory<T>() {
+            @Override
+            public T create(EventContext context) {
+                T handler = factory.create(context);
+                if (handler != null) {
+                    handler.setSamplingRate(rate);
+                }
+                return handler;
+            }
+
+            @Override
+            public long getInputMask() {
+                return factory.getInputMask();
+            }
+        };
+    }
 }
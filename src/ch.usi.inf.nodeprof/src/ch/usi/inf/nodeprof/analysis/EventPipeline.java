@@ -0,0 +1,338 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import com.oracle.truffle.api.ContextThreadLocal;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
+
+import ch.usi.inf.nodeprof.NodeProfInstrument;
+import ch.usi.inf.nodeprof.utils.Logger;
+import ch.usi.inf.nodeprof.utils.ThreadState;
+
+/**
+ * Moves the work of a Java analysis off the application threads.
+ * <p>
+ * The handlers publish compact records (IID, a kind chosen by the analysis and a long value) with
+ * publish. Each application thread writes into its own single-producer single-consumer ring of
+ * primitive arrays, kept in its ThreadState, so publishing takes no lock. The ring of a disposed
+ * thread is retired with its state, and forgotten by its consumer once drained. Background consumer threads drain the rings into
+ * the Consumer instances of the pipeline, one per consumer thread, each ring being drained by a
+ * single consumer. Thus the consumers can aggregate into plain maps, and the analysis merges their
+ * results after close (see getConsumers).
+ * <p>
+ * The consumer threads are system threads of the instrument, they must not access the objects of
+ * the application, hence the records only contain primitives. If a ring is full, the producer waits
+ * for its consumer (counted as stall), so no record is lost while the pipeline is open. close waits
+ * for the records being published before the final drain, the records published after close are
+ * counted as dropped.
+ */
+public final class EventPipeline {
+
+    /**
+     * receives the records of the pipeline on a consumer thread
+     */
+    public interface Consumer {
+        void consume(int iid, int kind, long value);
+    }
+
+    // the number of longs of a record: IID and kind, value
+    private static final int RECORD_SIZE = 2;
+    // the idle consumers park from MIN_PARK_NANOS, doubled up to MAX_PARK_NANOS
+    private static final long MIN_PARK_NANOS = 10_000;
+    private static final long MAX_PARK_NANOS = 1_000_000;
+
+    /**
+     * the records published by one application thread, consumed by one consumer thread
+     */
+    private static final class Ring implements ThreadState.Retirable {
+        private final long[] buffer;
+        private final int capacity;
+        private final int mask;
+        private final int consumerIndex;
+        // the next record to consume, only written by the consumer
+        private final AtomicLong head = new AtomicLong();
+        // the next record to publish, only written by the producer
+        private final AtomicLong tail = new AtomicLong();
+        // the last head read by the producer
+        private long cachedHead = 0;
+        // set by the producer while it publishes a record, see close
+        private volatile boolean publishing = false;
+        // set once the thread of the ring is disposed, it does not publish anymore
+        private volatile boolean retired = false;
+
+        private Ring(int capacity, int consumerIndex) {
+            this.buffer = new long[capacity * RECORD_SIZE];
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.consumerIndex = consumerIndex;
+        }
+
+        private boolean isFull(long position) {
+            if (position - cachedHead < capacity) {
+                return false;
+            }
+            cachedHead = head.get();
+            return position - cachedHead >= capacity;
+        }
+
+        private int drain(Consumer consumer) {
+            long h = head.get();
+            long t = tail.get();
+            for (long position = h; position < t; position++) {
+                int index = (int) (position & mask) * RECORD_SIZE;
+                long header = buffer[index];
+                try {
+                    consumer.consume((int) (header >>> 32), (int) header, buffer[index + 1]);
+                } catch (Throwable e) {
+                    Logger.error("event pipeline consumer failed: " + e);
+                }
+            }
+            head.lazySet(t);
+            return (int) (t - h);
+        }
+
+        private boolean isEmpty() {
+            return head.get() == tail.get();
+        }
+
+        @Override
+        public void retire() {
+            retired = true;
+        }
+    }
+
+    private final String name;
+    private final int capacity;
+    private final CopyOnWriteArrayList<Ring> rings = new CopyOnWriteArrayList<>();
+    private final ArrayList<Consumer> consumers = new ArrayList<>();
+    private final ArrayList<Thread> threads = new ArrayList<>();
+    private final ContextThreadLocal<ThreadState> threadStates;
+    // the rings are created round robin for the consumers
+    private int nextConsumer = 0;
+    // no record is published anymore once open is false
+    private volatile boolean open = true;
+    // set by close once the records being published are published, the consumers then drain
+    // their rings a last time
+    private volatile boolean quiescent = false;
+
+    /**
+     * the index of the rings of this pipeline in the thread states
+     */
+    private static final AtomicInteger nextIndex = new AtomicInteger();
+    private final int index = nextIndex.getAndIncrement();
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder stalls = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * @param name of the pipeline, used for its threads and report
+     * @param env the environment of the instrument creating the consumer threads, or null to use
+     *            plain daemon threads
+     * @param numConsumers the number of consumer threads
+     * @param capacity the number of records of the ring of each application thread, rounded up to a
+     *            power of two
+     * @param consumerFactory creates the consumer of each consumer thread
+     */
+    @TruffleBoundary
+    public EventPipeline(String name, Env env, int numConsumers, int capacity, Supplier<Consumer> consumerFactory) {
+        if (numConsumers < 1 || capacity < 1) {
+            throw new IllegalArgumentException("invalid event pipeline " + numConsumers + " consumers, capacity " + capacity);
+        }
+        this.name = name;
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.threadStates = NodeProfInstrument.getThreadStates(env);
+        for (int i = 0; i < numConsumers; i++) {
+            Consumer consumer = consumerFactory.get();
+            consumers.add(consumer);
+            final int consumerIndex = i;
+            Runnable run = () -> consume(consumerIndex, consumer);
+            Thread thread = env != null ? env.createSystemThread(run) : new Thread(run);
+            thread.setName("nodeprof-" + name + "-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    private Ring getRing() {
+        ThreadState state = ThreadState.get(threadStates);
+        Ring ring = (Ring) state.getPipelineRing(index);
+        if (ring == null) {
+            ring = createRing(state);
+        }
+        return ring;
+    }
+
+    private Ring createRing(ThreadState state) {
+        Ring ring;
+        synchronized (rings) {
+            ring = new Ring(capacity, nextConsumer);
+            nextConsumer = (nextConsumer + 1) % threads.size();
+            rings.add(ring);
+        }
+        state.setPipelineRing(index, ring);
+        return ring;
+    }
+
+    /**
+     * publish a record from the current thread
+     *
+     * @param iid the IID of the site
+     * @param kind chosen by the analysis, e.g., the ordinal of the tag
+     * @param value chosen by the analysis
+     */
+    @TruffleBoundary
+    public void publish(int iid, int kind, long value) {
+        if (!open) {
+            dropped.increment();
+            return;
+        }
+        Ring ring = getRing();
+        // announce the record before checking open again, so that close either waits for it or
+        // it sees the pipeline closed
+        ring.publishing = true;
+        try {
+            if (!open) {
+                dropped.increment();
+                return;
+            }
+            long position = ring.tail.get();
+            if (ring.isFull(position)) {
+                stalls.increment();
+                do {
+                    if (!open) {
+                        dropped.increment();
+                        return;
+                    }
+                    Thread.yield();
+                } while (ring.isFull(position));
+            }
+            int offset = (int) (position & ring.mask) * RECORD_SIZE;
+            ring.buffer[offset] = ((long) iid << 32) | (kind & 0xFFFFFFFFL);
+            ring.buffer[offset + 1] = value;
+            ring.tail.lazySet(position + 1);
+            published.increment();
+        } finally {
+            ring.publishing = false;
+        }
+    }
+
+    private void consume(int consumerIndex, Consumer consumer) {
+        long park = MIN_PARK_NANOS;
+        while (true) {
+            // read before draining, so that the records published before close are consumed
+            boolean closing = quiescent;
+            int drained = 0;
+            for (Ring ring : rings) {
+                if (ring.consumerIndex == consumerIndex) {
+                    // read before draining, the retired rings are not published to anymore
+                    boolean retired = ring.retired;
+                    drained += ring.drain(consumer);
+                    if (retired && ring.isEmpty()) {
+                        rings.remove(ring);
+                    }
+                }
+            }
+            if (drained == 0) {
+                if (closing) {
+                    return;
+                }
+                LockSupport.parkNanos(park);
+                park = Math.min(park * 2, MAX_PARK_NANOS);
+            } else {
+                park = MIN_PARK_NANOS;
+            }
+        }
+    }
+
+    /**
+     * wait until the records published so far are consumed
+     */
+    @TruffleBoundary
+    public void awaitDrained() {
+        for (Ring ring : rings) {
+            while (!ring.isEmpty() && open) {
+                LockSupport.parkNanos(MIN_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * consume the records published so far and stop the consumer threads
+     */
+    @TruffleBoundary
+    public void close() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        // wait for the records being published, they are consumed by the last drain
+        for (Ring ring : rings) {
+            while (ring.publishing) {
+                Thread.yield();
+            }
+        }
+        quiescent = true;
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Logger.debug("EventPipeline: " + name + " published " + published.sum() + " stalls " + stalls.sum() + " dropped " + dropped.sum());
+    }
+
+    /**
+     * @return the consumers, one per consumer thread, their results are complete after close
+     */
+    public List<Consumer> getConsumers() {
+        return consumers;
+    }
+
+    public long getPublished() {
+        return published.sum();
+    }
+
+    public long getStalls() {
+        return stalls.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the number of rings, the rings of the disposed threads are forgotten once drained
+     */
+    public int getNumRings() {
+        return rings.size();
+    }
+}
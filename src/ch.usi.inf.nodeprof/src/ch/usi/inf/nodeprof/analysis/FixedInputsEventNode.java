@@ -0,0 +1,67 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.analysis;
+
+import com.oracle.truffle.api.ContextThreadLocal;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.instrumentation.EventContext;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
+import ch.usi.inf.nodeprof.utils.ThreadState;
+
+/**
+ * Event node for handlers expecting a fixed number of inputs, i.e., all tags but the ones with a
+ * variable number of inputs such as INVOKE or NEW.
+ * <p>
+ * The number of inputs is a final field, thus a constant after partial evaluation, and the
+ * input events are dropped right away for handlers without inputs.
+ */
+public class FixedInputsEventNode extends ProfilerExecutionEventNode {
+    private final int numInputs;
+
+    public FixedInputsEventNode(NodeProfAnalysis analysis, ContextThreadLocal<ThreadState> threadStates, ProfiledTagEnum cb, EventContext context,
+                                BaseEventHandlerNode child) {
+        super(analysis, threadStates, cb, context, child);
+        this.numInputs = child.expectedNumInputs();
+        assert numInputs >= 0;
+    }
+
+    @Override
+    protected void onInputValue(VirtualFrame frame, EventContext inputContext,
+                                int inputIndex, Object inputValue) {
+        if (numInputs == 0) {
+            return;
+        }
+        super.onInputValue(frame, inputContext, inputIndex, inputValue);
+    }
+
+    @Override
+    protected int getExpectedNumInputs() {
+        return numInputs;
+    }
+
+    @Override
+    protected boolean isLastInput(int inputIndex) {
+        return inputIndex == numInputs - 1;
+    }
+
+    @Override
+    protected boolean acceptsChild(BaseEventHandlerNode newChild) {
+        return newChild.expectedNumInputs() == numInputs;
+    }
+}
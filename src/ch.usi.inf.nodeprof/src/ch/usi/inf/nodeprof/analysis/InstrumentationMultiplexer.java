@@ -0,0 +1,512 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.instrumentation.EventBinding;
+import com.oracle.truffle.api.instrumentation.EventContext;
+import com.oracle.truffle.api.instrumentation.ExecutionEventNode;
+import com.oracle.truffle.api.instrumentation.ExecutionEventNodeFactory;
+import com.oracle.truffle.api.instrumentation.InstrumentableNode;
+import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.SourceSectionFilter.SourcePredicate;
+import com.oracle.truffle.api.source.Source;
+import com.oracle.truffle.js.nodes.binary.DualNode;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.AnalysisFilterSourceList.ScopeEnum;
+import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
+import ch.usi.inf.nodeprof.handlers.MultiEventHandler;
+import ch.usi.inf.nodeprof.utils.AttachCostTracer;
+import ch.usi.inf.nodeprof.utils.AttachCostTracer.Phase;
+import ch.usi.inf.nodeprof.utils.Logger;
+
+/**
+ * Instruments the callbacks of all analyses with a single binding per instrumenter (plus one per
+ * tag in SEPARATE_FACTORY_TAGS), so that an instrumented node gets a single event node whose
+ * handlers are the ones of all analyses merged into a MultiEventHandler.
+ * <p>
+ * The callbacks enabled by NodeProfAnalysis.analysisReady are added as a registration. Every
+ * registration attaches again the bindings of its tags (the separate binding of each of its separate
+ * tags, and the combined binding if it has other tags), even if the tags were registered before:
+ * the handlers of an event node are created with the node, thus the nodes already instrumented only
+ * get the handlers of the new registration (and the inputs its factories read) with a new binding.
+ * The handlers deactivated or throttled under the previous binding are not created again or keep
+ * their rate (see RetiredSites). The filters of a binding are the ones of the InstrumentationPlan
+ * computed from its registered tags.
+ */
+public final class InstrumentationMultiplexer {
+
+    // tags that require a separate factory for instrumentation
+    static final ProfiledTagEnum[] SEPARATE_FACTORY_TAGS = {
+            ProfiledTagEnum.BUILTIN,
+            ProfiledTagEnum.STATEMENT,
+            ProfiledTagEnum.EXPRESSION,
+            ProfiledTagEnum.CF_BRANCH,
+            ProfiledTagEnum.ROOT,
+            ProfiledTagEnum.DECLARE
+    };
+
+    private static final EnumSet<ProfiledTagEnum> SEPARATE_TAG_SET = EnumSet.copyOf(Arrays.asList(SEPARATE_FACTORY_TAGS));
+
+    private static final ConcurrentHashMap<Instrumenter, InstrumentationMultiplexer> multiplexers = new ConcurrentHashMap<>();
+
+    /**
+     * the callbacks of an analysis enabled by one call of analysisReady
+     */
+    private static final class Registration {
+        private final int index;
+        private final NodeProfAnalysis analysis;
+        private final AnalysisFilterBase sourceFilter;
+        private final EnumSet<ProfiledTagEnum> tags;
+
+        // the factories indexed by the ordinal of their tag, null for the tags not registered
+        private final AnalysisFactory<BaseEventHandlerNode>[][] factories;
+        // the retired sites of each factory
+        private final RetiredSites[][] retiredSites;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Registration(int index, NodeProfAnalysis analysis, AnalysisFilterBase sourceFilter, HashMap<ProfiledTagEnum, ArrayList<AnalysisFactory<BaseEventHandlerNode>>> handlers) {
+            this.index = index;
+            this.analysis = analysis;
+            this.sourceFilter = sourceFilter;
+            this.tags = EnumSet.noneOf(ProfiledTagEnum.class);
+            this.factories = new AnalysisFactory[ProfiledTagEnum.values().length][];
+            this.retiredSites = new RetiredSites[ProfiledTagEnum.values().length][];
+            for (Entry<ProfiledTagEnum, ArrayList<AnalysisFactory<BaseEventHandlerNode>>> entry : handlers.entrySet()) {
+                int ordinal = entry.getKey().ordinal();
+                tags.add(entry.getKey());
+                factories[ordinal] = entry.getValue().toArray(new AnalysisFactory[0]);
+                retiredSites[ordinal] = new RetiredSites[factories[ordinal].length];
+                for (int i = 0; i < factories[ordinal].length; i++) {
+                    retiredSites[ordinal][i] = new RetiredSites();
+                }
+            }
+        }
+
+        private boolean isSeparate() {
+            return SEPARATE_TAG_SET.containsAll(tags);
+        }
+    }
+
+    /**
+     * The registrations by tag, rebuilt on every registration so that the factories can read it
+     * without locking.
+     * <p>
+     * The sources are only tested with the filters of the registrations once, the tags instrumented
+     * for a source are cached as bitsets (by the ordinal of the tags). The sources are weakly
+     * referenced by the cache, which thus lives as long as the sources instrumented.
+     */
+    private static final class DispatchTable {
+        private final Registration[] registrations;
+
+        // the registrations with factories for a tag, indexed by the ordinal of the tag
+        private final Registration[][] byTag;
+
+        private final AnalysisFilterBase builtinFilter;
+
+        // for each source, the bitset of the tags instrumented for each registration
+        private final Map<Source, long[]> sourceTags = Collections.synchronizedMap(new WeakHashMap<>());
+
+        private DispatchTable(Registration[] registrations, AnalysisFilterBase builtinFilter) {
+            assert ProfiledTagEnum.values().length <= Long.SIZE;
+            this.registrations = registrations;
+            this.builtinFilter = builtinFilter;
+            this.byTag = new Registration[ProfiledTagEnum.values().length][];
+            for (ProfiledTagEnum tag : ProfiledTagEnum.values()) {
+                ArrayList<Registration> registered = new ArrayList<>();
+                for (Registration registration : registrations) {
+                    if (registration.tags.contains(tag)) {
+                        registered.add(registration);
+                    }
+                }
+                byTag[tag.ordinal()] = registered.toArray(new Registration[0]);
+            }
+        }
+
+        private boolean isRegistered(ProfiledTagEnum tag) {
+            return byTag[tag.ordinal()].length > 0;
+        }
+
+        /**
+         * @return the inputs read by the factories registered for each tag, indexed by the ordinal
+         *         of the tag, see AnalysisFactory.getInputMask
+         */
+        private long[] getInputMasks() {
+            long[] masks = new long[byTag.length];
+            for (int i = 0; i < byTag.length; i++) {
+                for (Registration registration : byTag[i]) {
+                    for (AnalysisFactory<BaseEventHandlerNode> factory : registration.factories[i]) {
+                        masks[i] |= factory.getInputMask();
+                    }
+                }
+            }
+            return masks;
+        }
+
+        private long[] getSourceTags(Source source) {
+            long[] tags = sourceTags.get(source);
+            if (tags == null) {
+                // the filters might run JavaScript code, thus no computeIfAbsent as it could be
+                // entered recursively
+                tags = computeSourceTags(source);
+                long[] previous = sourceTags.putIfAbsent(source, tags);
+                if (previous != null) {
+                    tags = previous;
+                }
+            }
+            return tags;
+        }
+
+        private long[] computeSourceTags(Source source) {
+            long[] tags = new long[registrations.length];
+            boolean builtin = builtinFilter.test(source);
+            for (Registration registration : registrations) {
+                long bits = 0;
+                if (registration.sourceFilter.test(source)) {
+                    for (ProfiledTagEnum tag : registration.tags) {
+                        // the separate tags are not filtered with testTag
+                        if (tag != ProfiledTagEnum.BUILTIN && (isSeparateTag(tag) || registration.sourceFilter.testTag(source, tag))) {
+                            bits |= 1L << tag.ordinal();
+                        }
+                    }
+                }
+                if (builtin && registration.tags.contains(ProfiledTagEnum.BUILTIN)) {
+                    // builtins are instrumented with their own filter
+                    bits |= 1L << ProfiledTagEnum.BUILTIN.ordinal();
+                }
+                tags[registration.index] = bits;
+            }
+            return tags;
+        }
+    }
+
+    /**
+     * a handler created for a node and the analysis it belongs to
+     */
+    private static final class AnalysisHandler {
+        private final NodeProfAnalysis analysis;
+        private final BaseEventHandlerNode handler;
+
+        private AnalysisHandler(NodeProfAnalysis analysis, BaseEventHandlerNode handler) {
+            this.analysis = analysis;
+            this.handler = handler;
+        }
+    }
+
+    private final Instrumenter instrumenter;
+
+    private final AnalysisFilterBase builtinFilter = AnalysisFilterSourceList.getFilter(ScopeEnum.builtin);
+
+    private volatile DispatchTable table = new DispatchTable(new Registration[0], builtinFilter);
+
+    private final EnumMap<ProfiledTagEnum, EventBinding<?>> separateBindings = new EnumMap<>(ProfiledTagEnum.class);
+    private EventBinding<?> combinedBinding = null;
+
+    private final EnumMap<ProfiledTagEnum, InstrumentationPlan> separatePlans = new EnumMap<>(ProfiledTagEnum.class);
+    private InstrumentationPlan combinedPlan = null;
+
+    private InstrumentationMultiplexer(Instrumenter instrumenter) {
+        this.instrumenter = instrumenter;
+    }
+
+    /**
+     * @return the multiplexer for all analyses instrumented with the instrumenter
+     */
+    @TruffleBoundary
+    public static InstrumentationMultiplexer get(Instrumenter instrumenter) {
+        return multiplexers.computeIfAbsent(instrumenter, InstrumentationMultiplexer::new);
+    }
+
+    /**
+     * dispose the bindings of all analyses instrumented with the instrumenter
+     */
+    @TruffleBoundary
+    public static void dispose(Instrumenter instrumenter) {
+        InstrumentationMultiplexer multiplexer = multiplexers.remove(instrumenter);
+        if (multiplexer != null) {
+            multiplexer.disposeBindings();
+        }
+    }
+
+    static boolean isSeparateTag(ProfiledTagEnum tag) {
+        return SEPARATE_TAG_SET.contains(tag);
+    }
+
+    /**
+     * instrument the callbacks of the analysis together with the ones registered before, attaching
+     * again the bindings of its tags
+     */
+    @TruffleBoundary
+    public synchronized void register(NodeProfAnalysis analysis, AnalysisFilterBase sourceFilter, HashMap<ProfiledTagEnum, ArrayList<AnalysisFactory<BaseEventHandlerNode>>> handlers) {
+        Registration[] registrations = table.registrations;
+        Registration registration = new Registration(registrations.length, analysis, sourceFilter, handlers);
+        Registration[] newRegistrations = Arrays.copyOf(registrations, registrations.length + 1);
+        newRegistrations[registrations.length] = registration;
+        this.table = new DispatchTable(newRegistrations, builtinFilter);
+
+        for (ProfiledTagEnum tag : SEPARATE_FACTORY_TAGS) {
+            if (handlers.containsKey(tag)) {
+                attachSeparate(tag);
+            }
+        }
+        if (!registration.isSeparate()) {
+            attachCombined();
+        }
+    }
+
+    private synchronized void disposeBindings() {
+        for (EventBinding<?> binding : separateBindings.values()) {
+            binding.dispose();
+        }
+        separateBindings.clear();
+        for (InstrumentationPlan plan : separatePlans.values()) {
+            plan.report();
+        }
+        separatePlans.clear();
+        if (combinedBinding != null) {
+            combinedBinding.dispose();
+            combinedBinding = null;
+            combinedPlan.report();
+            combinedPlan = null;
+        }
+    }
+
+    private void attachSeparate(ProfiledTagEnum tag) {
+        EventBinding<?> old = separateBindings.remove(tag);
+        if (old != null) {
+            old.dispose();
+            separatePlans.remove(tag).report();
+        }
+        SourcePredicate sourcePredicate = tag.equals(ProfiledTagEnum.BUILTIN) ? builtinFilter : anySourceFilter(tag);
+        InstrumentationPlan plan = InstrumentationPlan.compute(tag.toString(), EnumSet.of(tag), table.getInputMasks());
+        separatePlans.put(tag, plan);
+
+        separateBindings.put(tag, instrumenter.attachExecutionEventFactory(
+                plan.getEventFilter(sourcePredicate),
+                plan.getInputFilter(),
+                new ExecutionEventNodeFactory() {
+                    @TruffleBoundary
+                    public ExecutionEventNode create(EventContext context) {
+                        long start = AttachCostTracer.start();
+                        try {
+                            InstrumentableNode instrumentedNode = (InstrumentableNode) context.getInstrumentedNode();
+                            if (instrumentedNode.hasTag(tag.getTag())) {
+                                plan.countTagged(tag);
+                                return createExecutionEventNode(context, tag);
+                            } else {
+                                return null;
+                            }
+                        } finally {
+                            AttachCostTracer.stop(Phase.CREATE, context.getInstrumentedSourceSection(), start);
+                        }
+                    }
+                }));
+    }
+
+    private void attachCombined() {
+        if (combinedBinding != null) {
+            combinedBinding.dispose();
+            combinedBinding = null;
+            combinedPlan.report();
+        }
+        EnumSet<ProfiledTagEnum> registered = EnumSet.noneOf(ProfiledTagEnum.class);
+        for (ProfiledTagEnum tag : ProfiledTagEnum.values()) {
+            if (!isSeparateTag(tag) && table.isRegistered(tag)) {
+                registered.add(tag);
+            }
+        }
+        InstrumentationPlan plan = InstrumentationPlan.compute("combined", registered, table.getInputMasks());
+        ProfiledTagEnum[] combinedTags = plan.getTags();
+        combinedPlan = plan;
+
+        combinedBinding = instrumenter.attachExecutionEventFactory(
+                plan.getEventFilter(anySourceFilter(null)),
+                plan.getInputFilter(),
+                new ExecutionEventNodeFactory() {
+                    @Override
+                    @TruffleBoundary
+                    public ExecutionEventNode create(EventContext context) {
+                        long start = AttachCostTracer.start();
+                        try {
+                            return createCombined(context);
+                        } finally {
+                            AttachCostTracer.stop(Phase.CREATE, context.getInstrumentedSourceSection(), start);
+                        }
+                    }
+
+                    private ExecutionEventNode createCombined(EventContext context) {
+                        InstrumentableNode instrumentedNode = (InstrumentableNode) context.getInstrumentedNode();
+
+                        // instrument DualNodes - we don't care for callbacks for now - this is just so that functions can be changed correctly
+                        // ToDo - add callback and make it configurable
+                        if (plan.hasExpressionTag() && instrumentedNode instanceof DualNode) {
+                            plan.countDual();
+                            return new ProfilerExecutionEventNode(null, context, null);
+                        }
+
+                        ProfiledTagEnum nodeTag = null;
+                        String tags = "";
+                        int count = 0;
+                        for (ProfiledTagEnum tag : combinedTags) {
+                            if (instrumentedNode.hasTag(tag.getTag())) {
+                                if (nodeTag == null) {
+                                    nodeTag = tag;
+                                }
+                                tags += tag.getTag().getSimpleName() + " ";
+                                count += 1;
+                            }
+                        }
+                        // a node should never have two tags the same time(except
+                        // for the built-in)
+                        if (count > 1) {
+                            Logger.error("a node has more than 1 profiling tags!!");
+                            Logger.error(context.getInstrumentedSourceSection(), context.getInstrumentedNode().getClass().getName() + " has tags: " + tags);
+                        }
+                        assert (count <= 1);
+
+                        if (nodeTag == null) {
+                            // if there is no handler for this node, no ExecutionEventNode is
+                            // needed
+                            plan.countExpression();
+                            return null;
+                        }
+                        plan.countTagged(nodeTag);
+                        return createExecutionEventNode(context, nodeTag);
+                    }
+                });
+    }
+
+    /**
+     * @param tag the tag or null for all tags which are not separate
+     * @return a source predicate accepting the sources of any registration for the tag
+     */
+    private SourcePredicate anySourceFilter(ProfiledTagEnum tag) {
+        ArrayList<AnalysisFilterBase> filters = new ArrayList<>();
+        for (Registration registration : table.registrations) {
+            for (ProfiledTagEnum registered : registration.tags) {
+                if (tag == null ? !isSeparateTag(registered) : tag == registered) {
+                    if (!filters.contains(registration.sourceFilter)) {
+                        filters.add(registration.sourceFilter);
+                    }
+                    break;
+                }
+            }
+        }
+        if (filters.size() == 1) {
+            return filters.get(0);
+        }
+        AnalysisFilterBase[] anyOf = filters.toArray(new AnalysisFilterBase[0]);
+        return (Source source) -> {
+            for (AnalysisFilterBase filter : anyOf) {
+                if (filter.test(source)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    /**
+     * create the ExecutionEventNode with the handlers of all registrations for the tag
+     *
+     * @param context of the instrumented node
+     * @param tag of the instrumented node
+     * @return a ProfilerExecutionEventNode or null if there is no handler
+     */
+    @TruffleBoundary
+    private ExecutionEventNode createExecutionEventNode(EventContext context, ProfiledTagEnum tag) {
+        DispatchTable dispatch = table;
+        Registration[] registered = dispatch.byTag[tag.ordinal()];
+        if (registered.length == 0) {
+            return null;
+        }
+        long[] sourceTags = dispatch.getSourceTags(context.getInstrumentedSourceSection().getSource());
+        long tagBit = 1L << tag.ordinal();
+        List<AnalysisHandler> created = new ArrayList<>();
+        boolean retired = false;
+        for (Registration registration : registered) {
+            if ((sourceTags[registration.index] & tagBit) == 0) {
+                continue;
+            }
+            try {
+                AnalysisFactory<BaseEventHandlerNode>[] factories = registration.factories[tag.ordinal()];
+                for (int i = 0; i < factories.length; i++) {
+                    RetiredSites sites = registration.retiredSites[tag.ordinal()][i];
+                    if (sites.isDeactivated(context.getInstrumentedNode())) {
+                        retired = true;
+                        continue;
+                    }
+                    BaseEventHandlerNode handler = factories[i].create(context);
+                    if (handler != null) {
+                        handler.setRetiredSites(sites);
+                        SamplingRate rate = sites.getRate(context.getInstrumentedNode());
+                        if (rate != null) {
+                            handler.setSamplingRate(rate);
+                        }
+                        handler.setSwitchScopes(registration.analysis.getSwitchScopes(), tag);
+                        created.add(new AnalysisHandler(registration.analysis, handler));
+                    }
+                }
+            } catch (Exception exception) {
+                exception.printStackTrace();
+            }
+        }
+
+        if (created.isEmpty()) {
+            // an empty node as for a removed instrumentation (see ProfilerExecutionEventNode), as
+            // without event node the events of the input nodes of a retired site are lost
+            return retired ? new ExecutionEventNode() {
+            } : null;
+        }
+        NodeProfAnalysis analysis = created.get(0).analysis;
+        for (AnalysisHandler analysisHandler : created) {
+            if (analysisHandler.analysis != analysis) {
+                analysis = null;
+                break;
+            }
+        }
+        BaseEventHandlerNode handler;
+        if (created.size() == 1) {
+            handler = created.get(0).handler;
+        } else {
+            BaseEventHandlerNode[] handlers = new BaseEventHandlerNode[created.size()];
+            for (int i = 0; i < handlers.length; i++) {
+                handlers[i] = created.get(i).handler;
+                if (analysis == null) {
+                    // the handlers of several analyses share the event node
+                    handlers[i].setAnalysisSwitch(created.get(i).analysis.getSwitch());
+                }
+            }
+            handler = MultiEventHandler.create(tag, handlers);
+        }
+        // the analyses of a multiplexer share the engine and thus the thread states
+        return ProfilerExecutionEventNode.create(analysis, created.get(0).analysis.getThreadStates(), tag, context, handler);
+    }
+}
@@ -0,0 +1,231 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.instrumentation.SourceSectionFilter;
+import com.oracle.truffle.api.instrumentation.SourceSectionFilter.SourcePredicate;
+import com.oracle.truffle.api.instrumentation.StandardTags;
+import com.oracle.truffle.api.instrumentation.Tag;
+import com.oracle.truffle.js.nodes.instrumentation.JSTags.InputNodeTag;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
+import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
+import ch.usi.inf.nodeprof.utils.Logger;
+
+/**
+ * The tags and input filter of a binding, computed from the tags registered for it.
+ * <p>
+ * Every tag added to the event filter makes Graal.js materialize and wrap the nodes with this tag,
+ * and the input filter makes it wrap the inputs of every node instrumented. Thus the plan only
+ * requests:
+ * <ul>
+ * <li>the ExpressionTag if one of the tags in EXPRESSION_DEPENDENT_TAGS is registered. Requesting
+ * it materializes the target of a call separately from property and element reads, which is how
+ * the read factories tell the reads apart from the targets of invocations, and it instruments the
+ * DualNodes with an empty event node so that invoked functions can be changed correctly;</li>
+ * <li>input events if one of the tags expects inputs, i.e., ProfiledTagEnum.getExpectedNumInputs
+ * is not 0, and its factories read some of them, i.e., the union of their
+ * AnalysisFactory.getInputMask is not 0.</li>
+ * </ul>
+ * The plan counts the nodes instrumented for each of these choices, see report.
+ */
+public final class InstrumentationPlan {
+
+    // tags whose nodes are only instrumented correctly if the ExpressionTag is requested as well
+    static final EnumSet<ProfiledTagEnum> EXPRESSION_DEPENDENT_TAGS = EnumSet.of(
+            ProfiledTagEnum.PROPERTY_READ,
+            ProfiledTagEnum.ELEMENT_READ,
+            ProfiledTagEnum.INVOKE);
+
+    private final String name;
+    private final ProfiledTagEnum[] tags;
+    private final boolean expressionTag;
+    private final boolean inputs;
+    // the union of the input masks of the factories of each tag, indexed by the ordinal of the tag
+    private final long[] inputMasks;
+
+    /**
+     * counting the nodes passed to the factory of the binding
+     */
+    private final EnumMap<ProfiledTagEnum, LongAdder> taggedNodes = new EnumMap<>(ProfiledTagEnum.class);
+    private final LongAdder inputConsumers = new LongAdder();
+    private final LongAdder expressionNodes = new LongAdder();
+    private final LongAdder dualNodes = new LongAdder();
+
+    private InstrumentationPlan(String name, ProfiledTagEnum[] tags, boolean expressionTag, boolean inputs, long[] inputMasks) {
+        this.name = name;
+        this.tags = tags;
+        this.expressionTag = expressionTag;
+        this.inputs = inputs;
+        this.inputMasks = inputMasks;
+        for (ProfiledTagEnum tag : tags) {
+            taggedNodes.put(tag, new LongAdder());
+        }
+    }
+
+    /**
+     * @param name of the binding, used in the report
+     * @param registered the tags with handlers in the binding
+     * @return the minimal plan instrumenting the registered tags
+     */
+    @TruffleBoundary
+    public static InstrumentationPlan compute(String name, EnumSet<ProfiledTagEnum> registered) {
+        long[] inputMasks = new long[ProfiledTagEnum.values().length];
+        Arrays.fill(inputMasks, BaseEventHandlerNode.ALL_INPUTS);
+        return compute(name, registered, inputMasks);
+    }
+
+    /**
+     * @param name of the binding, used in the report
+     * @param registered the tags with handlers in the binding
+     * @param inputMasks the union of the input masks of the factories of each tag, indexed by the
+     *            ordinal of the tag
+     * @return the minimal plan instrumenting the registered tags
+     */
+    @TruffleBoundary
+    public static InstrumentationPlan compute(String name, EnumSet<ProfiledTagEnum> registered, long[] inputMasks) {
+        boolean expressionTag = false;
+        boolean inputs = false;
+        for (ProfiledTagEnum tag : registered) {
+            expressionTag |= EXPRESSION_DEPENDENT_TAGS.contains(tag);
+            inputs |= readsInputs(tag, inputMasks);
+        }
+        InstrumentationPlan plan = new InstrumentationPlan(name, registered.toArray(new ProfiledTagEnum[0]), expressionTag, inputs, inputMasks);
+        if (GlobalConfiguration.DEBUG) {
+            Logger.debug("Instrumentation plan " + plan.describe());
+        }
+        return plan;
+    }
+
+    private static boolean readsInputs(ProfiledTagEnum tag, long[] inputMasks) {
+        return tag.getExpectedNumInputs() != 0 && inputMasks[tag.ordinal()] != 0;
+    }
+
+    /**
+     * @return the tags of the plan, in the order of ProfiledTagEnum
+     */
+    public ProfiledTagEnum[] getTags() {
+        return tags;
+    }
+
+    /**
+     * @return true if the ExpressionTag is added to the event filter
+     */
+    public boolean hasExpressionTag() {
+        return expressionTag;
+    }
+
+    /**
+     * @return true if input events are requested
+     */
+    public boolean hasInputs() {
+        return inputs;
+    }
+
+    @TruffleBoundary
+    public SourceSectionFilter getEventFilter(SourcePredicate sourcePredicate) {
+        ArrayList<Class<? extends Tag>> definedTags = new ArrayList<>();
+        for (ProfiledTagEnum tag : tags) {
+            definedTags.add(tag.getTag());
+        }
+        if (expressionTag) {
+            definedTags.add(StandardTags.ExpressionTag.class);
+        }
+        return SourceSectionFilter.newBuilder().tagIs(definedTags.toArray(new Class<?>[0])).sourceIs(sourcePredicate).build();
+    }
+
+    /**
+     * @return the input filter or null if no tag of the plan reads inputs
+     */
+    @TruffleBoundary
+    public SourceSectionFilter getInputFilter() {
+        if (!inputs) {
+            return null;
+        }
+        return SourceSectionFilter.newBuilder().tagIs(StandardTags.ExpressionTag.class, InputNodeTag.class).build();
+    }
+
+    /**
+     * count a node instrumented for one of the tags of the plan
+     */
+    @TruffleBoundary
+    public void countTagged(ProfiledTagEnum tag) {
+        taggedNodes.get(tag).increment();
+        if (inputs && readsInputs(tag, inputMasks)) {
+            inputConsumers.increment();
+        }
+    }
+
+    /**
+     * count a node only matched because of the ExpressionTag
+     */
+    @TruffleBoundary
+    public void countExpression() {
+        expressionNodes.increment();
+    }
+
+    /**
+     * count a DualNode instrumented with an empty event node
+     */
+    @TruffleBoundary
+    public void countDual() {
+        dualNodes.increment();
+    }
+
+    @TruffleBoundary
+    public String describe() {
+        StringBuilder builder = new StringBuilder(name).append(": tags");
+        for (ProfiledTagEnum tag : tags) {
+            builder.append(' ').append(tag);
+            if (tag.getExpectedNumInputs() != 0 && inputMasks[tag.ordinal()] != BaseEventHandlerNode.ALL_INPUTS) {
+                builder.append("(inputs 0x").append(Long.toHexString(inputMasks[tag.ordinal()])).append(')');
+            }
+        }
+        builder.append(", expression tag ").append(expressionTag ? "on" : "off");
+        builder.append(", inputs ").append(inputs ? "on" : "off");
+        return builder.toString();
+    }
+
+    /**
+     * log the number of nodes instrumented for each choice of the plan
+     */
+    @TruffleBoundary
+    public void report() {
+        if (!GlobalConfiguration.DEBUG) {
+            return;
+        }
+        Logger.debug("Instrumentation plan " + describe());
+        for (ProfiledTagEnum tag : tags) {
+            Logger.debug("PlannedNodes: " + name + " " + tag + " " + taggedNodes.get(tag).sum());
+        }
+        if (inputs) {
+            Logger.debug("PlannedNodes: " + name + " with inputs " + inputConsumers.sum());
+        }
+        if (expressionTag) {
+            Logger.debug("PlannedNodes: " + name + " expression only " + expressionNodes.sum());
+            Logger.debug("PlannedNodes: " + name + " dual " + dualNodes.sum());
+        }
+    }
+}
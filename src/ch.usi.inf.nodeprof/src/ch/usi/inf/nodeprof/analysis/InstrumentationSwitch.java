@@ -0,0 +1,206 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.analysis;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.oracle.truffle.api.Assumption;
+import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.Truffle;
+import com.oracle.truffle.api.instrumentation.EventContext;
+import com.oracle.truffle.api.nodes.RootNode;
+import com.oracle.truffle.api.source.SourceSection;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+
+/**
+ * An on/off switch for the instrumentation, backed by its own assumption.
+ * <p>
+ * Compiled code only depends on the switches of the nodes it contains, thus toggling a switch
+ * only invalidates the code instrumented under this switch.
+ * <p>
+ * Switches exist globally and per analysis (see NodeProfAnalysis.getSwitch). The switches of an
+ * analysis scoped to a tag, a source (by name) or a function root (by source section) are kept in
+ * the Scopes of the analysis. A handler is enabled if the global switch, the switch of its analysis
+ * and the scoped switches of its analysis matching its node are on.
+ */
+public final class InstrumentationSwitch {
+    private final String name;
+
+    @CompilationFinal
+    private volatile boolean enabled = true;
+
+    @CompilationFinal
+    private volatile Assumption unchanged;
+
+    public InstrumentationSwitch(String name) {
+        this.name = name;
+        this.unchanged = Truffle.getRuntime().createAssumption(name);
+    }
+
+    public boolean isEnabled() {
+        if (unchanged.isValid()) {
+            return enabled;
+        }
+        return isEnabledSlow();
+    }
+
+    @TruffleBoundary
+    private boolean isEnabledSlow() {
+        return enabled;
+    }
+
+    /**
+     * @param value true to enable or false to disable the instrumentation under this switch
+     */
+    @TruffleBoundary
+    public synchronized void setEnabled(boolean value) {
+        if (enabled == value) {
+            return;
+        }
+        Assumption old = unchanged;
+        enabled = value;
+        unchanged = Truffle.getRuntime().createAssumption(name);
+        old.invalidate("NodeProf " + name + (value ? " enabled" : " disabled"));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * switch for all instrumentation of all analyses
+     */
+    public static final InstrumentationSwitch GLOBAL = new InstrumentationSwitch("global");
+
+    /**
+     * turn on the global switch
+     */
+    @TruffleBoundary
+    public static void reset() {
+        GLOBAL.setEnabled(true);
+    }
+
+    /**
+     * The switches of an analysis scoped to a tag, a source or a function root.
+     * <p>
+     * A scoped switch is only created when its scope is first switched, thus the scopes never
+     * switched cost nothing. The handlers look up the switches matching their node once (see
+     * resolve) and again when a switch is added, which invalidates the assumption of the scopes.
+     */
+    public static final class Scopes {
+        private final String name;
+        private final ConcurrentHashMap<ProfiledTagEnum, InstrumentationSwitch> tagSwitches = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, InstrumentationSwitch> sourceSwitches = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<SourceSection, InstrumentationSwitch> functionSwitches = new ConcurrentHashMap<>();
+
+        private volatile Assumption unchanged;
+
+        public Scopes(String name) {
+            this.name = name;
+            this.unchanged = Truffle.getRuntime().createAssumption(name + " scopes");
+        }
+
+        public InstrumentationSwitch forTag(ProfiledTagEnum tag) {
+            return getOrCreate(tagSwitches, tag, "tag " + tag);
+        }
+
+        /**
+         * @param sourceName the name of the source as given by Source.getName()
+         */
+        public InstrumentationSwitch forSource(String sourceName) {
+            return getOrCreate(sourceSwitches, sourceName, "source " + sourceName);
+        }
+
+        /**
+         * @param rootSection the source section of the function root
+         */
+        public InstrumentationSwitch forFunction(SourceSection rootSection) {
+            return getOrCreate(functionSwitches, rootSection, "function " + rootSection);
+        }
+
+        @TruffleBoundary
+        private <K> InstrumentationSwitch getOrCreate(ConcurrentHashMap<K, InstrumentationSwitch> switches, K key, String switchName) {
+            InstrumentationSwitch s = switches.get(key);
+            if (s != null) {
+                return s;
+            }
+            synchronized (this) {
+                s = switches.get(key);
+                if (s == null) {
+                    s = new InstrumentationSwitch(name + " " + switchName);
+                    switches.put(key, s);
+                    invalidate("NodeProf " + name + " " + switchName + " added");
+                }
+            }
+            return s;
+        }
+
+        private void invalidate(String reason) {
+            Assumption old = unchanged;
+            unchanged = Truffle.getRuntime().createAssumption(name + " scopes");
+            old.invalidate(reason);
+        }
+
+        /**
+         * @return valid until a switch is added to or removed from the scopes
+         */
+        public Assumption getUnchanged() {
+            return unchanged;
+        }
+
+        /**
+         * @return the switches created so far matching the tag, the source and the function root
+         *         of the node
+         */
+        @TruffleBoundary
+        public InstrumentationSwitch[] resolve(ProfiledTagEnum tag, EventContext context) {
+            ArrayList<InstrumentationSwitch> result = new ArrayList<>();
+            if (tag != null) {
+                addIfPresent(result, tagSwitches.get(tag));
+            }
+            SourceSection section = context.getInstrumentedSourceSection();
+            if (section != null && !sourceSwitches.isEmpty()) {
+                addIfPresent(result, sourceSwitches.get(section.getSource().getName()));
+            }
+            RootNode root = context.getInstrumentedNode().getRootNode();
+            if (root != null && root.getSourceSection() != null && !functionSwitches.isEmpty()) {
+                addIfPresent(result, functionSwitches.get(root.getSourceSection()));
+            }
+            return result.toArray(new InstrumentationSwitch[0]);
+        }
+
+        private static void addIfPresent(ArrayList<InstrumentationSwitch> result, InstrumentationSwitch s) {
+            if (s != null) {
+                result.add(s);
+            }
+        }
+
+        /**
+         * remove the scoped switches, e.g., when the analysis is disposed
+         */
+        @TruffleBoundary
+        public synchronized void clear() {
+            tagSwitches.clear();
+            sourceSwitches.clear();
+            functionSwitches.clear();
+            invalidate("NodeProf " + name + " scopes cleared");
+        }
+    }
+}
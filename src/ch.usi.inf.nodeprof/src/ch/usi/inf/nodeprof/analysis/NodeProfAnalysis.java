@@ -16,20 +16,20 @@
  * *****************************************************************************/
 package ch.usi.inf.nodeprof.analysis;
 
+import ch.usi.inf.nodeprof.NodeProfInstrument;
 import ch.usi.inf.nodeprof.ProfiledTagEnum;
-import ch.usi.inf.nodeprof.analysis.AnalysisFilterSourceList.ScopeEnum;
 import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
-import ch.usi.inf.nodeprof.handlers.MultiEventHandler;
 import ch.usi.inf.nodeprof.jalangi.NodeProfJalangi;
+import ch.usi.inf.nodeprof.trace.TraceDispatcher;
+import ch.usi.inf.nodeprof.trace.TraceReader;
 import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
 import ch.usi.inf.nodeprof.utils.Logger;
+import ch.usi.inf.nodeprof.utils.ThreadState;
+import com.oracle.truffle.api.ContextThreadLocal;
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
 import com.oracle.truffle.api.frame.VirtualFrame;
-import com.oracle.truffle.api.instrumentation.EventContext;
 import com.oracle.truffle.api.instrumentation.ExecutionEventListener;
-import com.oracle.truffle.api.instrumentation.ExecutionEventNode;
 import com.oracle.truffle.api.instrumentation.ExecutionEventNodeFactory;
-import com.oracle.truffle.api.instrumentation.InstrumentableNode;
 import com.oracle.truffle.api.instrumentation.Instrumenter;
 import com.oracle.truffle.api.instrumentation.SourceFilter;
 import com.oracle.truffle.api.instrumentation.SourceSectionFilter;
@@ -37,21 +37,25 @@ import com.oracle.truffle.api.instrumentation.SourceSectionFilter.SourcePredicat
 import com.oracle.truffle.api.instrumentation.StandardTags;
 import com.oracle.truffle.api.instrumentation.Tag;
 import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
-import com.oracle.truffle.api.source.Source;
-import com.oracle.truffle.js.nodes.binary.DualNode;
 import com.oracle.truffle.js.nodes.instrumentation.JSTaggedExecutionNode;
 import com.oracle.truffle.js.nodes.instrumentation.JSTags;
-import com.oracle.truffle.js.nodes.instrumentation.JSTags.InputNodeTag;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map.Entry;
+import java.util.function.Supplier;
 
 public abstract class NodeProfAnalysis {
     private final Env env;
     private final Instrumenter instrumenter;
     private final String name;
+    private final InstrumentationSwitch instrumentationSwitch;
+    private final InstrumentationSwitch.Scopes switchScopes;
+    private final ContextThreadLocal<ThreadState> threadStates;
+    private final OverheadGovernor governor;
+    private final ArrayList<EventPipeline> pipelines = new ArrayList<>();
 
     @TruffleBoundary
     public NodeProfAnalysis(String name, Instrumenter instrumenter, Env env) {
@@ -59,6 +63,10 @@ public abstract class NodeProfAnalysis {
         this.instrumenter = instrumenter;
         this.env = env;
         this.handlers = new HashMap<>();
+        this.instrumentationSwitch = new InstrumentationSwitch("analysis " + name);
+        this.switchScopes = new InstrumentationSwitch.Scopes("analysis " + name);
+        this.threadStates = NodeProfInstrument.getThreadStates(env);
+        this.governor = NodeProfInstrument.getGovernor(env);
     }
 
     public Instrumenter getInstrumenter() {
@@ -73,6 +81,34 @@ public abstract class NodeProfAnalysis {
         return name;
     }
 
+    /**
+     * @return the switch to turn on/off all instrumentation of this analysis
+     */
+    public InstrumentationSwitch getSwitch() {
+        return instrumentationSwitch;
+    }
+
+    /**
+     * @return the states of the threads of the engine of this analysis (see ThreadState.get)
+     */
+    public ContextThreadLocal<ThreadState> getThreadStates() {
+        return threadStates;
+    }
+
+    /**
+     * @return the overhead governor of the engine of this analysis, or null without instrument
+     */
+    public OverheadGovernor getGovernor() {
+        return governor;
+    }
+
+    /**
+     * @return the switches of this analysis scoped to a tag, a source or a function
+     */
+    public InstrumentationSwitch.Scopes getSwitchScopes() {
+        return switchScopes;
+    }
+
     private static final int maxAnalyses = 100;
     private static int numAnalysis = 0;
     private static final NodeProfAnalysis[] enabled = new NodeProfAnalysis[maxAnalyses];
@@ -157,6 +193,30 @@ public abstract class NodeProfAnalysis {
      */
     public abstract void initCallbacks();
 
+    /**
+     * register the handlers of the events of a replayed trace, see replay. The handlers of
+     * initCallbacks are created for the nodes of the running application, thus an analysis replaying
+     * traces registers the counterparts of its handlers by tag here.
+     *
+     * @param dispatcher the dispatcher of the replayed events
+     */
+    public void initReplayCallbacks(TraceDispatcher dispatcher) {
+    }
+
+    /**
+     * replay a trace written by TraceRecorder to the handlers of initReplayCallbacks, on the calling
+     * thread and in the order of the trace
+     *
+     * @param dir the directory of the trace
+     * @return the number of events replayed
+     */
+    @TruffleBoundary
+    public long replay(File dir) throws IOException {
+        TraceDispatcher dispatcher = new TraceDispatcher();
+        initReplayCallbacks(dispatcher);
+        return TraceReader.replay(dir, dispatcher);
+    }
+
     /**
      * Clear all states of an analysis. For example, when we run the analysis for many rounds, we
      * need to reset all states so that the performance and results of the analysis won't get
@@ -177,8 +237,40 @@ public abstract class NodeProfAnalysis {
 
     @TruffleBoundary
     public void onDispose() {
+        closePipelines();
         printResult();
         onClear();
+        switchScopes.clear();
+    }
+
+    /**
+     * create an event pipeline consuming the events of the analysis off the application threads,
+     * closed before printResult at dispose
+     *
+     * @param numConsumers the number of consumer threads
+     * @param capacity the number of records buffered per application thread
+     * @param consumerFactory creates the consumer of each consumer thread
+     */
+    @TruffleBoundary
+    public EventPipeline createPipeline(int numConsumers, int capacity, Supplier<EventPipeline.Consumer> consumerFactory) {
+        EventPipeline pipeline = new EventPipeline(name, env, numConsumers, capacity, consumerFactory);
+        synchronized (pipelines) {
+            pipelines.add(pipeline);
+        }
+        return pipeline;
+    }
+
+    /**
+     * consume the pending events of the pipelines of the analysis and stop their threads
+     */
+    @TruffleBoundary
+    public void closePipelines() {
+        synchronized (pipelines) {
+            for (EventPipeline pipeline : pipelines) {
+                pipeline.close();
+            }
+            pipelines.clear();
+        }
     }
 
     /**
@@ -227,171 +319,22 @@ public abstract class NodeProfAnalysis {
         analysisReady(filter, handlers);
     }
 
-    // tags that require a separate factory for instrumentation
-    private static final ProfiledTagEnum[] separateFactoryTags = {
-            ProfiledTagEnum.BUILTIN,
-            ProfiledTagEnum.STATEMENT,
-            ProfiledTagEnum.EXPRESSION,
-            ProfiledTagEnum.CF_BRANCH,
-            ProfiledTagEnum.ROOT,
-            ProfiledTagEnum.DECLARE
-    };
-
+    /**
+     * instrument the callbacks together with the ones of all other analyses (see
+     * InstrumentationMultiplexer)
+     */
     @TruffleBoundary
     private void analysisReady(AnalysisFilterBase sourceFilter, HashMap<ProfiledTagEnum, ArrayList<AnalysisFactory<BaseEventHandlerNode>>> handlerMapping) {
         // check if any new callback is registered
         if (handlerMapping.size() > 0) {
-            ArrayList<Class<? extends Tag>> definedTags = new ArrayList<>();
-            for (Entry<ProfiledTagEnum, ArrayList<AnalysisFactory<BaseEventHandlerNode>>> entry : handlerMapping.entrySet()) {
-                entry.getKey().usedAnalysis++;
-                if (!Arrays.asList(separateFactoryTags).contains(entry.getKey())) {
-                    definedTags.add(entry.getKey().getTag());
-                }
-            }
-
-            for (ProfiledTagEnum tag : separateFactoryTags) {
-                if (handlerMapping.containsKey(tag)) {
-                    SourcePredicate sourcePredicate = tag.equals(ProfiledTagEnum.BUILTIN) ? AnalysisFilterSourceList.getFilter(ScopeEnum.builtin) : sourceFilter;
-                    SourceSectionFilter filter = SourceSectionFilter.newBuilder().tagIs(tag.getTag()).sourceIs(sourcePredicate).build();
-
-                    getInstrumenter().attachExecutionEventFactory(
-                            filter,
-                            tag.getExpectedNumInputs() == 0 ? null : SourceSectionFilter.newBuilder().tagIs(StandardTags.ExpressionTag.class, InputNodeTag.class).build(),
-                            new ExecutionEventNodeFactory() {
-                                @TruffleBoundary
-                                public ExecutionEventNode create(EventContext context) {
-                                    InstrumentableNode instrumentedNode = (InstrumentableNode) context.getInstrumentedNode();
-                                    if (instrumentedNode.hasTag(tag.getTag())) {
-                                        return createAndSimplifyExecutionEventNode(context, tag, handlerMapping.get(tag));
-                                    } else {
-//                                        return new ExecutionEventNode() {
-//                                        };
-                                        return null;
-                                    }
-                                }
-                            });
-                }
-            }
-
-            // Todo - for now we always add the expression tag - this is so we are able to filter in the factory by node instance (maybe there is a better way)
-            definedTags.add(StandardTags.ExpressionTag.class);
-
-            if (definedTags.size() > 0) {
-                Class<?>[] eventTags = new Class<?>[definedTags.size()];
-                definedTags.toArray(eventTags);
-                SourceSectionFilter eventFilter = SourceSectionFilter.newBuilder().tagIs(eventTags).sourceIs(sourceFilter).build();
-                SourceSectionFilter inputFilter = SourceSectionFilter.newBuilder().tagIs(StandardTags.ExpressionTag.class, InputNodeTag.class).build();
-
-                getInstrumenter().attachExecutionEventFactory(
-                        eventFilter,
-                        inputFilter,
-                        new ExecutionEventNodeFactory() {
-                            @Override
-                            @TruffleBoundary
-                            public ExecutionEventNode create(EventContext context) {
-                                int count = 0;
-                                InstrumentableNode instrumentedNode = (InstrumentableNode) context.getInstrumentedNode();
-
-                                // instrument DualNodes - we don't care for callbacks for now - this is just so that functions can be changed correctly
-                                // ToDo - add callback and make it configurable
-                                if (instrumentedNode instanceof DualNode) {
-                                    return new ProfilerExecutionEventNode(null, context, null);
-                                }
-
-                                for (Entry<ProfiledTagEnum, ArrayList<AnalysisFactory<BaseEventHandlerNode>>> entry : handlerMapping.entrySet()) {
-                                    if (instrumentedNode.hasTag(entry.getKey().getTag()) && !Arrays.asList(separateFactoryTags).contains(entry.getKey())) {
-                                        count += 1;
-                                    }
-                                }
-                                // a node should never have two tags the same time(except
-                                // for the built-in)
-                                if (count > 1) {
-                                    Logger.error("a node has more than 1 profiling tags!!");
-                                    String tags = "";
-                                    for (Entry<ProfiledTagEnum, ArrayList<AnalysisFactory<BaseEventHandlerNode>>> entry : handlerMapping.entrySet()) {
-                                        if (instrumentedNode.hasTag(entry.getKey().getTag()) && !Arrays.asList(separateFactoryTags).contains(entry.getKey())) {
-                                            tags += entry.getKey().getTag().getSimpleName() + " ";
-                                        }
-                                    }
-                                    Logger.error(context.getInstrumentedSourceSection(), context.getInstrumentedNode().getClass().getName() + " has tags: " + tags);
-                                }
-
-                                assert (count <= 1);
-                                for (Entry<ProfiledTagEnum, ArrayList<AnalysisFactory<BaseEventHandlerNode>>> entry : handlerMapping.entrySet()) {
-                                    try {
-                                        ProfiledTagEnum key = entry.getKey();
-                                        Source source = context.getInstrumentedSourceSection().getSource();
-                                        if (instrumentedNode.hasTag(key.getTag()) && !Arrays.asList(separateFactoryTags).contains(entry.getKey()) && sourceFilter.testTag(source, key)) {
-                                            return createAndSimplifyExecutionEventNode(context, entry.getKey(), entry.getValue());
-                                        }
-                                    } catch (Exception exception) {
-                                        exception.printStackTrace();
-                                    }
-                                }
-                                // if there is no handler for this node, return an empty
-                                // ExecutionEventNode which should bring zero overhead after
-                                // compilation
-//                                return new ExecutionEventNode() {
-//                                };
-                                return null;
-                            }
-
-                        });
+            for (ProfiledTagEnum tag : handlerMapping.keySet()) {
+                tag.usedAnalysis++;
             }
+            InstrumentationMultiplexer.get(getInstrumenter()).register(this, sourceFilter, handlerMapping);
         }
         this.handlers = new HashMap<>();
     }
 
-    /**
-     * create the ExecutionEventNode with the proper handler
-     *
-     * @param context
-     * @param key
-     * @param listOfHandlers
-     * @return a ProfilerExecutionEventNode or an empty ExecutionEventNode
-     */
-    @TruffleBoundary
-    private static ExecutionEventNode createAndSimplifyExecutionEventNode(EventContext context, ProfiledTagEnum key, ArrayList<AnalysisFactory<BaseEventHandlerNode>> listOfHandlers) {
-        BaseEventHandlerNode handler = null;
-        if (listOfHandlers.size() == 1) {
-            // create the handler using the only factory
-            handler = listOfHandlers.get(0).create(context);
-        } else {
-            // create the handlers one by one
-            BaseEventHandlerNode[] components = new BaseEventHandlerNode[listOfHandlers.size()];
-            int numNonEmpty = 0;
-            BaseEventHandlerNode last = null;
-            for (int i = 0; i < components.length; i++) {
-                components[i] = listOfHandlers.get(i).create(context);
-                if (components[i] != null) {
-                    numNonEmpty++;
-                    last = components[i];
-                }
-            }
-            if (numNonEmpty == 0) {
-                handler = null;
-            } else if (numNonEmpty == 1) {
-                handler = last;
-            } else {
-                BaseEventHandlerNode[] handlers = new BaseEventHandlerNode[numNonEmpty];
-                int cnt = 0;
-                for (int i = 0; i < components.length; i++) {
-                    if (components[i] != null) {
-                        handlers[cnt++] = components[i];
-                    }
-                }
-                handler = MultiEventHandler.create(key, handlers);
-            }
-        }
-        if (handler != null) {
-            return new ProfilerExecutionEventNode(key, context, handler);
-        } else {
-            return null;
-//            return new ExecutionEventNode() {
-//            };
-        }
-    }
-
     /**
      * a quick way to create instrumentatino for all events via a simple factory
      *
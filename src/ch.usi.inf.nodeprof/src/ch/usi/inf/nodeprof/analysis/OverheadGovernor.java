@@ -0,0 +1,200 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.analysis;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
+import ch.usi.inf.nodeprof.handlers.BaseSingleTagEventHandler;
+import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
+import ch.usi.inf.nodeprof.utils.Logger;
+
+/**
+ * Throttles the sites whose callbacks take more time than allowed by the options GovernorSiteBudget
+ * and GovernorTagBudget, in milliseconds per second.
+ * <p>
+ * The callers time one in MEASURE_PERIOD callbacks of each site and estimate the time of the
+ * others from it, so that the callbacks not timed only cost a decrement. The time is accounted per
+ * window of WINDOW_NANOS, i.e., the budgets bound the overhead rate rather than the overhead over
+ * the lifetime of the process. A site is throttled once its estimated time in the current window
+ * exceeds the site budget, or once the time of all sites of its tag in the current window exceeds
+ * the tag budget and the site itself spent more than 1/EXPENSIVE_SHARE of the tag budget in the
+ * window, so that the cheap sites of a busy tag are not throttled. A throttled handler is
+ * deactivated, or with the option GovernorThrottlePeriod only gets one in this period of the
+ * executions of its site (see SamplingRate).
+ * <p>
+ * There is one governor per engine (see NodeProfInstrument.getGovernor).
+ */
+public final class OverheadGovernor {
+
+    /**
+     * one in MEASURE_PERIOD callbacks of a site is timed
+     */
+    public static final int MEASURE_PERIOD = 16;
+
+    /**
+     * the length of the windows the budgets apply to
+     */
+    public static final long WINDOW_NANOS = 1000_000_000L;
+
+    /**
+     * the part of the tag budget a site must spend in a window to be throttled for its tag
+     */
+    public static final int EXPENSIVE_SHARE = 8;
+
+    private static final int TAGS = ProfiledTagEnum.values().length;
+
+    // the window of the time of each tag, and the time in this window
+    private final AtomicLongArray tagWindows = new AtomicLongArray(TAGS);
+    private final LongAdder[] tagWindowNanos = new LongAdder[TAGS];
+    // the time of each tag and its throttled sites since the last report
+    private final LongAdder[] tagNanos = new LongAdder[TAGS];
+    private final LongAdder[] throttledSites = new LongAdder[TAGS];
+    private final LongAdder throttledUntagged = new LongAdder();
+
+    public OverheadGovernor() {
+        for (int i = 0; i < TAGS; i++) {
+            tagWindowNanos[i] = new LongAdder();
+            tagNanos[i] = new LongAdder();
+            throttledSites[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return true if one of the budgets is set
+     */
+    public static boolean isEnabled() {
+        return GlobalConfiguration.GOVERNOR_SITE_BUDGET > 0 || GlobalConfiguration.GOVERNOR_TAG_BUDGET > 0;
+    }
+
+    @TruffleBoundary
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * @param start as returned by start
+     * @return the estimated time of the MEASURE_PERIOD callbacks represented by the one timed
+     */
+    @TruffleBoundary
+    public static long stop(long start) {
+        return (System.nanoTime() - start) * MEASURE_PERIOD;
+    }
+
+    /**
+     * @param time as returned by start
+     * @return the window of the time
+     */
+    public static long windowOf(long time) {
+        return Math.floorDiv(time, WINDOW_NANOS);
+    }
+
+    /**
+     * account the time of a site and check it against the budgets
+     *
+     * @param handler the handler of the site
+     * @param window the current window (see windowOf)
+     * @param siteNanos the estimated time of the callbacks of the site in the window
+     * @param nanos the estimated time of the callbacks since the last check
+     * @return true if the site has to be throttled
+     */
+    @TruffleBoundary
+    public boolean exceedsBudget(BaseEventHandlerNode handler, long window, long siteNanos, long nanos) {
+        return exceedsBudget(getTag(handler), window, siteNanos, nanos);
+    }
+
+    /**
+     * @param tag the tag of the site, or null
+     * @see #exceedsBudget(BaseEventHandlerNode, long, long, long)
+     */
+    @TruffleBoundary
+    public boolean exceedsBudget(ProfiledTagEnum tag, long window, long siteNanos, long nanos) {
+        if (tag != null) {
+            int i = tag.ordinal();
+            long tagWindow = tagWindows.get(i);
+            // the time of the sites racing with the start of a window may be lost
+            if (tagWindow != window && tagWindows.compareAndSet(i, tagWindow, window)) {
+                tagWindowNanos[i].reset();
+            }
+            tagWindowNanos[i].add(nanos);
+            tagNanos[i].add(nanos);
+            long tagBudget = GlobalConfiguration.GOVERNOR_TAG_BUDGET * 1000_000L;
+            if (tagBudget > 0 && tagWindowNanos[i].sum() > tagBudget && siteNanos > tagBudget / EXPENSIVE_SHARE) {
+                return true;
+            }
+        }
+        return GlobalConfiguration.GOVERNOR_SITE_BUDGET > 0 && siteNanos > GlobalConfiguration.GOVERNOR_SITE_BUDGET * 1000_000L;
+    }
+
+    /**
+     * deactivate or sample the handler of a site over budget
+     *
+     * @param handler the handler of the site
+     * @param siteNanos the estimated time of the callbacks of the site in the window
+     */
+    @TruffleBoundary
+    public void throttle(BaseEventHandlerNode handler, long siteNanos) {
+        ProfiledTagEnum tag = getTag(handler);
+        if (tag != null) {
+            throttledSites[tag.ordinal()].increment();
+        } else {
+            throttledUntagged.increment();
+        }
+        int period = GlobalConfiguration.GOVERNOR_THROTTLE_PERIOD;
+        Logger.warning(handler.getSourceIID(), "Governor: throttled " + (tag == null ? "" : tag + " ") + "site after " + siteNanos / 1000 + "us in callbacks in " +
+                        WINDOW_NANOS / 1000_000 + "ms, " + (period > 1 ? "sampling 1/" + period : "deactivated"));
+        if (period > 1) {
+            handler.updateSamplingRate(SamplingRate.create(0, period));
+        } else {
+            handler.deactivate();
+        }
+    }
+
+    private static ProfiledTagEnum getTag(BaseEventHandlerNode handler) {
+        return handler instanceof BaseSingleTagEventHandler ? ((BaseSingleTagEventHandler) handler).getTag() : null;
+    }
+
+    /**
+     * @return the number of sites of the tag throttled
+     */
+    public long getThrottled(ProfiledTagEnum tag) {
+        return throttledSites[tag.ordinal()].sum();
+    }
+
+    /**
+     * log the number of throttled sites per tag and reset the time of the tags
+     */
+    @TruffleBoundary
+    public void report() {
+        long total = throttledUntagged.sumThenReset();
+        for (ProfiledTagEnum tag : ProfiledTagEnum.values()) {
+            long throttled = throttledSites[tag.ordinal()].sumThenReset();
+            long nanos = tagNanos[tag.ordinal()].sumThenReset();
+            if (throttled > 0) {
+                Logger.info("Governor: " + tag + " throttled sites " + throttled + " estimated callback time " + nanos / 1000 + "us");
+            }
+            total += throttled;
+        }
+        if (total > 0) {
+            Logger.info("Governor: total throttled sites " + total);
+        }
+    }
+}
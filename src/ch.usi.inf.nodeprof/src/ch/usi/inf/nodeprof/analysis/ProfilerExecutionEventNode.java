@@ -21,29 +21,37 @@ import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
 import ch.usi.inf.nodeprof.handlers.BinaryEventHandler;
 import ch.usi.inf.nodeprof.handlers.CFRootEventHandler;
 import ch.usi.inf.nodeprof.handlers.FunctionCallEventHandler;
+import ch.usi.inf.nodeprof.handlers.IndexedInputs;
 import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
 import ch.usi.inf.nodeprof.utils.Logger;
+import ch.usi.inf.nodeprof.utils.ThreadState;
+import com.oracle.truffle.api.ContextThreadLocal;
 import com.oracle.truffle.api.CompilerDirectives;
 import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.frame.FrameDescriptor;
 import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.instrumentation.EventContext;
 import com.oracle.truffle.api.instrumentation.ExecutionEventNode;
 import com.oracle.truffle.api.nodes.ControlFlowException;
+import com.oracle.truffle.api.nodes.ExplodeLoop;
 import com.oracle.truffle.api.strings.TruffleString;
 import com.oracle.truffle.js.runtime.GraalJSException;
 import com.oracle.truffle.js.runtime.Strings;
 
 import java.lang.reflect.Array;
 import java.util.Arrays;
-import java.util.Objects;
 
-public class ProfilerExecutionEventNode extends ExecutionEventNode {
+public class ProfilerExecutionEventNode extends ExecutionEventNode implements IndexedInputs {
     protected final EventContext context;
     protected final ProfiledTagEnum cb;
+    private final NodeProfAnalysis analysis;
+    // the states of the threads of the engine of the analyses, for counting the events
+    private final ContextThreadLocal<ThreadState> threadStates;
 
     /**
-     * Store the changed input when a callback returns a new result
+     * Key of the frame auxiliary slot storing the changed input when a callback returns a new
+     * result. The slot is shared by all nodes instrumented in a frame.
      * It is set when onResult returns another result and is unset onUnwind
      * <p>
      * This is used to overwrite the input with the changed value in the parent nodes onInputValue
@@ -52,60 +60,215 @@ public class ProfilerExecutionEventNode extends ExecutionEventNode {
      * e.g. 1 + 2 + 3 - where 1 is replaced with 5 by the callback - returns 10, but the onInputValue of the second '+' operations still gets 3 and 3 as inputs
      * </p>
      */
-    protected static Object returnInput = null;
-    protected static int waitingForUnwind = 0;
+    private static final Object RETURN_INPUT_KEY = new Object();
+    /**
+     * Key of the frame auxiliary slot storing the context of the node whose result is in the
+     * RETURN_INPUT_KEY slot, so that the changed input is only used by the input events of this
+     * node, even if it was not unset because another node unwound first.
+     */
+    private static final Object RETURN_INPUT_CONTEXT_KEY = new Object();
 
     @Child
     BaseEventHandlerNode child;
-    int hasOnEnter = 0;
+
+    /**
+     * The state of an execution of this node is kept in frame auxiliary slots (and not in fields
+     * of the node), so that it is confined to the frame and thread executing it, e.g., when
+     * running with Node.js worker threads. The slots are allocated for each frame descriptor seen
+     * (e.g., of a split or cloned root), up to MAX_FRAME_DESCRIPTORS. The frames of other
+     * descriptors fall back to the stateless behavior, i.e., every execution is delivered and the
+     * inputs read by index are read from the saved inputs (see getSavedInput).
+     */
+    @CompilationFinal(dimensions = 1)
+    private FrameSlots[] frameSlots = new FrameSlots[0];
+
+    private static final int MAX_FRAME_DESCRIPTORS = 4;
+
+    // the keys of the slots of this node, the same in every descriptor
+    private final Object enterKey = new Object();
+    private Object[] inputKeys = new Object[0];
+
+    /**
+     * the auxiliary slots of this node in the frames of one descriptor
+     * <p>
+     * enterSlot counts the onEnter events not yet followed by onReturnValue or onReturnExceptional
+     * in the frame (see hasOnEnter).
+     */
+    private static final class FrameSlots {
+        private final FrameDescriptor descriptor;
+        private final int enterSlot;
+        private final int returnInputSlot;
+        private final int returnInputContextSlot;
+        // the slots of the inputs read by index, allocated on the first input saved
+        @CompilationFinal(dimensions = 1)
+        private int[] inputSlots = null;
+
+        private FrameSlots(FrameDescriptor descriptor, Object enterKey) {
+            this.descriptor = descriptor;
+            this.enterSlot = descriptor.findOrAddAuxiliarySlot(enterKey);
+            this.returnInputSlot = descriptor.findOrAddAuxiliarySlot(RETURN_INPUT_KEY);
+            this.returnInputContextSlot = descriptor.findOrAddAuxiliarySlot(RETURN_INPUT_CONTEXT_KEY);
+        }
+    }
+    /**
+     * Set when a callback replaced the result of this site once (see replaceResult), so that the
+     * next replacements are compiled instead of deoptimizing.
+     */
+    @CompilationFinal
+    private boolean replacesResult = false;
+
+    /**
+     * Set when the child reads its inputs by index (see
+     * BaseEventHandlerNode.usesIndexedInputs) and expects a fixed number of inputs. The inputs are
+     * then kept in one frame auxiliary slot per index instead of being saved with saveInputValue,
+     * so that no input array has to be created for the callbacks.
+     */
+    @CompilationFinal
+    private boolean indexedInputs = false;
+    /**
+     * the inputs read by the child (see BaseEventHandlerNode.getInputMask), the others are not
+     * saved
+     */
+    @CompilationFinal
+    private long inputMask = BaseEventHandlerNode.ALL_INPUTS;
+    /**
+     * Set when only a sample of the executions is delivered to the child (see
+     * BaseEventHandlerNode.getSamplingRate), null otherwise.
+     * <p>
+     * The countdown is kept per site in fields of this node, so that deciding costs a decrement and
+     * a branch without leaving the compiled code. It is not synchronized, a race between threads
+     * only shifts the sample. An execution not sampled is not marked in enterSlot, thus its inputs
+     * and its post and exceptional events are skipped as well. Executions in frames without the
+     * slots of this node (see frameSlots) are always delivered.
+     */
+    @CompilationFinal
+    private SamplingRate samplingRate = null;
+    // executions until the next sampled one
+    private int sampleCountdown = 1;
+    // sampled executions left before sampling one in period
+    private int sampleFirst = 0;
     /**
-     * A flag to switch on/off the profiling analysis: true => enabled, false => disabled
+     * The switches to turn on/off the profiling analysis for this node: global and analysis, the
+     * scoped switches of the analysis are checked by the handlers (see InstrumentationSwitch)
      * <p>
      * by default the instrumentation is on. It can be updated with
-     * ProfilerExecutionEventNode.updateEnabled.
+     * ProfilerExecutionEventNode.updateEnabled or with the specific switches.
      * <p>
      * After disabled, this class acts as an empty ExecutionEventNode which can be fully optimized
-     * out by the compiler
+     * out by the compiler. Each switch is backed by its own assumption, so turning one switch only
+     * invalidates the code instrumented under this switch.
      */
-    @CompilationFinal
-    private static boolean profilerEnabled = true;
+    @CompilationFinal(dimensions = 1)
+    private final InstrumentationSwitch[] switches;
 
     public static boolean getEnabled() {
-        return profilerEnabled;
+        return InstrumentationSwitch.GLOBAL.isEnabled();
     }
 
     /**
      * @param value true to enable the profiler or false to disable
      */
     public static void updateEnabled(boolean value) {
-        CompilerDirectives.transferToInterpreterAndInvalidate();
-        profilerEnabled = value;
+        InstrumentationSwitch.GLOBAL.setEnabled(value);
     }
 
     public ProfilerExecutionEventNode(ProfiledTagEnum cb, EventContext context,
                                       BaseEventHandlerNode child) {
+        this(null, null, cb, context, child);
+    }
+
+    public ProfilerExecutionEventNode(NodeProfAnalysis analysis, ContextThreadLocal<ThreadState> threadStates, ProfiledTagEnum cb, EventContext context,
+                                      BaseEventHandlerNode child) {
         this.context = context;
         this.cb = cb;
-        if (cb != null) this.cb.nodeCount++;
+        this.analysis = analysis;
+        this.threadStates = threadStates;
+        if (cb != null) this.cb.countNode();
         this.child = child;
+        this.switches = createSwitches(analysis);
+        setupInputs();
+        setupSampling();
+    }
+
+    /**
+     * create the event node for the handler, specialized to its number of inputs if it is fixed
+     * (see FixedInputsEventNode)
+     */
+    public static ProfilerExecutionEventNode create(NodeProfAnalysis analysis, ContextThreadLocal<ThreadState> threadStates, ProfiledTagEnum cb, EventContext context,
+                                                    BaseEventHandlerNode child) {
+        if (child != null && child.expectedNumInputs() >= 0) {
+            return new FixedInputsEventNode(analysis, threadStates, cb, context, child);
+        }
+        return new ProfilerExecutionEventNode(analysis, threadStates, cb, context, child);
+    }
+
+    @TruffleBoundary
+    private static InstrumentationSwitch[] createSwitches(NodeProfAnalysis analysis) {
+        if (analysis == null) {
+            return new InstrumentationSwitch[]{InstrumentationSwitch.GLOBAL};
+        }
+        return new InstrumentationSwitch[]{InstrumentationSwitch.GLOBAL, analysis.getSwitch()};
+    }
+
+    /**
+     * @return true if all switches of this node and the switches of the analysis of the child are
+     *         on
+     */
+    @ExplodeLoop
+    private boolean isEnabled() {
+        for (InstrumentationSwitch s : switches) {
+            if (!s.isEnabled()) {
+                return false;
+            }
+        }
+        return child.isAnalysisEnabled();
     }
 
     public EventContext getContext() {
         return context;
     }
 
+    /**
+     * @return the number of inputs expected by the child or -1 if unknown
+     */
+    protected int getExpectedNumInputs() {
+        return child.expectedNumInputs();
+    }
+
+    /**
+     * @param inputIndex the index of the input or -1 for onEnter
+     * @return true if all inputs expected by the child are saved with this input
+     */
+    protected boolean isLastInput(int inputIndex) {
+        return child.isLastIndex(getInputCount(), inputIndex);
+    }
+
+    /**
+     * @param newChild the handler replacing the current child
+     * @return true if this node can execute the new child
+     */
+    protected boolean acceptsChild(BaseEventHandlerNode newChild) {
+        return true;
+    }
+
     @Override
     protected void onInputValue(VirtualFrame frame, EventContext inputContext,
                                 int inputIndex, Object inputValue) {
-        if (!profilerEnabled || this.child == null) {
+        if (this.child == null || !isEnabled()) {
+            return;
+        }
+        checkSamplingRate();
+        if (samplingRate != null && !isSampled(frame)) {
             return;
         }
 
+        Object returnInput = getReturnInput(frame, inputContext);
         Object input = returnInput != null ? returnInput : inputValue;
 
         Object newResult = null;
 
-        if (child.expectedNumInputs() < 0 || inputIndex < child.expectedNumInputs()) {
+        int expected = getExpectedNumInputs();
+        if (expected < 0 || inputIndex < expected) {
             // save input only necessary
             // note that we save the returned result if available - that means that all callbacks get the changed input
 
@@ -118,13 +281,19 @@ public class ProfilerExecutionEventNode extends ExecutionEventNode {
                 reportError(null, e);
             }
 
-            saveInputValue(frame, inputIndex, input);
+            if (!BaseEventHandlerNode.isInputInMask(inputMask, inputIndex)) {
+                // not read by the child
+            } else if (indexedInputs) {
+                saveIndexedInput(frame, inputIndex, input);
+            } else {
+                saveInputValue(frame, inputIndex, input);
+            }
         }
 
-        if (this.child.isLastIndex(getInputCount(), inputIndex)) {
-            this.cb.preHitCount++;
+        if (isLastInput(inputIndex)) {
+            this.cb.countPreHit(ThreadState.get(threadStates));
             try {
-                newResult = this.child.executePre(frame, child.expectedNumInputs() != 0 ? getSavedInputValues(frame) : null);
+                newResult = this.child.executePre(frame, getInputs(frame));
 
                 // allow for handler changes after executePre/Post
                 checkHandlerChanges();
@@ -138,25 +307,30 @@ public class ProfilerExecutionEventNode extends ExecutionEventNode {
          * However, it can still be useful in cases in which it is known that no child will unwind
          */
         if (newResult != null) {
-            CompilerDirectives.transferToInterpreter();
-//            returnInput = newResult;
-            throw context.createUnwind(newResult);
+            throw replaceResult(frame, newResult);
         }
     }
 
     @Override
     protected void onEnter(VirtualFrame frame) {
-        if (!profilerEnabled || this.child == null) {
+        if (this.child == null || !isEnabled()) {
+            return;
+        }
+        checkSamplingRate();
+        if (samplingRate != null && getSlots(frame) != null && !sample()) {
             return;
         }
 
-        hasOnEnter++;
+        enter(frame);
+        if (indexedInputs) {
+            clearIndexedInputs(frame);
+        }
         Object newResult = null;
         try {
             this.child.executeEnter(frame);
 
-            if (this.child.isLastIndex(getInputCount(), -1)) {
-                this.cb.preHitCount++;
+            if (isLastInput(-1)) {
+                this.cb.countPreHit(ThreadState.get(threadStates));
 
                 newResult = this.child.executePre(frame, null);
 
@@ -167,15 +341,14 @@ public class ProfilerExecutionEventNode extends ExecutionEventNode {
             reportError(null, e);
         }
         if (newResult != null) {
-            CompilerDirectives.transferToInterpreter();
-            throw context.createUnwind(newResult);
+            throw replaceResult(frame, newResult);
         }
     }
 
 
     @Override
     protected void onReturnValue(VirtualFrame frame, Object result) {
-        if (!profilerEnabled || this.child == null) {
+        if (this.child == null || !isEnabled()) {
             return;
         }
 
@@ -184,11 +357,13 @@ public class ProfilerExecutionEventNode extends ExecutionEventNode {
         Object newResult = null;
 
         try {
-            if (hasOnEnter > 0) {  // not sure what hasOnEnter is needed for (is it possible to enter more often then return?)
-                hasOnEnter--;
-                this.cb.postHitCount++;
-                inputs = child.expectedNumInputs() != 0 ? getSavedInputValues(frame) : null;
+            if (hasOnEnter(frame)) {  // not sure what hasOnEnter is needed for (is it possible to enter more often then return?)
+                this.cb.countPostHit(ThreadState.get(threadStates));
+                inputs = getInputs(frame);
                 newResult = this.child.executePost(frame, result, inputs);
+                if (this.child.isOncePerSite()) {
+                    this.child.onSiteHit();
+                }
 
                 // allow for handler changes after executePre/Post
                 checkHandlerChanges();
@@ -198,17 +373,19 @@ public class ProfilerExecutionEventNode extends ExecutionEventNode {
         }
 
         if (newResult != null) {
-            CompilerDirectives.transferToInterpreterAndInvalidate();
-            returnInput = newResult;
-            throw context.createUnwind(newResult);
+            throw replaceResult(frame, newResult);
         }
     }
 
     @Override
     protected Object onUnwind(VirtualFrame frame, Object info) {
-        hasOnEnter = 0;
+        FrameSlots slots = getSlots(frame);
+        if (slots != null) {
+            frame.setAuxiliarySlot(slots.enterSlot, null);
+            frame.setAuxiliarySlot(slots.returnInputSlot, null);
+            frame.setAuxiliarySlot(slots.returnInputContextSlot, null);
+        }
         // ToDo - some debug output?
-        returnInput = null;
         return info;
     }
 
@@ -239,39 +416,300 @@ public class ProfilerExecutionEventNode extends ExecutionEventNode {
 
     @Override
     protected void onReturnExceptional(VirtualFrame frame, Throwable exception) {
-        if (!profilerEnabled || this.child == null) {
+        if (this.child == null || !isEnabled()) {
             return;
         }
 
-        Object[] inputs = child.expectedNumInputs() != 0 ? getSavedInputValues(frame) : null;
+        Object[] inputs = null;
         Object newResult = null;
         try {
-            if (hasOnEnter > 0) {
-                hasOnEnter--;
+            if (hasOnEnter(frame)) {
 
                 // it can be that one of the input threw an error
                 // thus the throwing and its following inputs where not saved and are null
-                if (inputs != null) {
-                    inputs = Arrays.stream(inputs).filter(Objects::nonNull).toArray();
-                }
+                inputs = removeMissingInputs(getInputs(frame), inputMask);
 
-                this.cb.exceptionHitCount++;
+                this.cb.countExceptionHit(ThreadState.get(threadStates));
                 if (exception instanceof ControlFlowException) {
                     // ToDo - look into this
                     this.child.executeExceptionalCtrlFlow(frame, exception, inputs);
                 } else if (exception instanceof GraalJSException) {
                     newResult = this.child.executeExceptional(frame, exception, inputs);
                 }
+                if (this.child.isOncePerSite()) {
+                    this.child.onSiteHit();
+                    checkHandlerChanges();
+                }
             }
         } catch (Throwable e) {
             reportError(inputs, e);
         }
 
         if (newResult != null) {
-            returnInput = newResult;
+            throw replaceResult(frame, newResult);
+        }
+    }
+
+    /**
+     * @return the saved inputs as array or null if the child does not expect inputs or reads them
+     *         by index
+     */
+    private Object[] getInputs(VirtualFrame frame) {
+        if (indexedInputs || getExpectedNumInputs() == 0) {
+            return null;
+        }
+        return getSavedInputValues(frame);
+    }
+
+    /**
+     * @param inputs the saved inputs
+     * @param inputMask the inputs read by the child, the others are never saved
+     * @return the inputs without the ones missing because of an exception
+     */
+    private static Object[] removeMissingInputs(Object[] inputs, long inputMask) {
+        if (inputs == null) {
+            return null;
+        }
+        if (inputMask != BaseEventHandlerNode.ALL_INPUTS) {
+            // keep the indices of the inputs read, i.e., only cut the ones after the first
+            // missing input
+            for (int i = 0; i < inputs.length; i++) {
+                if (inputs[i] == null && BaseEventHandlerNode.isInputInMask(inputMask, i)) {
+                    return Arrays.copyOf(inputs, i);
+                }
+            }
+            return inputs;
+        }
+        int saved = 0;
+        for (Object input : inputs) {
+            if (input != null) {
+                saved++;
+            }
+        }
+        if (saved == inputs.length) {
+            return inputs;
+        }
+        Object[] result = new Object[saved];
+        int i = 0;
+        for (Object input : inputs) {
+            if (input != null) {
+                result[i++] = input;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the auxiliary slots of this node in the frame, allocated for the first frames of a
+     *         descriptor, or null if too many descriptors have been seen
+     */
+    @ExplodeLoop
+    private FrameSlots getSlots(VirtualFrame frame) {
+        FrameDescriptor descriptor = frame.getFrameDescriptor();
+        FrameSlots[] all = frameSlots;
+        for (int i = 0; i < all.length; i++) {
+            if (all[i].descriptor == descriptor) {
+                return all[i];
+            }
+        }
+        if (all.length >= MAX_FRAME_DESCRIPTORS) {
+            return null;
+        }
+        CompilerDirectives.transferToInterpreterAndInvalidate();
+        return allocateSlots(descriptor);
+    }
+
+    private FrameSlots allocateSlots(FrameDescriptor descriptor) {
+        FrameSlots slots = new FrameSlots(descriptor, enterKey);
+        FrameSlots[] all = Arrays.copyOf(frameSlots, frameSlots.length + 1);
+        all[all.length - 1] = slots;
+        this.frameSlots = all;
+        return slots;
+    }
+
+    private void enter(VirtualFrame frame) {
+        FrameSlots slots = getSlots(frame);
+        if (slots != null) {
+            Object entered = frame.getAuxiliarySlot(slots.enterSlot);
+            frame.setAuxiliarySlot(slots.enterSlot, entered == null ? 1 : (int) entered + 1);
+        }
+    }
+
+    /**
+     * @return true if onEnter has been called for the current execution of this node in this
+     *         frame, which is then marked as finished
+     */
+    private boolean hasOnEnter(VirtualFrame frame) {
+        FrameSlots slots = getSlots(frame);
+        if (slots == null) {
+            return true;
+        }
+        Object entered = frame.getAuxiliarySlot(slots.enterSlot);
+        if (entered == null) {
+            return false;
+        }
+        int count = (int) entered;
+        frame.setAuxiliarySlot(slots.enterSlot, count > 1 ? count - 1 : null);
+        return true;
+    }
+
+    /**
+     * @return true if the current execution is sampled, i.e., its onEnter was delivered
+     */
+    private boolean isSampled(VirtualFrame frame) {
+        FrameSlots slots = getSlots(frame);
+        return slots == null || frame.getAuxiliarySlot(slots.enterSlot) != null;
+    }
+
+    /**
+     * count down to the next sampled execution
+     *
+     * @return true if the execution starting is sampled
+     */
+    private boolean sample() {
+        int countdown = sampleCountdown - 1;
+        if (countdown > 0) {
+            sampleCountdown = countdown;
+            return false;
+        }
+        if (sampleFirst > 0) {
+            sampleFirst--;
+            sampleCountdown = 1;
+        } else {
+            sampleCountdown = samplingRate.getPeriod();
+        }
+        return true;
+    }
+
+    /**
+     * The first execution is always sampled, then the first ones of the rate and then one in
+     * period. The countdown is only restarted if the rate changes with the child.
+     */
+    private void setupSampling() {
+        SamplingRate rate = child != null ? child.getSamplingRate(cb) : SamplingRate.ALL;
+        if (rate.isAll()) {
+            this.samplingRate = null;
+        } else if (!rate.equals(samplingRate)) {
+            this.sampleCountdown = 1;
+            this.sampleFirst = Math.max(rate.getFirst() - 1, 0);
+            this.samplingRate = rate;
+        }
+    }
+
+    /**
+     * @param inputContext the context of the node reporting the input
+     * @return the result of the input node replaced by a callback, or null
+     */
+    private Object getReturnInput(VirtualFrame frame, EventContext inputContext) {
+        FrameSlots slots = getSlots(frame);
+        if (slots == null || frame.getAuxiliarySlot(slots.returnInputContextSlot) != inputContext) {
+            return null;
+        }
+        return frame.getAuxiliarySlot(slots.returnInputSlot);
+    }
+
+    private void setReturnInput(VirtualFrame frame, Object value) {
+        FrameSlots slots = getSlots(frame);
+        if (slots != null) {
+            frame.setAuxiliarySlot(slots.returnInputSlot, value);
+            frame.setAuxiliarySlot(slots.returnInputContextSlot, context);
+        }
+    }
+
+    /**
+     * Replace the result of the instrumented node by unwinding it (see onUnwind). The result is
+     * also kept in the frame for the input events of the parent nodes, which are reported before
+     * the unwind.
+     * <p>
+     * Only the first replacement of the site invalidates the compiled code, the unwind is then part
+     * of it, so that analyses replacing values on every execution stay compiled.
+     *
+     * @return the exception to throw
+     */
+    private ThreadDeath replaceResult(VirtualFrame frame, Object newResult) {
+        if (!replacesResult) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            replacesResult = true;
+        }
+        setReturnInput(frame, newResult);
+        return context.createUnwind(newResult);
+    }
+
+    /**
+     * The inputs are read from the slots of the frame, or from the saved inputs in the frames
+     * without slots (see saveIndexedInput).
+     */
+    @Override
+    public Object getSavedInput(VirtualFrame frame, int index) {
+        FrameSlots slots = getSlots(frame);
+        if (slots == null) {
+            Object[] saved = getSavedInputValues(frame);
+            return index < saved.length ? saved[index] : null;
+        }
+        int[] inputSlots = slots.inputSlots;
+        if (inputSlots == null || index >= inputSlots.length) {
+            return null;
+        }
+        return frame.getAuxiliarySlot(inputSlots[index]);
+    }
+
+    private void saveIndexedInput(VirtualFrame frame, int index, Object input) {
+        FrameSlots slots = getSlots(frame);
+        if (slots == null) {
+            saveInputValue(frame, index, input);
+            return;
+        }
+        if (slots.inputSlots == null) {
             CompilerDirectives.transferToInterpreterAndInvalidate();
-            throw context.createUnwind(newResult);
+            allocateInputSlots(slots);
+        }
+        frame.setAuxiliarySlot(slots.inputSlots[index], input);
+    }
+
+    @ExplodeLoop
+    private void clearIndexedInputs(VirtualFrame frame) {
+        FrameSlots slots = getSlots(frame);
+        if (slots == null || slots.inputSlots == null) {
+            return;
+        }
+        int[] inputSlots = slots.inputSlots;
+        for (int i = 0; i < inputSlots.length; i++) {
+            frame.setAuxiliarySlot(inputSlots[i], null);
+        }
+    }
+
+    private void allocateInputSlots(FrameSlots slots) {
+        int count = child.expectedNumInputs();
+        if (inputKeys.length < count) {
+            Object[] keys = Arrays.copyOf(inputKeys, count);
+            for (int i = inputKeys.length; i < count; i++) {
+                keys[i] = new Object();
+            }
+            inputKeys = keys;
+        }
+        int[] inputSlots = new int[count];
+        for (int i = 0; i < count; i++) {
+            inputSlots[i] = slots.descriptor.findOrAddAuxiliarySlot(inputKeys[i]);
+        }
+        slots.inputSlots = inputSlots;
+    }
+
+    /**
+     * Only the inputs in the input mask of the child are saved. They are read by index if the
+     * child asks for it and the number of inputs is known ahead.
+     */
+    private void setupInputs() {
+        this.inputMask = child != null ? child.getInputMask() : BaseEventHandlerNode.ALL_INPUTS;
+        boolean indexed = child != null && child.expectedNumInputs() > 0 && child.usesIndexedInputs();
+        if (indexed) {
+            for (FrameSlots slots : frameSlots) {
+                if (slots.inputSlots != null && slots.inputSlots.length != child.expectedNumInputs()) {
+                    slots.inputSlots = null;
+                }
+            }
+            child.bindIndexedInputs(this);
         }
+        this.indexedInputs = indexed;
     }
 
     public ProfiledTagEnum getType() {
@@ -285,12 +723,36 @@ public class ProfilerExecutionEventNode extends ExecutionEventNode {
             removeInstrumentation();
         } else if (newChild != this.child) {
             updateChild(newChild);
+        } else {
+            checkSamplingRate();
+        }
+    }
+
+    /**
+     * pick up a sampling rate updated since the last event, e.g., throttled by the
+     * OverheadGovernor. The check folds away in compiled code until the rate is updated (see
+     * BaseEventHandlerNode.updateSamplingRate).
+     */
+    private void checkSamplingRate() {
+        if (this.child.isSamplingRateChanged()) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            this.child.clearSamplingRateChanged();
+            setupSampling();
         }
     }
 
     private void updateChild(BaseEventHandlerNode newChild) {
         CompilerDirectives.transferToInterpreterAndInvalidate();
+        if (!acceptsChild(newChild)) {
+            // the execution in progress is finished by this node and the following ones by the
+            // generic node
+            Logger.debug("Replacing specialized instrumentation for " + newChild.getClass().getTypeName() + " @ " + context.getInstrumentedNode());
+            this.replace(new ProfilerExecutionEventNode(analysis, threadStates, cb, context, newChild), "NodeProf instrumentation handler changed its inputs");
+            return;
+        }
         this.child = insert(newChild);
+        setupInputs();
+        setupSampling();
     }
 
     private void removeInstrumentation() {
@@ -298,6 +760,6 @@ public class ProfilerExecutionEventNode extends ExecutionEventNode {
         Logger.debug("Removing instrumentation for " + this.child.getClass().getTypeName() + " / " + this + " @ " + context.getInstrumentedNode());
         this.replace(new ExecutionEventNode() {
         }, "NodeProf instrumentation handler removed");
-        this.cb.deactivatedCount++;
+        this.cb.countDeactivated();
     }
 }
@@ -0,0 +1,84 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.analysis;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.nodes.Node;
+
+/**
+ * The sites where the handlers of a factory were deactivated (e.g., by a callback returning
+ * {deactivate: true}, as once per site handlers or by the OverheadGovernor) or throttled.
+ * <p>
+ * The InstrumentationMultiplexer attaches its bindings again when an analysis registers new
+ * callbacks, which creates the handlers of the nodes already instrumented again. It does not
+ * create the handlers of the deactivated sites, and gives the throttled sites their rate, so that
+ * the handlers keep their state across the bindings. The sites are the instrumented nodes, weakly
+ * referenced, and only recorded once deactivated or throttled.
+ */
+public final class RetiredSites {
+    private final Map<Node, SamplingRate> sites = new WeakHashMap<>();
+    private volatile boolean empty = true;
+
+    /**
+     * record the node as deactivated
+     */
+    @TruffleBoundary
+    public synchronized void deactivated(Node node) {
+        sites.put(node, null);
+        empty = false;
+    }
+
+    /**
+     * record the node as throttled to the rate, unless deactivated
+     */
+    @TruffleBoundary
+    public synchronized void throttled(Node node, SamplingRate rate) {
+        if (!sites.containsKey(node) || sites.get(node) != null) {
+            sites.put(node, rate);
+            empty = false;
+        }
+    }
+
+    /**
+     * @return true if the handler of the node was deactivated
+     */
+    @TruffleBoundary
+    public boolean isDeactivated(Node node) {
+        if (empty) {
+            return false;
+        }
+        synchronized (this) {
+            return sites.containsKey(node) && sites.get(node) == null;
+        }
+    }
+
+    /**
+     * @return the rate the handler of the node was throttled to, or null
+     */
+    @TruffleBoundary
+    public SamplingRate getRate(Node node) {
+        if (empty) {
+            return null;
+        }
+        synchronized (this) {
+            return sites.get(node);
+        }
+    }
+}
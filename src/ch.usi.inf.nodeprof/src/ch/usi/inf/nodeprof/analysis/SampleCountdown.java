@@ -0,0 +1,58 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.analysis;
+
+/**
+ * The countdown of a sampling rate, for the handlers and callbacks sampled at their own rate
+ * within a site whose executions are all delivered (see MultiEventHandler and
+ * AbstractFactory.setSamplingRates).
+ * <p>
+ * Like the countdown of ProfilerExecutionEventNode, it is not synchronized, a race between
+ * threads only shifts the sample.
+ */
+public final class SampleCountdown {
+    private final int period;
+    // executions until the next sampled one
+    private int countdown = 1;
+    // sampled executions left before sampling one in period
+    private int first;
+
+    public SampleCountdown(SamplingRate rate) {
+        this.period = rate.getPeriod();
+        this.first = Math.max(rate.getFirst() - 1, 0);
+    }
+
+    /**
+     * count down to the next sampled execution, the first execution is always sampled
+     *
+     * @return true if the execution is sampled
+     */
+    public boolean sample() {
+        int left = countdown - 1;
+        if (left > 0) {
+            countdown = left;
+            return false;
+        }
+        if (first > 0) {
+            first--;
+            countdown = 1;
+        } else {
+            countdown = period;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,152 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.analysis;
+
+import java.util.EnumMap;
+import java.util.Objects;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
+import ch.usi.inf.nodeprof.utils.Logger;
+
+/**
+ * The executions of an instrumented site delivered to its handlers: the first executions, then one
+ * in period executions.
+ * <p>
+ * The rates are configured per tag with the option Sampling (see forTag), and per handler with
+ * BaseEventHandlerNode.setSamplingRate. The counting is done per site by
+ * ProfilerExecutionEventNode, or per handler or callback if those sharing a site have different
+ * rates (see SampleCountdown).
+ */
+public final class SamplingRate {
+
+    /**
+     * every execution is delivered
+     */
+    public static final SamplingRate ALL = new SamplingRate(0, 1);
+
+    private final int first;
+    private final int period;
+
+    private SamplingRate(int first, int period) {
+        this.first = first;
+        this.period = period;
+    }
+
+    /**
+     * @param first the number of executions always delivered
+     * @param period deliver one in period executions after the first ones
+     * @return the sampling rate
+     */
+    public static SamplingRate create(int first, int period) {
+        if (first < 0 || period < 1) {
+            throw new IllegalArgumentException("invalid sampling rate " + first + ":" + period);
+        }
+        if (period == 1) {
+            return ALL;
+        }
+        return new SamplingRate(first, period);
+    }
+
+    public int getFirst() {
+        return first;
+    }
+
+    public int getPeriod() {
+        return period;
+    }
+
+    /**
+     * @return true if every execution is delivered
+     */
+    public boolean isAll() {
+        return period == 1;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof SamplingRate)) {
+            return false;
+        }
+        SamplingRate other = (SamplingRate) obj;
+        return first == other.first && period == other.period;
+    }
+
+    @Override
+    public int hashCode() {
+        return first * 31 + period;
+    }
+
+    @Override
+    public String toString() {
+        return first == 0 ? "1/" + period : first + " then 1/" + period;
+    }
+
+    // the rates parsed from the option, parsed again if the option changes
+    private static String tagRatesSpec = null;
+    private static EnumMap<ProfiledTagEnum, SamplingRate> tagRates = null;
+
+    /**
+     * @param tag the tag of the instrumented site
+     * @return the sampling rate of the tag configured with the option Sampling, or ALL
+     */
+    @TruffleBoundary
+    public static synchronized SamplingRate forTag(ProfiledTagEnum tag) {
+        String spec = GlobalConfiguration.SAMPLING;
+        if (tagRates == null || !Objects.equals(spec, tagRatesSpec)) {
+            tagRates = parse(spec);
+            tagRatesSpec = spec;
+        }
+        SamplingRate rate = tagRates.get(tag);
+        return rate == null ? ALL : rate;
+    }
+
+    /**
+     * @param spec the rates per tag separated by ',', each as TAG=PERIOD or TAG=FIRST:PERIOD, e.g.,
+     *            "PROPERTY_READ=100,INVOKE=10:1000"
+     * @return the rates per tag
+     */
+    @TruffleBoundary
+    public static EnumMap<ProfiledTagEnum, SamplingRate> parse(String spec) {
+        EnumMap<ProfiledTagEnum, SamplingRate> rates = new EnumMap<>(ProfiledTagEnum.class);
+        if (spec == null || spec.isEmpty()) {
+            return rates;
+        }
+        for (String entry : spec.split(",")) {
+            String[] tagAndRate = entry.trim().split("=");
+            try {
+                if (tagAndRate.length != 2) {
+                    throw new IllegalArgumentException("expected TAG=RATE");
+                }
+                ProfiledTagEnum tag = ProfiledTagEnum.valueOf(tagAndRate[0].trim());
+                String[] firstAndPeriod = tagAndRate[1].trim().split(":");
+                if (firstAndPeriod.length == 1) {
+                    rates.put(tag, create(0, Integer.parseInt(firstAndPeriod[0])));
+                } else if (firstAndPeriod.length == 2) {
+                    rates.put(tag, create(Integer.parseInt(firstAndPeriod[0]), Integer.parseInt(firstAndPeriod[1])));
+                } else {
+                    throw new IllegalArgumentException("expected PERIOD or FIRST:PERIOD");
+                }
+            } catch (IllegalArgumentException e) {
+                Logger.error("ignoring sampling rate '" + entry + "': " + e.getMessage());
+            }
+        }
+        return rates;
+    }
+}
@@ -18,14 +18,17 @@ package ch.usi.inf.nodeprof.handlers;
 
 import static com.oracle.truffle.js.runtime.Strings.REQUIRE_PROPERTY_NAME;
 
+import com.oracle.truffle.api.Assumption;
 import com.oracle.truffle.api.CompilerAsserts;
 import com.oracle.truffle.api.CompilerDirectives;
 import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.Truffle;
 import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.instrumentation.EventContext;
 import com.oracle.truffle.api.instrumentation.InstrumentableNode;
 import com.oracle.truffle.api.interop.InteropLibrary;
+import com.oracle.truffle.api.nodes.ExplodeLoop;
 import com.oracle.truffle.api.nodes.Node;
 import com.oracle.truffle.api.nodes.RootNode;
 import com.oracle.truffle.api.object.DynamicObject;
@@ -38,6 +41,12 @@ import com.oracle.truffle.js.runtime.builtins.JSFunction;
 import com.oracle.truffle.js.runtime.objects.JSDynamicObject;
 import com.oracle.truffle.js.runtime.objects.Undefined;
 
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.InstrumentationSwitch;
+import ch.usi.inf.nodeprof.analysis.RetiredSites;
+import ch.usi.inf.nodeprof.analysis.SamplingRate;
+import ch.usi.inf.nodeprof.utils.AttachCostTracer;
+import ch.usi.inf.nodeprof.utils.AttachCostTracer.Phase;
 import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
 import ch.usi.inf.nodeprof.utils.Logger;
 import ch.usi.inf.nodeprof.utils.SourceMapping;
@@ -53,6 +62,44 @@ public abstract class BaseEventHandlerNode extends Node {
     private boolean noReturnSlot = false;
     @CompilationFinal
     private boolean deactivated = false;
+    @CompilationFinal
+    private boolean oncePerSite = false;
+    /**
+     * the executions delivered to this handler, or null for the rate of the tag (see SamplingRate)
+     */
+    @CompilationFinal
+    private SamplingRate samplingRate = null;
+    /**
+     * invalidated when the sampling rate is updated, which also invalidates the compiled code of
+     * the event node reading the rate (see updateSamplingRate)
+     */
+    @CompilationFinal
+    private Assumption samplingRateUnchanged = Truffle.getRuntime().createAssumption("sampling rate unchanged");
+    @CompilationFinal
+    private IndexedInputs indexedInputs = null;
+    /**
+     * the switch of the analysis of this handler, only set if it shares its event node with the
+     * handlers of other analyses (see InstrumentationMultiplexer)
+     */
+    @CompilationFinal
+    private InstrumentationSwitch analysisSwitch = null;
+    /**
+     * the scoped switches of the analysis of this handler, and the ones matching its node, looked
+     * up again once the scopes changed
+     */
+    @CompilationFinal
+    private InstrumentationSwitch.Scopes switchScopes = null;
+    @CompilationFinal
+    private ProfiledTagEnum switchTag = null;
+    @CompilationFinal
+    private Assumption switchScopesUnchanged = null;
+    @CompilationFinal(dimensions = 1)
+    private InstrumentationSwitch[] scopedSwitches = null;
+    /**
+     * records the deactivation and throttling of this handler for the handlers created again for
+     * its node (see InstrumentationMultiplexer)
+     */
+    private RetiredSites retiredSites = null;
 
     public Object getReturnValueFromFrameOrDefault(VirtualFrame frame, Object defaultValue) {
         // ToDo - find a way to nicely extract return slot; as it is not needed right now for our analysis it's not a problem
@@ -79,7 +126,9 @@ public abstract class BaseEventHandlerNode extends Node {
 
     public BaseEventHandlerNode(EventContext context) {
         this.context = context;
+        long start = AttachCostTracer.start();
         this.sourceIID = SourceMapping.getIIDForSourceSection(getSourceSectionForIID());
+        AttachCostTracer.stop(Phase.IID, context.getInstrumentedSourceSection(), start);
     }
 
     /**
@@ -166,6 +215,15 @@ public abstract class BaseEventHandlerNode extends Node {
      */
     @TruffleBoundary
     public Object getAttribute(String key) {
+        long start = AttachCostTracer.start();
+        try {
+            return readAttribute(key);
+        } finally {
+            AttachCostTracer.stop(Phase.ATTRIBUTES, context.getInstrumentedSourceSection(), start);
+        }
+    }
+
+    private Object readAttribute(String key) {
         Object result = null;
 
         Object nodeObject = ((InstrumentableNode) context.getInstrumentedNode()).getNodeObject();
@@ -189,6 +247,15 @@ public abstract class BaseEventHandlerNode extends Node {
      * @return the value of this key or null if it does not exist
      */
     public Object getAttributeOrNull(String key) {
+        long start = AttachCostTracer.start();
+        try {
+            return readAttributeOrNull(key);
+        } finally {
+            AttachCostTracer.stop(Phase.ATTRIBUTES, context.getInstrumentedSourceSection(), start);
+        }
+    }
+
+    private Object readAttributeOrNull(String key) {
         Object nodeObject = ((InstrumentableNode) context.getInstrumentedNode()).getNodeObject();
         if (nodeObject == null || !InteropLibrary.getFactory().getUncached().isMemberReadable(nodeObject, key)) {
             return null;
@@ -221,6 +288,70 @@ public abstract class BaseEventHandlerNode extends Node {
         return Undefined.instance;
     }
 
+    /**
+     * Handlers returning true read their inputs by index with
+     * {@link #getInput(VirtualFrame, int, Object[], String)} and may be given <code>null</code>
+     * inputs, which avoids materializing an input array for every event.
+     *
+     * @return true if the handler only reads its inputs through the indexed accessors
+     */
+    public boolean usesIndexedInputs() {
+        return false;
+    }
+
+    /**
+     * input mask of handlers reading all of their inputs
+     */
+    public static final long ALL_INPUTS = -1L;
+
+    /**
+     * Handlers reading only some of their inputs can declare them, the other inputs are then not
+     * saved and are undefined in the inputs given to executePre/executePost/executeExceptional.
+     * executeOnInput still gets all inputs.
+     *
+     * @return a bitmask with bit i set if input i is read, inputs beyond 63 are always saved
+     */
+    public long getInputMask() {
+        return ALL_INPUTS;
+    }
+
+    /**
+     * @param inputMask as returned by {@link #getInputMask()}
+     * @param index of the input
+     * @return true if the input at index is read according to the mask
+     */
+    public static boolean isInputInMask(long inputMask, int index) {
+        return index >= Long.SIZE || (inputMask & (1L << index)) != 0;
+    }
+
+    /**
+     * called by the owning event node once the inputs are saved per index
+     *
+     * @param inputs the per-index view on the saved inputs
+     */
+    public void bindIndexedInputs(IndexedInputs inputs) {
+        CompilerAsserts.neverPartOfCompilation();
+        this.indexedInputs = inputs;
+    }
+
+    /**
+     * retrieve the value of the input at index, either from the inputs array if it has been
+     * materialized or directly from the inputs saved in the frame
+     *
+     * @param frame the current virtual frame
+     * @param index of the input
+     * @param inputs the input array or null
+     * @param inputHint
+     * @return the value of the input or undefined if missing
+     */
+    protected final Object getInput(VirtualFrame frame, int index, Object[] inputs, String inputHint) {
+        if (inputs != null || indexedInputs == null || frame == null) {
+            return assertGetInput(index, inputs, inputHint);
+        }
+        Object result = indexedInputs.getSavedInput(frame, index);
+        return result == null ? Undefined.instance : result;
+    }
+
     /**
      * retrieve the real value from the inputs with exception handler
      *
@@ -361,9 +492,130 @@ public abstract class BaseEventHandlerNode extends Node {
         return deactivated ? null : this;
     }
 
+    public void setAnalysisSwitch(InstrumentationSwitch analysisSwitch) {
+        CompilerAsserts.neverPartOfCompilation();
+        this.analysisSwitch = analysisSwitch;
+    }
+
+    /**
+     * @param scopes the scoped switches of the analysis of this handler
+     * @param tag the tag of the instrumented node
+     */
+    public void setSwitchScopes(InstrumentationSwitch.Scopes scopes, ProfiledTagEnum tag) {
+        CompilerAsserts.neverPartOfCompilation();
+        this.switchScopes = scopes;
+        this.switchTag = tag;
+        this.switchScopesUnchanged = null;
+    }
+
+    /**
+     * @return false if the handler is turned off with the switch of its analysis or a scoped switch
+     *         of its analysis
+     */
+    @ExplodeLoop
+    public final boolean isAnalysisEnabled() {
+        if (analysisSwitch != null && !analysisSwitch.isEnabled()) {
+            return false;
+        }
+        if (switchScopes == null) {
+            return true;
+        }
+        if (switchScopesUnchanged == null || !switchScopesUnchanged.isValid()) {
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            // read before resolving, so that a switch added meanwhile invalidates it
+            switchScopesUnchanged = switchScopes.getUnchanged();
+            scopedSwitches = switchScopes.resolve(switchTag, context);
+        }
+        for (InstrumentationSwitch s : scopedSwitches) {
+            if (!s.isEnabled()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void setRetiredSites(RetiredSites retiredSites) {
+        CompilerAsserts.neverPartOfCompilation();
+        this.retiredSites = retiredSites;
+    }
+
     public void deactivate() {
         CompilerAsserts.neverPartOfCompilation();
         deactivated = true;
+        if (retiredSites != null) {
+            retiredSites.deactivated(context.getInstrumentedNode());
+        }
+    }
+
+    /**
+     * Make this handler a once per site handler, which is deactivated after the first execution of
+     * the instrumented node, i.e., after its first post or exceptional event. Its instrumentation is
+     * then removed, thus coverage (e.g., of statements, branches or functions) costs nothing once a
+     * site is covered.
+     */
+    public void setOncePerSite() {
+        CompilerAsserts.neverPartOfCompilation();
+        oncePerSite = true;
+    }
+
+    public boolean isOncePerSite() {
+        return oncePerSite;
+    }
+
+    /**
+     * Only deliver a sample of the executions of the instrumented node to this handler. If handlers
+     * with different rates share a node, each of them is sampled at its own rate (see
+     * MultiEventHandler.getSamplingRate).
+     */
+    public void setSamplingRate(SamplingRate samplingRate) {
+        CompilerAsserts.neverPartOfCompilation();
+        this.samplingRate = samplingRate;
+    }
+
+    /**
+     * change the sampling rate of a handler already instrumenting a node, the event node uses it
+     * from its next event on (see isSamplingRateChanged)
+     */
+    public void updateSamplingRate(SamplingRate rate) {
+        CompilerDirectives.transferToInterpreterAndInvalidate();
+        this.samplingRate = rate;
+        this.samplingRateUnchanged.invalidate();
+        if (retiredSites != null) {
+            retiredSites.throttled(context.getInstrumentedNode(), rate);
+        }
+    }
+
+    /**
+     * @return true if the sampling rate changed since the event node read it
+     */
+    public boolean isSamplingRateChanged() {
+        return !samplingRateUnchanged.isValid();
+    }
+
+    public void clearSamplingRateChanged() {
+        CompilerAsserts.neverPartOfCompilation();
+        if (!samplingRateUnchanged.isValid()) {
+            samplingRateUnchanged = Truffle.getRuntime().createAssumption("sampling rate unchanged");
+        }
+    }
+
+    /**
+     * @param tag the tag of the instrumented node
+     * @return the executions to deliver to this handler
+     */
+    public SamplingRate getSamplingRate(ProfiledTagEnum tag) {
+        if (samplingRate != null) {
+            return samplingRate;
+        }
+        return tag == null ? SamplingRate.ALL : SamplingRate.forTag(tag);
+    }
+
+    /**
+     * called after an execution of the instrumented node if isOncePerSite() is true
+     */
+    public void onSiteHit() {
+        CompilerDirectives.transferToInterpreterAndInvalidate();
+        deactivate();
     }
 
     private static boolean isModuleInvocation(Object[] args) {
@@ -29,6 +29,10 @@ public class BaseSingleTagEventHandler extends BaseEventHandlerNode {
 
     protected final ProfiledTagEnum tag;
 
+    public ProfiledTagEnum getTag() {
+        return tag;
+    }
+
     @Override
     public int expectedNumInputs() {
         return tag.getExpectedNumInputs();
@@ -16,6 +16,7 @@
  * *****************************************************************************/
 package ch.usi.inf.nodeprof.handlers;
 
+import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.instrumentation.EventContext;
 
 import ch.usi.inf.nodeprof.ProfiledTagEnum;
@@ -36,6 +37,14 @@ public abstract class ElementReadEventHandler extends BaseSingleTagEventHandler
         return assertGetInput(1, inputs, "name");
     }
 
+    public Object getReceiver(VirtualFrame frame, Object[] inputs) {
+        return getInput(frame, 0, inputs, "receiver");
+    }
+
+    public Object getProperty(VirtualFrame frame, Object[] inputs) {
+        return getInput(frame, 1, inputs, "name");
+    }
+
     /**
      * TODO: unsupported yet
      *
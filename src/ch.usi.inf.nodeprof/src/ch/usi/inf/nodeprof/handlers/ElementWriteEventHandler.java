@@ -16,6 +16,7 @@
  * *****************************************************************************/
 package ch.usi.inf.nodeprof.handlers;
 
+import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.instrumentation.EventContext;
 
 import ch.usi.inf.nodeprof.ProfiledTagEnum;
@@ -42,6 +43,18 @@ public abstract class ElementWriteEventHandler extends BaseSingleTagEventHandler
         return assertGetInput(2, inputs, "value");
     }
 
+    public Object getProperty(VirtualFrame frame, Object[] inputs) {
+        return getInput(frame, 1, inputs, "property");
+    }
+
+    public Object getReceiver(VirtualFrame frame, Object[] inputs) {
+        return getInput(frame, 0, inputs, "receiver");
+    }
+
+    public Object getValue(VirtualFrame frame, Object[] inputs) {
+        return getInput(frame, 2, inputs, "value");
+    }
+
     /**
      * TODO: unsupported yet
      *
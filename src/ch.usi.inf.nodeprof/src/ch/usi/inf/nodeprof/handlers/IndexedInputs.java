@@ -0,0 +1,35 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.handlers;
+
+import com.oracle.truffle.api.frame.VirtualFrame;
+
+/**
+ * Per-index access to the inputs saved for the current execution of an instrumented node.
+ *
+ * Handlers returning true from {@link BaseEventHandlerNode#usesIndexedInputs()} are bound to an
+ * implementation of this interface and get <code>null</code> instead of an input array in
+ * executePre/executePost/executeExceptional.
+ */
+public interface IndexedInputs {
+    /**
+     * @param frame the current virtual frame
+     * @param index of the input
+     * @return the saved input or null if it has not been saved in this execution
+     */
+    Object getSavedInput(VirtualFrame frame, int index);
+}
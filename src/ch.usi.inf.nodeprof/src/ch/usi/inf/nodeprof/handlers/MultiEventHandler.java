@@ -28,6 +28,8 @@ import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.nodes.ExplodeLoop;
 
 import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.SampleCountdown;
+import ch.usi.inf.nodeprof.analysis.SamplingRate;
 
 public class MultiEventHandler extends BaseSingleTagEventHandler {
 
@@ -35,6 +37,25 @@ public class MultiEventHandler extends BaseSingleTagEventHandler {
     final BaseEventHandlerNode[] handlers;
     @CompilationFinal
     boolean noChildHandlerUpdate = true;
+    private final int expectedNumInputs;
+
+    /**
+     * The countdowns of the handlers sampled at their own rate, per handler and per event (ENTER,
+     * INPUT, PRE and END), or null if the handlers share their rate and the site is sampled for
+     * all of them (see getSamplingRate). The countdowns of an event are in step for the executions
+     * that do not nest on the site, a nested execution only shifts the sample.
+     */
+    @CompilationFinal(dimensions = 2)
+    private SampleCountdown[][] sampling = null;
+    // the rates of the countdowns, to keep the countdowns of the rates not updated
+    private SamplingRate[] samplingRates = null;
+    // whether the inputs of the current execution are sampled, per handler
+    private boolean[] inputsSampled = null;
+
+    private static final int ENTER = 0;
+    private static final int INPUT = 1;
+    private static final int PRE = 2;
+    private static final int END = 3;
 
     /**
      * @param handlers should be of the same kind T
@@ -45,6 +66,28 @@ public class MultiEventHandler extends BaseSingleTagEventHandler {
 
         // sort handlers by their priority
         Arrays.sort(this.handlers, Comparator.comparingInt(ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode::getPriority));
+
+        // use the number of inputs of the handlers if they agree on it, e.g., for unary operations
+        int expected = this.handlers[0].expectedNumInputs();
+        for (BaseEventHandlerNode handler : this.handlers) {
+            if (handler.expectedNumInputs() != expected) {
+                expected = tag.getExpectedNumInputs();
+                break;
+            }
+        }
+        this.expectedNumInputs = expected;
+
+        for (BaseEventHandlerNode handler : this.handlers) {
+            if (handler.isOncePerSite()) {
+                setOncePerSite();
+                break;
+            }
+        }
+    }
+
+    @Override
+    public int expectedNumInputs() {
+        return expectedNumInputs;
     }
 
     public static MultiEventHandler create(ProfiledTagEnum tag, BaseEventHandlerNode[] handlers) {
@@ -52,10 +95,88 @@ public class MultiEventHandler extends BaseSingleTagEventHandler {
         return new MultiEventHandler(tag, handlers);
     }
 
+    @Override
+    public boolean usesIndexedInputs() {
+        for (BaseEventHandlerNode handler : handlers) {
+            if (!handler.usesIndexedInputs()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public long getInputMask() {
+        long mask = 0;
+        for (BaseEventHandlerNode handler : handlers) {
+            mask |= handler.getInputMask();
+        }
+        return mask;
+    }
+
+    @Override
+    public void bindIndexedInputs(IndexedInputs inputs) {
+        super.bindIndexedInputs(inputs);
+        for (BaseEventHandlerNode handler : handlers) {
+            handler.bindIndexedInputs(inputs);
+        }
+    }
+
+    /**
+     * @return true if the event of the current execution is delivered to the i-th handler
+     */
+    private boolean isSampled(int i, int event) {
+        if (sampling == null || sampling[i] == null) {
+            return true;
+        }
+        return sampling[i][event].sample();
+    }
+
+    private boolean isInputSampled(int i, int inputIndex) {
+        if (sampling == null || sampling[i] == null) {
+            return true;
+        }
+        if (inputIndex == 0) {
+            inputsSampled[i] = sampling[i][INPUT].sample();
+        }
+        return inputsSampled[i];
+    }
+
+    @Override
+    @ExplodeLoop
+    public void executeEnter(VirtualFrame frame) {
+        for (int i = 0; i < handlers.length; i++) {
+            BaseEventHandlerNode handler = handlers[i];
+            if (handler.isAnalysisEnabled() && isSampled(i, ENTER)) {
+                handler.executeEnter(frame);
+            }
+        }
+    }
+
+    @Override
+    @ExplodeLoop
+    public Object executeOnInput(VirtualFrame frame, int inputIndex, Object input) throws Exception {
+        for (int i = 0; i < handlers.length; i++) {
+            BaseEventHandlerNode handler = handlers[i];
+            if (!handler.isAnalysisEnabled() || !isInputSampled(i, inputIndex)) {
+                continue;
+            }
+            Object result = handler.executeOnInput(frame, inputIndex, input);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
     @Override
     @ExplodeLoop
     public Object executePre(VirtualFrame frame, Object[] inputs) throws Exception {
-        for (BaseEventHandlerNode handler : handlers) {
+        for (int i = 0; i < handlers.length; i++) {
+            BaseEventHandlerNode handler = handlers[i];
+            if (!handler.isAnalysisEnabled() || !isSampled(i, PRE)) {
+                continue;
+            }
             Object result = handler.executePre(frame, inputs);
             if (result != null) {
                 return result;
@@ -65,6 +186,70 @@ public class MultiEventHandler extends BaseSingleTagEventHandler {
         return null;
     }
 
+    /**
+     * @return the rate of the handlers if they share it, otherwise every execution is delivered to
+     *         the site and the handlers with a rate are sampled by this handler (see sampling)
+     */
+    @Override
+    public SamplingRate getSamplingRate(ProfiledTagEnum tag) {
+        SamplingRate[] rates = new SamplingRate[handlers.length];
+        boolean shared = true;
+        for (int i = 0; i < handlers.length; i++) {
+            rates[i] = handlers[i].getSamplingRate(tag);
+            shared = shared && rates[i].equals(rates[0]);
+        }
+        if (shared) {
+            this.sampling = null;
+            this.samplingRates = null;
+            return rates[0];
+        }
+        SampleCountdown[][] newSampling = new SampleCountdown[handlers.length][];
+        for (int i = 0; i < handlers.length; i++) {
+            if (samplingRates != null && rates[i].equals(samplingRates[i])) {
+                newSampling[i] = sampling[i];
+            } else if (!rates[i].isAll()) {
+                newSampling[i] = new SampleCountdown[]{new SampleCountdown(rates[i]), new SampleCountdown(rates[i]), new SampleCountdown(rates[i]),
+                                new SampleCountdown(rates[i])};
+            }
+        }
+        this.inputsSampled = new boolean[handlers.length];
+        this.samplingRates = rates;
+        this.sampling = newSampling;
+        return SamplingRate.ALL;
+    }
+
+    @Override
+    @ExplodeLoop
+    public boolean isSamplingRateChanged() {
+        for (BaseEventHandlerNode handler : handlers) {
+            if (handler.isSamplingRateChanged()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void clearSamplingRateChanged() {
+        for (BaseEventHandlerNode handler : handlers) {
+            handler.clearSamplingRateChanged();
+        }
+    }
+
+    /**
+     * deactivate the once per site handlers only
+     */
+    @Override
+    public void onSiteHit() {
+        CompilerDirectives.transferToInterpreterAndInvalidate();
+        for (BaseEventHandlerNode handler : handlers) {
+            if (handler.isOncePerSite()) {
+                handler.onSiteHit();
+                noChildHandlerUpdate = false;
+            }
+        }
+    }
+
     @Override
     public BaseEventHandlerNode wantsToUpdateHandler() {
         if (noChildHandlerUpdate) {
@@ -111,7 +296,11 @@ public class MultiEventHandler extends BaseSingleTagEventHandler {
     @Override
     @ExplodeLoop
     public Object executePost(VirtualFrame frame, Object result, Object[] inputs) throws Exception {
-        for (BaseEventHandlerNode handler : handlers) {
+        for (int i = 0; i < handlers.length; i++) {
+            BaseEventHandlerNode handler = handlers[i];
+            if (!handler.isAnalysisEnabled() || !isSampled(i, END)) {
+                continue;
+            }
             Object res = handler.executePost(frame, result, inputs);
             // If any handler wants to overwrite the return value, ignore the rest
             // This should work as normally only one callback is interested in the result - at least in the jalangi case (e.g. binary or conditional)
@@ -127,7 +316,11 @@ public class MultiEventHandler extends BaseSingleTagEventHandler {
     @ExplodeLoop
     @Override
     public Object executeExceptional(VirtualFrame frame, Throwable exception, Object[] inputs) throws Exception {
-        for (BaseEventHandlerNode handler : handlers) {
+        for (int i = 0; i < handlers.length; i++) {
+            BaseEventHandlerNode handler = handlers[i];
+            if (!handler.isAnalysisEnabled() || !isSampled(i, END)) {
+                continue;
+            }
             Object res = handler.executeExceptional(frame, exception, inputs);
             if (res != null) {
                 return res;
@@ -140,7 +333,9 @@ public class MultiEventHandler extends BaseSingleTagEventHandler {
     @ExplodeLoop
     public void executeExceptionalCtrlFlow(VirtualFrame frame, Throwable exception, Object[] inputs) throws Exception {
         for (BaseEventHandlerNode handler : handlers) {
-            handler.executeExceptionalCtrlFlow(frame, exception, inputs);
+            if (handler.isAnalysisEnabled()) {
+                handler.executeExceptionalCtrlFlow(frame, exception, inputs);
+            }
         }
     }
 
@@ -16,6 +16,7 @@
  * *****************************************************************************/
 package ch.usi.inf.nodeprof.handlers;
 
+import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.instrumentation.EventContext;
 
 import ch.usi.inf.nodeprof.ProfiledTagEnum;
@@ -34,7 +35,11 @@ public abstract class PropertyWriteEventHandler extends BaseSingleTagEventHandle
     }
 
     public Object getReceiver(Object[] inputs) {
-        Object result = assertGetInput(0, inputs, "receiver");
+        return getReceiver(null, inputs);
+    }
+
+    public Object getReceiver(VirtualFrame frame, Object[] inputs) {
+        Object result = getInput(frame, 0, inputs, "receiver");
         GlobalObjectCache.getInstance().addObject(result);
         return result;
     }
@@ -52,8 +57,19 @@ public abstract class PropertyWriteEventHandler extends BaseSingleTagEventHandle
         }
     }
 
+    public Object getValue(VirtualFrame frame, Object[] inputs) {
+        if (inputs != null) {
+            return getValue(inputs);
+        }
+        return getInput(frame, 1, null, "value");
+    }
+
     public boolean isGlobal(Object[] inputs) {
-        boolean result = getReceiver(inputs) == GlobalObjectCache.getInstance().getGlobal();
+        return isGlobal(null, inputs);
+    }
+
+    public boolean isGlobal(VirtualFrame frame, Object[] inputs) {
+        boolean result = getReceiver(frame, inputs) == GlobalObjectCache.getInstance().getGlobal();
         assert (GlobalObjectCache.getInstance().getGlobal() != null);
         return result;
     }
@@ -0,0 +1,130 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.jalangi;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.oracle.truffle.api.CallTarget;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.RootCallTarget;
+import com.oracle.truffle.api.nodes.NodeUtil;
+
+import ch.usi.inf.nodeprof.utils.Logger;
+
+/**
+ * How the handlers of the instrumented sites call a Jalangi callback.
+ * <p>
+ * Without policy, the handlers share the call target of the callback and the compiler decides
+ * whether to inline it. INLINE forces the inlining of the shared call target, SPLIT gives each site
+ * its own copy of the callback, so that its profiles are not polluted by the other sites, and
+ * BOUNDARY calls the callback out of the compiled code of the application, so that its compilation
+ * units do not grow with the callbacks.
+ * <p>
+ * The policies are set per callback by the analysis (see JalangiAnalysis.setInlining) or with the
+ * option CallbackInlining (see parse). The sites, the nodes of the callbacks added to the
+ * application compilation units and the out-of-line calls are counted per policy and reported at
+ * exit (see report).
+ */
+public enum CallbackInlining {
+    INLINE,
+    SPLIT,
+    BOUNDARY;
+
+    private static final EnumMap<CallbackInlining, LongAdder> sites = new EnumMap<>(CallbackInlining.class);
+    private static final EnumMap<CallbackInlining, LongAdder> nodes = new EnumMap<>(CallbackInlining.class);
+    private static final LongAdder boundaryCalls = new LongAdder();
+
+    static {
+        for (CallbackInlining policy : values()) {
+            sites.put(policy, new LongAdder());
+            nodes.put(policy, new LongAdder());
+        }
+    }
+
+    /**
+     * @return the policy, or null if name is not one of inline, split or boundary
+     */
+    @TruffleBoundary
+    public static CallbackInlining fromName(Object name) {
+        try {
+            return valueOf(name.toString().trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param spec the policies per callback separated by ',', each as NAME=POLICY with NAME a
+     *            Jalangi callback or '*' for all callbacks, e.g., "*=boundary,getField=split"
+     * @return the policies per callback name
+     */
+    @TruffleBoundary
+    public static HashMap<String, CallbackInlining> parse(String spec) {
+        HashMap<String, CallbackInlining> policies = new HashMap<>();
+        if (spec == null || spec.isEmpty()) {
+            return policies;
+        }
+        for (String entry : spec.split(",")) {
+            String[] nameAndPolicy = entry.trim().split("=");
+            CallbackInlining policy = nameAndPolicy.length == 2 ? fromName(nameAndPolicy[1]) : null;
+            if (policy == null) {
+                Logger.error("ignoring callback inlining '" + entry + "': expected NAME=inline|split|boundary");
+                continue;
+            }
+            policies.put(nameAndPolicy[0].trim(), policy);
+        }
+        return policies;
+    }
+
+    /**
+     * account a site calling a callback with this policy
+     *
+     * @param target the call target of the callback
+     */
+    @TruffleBoundary
+    public void countSite(CallTarget target) {
+        sites.get(this).increment();
+        if (this != BOUNDARY && target instanceof RootCallTarget) {
+            nodes.get(this).add(NodeUtil.countNodes(((RootCallTarget) target).getRootNode()));
+        }
+    }
+
+    /**
+     * account a call of a BOUNDARY callback
+     */
+    public static void countBoundaryCall() {
+        boundaryCalls.increment();
+    }
+
+    /**
+     * log the sites, the callback nodes per site summed (the code added to the application
+     * compilation units if inlined) and the out-of-line calls per policy, and reset them
+     */
+    @TruffleBoundary
+    public static void report() {
+        for (CallbackInlining policy : values()) {
+            long count = sites.get(policy).sumThenReset();
+            long size = nodes.get(policy).sumThenReset();
+            if (count > 0) {
+                Logger.info("CallbackInlining: " + policy + " sites " + count + (policy == BOUNDARY ? " calls " + boundaryCalls.sumThenReset() : " callback nodes " + size));
+            }
+        }
+    }
+}
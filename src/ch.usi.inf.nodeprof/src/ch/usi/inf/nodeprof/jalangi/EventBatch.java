@@ -0,0 +1,300 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.jalangi;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.oracle.truffle.api.ContextThreadLocal;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.js.runtime.GraalJSException;
+import com.oracle.truffle.js.runtime.JSRuntime;
+import com.oracle.truffle.js.runtime.array.TypedArray;
+import com.oracle.truffle.js.runtime.builtins.JSArrayBufferView;
+import com.oracle.truffle.js.runtime.objects.JSDynamicObject;
+
+import ch.usi.inf.nodeprof.trace.TraceFormat;
+import ch.usi.inf.nodeprof.utils.Logger;
+import ch.usi.inf.nodeprof.utils.ThreadState;
+
+/**
+ * Batched delivery of the events of the callbacks of an analysis that only aggregate them.
+ * <p>
+ * Instead of calling a batched callback, its handlers append a record to a preallocated buffer.
+ * When the buffer is full, or when flushed by jalangi.js (see flushBatch), the records are copied
+ * into the Int32Array of the analysis, and the batch callback is called once with this array and
+ * the number of records. The buffer is then reused from its start. The layout of the records is
+ * documented at flush.
+ * <p>
+ * Each thread appends to its own buffer, kept in its ThreadState, so that the handlers shared by
+ * the threads of the engine need no synchronization. The records of a buffer are delivered by the
+ * thread that appended them, i.e., flush only delivers the records of the current thread.
+ */
+public final class EventBatch {
+
+    /**
+     * the number of ints of a record, see flush
+     */
+    public static final int RECORD_SIZE = 6;
+
+    /**
+     * the offsets of the fields in a record
+     */
+    static final int IID = 0;
+    static final int CALLBACK = 1;
+    static final int TAG = 2;
+    static final int TYPE = 3;
+    static final int VALUE = 4;
+
+    /**
+     * the parameter of the value recorded for the callbacks passing one, the IID being parameter 0
+     */
+    @SuppressWarnings("serial")
+    private static final HashMap<String, Integer> VALUE_PARAMETERS = new HashMap<String, Integer>() {
+        {
+            put("literal", 1);
+            put("read", 2);
+            put("write", 2);
+            put("getField", 3);
+            put("putFieldPre", 3);
+            put("putField", 3);
+            put("unaryPre", 2);
+            put("unary", 3);
+            put("binary", 4);
+            put("conditional", 2);
+            put("invokeFun", 4);
+            put("functionExit", 1);
+            put("endExpression", 2);
+        }
+    };
+
+    private final Object analysis;
+    private final JSDynamicObject events;
+    private final Object onBatch;
+    private final ContextThreadLocal<ThreadState> threadStates;
+    private final HashMap<JSDynamicObject, Integer> ids = new HashMap<>();
+    // the index of the value in the arguments of a call of each callback, or -1
+    private final HashMap<Integer, Integer> valueArguments = new HashMap<>();
+
+    /**
+     * the index of the buffers of this batch in the thread states
+     */
+    private static final AtomicInteger nextIndex = new AtomicInteger();
+    private final int index = nextIndex.getAndIncrement();
+
+    private final int capacity;
+
+    /**
+     * the records appended by one thread
+     */
+    private static final class Buffer {
+        private final int[] records;
+        private int count = 0;
+
+        private Buffer(int capacity) {
+            this.records = new int[capacity * RECORD_SIZE];
+        }
+    }
+
+    /**
+     * @param analysis the receiver of onBatch
+     * @param events the Int32Array passed to onBatch, its length determines the capacity
+     * @param onBatch the batch callback
+     * @param threadStates the thread states of the engine of the analysis
+     */
+    private EventBatch(Object analysis, JSDynamicObject events, Object onBatch, ContextThreadLocal<ThreadState> threadStates) {
+        this.analysis = analysis;
+        this.events = events;
+        this.onBatch = onBatch;
+        this.threadStates = threadStates;
+        this.capacity = JSArrayBufferView.typedArrayGetLength(events) / RECORD_SIZE;
+    }
+
+    /**
+     * @return the batch or null if events is not an Int32Array with space for at least one record
+     */
+    @TruffleBoundary
+    public static EventBatch create(Object analysis, Object events, Object onBatch, ContextThreadLocal<ThreadState> threadStates) {
+        if (!isInt32Array(events, RECORD_SIZE)) {
+            return null;
+        }
+        return new EventBatch(analysis, (JSDynamicObject) events, onBatch, threadStates);
+    }
+
+    /**
+     * @return true if array is an Int32Array of at least minLength elements
+     */
+    @TruffleBoundary
+    static boolean isInt32Array(Object array, int minLength) {
+        if (!JSArrayBufferView.isJSArrayBufferView(array)) {
+            return false;
+        }
+        TypedArray type = JSArrayBufferView.typedArrayGetArrayType((JSDynamicObject) array);
+        return type instanceof TypedArray.TypedIntArray && type.bytesPerElement() == Integer.BYTES && !type.isInterop() &&
+                        JSArrayBufferView.typedArrayGetLength((JSDynamicObject) array) >= minLength;
+    }
+
+    /**
+     * @param index the index of the callback in the records
+     * @param name the name of the callback
+     * @param callback the batched callback
+     */
+    void addCallback(int index, String name, JSDynamicObject callback) {
+        ids.put(callback, index);
+        Integer parameter = VALUE_PARAMETERS.get(name);
+        // the arguments of a call start with the receiver and the callback
+        valueArguments.put(index, parameter == null ? -1 : parameter + 2);
+    }
+
+    /**
+     * @param id the index of the callback in the records
+     * @param args the arguments of a call of the callback
+     * @return the value of the event in the arguments, or null if the callback passes none
+     */
+    @TruffleBoundary
+    public Object getValue(int id, Object[] args) {
+        Integer index = valueArguments.get(id);
+        return index == null || index < 0 || index >= args.length ? null : args[index];
+    }
+
+    /**
+     * @return the index of the callback in the records or -1 if it is not batched
+     */
+    @TruffleBoundary
+    public int getId(JSDynamicObject callback) {
+        Integer id = callback == null ? null : ids.get(callback);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * append a record to the buffer of the current thread, and call the batch callback if the
+     * buffer is full
+     *
+     * @param tag the ordinal of the ProfiledTagEnum of the event or -1
+     * @param value the value of the event or null
+     */
+    public void add(int iid, int id, int tag, Object value) {
+        ThreadState state = ThreadState.get(threadStates);
+        Object buffer = state.getBatchBuffer(index);
+        Buffer current = buffer != null ? (Buffer) buffer : createBuffer(state);
+        int position = current.count * RECORD_SIZE;
+        int[] records = current.records;
+        records[position + IID] = iid;
+        records[position + CALLBACK] = id;
+        records[position + TAG] = tag;
+        if (value == null) {
+            records[position + TYPE] = TraceFormat.NONE;
+            records[position + VALUE] = 0;
+            records[position + VALUE + 1] = 0;
+        } else {
+            putValue(records, position, value);
+        }
+        if (++current.count == capacity) {
+            flush(state, current);
+        }
+    }
+
+    @TruffleBoundary
+    private static void putValue(int[] records, int position, Object value) {
+        int type = TraceFormat.typeOf(value);
+        long payload = TraceFormat.payloadOf(value, type);
+        long bits = Double.doubleToRawLongBits(type == TraceFormat.DOUBLE ? Double.longBitsToDouble(payload) : (double) payload);
+        records[position + TYPE] = type;
+        // the bits of the double in the order of the Float64Array view of the events
+        if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+            records[position + VALUE] = (int) bits;
+            records[position + VALUE + 1] = (int) (bits >>> 32);
+        } else {
+            records[position + VALUE] = (int) (bits >>> 32);
+            records[position + VALUE + 1] = (int) bits;
+        }
+    }
+
+    @TruffleBoundary
+    private Buffer createBuffer(ThreadState state) {
+        Buffer buffer = new Buffer(capacity);
+        state.setBatchBuffer(index, buffer);
+        return buffer;
+    }
+
+    /**
+     * call the batch callback with the records appended so far by the current thread
+     */
+    @TruffleBoundary
+    public void flush() {
+        ThreadState state = ThreadState.get(threadStates);
+        Object buffer = state.getBatchBuffer(index);
+        if (buffer != null) {
+            flush(state, (Buffer) buffer);
+        }
+    }
+
+    /**
+     * Deliver the records of the buffer. The i-th record is at events[6 * i] and holds:
+     *
+     * <pre>
+     * IID | callback | tag | value type | value (2 ints)
+     * </pre>
+     *
+     * where callback is the index of the callback in the names given to the batch, tag the ordinal
+     * of the ProfiledTagEnum of the event (e.g., to tell INVOKE from NEW for invokeFun), or -1, and
+     * value type one of TraceFormat.NONE etc. The value is the one of the event for the callbacks
+     * passing one (see VALUE_PARAMETERS), e.g., the result of binary, and is stored as a double:
+     * the number for INT and DOUBLE, 0 or 1 for BOOLEAN, the length for STRING and 0 for the other
+     * types. It is read with a Float64Array on the buffer of the events, i.e., at index 3 * i + 2
+     * if the events start at a multiple of 8 bytes.
+     */
+    @TruffleBoundary
+    private void flush(ThreadState state, Buffer buffer) {
+        int n = buffer.count;
+        if (n == 0) {
+            return;
+        }
+        getIntView(events).put(buffer.records, 0, n * RECORD_SIZE);
+        buffer.count = 0;
+        // the events of the batch callback are not reported, as for the other callbacks
+        boolean nested = state.isNestedControl();
+        state.setNestedControl(true);
+        try {
+            JSRuntime.call(onBatch, analysis, new Object[]{events, n});
+        } catch (GraalJSException e) {
+            Logger.reportJSException(e);
+        } finally {
+            state.setNestedControl(nested);
+        }
+    }
+
+    /**
+     * @param array an Int32Array (see isInt32Array)
+     * @return a view of the elements of the array
+     */
+    static IntBuffer getIntView(JSDynamicObject array) {
+        ByteBuffer buffer;
+        if (JSArrayBufferView.typedArrayGetArrayType(array).isDirect()) {
+            buffer = JSArrayBufferView.typedArrayGetByteBuffer(array).duplicate();
+        } else {
+            buffer = ByteBuffer.wrap(JSArrayBufferView.typedArrayGetByteArray(array));
+        }
+        buffer.position(JSArrayBufferView.typedArrayGetOffset(array));
+        IntBuffer view = buffer.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+        view.limit(JSArrayBufferView.typedArrayGetLength(array));
+        return view;
+    }
+}
@@ -19,6 +19,7 @@ package ch.usi.inf.nodeprof.jalangi;
 import static ch.usi.inf.nodeprof.utils.ObjectHelper.setConfigProperty;
 
 import java.util.Arrays;
+import java.util.List;
 
 import ch.usi.inf.nodeprof.utils.TaintHelper;
 import com.oracle.truffle.api.strings.TruffleString;
@@ -29,6 +30,8 @@ import org.graalvm.options.OptionValues;
 
 import com.oracle.truffle.api.CompilerDirectives;
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.dsl.Cached;
+import com.oracle.truffle.api.dsl.Specialization;
 import com.oracle.truffle.api.interop.ArityException;
 import com.oracle.truffle.api.interop.InteropLibrary;
 import com.oracle.truffle.api.interop.TruffleObject;
@@ -40,12 +43,14 @@ import com.oracle.truffle.js.runtime.JSContext;
 import com.oracle.truffle.js.runtime.JSRealm;
 import com.oracle.truffle.js.runtime.JSRuntime;
 import com.oracle.truffle.js.runtime.Strings;
+import com.oracle.truffle.js.runtime.builtins.JSAbstractArray;
 import com.oracle.truffle.js.runtime.builtins.JSArray;
 import com.oracle.truffle.js.runtime.builtins.JSOrdinary;
 import com.oracle.truffle.js.runtime.objects.JSObject;
 import com.oracle.truffle.js.runtime.objects.Undefined;
 
 import ch.usi.inf.nodeprof.NodeProfCLI;
+import ch.usi.inf.nodeprof.analysis.InstrumentationSwitch;
 import ch.usi.inf.nodeprof.analysis.ProfilerExecutionEventNode;
 import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
 import ch.usi.inf.nodeprof.utils.GlobalObjectCache;
@@ -63,12 +68,22 @@ public class JalangiAdapter implements TruffleObject {
         IIDTOLOCATION("iidToLocation"),
         IIDTOCODE("iidToCode"),
         IIDTOSOURCEOBJECT("iidToSourceObject"),
+        IIDCOUNT("iidCount"),
+        IIDTABLE("iidTable"),
+        IIDSOURCES("iidSources"),
         NATIVELOG("nativeLog"),
         VALUEOF("valueOf"),
         ONREADY("onReady"),
         REGISTERCALLBACK("registerCallback"),
+        ONCEPERSITE("oncePerSite"),
+        SAMPLINGRATE("samplingRate"),
+        INLINING("inlining"),
+        BATCH("batch"),
+        FLUSHBATCH("flushBatch"),
+        REPLAYTRACE("replayTrace"),
         INSTRUMENTATIONSWITCH("instrumentationSwitch"),
         GETCONFIG("getConfig"),
+        GETDEACTIVATE("getDeactivate"),
         HASTAINT("hasTaint"),
         CHECKTAINTS("checkTaints");
 
@@ -159,13 +174,87 @@ public class JalangiAdapter implements TruffleObject {
         return obj;
     }
 
-    @ExportMessage
+    /**
+     * the number of member names cached per call site of invokeMember
+     */
+    static final int MEMBER_CACHE_LIMIT = 8;
+
+    /**
+     * @return the member or null if it is not supported
+     */
     @TruffleBoundary
-    final Object invokeMember(String identifier, Object[] arguments) throws ArityException, UnsupportedTypeException {
-        ApiMember api;
+    static ApiMember lookup(String identifier) {
         try {
-            api = ApiMember.valueOf(identifier.toUpperCase());
+            return ApiMember.valueOf(identifier.toUpperCase());
         } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The member is resolved from its name once per call site (inline cache on the name), then the
+     * members called per event by the analyses, e.g., iidToLocation with an int IID, are invoked
+     * without a boundary of their own (see invokeFast). The others go through invokeSlow.
+     */
+    @ExportMessage
+    static class InvokeMember {
+        @Specialization(guards = "cachedIdentifier.equals(identifier)", limit = "MEMBER_CACHE_LIMIT")
+        static Object doCached(JalangiAdapter receiver, @SuppressWarnings("unused") String identifier, Object[] arguments,
+                        @Cached("identifier") String cachedIdentifier,
+                        @Cached("lookup(identifier)") ApiMember member) throws ArityException, UnsupportedTypeException {
+            Object result = invokeFast(member, arguments);
+            return result != null ? result : receiver.invokeSlow(member, cachedIdentifier, arguments);
+        }
+
+        @Specialization(replaces = "doCached")
+        static Object doGeneric(JalangiAdapter receiver, String identifier, Object[] arguments) throws ArityException, UnsupportedTypeException {
+            ApiMember member = lookup(identifier);
+            Object result = invokeFast(member, arguments);
+            return result != null ? result : receiver.invokeSlow(member, identifier, arguments);
+        }
+    }
+
+    /**
+     * @return the result of the member, or null if the member or its arguments need the slow path
+     */
+    private static Object invokeFast(ApiMember member, Object[] arguments) {
+        if (member == ApiMember.IIDTOLOCATION || member == ApiMember.IIDTOCODE || member == ApiMember.IIDTOSOURCEOBJECT) {
+            if (arguments.length != 1 || !(arguments[0] instanceof Integer)) {
+                return null;
+            }
+            int iid = (int) arguments[0];
+            Object result;
+            if (member == ApiMember.IIDTOLOCATION) {
+                // only a cache miss crosses the boundary
+                result = SourceMapping.getCachedLocationForIID(iid);
+                if (result == null) {
+                    result = SourceMapping.getLocationForIID(iid);
+                }
+            } else if (member == ApiMember.IIDTOCODE) {
+                result = SourceMapping.getCachedCodeForIID(iid);
+                if (result == null) {
+                    result = SourceMapping.getCodeForIID(iid);
+                }
+            } else {
+                result = SourceMapping.getJSObjectForIID(iid);
+            }
+            return result == null ? Undefined.instance : result;
+        } else if (member == ApiMember.HASTAINT || member == ApiMember.CHECKTAINTS) {
+            if (arguments.length != 2 || !(arguments[1] instanceof Integer)) {
+                return null;
+            }
+            return member == ApiMember.HASTAINT ? TaintHelper.hasTaint(arguments[0], (int) arguments[1]) : TaintHelper.checkTaints(arguments[0], (int) arguments[1]);
+        } else if (member == ApiMember.VALUEOF) {
+            return "jalangi-adapter";
+        } else if (member == ApiMember.GETDEACTIVATE) {
+            return GlobalObjectCache.getInstance().getDeactivateSentinel();
+        }
+        return null;
+    }
+
+    @TruffleBoundary
+    private Object invokeSlow(ApiMember api, String identifier, Object[] arguments) throws ArityException, UnsupportedTypeException {
+        if (api == null) {
             Logger.warning("Unsupported NodeProf-Jalangi operation " + identifier);
             return 0;
         }
@@ -210,6 +299,29 @@ public class JalangiAdapter implements TruffleObject {
                 }
                 break;
             }
+            case IIDCOUNT: {
+                return SourceMapping.getIIDCount();
+            }
+            case IIDTABLE: {
+                // Int32Array, first IID, see SourceMapping.fillIIDTable
+                if (checkArguments(2, arguments, identifier)) {
+                    if (!EventBatch.isInt32Array(arguments[0], 0)) {
+                        Logger.error("iidTable expects an Int32Array");
+                        CompilerDirectives.transferToInterpreterAndInvalidate();
+                        throw UnsupportedTypeException.create(new Object[]{arguments[0]});
+                    }
+                    return SourceMapping.fillIIDTable(EventBatch.getIntView((JSDynamicObject) arguments[0]), convertIID(arguments[1]));
+                }
+                break;
+            }
+            case IIDSOURCES: {
+                // the source objects indexed by the first column of the IID table
+                Object[] sources = new Object[SourceMapping.getSourceCount()];
+                for (int i = 0; i < sources.length; i++) {
+                    sources[i] = SourceMapping.getJSObjectForSourceIndex(i);
+                }
+                return JSArray.createConstantObjectArray(GlobalObjectCache.getInstance().getJSContext(), JSRealm.get(null), sources);
+            }
             case HASTAINT: {
                 return TaintHelper.hasTaint(arguments[0], (int) arguments[1]);
             }
@@ -251,18 +363,78 @@ public class JalangiAdapter implements TruffleObject {
                 this.getNodeProfJalangi().registerCallback(arguments[0], arguments[1], arguments[2]);
                 break;
             }
+            case ONCEPERSITE: {
+                this.getNodeProfJalangi().setOncePerSite(arguments[0], arguments[1]);
+                break;
+            }
+            case SAMPLINGRATE: {
+                // analysis, callback name, first, period
+                if (checkArguments(4, arguments, identifier)) {
+                    int first = JSRuntime.toInt32(arguments[2]);
+                    int period = JSRuntime.toInt32(arguments[3]);
+                    if (first < 0 || period < 1) {
+                        Logger.warning("samplingRate ignored for " + arguments[1] + ", it expects first >= 0 and period >= 1");
+                    } else {
+                        this.getNodeProfJalangi().setSamplingRate(arguments[0], arguments[1], first, period);
+                    }
+                }
+                break;
+            }
+            case INLINING: {
+                // analysis, callback name, policy
+                if (checkArguments(3, arguments, identifier)) {
+                    this.getNodeProfJalangi().setInlining(arguments[0], arguments[1], arguments[2]);
+                }
+                break;
+            }
+            case BATCH: {
+                // analysis, callback names, Int32Array, batch callback
+                if (checkArguments(4, arguments, identifier)) {
+                    if (!JSArray.isJSArray(arguments[1])) {
+                        Logger.warning("batch expects an array of callback names");
+                    } else {
+                        Object[] names = JSAbstractArray.toArray((JSDynamicObject) arguments[1]);
+                        this.getNodeProfJalangi().setBatch(arguments[0], names, arguments[2], arguments[3]);
+                    }
+                }
+                break;
+            }
+            case FLUSHBATCH: {
+                if (checkArguments(1, arguments, identifier)) {
+                    this.getNodeProfJalangi().flushBatch(arguments[0]);
+                }
+                break;
+            }
+            case REPLAYTRACE: {
+                // analysis, trace directory
+                if (checkArguments(2, arguments, identifier)) {
+                    return (double) this.getNodeProfJalangi().replayTrace(arguments[0], arguments[1].toString());
+                }
+                break;
+            }
             case INSTRUMENTATIONSWITCH: {
+                // switches of this analysis or of the (optional) scope in arguments[1]
+                List<InstrumentationSwitch> switches = this.getNodeProfJalangi().getSwitches(arguments.length >= 2 ? arguments[1] : null);
                 if (arguments.length >= 1) {
-                    if (arguments[0] != null) {
+                    if (arguments[0] != null && arguments[0] != Undefined.instance) {
                         boolean value = JSRuntime.toBoolean(arguments[0]);
-                        ProfilerExecutionEventNode.updateEnabled(value);
+                        for (InstrumentationSwitch s : switches) {
+                            s.setEnabled(value);
+                        }
                     }
                 }
-                return ProfilerExecutionEventNode.getEnabled();
+                boolean enabled = ProfilerExecutionEventNode.getEnabled();
+                for (InstrumentationSwitch s : switches) {
+                    enabled = enabled && s.isEnabled();
+                }
+                return enabled;
             }
             case GETCONFIG: {
                 return getConfig();
             }
+            case GETDEACTIVATE: {
+                return GlobalObjectCache.getInstance().getDeactivateSentinel();
+            }
 
             default: {
                 Logger.warning("Unsupported NodeProf-Jalangi operation " + identifier);
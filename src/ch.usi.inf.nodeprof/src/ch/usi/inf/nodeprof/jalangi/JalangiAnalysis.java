@@ -36,6 +36,8 @@ import static ch.usi.inf.nodeprof.ProfiledTagEnum.UNARY;
 import static ch.usi.inf.nodeprof.ProfiledTagEnum.VAR_READ;
 import static ch.usi.inf.nodeprof.ProfiledTagEnum.VAR_WRITE;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
@@ -49,6 +51,10 @@ import com.oracle.truffle.api.interop.UnsupportedTypeException;
 import com.oracle.truffle.js.runtime.objects.JSDynamicObject;
 
 import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.AnalysisFactory;
+import ch.usi.inf.nodeprof.analysis.SamplingRate;
+import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
+import ch.usi.inf.nodeprof.jalangi.factory.AbstractFactory;
 import ch.usi.inf.nodeprof.jalangi.factory.AsyncRootFactory;
 import ch.usi.inf.nodeprof.jalangi.factory.AwaitFactory;
 import ch.usi.inf.nodeprof.jalangi.factory.BinaryFactory;
@@ -73,6 +79,7 @@ import ch.usi.inf.nodeprof.jalangi.factory.RootFactory;
 import ch.usi.inf.nodeprof.jalangi.factory.StatementFactory;
 import ch.usi.inf.nodeprof.jalangi.factory.UnaryFactory;
 import ch.usi.inf.nodeprof.jalangi.factory.WriteFactory;
+import ch.usi.inf.nodeprof.trace.TraceReader;
 import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
 import ch.usi.inf.nodeprof.utils.GlobalObjectCache;
 import ch.usi.inf.nodeprof.utils.Logger;
@@ -87,6 +94,26 @@ public class JalangiAnalysis {
      */
     private final HashMap<String, JSDynamicObject> callbacks;
 
+    /**
+     * the names of the callbacks to be called once per site, see BaseEventHandlerNode.setOncePerSite
+     */
+    private final HashSet<String> oncePerSite = new HashSet<>();
+
+    /**
+     * the sampling rates of the callbacks, see BaseEventHandlerNode.setSamplingRate
+     */
+    private final HashMap<String, SamplingRate> samplingRates = new HashMap<>();
+
+    /**
+     * the batch of the batched callbacks, see EventBatch
+     */
+    private EventBatch batch = null;
+
+    /**
+     * the inlining policies of the callbacks set by the analysis, see CallbackInlining
+     */
+    private final HashMap<String, CallbackInlining> inliningPolicies = new HashMap<>();
+
     /**
      * The Jalangi analysis object
      * <p>
@@ -195,53 +222,53 @@ public class JalangiAnalysis {
         }
         if (this.callbacks.containsKey("invokeFunPre") || callbacks.containsKey("invokeFun") || callbacks.containsKey("invokeFunStart")) {
             InvokeFactory invokeFactory = new InvokeFactory(this.jsAnalysis, ProfiledTagEnum.INVOKE, callbacks.get("invokeFunPre"), callbacks.get("invokeFun"), callbacks.get("invokeFunStart"), callbacks.get("invokeFunException"));
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.INVOKE,
                     invokeFactory);
             InvokeFactory newFactory = new InvokeFactory(this.jsAnalysis, ProfiledTagEnum.NEW, callbacks.get("invokeFunPre"), callbacks.get("invokeFun"), callbacks.get("invokeFunStart"), callbacks.get("invokeFunException"));
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.NEW,
                     newFactory);
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.EVAL,
                     new EvalFactory(this.jsAnalysis, callbacks.get("invokeFunPre"), callbacks.get("invokeFun"), callbacks.get("invokeFunStart"), true));
         }
 
         if (this.callbacks.containsKey("putFieldPre") || callbacks.containsKey("putField")) {
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.PROPERTY_WRITE,
                     new PutFieldFactory(this.jsAnalysis, callbacks.get("putFieldPre"), callbacks.get("putField")));
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.ELEMENT_WRITE,
                     new PutElementFactory(this.jsAnalysis, callbacks.get("putFieldPre"), callbacks.get("putField")));
         }
 
         if (this.callbacks.containsKey("getFieldPre") || callbacks.containsKey("getField")) {
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.PROPERTY_READ,
                     new GetFieldFactory(this.jsAnalysis, callbacks.get("getFieldPre"), callbacks.get("getField")));
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.ELEMENT_READ,
                     new GetElementFactory(this.jsAnalysis, callbacks.get("getFieldPre"), callbacks.get("getField")));
         }
 
         if (this.callbacks.containsKey("read")) {
-            this.instrument.onCallback(ProfiledTagEnum.VAR_READ, new ReadFactory(
+            onCallback(ProfiledTagEnum.VAR_READ, new ReadFactory(
                     this.jsAnalysis, callbacks.get("read"), false));
-            this.instrument.onCallback(ProfiledTagEnum.PROPERTY_READ, new ReadFactory(
+            onCallback(ProfiledTagEnum.PROPERTY_READ, new ReadFactory(
                     this.jsAnalysis, callbacks.get("read"), true));
         }
 
         if (this.callbacks.containsKey("write")) {
-            this.instrument.onCallback(ProfiledTagEnum.VAR_WRITE, new WriteFactory(
+            onCallback(ProfiledTagEnum.VAR_WRITE, new WriteFactory(
                     this.jsAnalysis, callbacks.get("write"), false));
-            this.instrument.onCallback(ProfiledTagEnum.PROPERTY_WRITE,
+            onCallback(ProfiledTagEnum.PROPERTY_WRITE,
                     new WriteFactory(this.jsAnalysis, callbacks.get("write"),
                             true));
         }
 
         if (this.callbacks.containsKey("binaryPre") || this.callbacks.containsKey("binary") || this.callbacks.containsKey("binaryEnter")) {
-            this.instrument.onCallback(ProfiledTagEnum.BINARY,
+            onCallback(ProfiledTagEnum.BINARY,
                     new BinaryFactory(this.jsAnalysis,
                             callbacks.get("binaryPre"),
                             callbacks.get("binary"),
@@ -249,35 +276,35 @@ public class JalangiAnalysis {
         }
 
         if (this.callbacks.containsKey("literal")) {
-            this.instrument.onCallback(ProfiledTagEnum.LITERAL, new LiteralFactory(
+            onCallback(ProfiledTagEnum.LITERAL, new LiteralFactory(
                     this.jsAnalysis, callbacks.get("literal")));
         }
 
         if (this.callbacks.containsKey("declarePre") || this.callbacks.containsKey("declare")) {
-            this.instrument.onCallback(ProfiledTagEnum.DECLARE, new DeclareFactory(
+            onCallback(ProfiledTagEnum.DECLARE, new DeclareFactory(
                     this.jsAnalysis, callbacks.get("declarePre"), callbacks.get("declare")));
         }
 
         if (this.callbacks.containsKey("unaryPre") || this.callbacks.containsKey("unary")) {
-            this.instrument.onCallback(ProfiledTagEnum.UNARY,
+            onCallback(ProfiledTagEnum.UNARY,
                     new UnaryFactory(this.jsAnalysis, callbacks.get("unaryPre"),
                             callbacks.get("unary")));
         }
 
         if (this.callbacks.containsKey("conditional")) {
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.CF_BRANCH,
                     new ConditionalFactory(this.jsAnalysis, callbacks.get("conditional"), false));
-//            this.instrument.onCallback(
+//            onCallback(
 //                    PROPERTY_READ,
 //                    new ConditionalFactory(this.jsAnalysis, callbacks.get("conditional"), true));
-//            this.instrument.onCallback(
+//            onCallback(
 //                    ELEMENT_READ,
 //                    new ConditionalFactory(this.jsAnalysis, callbacks.get("conditional"), true));
-//            this.instrument.onCallback(
+//            onCallback(
 //                    VAR_READ,
 //                    new ConditionalFactory(this.jsAnalysis, callbacks.get("conditional"), true));
-//            this.instrument.onCallback(
+//            onCallback(
 //                    INVOKE,
 //                    new ConditionalFactory(this.jsAnalysis, callbacks.get("conditional"), true));
         }
@@ -286,7 +313,7 @@ public class JalangiAnalysis {
          * functionEnter/Exit callback: instruments root nodes of functions
          */
         if (this.callbacks.containsKey("functionEnter") || this.callbacks.containsKey("functionExit")) {
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.ROOT,
                     new RootFactory(this.jsAnalysis,
                             callbacks.get("functionEnter"),
@@ -295,21 +322,21 @@ public class JalangiAnalysis {
         }
 
         if (this.callbacks.containsKey("startExpression") || this.callbacks.containsKey("endExpression")) {
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.EXPRESSION,
                     new ExpressionFactory(this.jsAnalysis,
                             callbacks.get("startExpression"), callbacks.get("endExpression")));
         }
 
         if (this.callbacks.containsKey("startStatement") || this.callbacks.containsKey("endStatement")) {
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.STATEMENT,
                     new StatementFactory(this.jsAnalysis,
                             callbacks.get("startStatement"), callbacks.get("endStatement")));
         }
 
         if (this.callbacks.containsKey("builtinEnter") || this.callbacks.containsKey("builtinExit")) {
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.BUILTIN,
                     new BuiltinFactory(this.jsAnalysis,
                             callbacks.get("builtinEnter"), callbacks.get("builtinExit"), null));
@@ -321,7 +348,7 @@ public class JalangiAnalysis {
          * Eval not tested
          */
         if (this.callbacks.containsKey("evalPre") || this.callbacks.containsKey("evalPost")) {
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.EVAL,
                     new EvalFactory(this.jsAnalysis, callbacks.get("evalPre"), callbacks.get("evalPost"), null, false));
         }
@@ -331,13 +358,13 @@ public class JalangiAnalysis {
          * new Function("XXX"); not tested
          */
         if (this.callbacks.containsKey("evalFunctionPre") || this.callbacks.containsKey("evalFunctionPost")) {
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.BUILTIN,
                     new EvalFunctionFactory(this.jsAnalysis, callbacks.get("evalFunctionPre"), callbacks.get("evalFunctionPost")));
         }
 
         if (this.callbacks.containsKey("forObject")) {
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.CF_ROOT,
                     new ForObjectFactory(this.jsAnalysis, callbacks.get("forObject")));
         }
@@ -346,7 +373,7 @@ public class JalangiAnalysis {
          * async function
          */
         if (this.callbacks.containsKey("asyncFunctionEnter") || this.callbacks.containsKey("asyncFunctionExit")) {
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.CF_ROOT,
                     new AsyncRootFactory(this.jsAnalysis, callbacks.get("asyncFunctionEnter"), callbacks.get("asyncFunctionExit")));
         }
@@ -354,14 +381,14 @@ public class JalangiAnalysis {
          * await callback
          */
         if (this.callbacks.containsKey("awaitPre") || this.callbacks.containsKey("awaitPost")) {
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.CF_BRANCH,
                     new AwaitFactory(this.jsAnalysis, callbacks.get("awaitPre"), callbacks.get("awaitPost")));
         }
 
         // ToDo - better names
         if (this.callbacks.containsKey("controlFlowRootEnter") || this.callbacks.containsKey("controlFlowRootExit")) {
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.CF_ROOT,
                     new ControlFlowRootFactory(this.jsAnalysis, callbacks.get("controlFlowRootEnter"), callbacks.get("controlFlowRootExit")));
         }
@@ -370,7 +397,7 @@ public class JalangiAnalysis {
          * _return callback
          */
         if (this.callbacks.containsKey("_return")) {
-            this.instrument.onCallback(
+            onCallback(
                     ProfiledTagEnum.CF_BRANCH,
                     new ReturnFactory(this.jsAnalysis, callbacks.get("_return")));
         }
@@ -380,11 +407,197 @@ public class JalangiAnalysis {
          * provides newSource callback. This instrumentation is always enabled but deactivates after
          * its first execution.
          */
-        this.instrument.onCallback(
+        onCallback(
                 ProfiledTagEnum.ROOT,
                 new InitialRootFactory(this.jsAnalysis, callbacks.get("newSource")));
     }
 
+    /**
+     * register the factory of the callbacks, as once per site factory if all of its callbacks are
+     * once per site, and with the sampling rate of its callbacks
+     */
+    private void onCallback(ProfiledTagEnum tag, AbstractFactory factory) {
+        factory.setThreadStates(instrument.getThreadStates());
+        factory.setGovernor(instrument.getGovernor());
+        if (batch != null) {
+            factory.setBatch(batch);
+        }
+        Map<JSDynamicObject, CallbackInlining> inlining = getInlining();
+        if (!inlining.isEmpty()) {
+            factory.setInlining(inlining);
+        }
+        SamplingRate rate = getSamplingRate(factory);
+        if (rate != null) {
+            onCallback(tag, AnalysisFactory.sampled(factory, rate), factory);
+        } else {
+            onCallback(tag, factory, factory);
+        }
+    }
+
+    private void onCallback(ProfiledTagEnum tag, AnalysisFactory<BaseEventHandlerNode> wrapped, AbstractFactory factory) {
+        if (!oncePerSite.isEmpty()) {
+            HashSet<JSDynamicObject> onceCallbacks = new HashSet<>();
+            for (String name : oncePerSite) {
+                if (callbacks.containsKey(name)) {
+                    onceCallbacks.add(callbacks.get(name));
+                }
+            }
+            if (factory.hasOnlyCallbacks(onceCallbacks)) {
+                this.instrument.onCallback(tag, AnalysisFactory.oncePerSite(wrapped));
+                return;
+            }
+        }
+        this.instrument.onCallback(tag, wrapped);
+    }
+
+    /**
+     * The callbacks without rate get every execution. If the callbacks of the factory have
+     * different rates, each of them is sampled at its own rate by the factory (see
+     * AbstractFactory.setSamplingRates).
+     *
+     * @return the rate shared by the callbacks of the factory, or null if they are not sampled or
+     *         do not share their rate
+     */
+    private SamplingRate getSamplingRate(AbstractFactory factory) {
+        if (samplingRates.isEmpty()) {
+            return null;
+        }
+        HashMap<JSDynamicObject, SamplingRate> rates = new HashMap<>();
+        SamplingRate shared = null;
+        boolean differ = false;
+        for (JSDynamicObject callback : factory.getCallbacks()) {
+            SamplingRate rate = SamplingRate.ALL;
+            for (Map.Entry<String, SamplingRate> entry : samplingRates.entrySet()) {
+                if (callbacks.get(entry.getKey()) == callback) {
+                    rate = entry.getValue();
+                }
+            }
+            rates.put(callback, rate);
+            differ = differ || (shared != null && !shared.equals(rate));
+            shared = rate;
+        }
+        if (differ) {
+            factory.setSamplingRates(rates);
+            return null;
+        }
+        return shared == null || shared.isAll() ? null : shared;
+    }
+
+    /**
+     * @return the inlining policies of the callbacks, set by the analysis or else with the option
+     *         CallbackInlining, by name or for all callbacks with '*'
+     */
+    private Map<JSDynamicObject, CallbackInlining> getInlining() {
+        HashMap<String, CallbackInlining> configured = CallbackInlining.parse(GlobalConfiguration.CALLBACK_INLINING);
+        HashMap<JSDynamicObject, CallbackInlining> result = new HashMap<>();
+        for (Map.Entry<String, JSDynamicObject> entry : callbacks.entrySet()) {
+            CallbackInlining policy = inliningPolicies.get(entry.getKey());
+            if (policy == null) {
+                policy = configured.containsKey(entry.getKey()) ? configured.get(entry.getKey()) : configured.get("*");
+            }
+            if (policy != null) {
+                result.put(entry.getValue(), policy);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * call the callback only once per instrumented site, i.e., remove its instrumentation after the
+     * first execution of a site
+     *
+     * @param name of the callback
+     */
+    @TruffleBoundary
+    public void setOncePerSite(Object name) {
+        if (!callbackMap.containsKey(name.toString())) {
+            Logger.warning("Jalangi analysis once per site callback unknown: " + name);
+        }
+        oncePerSite.add(name.toString());
+    }
+
+    /**
+     * only call the callback for a sample of the executions of each site
+     *
+     * @param name of the callback
+     * @param first the number of executions always called
+     * @param period call one in period executions after the first ones
+     */
+    @TruffleBoundary
+    public void setSamplingRate(Object name, int first, int period) {
+        if (!callbackMap.containsKey(name.toString())) {
+            Logger.warning("Jalangi analysis sampled callback unknown: " + name);
+        }
+        samplingRates.put(name.toString(), SamplingRate.create(first, period));
+    }
+
+    /**
+     * call the callback with the given inlining policy, see CallbackInlining
+     *
+     * @param name of the callback
+     * @param policy inline, split or boundary
+     */
+    @TruffleBoundary
+    public void setInlining(Object name, Object policy) {
+        if (!callbackMap.containsKey(name.toString())) {
+            Logger.warning("Jalangi analysis inlined callback unknown: " + name);
+        }
+        CallbackInlining inlining = CallbackInlining.fromName(policy);
+        if (inlining == null) {
+            Logger.warning("Jalangi analysis inlining ignored for " + name + ", it expects inline, split or boundary");
+            return;
+        }
+        inliningPolicies.put(name.toString(), inlining);
+    }
+
+    /**
+     * deliver the events of the callbacks in batches instead of calling them
+     *
+     * @param names the names of the batched callbacks, their indices identify them in the records
+     * @param events the Int32Array the records are copied to
+     * @param onBatch the function called with events and the number of records
+     */
+    @TruffleBoundary
+    public void setBatch(Object[] names, Object events, Object onBatch) {
+        EventBatch newBatch = EventBatch.create(this.jsAnalysis, events, onBatch, instrument.getThreadStates());
+        if (newBatch == null) {
+            Logger.warning("Jalangi analysis batch ignored, it expects an Int32Array with space for at least one record");
+            return;
+        }
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i].toString();
+            if (!callbacks.containsKey(name)) {
+                Logger.warning("Jalangi analysis batched callback not registered: " + name);
+                continue;
+            }
+            newBatch.addCallback(i, name, callbacks.get(name));
+        }
+        this.batch = newBatch;
+    }
+
+    /**
+     * call the batch callback with the events not yet delivered
+     */
+    @TruffleBoundary
+    public void flushBatch() {
+        if (batch != null) {
+            batch.flush();
+        }
+    }
+
+    /**
+     * replay a trace written by TraceRecorder to the callbacks of the analysis, see JalangiReplay
+     *
+     * @param dir the directory of the trace
+     * @return the number of callbacks called
+     */
+    @TruffleBoundary
+    public long replay(File dir) throws IOException {
+        JalangiReplay replay = new JalangiReplay(jsAnalysis, callbacks);
+        TraceReader.replay(dir, replay);
+        return replay.getCalls();
+    }
+
     /**
      * register hooks
      *
@@ -0,0 +1,163 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.jalangi;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.oracle.truffle.js.runtime.GraalJSException;
+import com.oracle.truffle.js.runtime.JSRuntime;
+import com.oracle.truffle.js.runtime.objects.JSDynamicObject;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.trace.TraceDispatcher;
+import ch.usi.inf.nodeprof.trace.TraceFormat;
+import ch.usi.inf.nodeprof.utils.Logger;
+
+/**
+ * Replays the events of a trace (see TraceReader) to the callbacks of a Jalangi analysis.
+ * <p>
+ * A trace keeps the IIDs, the tags and the primitive values of the events only (see
+ * TraceFormat.toValue), thus the pre callbacks are called with the IID, the post callbacks with the
+ * IID, the recorded inputs and the recorded result, and invokeFunException with the IID. The IIDs
+ * are the ones of the recorded execution, their locations are the ones of
+ * TraceReader.readLocations. The tags shared by several callbacks of a kind, e.g., the VAR_READ
+ * and PROPERTY_READ of read, are replayed to the callback of their most common nodes.
+ */
+final class JalangiReplay extends TraceDispatcher {
+
+    private static final EnumMap<ProfiledTagEnum, String> PRE_CALLBACKS = new EnumMap<>(ProfiledTagEnum.class);
+    private static final EnumMap<ProfiledTagEnum, String> POST_CALLBACKS = new EnumMap<>(ProfiledTagEnum.class);
+    private static final EnumMap<ProfiledTagEnum, String> EXCEPTION_CALLBACKS = new EnumMap<>(ProfiledTagEnum.class);
+
+    static {
+        PRE_CALLBACKS.put(ProfiledTagEnum.ROOT, "functionEnter");
+        PRE_CALLBACKS.put(ProfiledTagEnum.BUILTIN, "builtinEnter");
+        PRE_CALLBACKS.put(ProfiledTagEnum.INVOKE, "invokeFunPre");
+        PRE_CALLBACKS.put(ProfiledTagEnum.NEW, "invokeFunPre");
+        PRE_CALLBACKS.put(ProfiledTagEnum.DECLARE, "declarePre");
+        PRE_CALLBACKS.put(ProfiledTagEnum.PROPERTY_READ, "getFieldPre");
+        PRE_CALLBACKS.put(ProfiledTagEnum.ELEMENT_READ, "getFieldPre");
+        PRE_CALLBACKS.put(ProfiledTagEnum.PROPERTY_WRITE, "putFieldPre");
+        PRE_CALLBACKS.put(ProfiledTagEnum.ELEMENT_WRITE, "putFieldPre");
+        PRE_CALLBACKS.put(ProfiledTagEnum.UNARY, "unaryPre");
+        PRE_CALLBACKS.put(ProfiledTagEnum.BINARY, "binaryPre");
+        PRE_CALLBACKS.put(ProfiledTagEnum.EVAL, "evalPre");
+        PRE_CALLBACKS.put(ProfiledTagEnum.CF_ROOT, "controlFlowRootEnter");
+        PRE_CALLBACKS.put(ProfiledTagEnum.EXPRESSION, "startExpression");
+        PRE_CALLBACKS.put(ProfiledTagEnum.STATEMENT, "startStatement");
+
+        POST_CALLBACKS.put(ProfiledTagEnum.ROOT, "functionExit");
+        POST_CALLBACKS.put(ProfiledTagEnum.BUILTIN, "builtinExit");
+        POST_CALLBACKS.put(ProfiledTagEnum.INVOKE, "invokeFun");
+        POST_CALLBACKS.put(ProfiledTagEnum.NEW, "invokeFun");
+        POST_CALLBACKS.put(ProfiledTagEnum.DECLARE, "declare");
+        POST_CALLBACKS.put(ProfiledTagEnum.LITERAL, "literal");
+        POST_CALLBACKS.put(ProfiledTagEnum.VAR_READ, "read");
+        POST_CALLBACKS.put(ProfiledTagEnum.VAR_WRITE, "write");
+        POST_CALLBACKS.put(ProfiledTagEnum.PROPERTY_READ, "getField");
+        POST_CALLBACKS.put(ProfiledTagEnum.ELEMENT_READ, "getField");
+        POST_CALLBACKS.put(ProfiledTagEnum.PROPERTY_WRITE, "putField");
+        POST_CALLBACKS.put(ProfiledTagEnum.ELEMENT_WRITE, "putField");
+        POST_CALLBACKS.put(ProfiledTagEnum.UNARY, "unary");
+        POST_CALLBACKS.put(ProfiledTagEnum.BINARY, "binary");
+        POST_CALLBACKS.put(ProfiledTagEnum.CF_BRANCH, "conditional");
+        POST_CALLBACKS.put(ProfiledTagEnum.EVAL, "evalPost");
+        POST_CALLBACKS.put(ProfiledTagEnum.CF_ROOT, "controlFlowRootExit");
+        POST_CALLBACKS.put(ProfiledTagEnum.EXPRESSION, "endExpression");
+        POST_CALLBACKS.put(ProfiledTagEnum.STATEMENT, "endStatement");
+
+        EXCEPTION_CALLBACKS.put(ProfiledTagEnum.INVOKE, "invokeFunException");
+        EXCEPTION_CALLBACKS.put(ProfiledTagEnum.NEW, "invokeFunException");
+    }
+
+    private final Object jsAnalysis;
+
+    // the inputs of the current event, delivered before its post event
+    private final ArrayList<Object> inputs = new ArrayList<>();
+
+    private long calls = 0;
+
+    /**
+     * @param jsAnalysis the receiver of the callbacks
+     * @param callbacks the callbacks of the analysis by name
+     */
+    JalangiReplay(Object jsAnalysis, Map<String, JSDynamicObject> callbacks) {
+        this.jsAnalysis = jsAnalysis;
+        for (ProfiledTagEnum tag : ProfiledTagEnum.values()) {
+            JSDynamicObject pre = callbacks.get(PRE_CALLBACKS.get(tag));
+            JSDynamicObject post = callbacks.get(POST_CALLBACKS.get(tag));
+            JSDynamicObject exception = callbacks.get(EXCEPTION_CALLBACKS.get(tag));
+            if (pre == null && post == null && exception == null) {
+                continue;
+            }
+            onCallback(tag, new TagHandler() {
+                @Override
+                public void onPre(int iid) {
+                    inputs.clear();
+                    if (pre != null) {
+                        call(pre, new Object[]{iid});
+                    }
+                }
+
+                @Override
+                public void onInput(int iid, int index, int type, long payload) {
+                    inputs.add(TraceFormat.toValue(type, payload));
+                }
+
+                @Override
+                public void onPost(int iid, int type, long payload) {
+                    if (post != null) {
+                        Object[] args = new Object[inputs.size() + 2];
+                        args[0] = iid;
+                        for (int i = 0; i < inputs.size(); i++) {
+                            args[i + 1] = inputs.get(i);
+                        }
+                        args[args.length - 1] = TraceFormat.toValue(type, payload);
+                        call(post, args);
+                    }
+                    inputs.clear();
+                }
+
+                @Override
+                public void onException(int iid) {
+                    if (exception != null) {
+                        call(exception, new Object[]{iid});
+                    }
+                    inputs.clear();
+                }
+            });
+        }
+    }
+
+    private void call(JSDynamicObject callback, Object[] args) {
+        calls++;
+        try {
+            JSRuntime.call(callback, jsAnalysis, args);
+        } catch (GraalJSException e) {
+            Logger.reportJSException(e);
+        }
+    }
+
+    /**
+     * @return the number of callbacks called
+     */
+    long getCalls() {
+        return calls;
+    }
+}
@@ -16,6 +16,9 @@
  * *****************************************************************************/
 package ch.usi.inf.nodeprof.jalangi;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -31,9 +34,12 @@ import com.oracle.truffle.api.interop.UnknownIdentifierException;
 import com.oracle.truffle.api.interop.UnsupportedMessageException;
 import com.oracle.truffle.api.interop.UnsupportedTypeException;
 import com.oracle.truffle.api.source.Source;
+import com.oracle.truffle.api.source.SourceSection;
 import com.oracle.truffle.js.lang.JavaScriptLanguage;
 import com.oracle.truffle.js.runtime.JSRuntime;
 import com.oracle.truffle.js.runtime.builtins.JSFunction;
+import com.oracle.truffle.js.runtime.builtins.JSFunctionObject;
+import com.oracle.truffle.js.runtime.interop.InteropBoundFunction;
 import com.oracle.truffle.js.runtime.objects.JSDynamicObject;
 import com.oracle.truffle.js.runtime.objects.Null;
 import com.oracle.truffle.js.runtime.objects.Undefined;
@@ -41,7 +47,9 @@ import com.oracle.truffle.js.runtime.objects.Undefined;
 import ch.usi.inf.nodeprof.analysis.AnalysisFilterBase;
 import ch.usi.inf.nodeprof.analysis.AnalysisFilterJS;
 import ch.usi.inf.nodeprof.analysis.AnalysisFilterSourceList;
+import ch.usi.inf.nodeprof.analysis.InstrumentationSwitch;
 import ch.usi.inf.nodeprof.analysis.NodeProfAnalysis;
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
 import ch.usi.inf.nodeprof.utils.GlobalObjectCache;
 import ch.usi.inf.nodeprof.utils.Logger;
 
@@ -101,6 +109,88 @@ public class NodeProfJalangi extends NodeProfAnalysis {
         jalangiAnalyses.get(analysis).registerCallback(name, callback);
     }
 
+    /**
+     * @param analysis object
+     * @param name of the callback to be called once per site
+     */
+    @TruffleBoundary
+    public void setOncePerSite(Object analysis, Object name) {
+        if (!jalangiAnalyses.containsKey(analysis)) {
+            jalangiAnalyses.put(analysis, new JalangiAnalysis(this, analysis));
+        }
+        jalangiAnalyses.get(analysis).setOncePerSite(name);
+    }
+
+    /**
+     * @param analysis object
+     * @param name of the callback to be sampled
+     * @param first the number of executions of each site always called
+     * @param period call one in period executions after the first ones
+     */
+    @TruffleBoundary
+    public void setSamplingRate(Object analysis, Object name, int first, int period) {
+        if (!jalangiAnalyses.containsKey(analysis)) {
+            jalangiAnalyses.put(analysis, new JalangiAnalysis(this, analysis));
+        }
+        jalangiAnalyses.get(analysis).setSamplingRate(name, first, period);
+    }
+
+    /**
+     * @param analysis object
+     * @param name of the callback
+     * @param policy the inlining policy of the callback
+     */
+    @TruffleBoundary
+    public void setInlining(Object analysis, Object name, Object policy) {
+        if (!jalangiAnalyses.containsKey(analysis)) {
+            jalangiAnalyses.put(analysis, new JalangiAnalysis(this, analysis));
+        }
+        jalangiAnalyses.get(analysis).setInlining(name, policy);
+    }
+
+    /**
+     * @param analysis object
+     * @param names of the batched callbacks
+     * @param events the Int32Array passed to onBatch
+     * @param onBatch the batch callback
+     */
+    @TruffleBoundary
+    public void setBatch(Object analysis, Object[] names, Object events, Object onBatch) {
+        if (!jalangiAnalyses.containsKey(analysis)) {
+            jalangiAnalyses.put(analysis, new JalangiAnalysis(this, analysis));
+        }
+        jalangiAnalyses.get(analysis).setBatch(names, events, onBatch);
+    }
+
+    /**
+     * @param analysis object
+     */
+    @TruffleBoundary
+    public void flushBatch(Object analysis) {
+        if (jalangiAnalyses.containsKey(analysis)) {
+            jalangiAnalyses.get(analysis).flushBatch();
+        }
+    }
+
+    /**
+     * @param analysis object
+     * @param dir the directory of the trace
+     * @return the number of callbacks called
+     */
+    @TruffleBoundary
+    public long replayTrace(Object analysis, String dir) {
+        if (!jalangiAnalyses.containsKey(analysis)) {
+            Logger.warning("replayTrace ignored, the analysis has no callbacks");
+            return 0;
+        }
+        try {
+            return jalangiAnalyses.get(analysis).replay(new File(dir));
+        } catch (IOException e) {
+            Logger.error("cannot replay the trace in " + dir + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
     /**
      * called in ChainedAnalysesNoCheck.js when all callbacks are defined
      */
@@ -177,6 +267,62 @@ public class NodeProfJalangi extends NodeProfAnalysis {
         analysisReady(parseFilterConfig(configObj));
     }
 
+    /**
+     * Get the instrumentation switches for the scope given to J$.enableAnalysis/disableAnalysis
+     *
+     * @param scope undefined for the switch of this analysis, or an object with any of the
+     *            properties: tag (name of a NodeProf tag or of a Jalangi callback), source (name of
+     *            the source) and function (a JavaScript function)
+     * @return the switches for the scope
+     */
+    @TruffleBoundary
+    public List<InstrumentationSwitch> getSwitches(Object scope) {
+        List<InstrumentationSwitch> result = new ArrayList<>();
+        if (!(scope instanceof TruffleObject) || scope == Undefined.instance || scope == Null.instance) {
+            result.add(getSwitch());
+            return result;
+        }
+        Object tag = getProperty((TruffleObject) scope, "tag");
+        if (tag != null) {
+            String tagName = JSRuntime.safeToString(tag).toString();
+            if (JalangiAnalysis.callbackMap.containsKey(tagName)) {
+                for (ProfiledTagEnum t : JalangiAnalysis.callbackMap.get(tagName)) {
+                    result.add(getSwitchScopes().forTag(t));
+                }
+            } else {
+                try {
+                    result.add(getSwitchScopes().forTag(ProfiledTagEnum.valueOf(tagName)));
+                } catch (IllegalArgumentException e) {
+                    Logger.warning("Unknown tag or callback for instrumentation switch: " + tagName);
+                }
+            }
+        }
+        Object source = getProperty((TruffleObject) scope, "source");
+        if (source != null) {
+            result.add(getSwitchScopes().forSource(JSRuntime.safeToString(source).toString()));
+        }
+        Object function = getProperty((TruffleObject) scope, "function");
+        if (function != null) {
+            SourceSection location = null;
+            if (function instanceof InteropBoundFunction) {
+                function = ((InteropBoundFunction) function).getFunction();
+            }
+            if (function instanceof JSFunctionObject) {
+                try {
+                    location = ((JSFunctionObject) function).getSourceLocation();
+                } catch (UnsupportedMessageException e) {
+                    // no source location for this function
+                }
+            }
+            if (location != null) {
+                result.add(getSwitchScopes().forFunction(location));
+            } else {
+                Logger.warning("Instrumentation switch expects a JavaScript function: " + JSRuntime.safeToString(function));
+            }
+        }
+        return result;
+    }
+
     @Override
     public void onClear() {
 
@@ -184,7 +330,7 @@ public class NodeProfJalangi extends NodeProfAnalysis {
 
     @Override
     public void printResult() {
-
+        CallbackInlining.report();
     }
 
     @Override
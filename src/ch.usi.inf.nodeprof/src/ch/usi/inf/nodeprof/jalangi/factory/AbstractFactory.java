@@ -16,11 +16,26 @@
  * *****************************************************************************/
 package ch.usi.inf.nodeprof.jalangi.factory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import ch.usi.inf.nodeprof.analysis.AnalysisFactory;
+import ch.usi.inf.nodeprof.analysis.OverheadGovernor;
+import ch.usi.inf.nodeprof.analysis.SampleCountdown;
+import ch.usi.inf.nodeprof.analysis.SamplingRate;
 import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
+import ch.usi.inf.nodeprof.handlers.BaseSingleTagEventHandler;
+import ch.usi.inf.nodeprof.jalangi.CallbackInlining;
+import ch.usi.inf.nodeprof.jalangi.EventBatch;
 import ch.usi.inf.nodeprof.utils.GlobalObjectCache;
 import ch.usi.inf.nodeprof.utils.Logger;
+import ch.usi.inf.nodeprof.utils.ThreadState;
+import com.oracle.truffle.api.CallTarget;
 import com.oracle.truffle.api.CompilerDirectives;
+import com.oracle.truffle.api.ContextThreadLocal;
+import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
 import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
 import com.oracle.truffle.api.Truffle;
 import com.oracle.truffle.api.interop.InteropLibrary;
@@ -29,7 +44,10 @@ import com.oracle.truffle.api.interop.UnsupportedMessageException;
 import com.oracle.truffle.api.nodes.DirectCallNode;
 import com.oracle.truffle.api.nodes.Node;
 import com.oracle.truffle.api.object.DynamicObject;
+import com.oracle.truffle.api.source.SourceSection;
 import com.oracle.truffle.api.strings.TruffleString;
+import com.oracle.truffle.js.nodes.access.CreateDataPropertyNode;
+import com.oracle.truffle.js.nodes.access.PropertyGetNode;
 import com.oracle.truffle.js.nodes.control.YieldException;
 import com.oracle.truffle.js.runtime.GraalJSException;
 import com.oracle.truffle.js.runtime.JSContext;
@@ -39,6 +57,8 @@ import com.oracle.truffle.js.runtime.Strings;
 import com.oracle.truffle.js.runtime.builtins.JSAbstractArray;
 import com.oracle.truffle.js.runtime.builtins.JSArray;
 import com.oracle.truffle.js.runtime.builtins.JSFunction;
+import com.oracle.truffle.js.runtime.builtins.JSFunctionData;
+import com.oracle.truffle.js.runtime.builtins.JSFunctionObject;
 import com.oracle.truffle.js.runtime.builtins.JSOrdinary;
 import com.oracle.truffle.js.runtime.objects.JSDynamicObject;
 import com.oracle.truffle.js.runtime.objects.JSObject;
@@ -63,12 +83,38 @@ public abstract class AbstractFactory implements
     protected final JSDynamicObject onInput;
     protected final JSDynamicObject onException;
 
+    /**
+     * the number of parameters read by the callbacks (see getArity), the handlers skip computing
+     * the parameters beyond them
+     */
+    protected final int preArity;
+    protected final int postArity;
+    protected final int enterArity;
+    protected final int onInputArity;
+    protected final int onExceptionArity;
 
     protected final String jalangiCallback;
 
+    // the batch of the batched callbacks of the analysis, see EventBatch
+    private EventBatch batch = null;
+
+    // the rates of the callbacks sampled at their own rate, see setSamplingRates
+    private Map<JSDynamicObject, SamplingRate> samplingRates = null;
+
+    // the inlining policies of the callbacks, see CallbackInlining
+    private Map<JSDynamicObject, CallbackInlining> inlining = null;
+
+    // the thread states of the engine, see ThreadState
+    private ContextThreadLocal<ThreadState> threadStates = null;
+
+    // the overhead governor of the engine, see OverheadGovernor
+    private OverheadGovernor governor = null;
+
     private static final TruffleString YIELD_STR = Strings.constant("yield");
     private static final TruffleString EXCEPTION_STR = Strings.constant("exception");
     private static final TruffleString UNKNOWN_EXCEPTION_STR = Strings.constant("Unknown Exception");
+    private static final TruffleString DEACTIVATE_STR = Strings.constant("deactivate");
+    private static final TruffleString RESULT_STR = Strings.constant("result");
 
     protected static boolean readBoolean(DynamicObject cb, String name) {
         Object ret = readCBProperty(cb, name);
@@ -129,6 +175,69 @@ public abstract class AbstractFactory implements
         this.onInput = onInput;
         this.onException = onException;
         this.enter = enter;
+        this.preArity = getArity(pre);
+        this.postArity = getArity(post);
+        this.enterArity = getArity(enter);
+        this.onInputArity = getArity(onInput);
+        this.onExceptionArity = getArity(onException);
+    }
+
+    /**
+     * @param callback a Jalangi callback
+     * @return the number of parameters declared by the callback (its length), or Integer.MAX_VALUE
+     *         if it may read more parameters, i.e., if it uses arguments, a rest parameter or a
+     *         default parameter, or if its source is not available
+     */
+    @TruffleBoundary
+    public static int getArity(JSDynamicObject callback) {
+        if (!(callback instanceof JSFunctionObject) || JSFunction.isBoundFunction(callback)) {
+            return Integer.MAX_VALUE;
+        }
+        JSFunctionData data = JSFunction.getFunctionData(callback);
+        SourceSection section;
+        try {
+            section = data.isBuiltin() ? null : ((JSFunctionObject) callback).getSourceLocation();
+        } catch (UnsupportedMessageException e) {
+            section = null;
+        }
+        if (section == null || !section.isAvailable()) {
+            return Integer.MAX_VALUE;
+        }
+        if (mayReadMoreParameters(section.getCharacters())) {
+            return Integer.MAX_VALUE;
+        }
+        return data.getLength();
+    }
+
+    /**
+     * Graal.js does not keep whether a function uses arguments or has rest or default parameters,
+     * hence its code is checked conservatively: a comment or a literal mentioning arguments also
+     * counts.
+     *
+     * @param code the code of a function
+     * @return true if the function may read more parameters than its length, i.e., if the token
+     *         arguments or ... appears in its code, or if a default parameter may precede its first
+     *         closing parenthesis
+     */
+    public static boolean mayReadMoreParameters(CharSequence code) {
+        String text = code.toString();
+        if (containsWord(text, "arguments") || text.contains("...")) {
+            return true;
+        }
+        int close = text.indexOf(')');
+        String parameters = (close < 0 ? text : text.substring(0, close)).replace("=>", "");
+        return parameters.indexOf('=') >= 0;
+    }
+
+    private static boolean containsWord(String code, String word) {
+        for (int i = code.indexOf(word); i >= 0; i = code.indexOf(word, i + 1)) {
+            boolean start = i == 0 || !Character.isJavaIdentifierPart(code.charAt(i - 1));
+            int end = i + word.length();
+            if (start && (end == code.length() || !Character.isJavaIdentifierPart(code.charAt(end)))) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public AbstractFactory(String jalangiCallback, Object jalangiAnalysis, JSDynamicObject pre,
@@ -136,6 +245,67 @@ public abstract class AbstractFactory implements
         this(jalangiCallback, jalangiAnalysis, pre, post, null, null, null);
     }
 
+    /**
+     * deliver the events of the callbacks in the batch through the batch, must be set before the
+     * factory creates handlers
+     */
+    public void setBatch(EventBatch batch) {
+        this.batch = batch;
+    }
+
+    /**
+     * sample the calls of each callback at its rate, for callbacks of the factory with different
+     * rates, must be set before the factory creates handlers. Callbacks sharing their rate are
+     * rather sampled per site (see AnalysisFactory.sampled).
+     */
+    public void setSamplingRates(Map<JSDynamicObject, SamplingRate> samplingRates) {
+        this.samplingRates = samplingRates;
+    }
+
+    /**
+     * the thread states of the engine of the analysis, must be set before the factory creates
+     * handlers
+     */
+    public void setThreadStates(ContextThreadLocal<ThreadState> threadStates) {
+        this.threadStates = threadStates;
+    }
+
+    /**
+     * the overhead governor of the engine of the analysis, must be set before the factory creates
+     * handlers
+     */
+    public void setGovernor(OverheadGovernor governor) {
+        this.governor = governor;
+    }
+
+    /**
+     * call the callbacks with the given policies, must be set before the factory creates handlers
+     */
+    public void setInlining(Map<JSDynamicObject, CallbackInlining> inlining) {
+        this.inlining = inlining;
+    }
+
+    /**
+     * @param callbacks a set of Jalangi callbacks
+     * @return true if all callbacks used by this factory are in callbacks
+     */
+    public boolean hasOnlyCallbacks(Set<JSDynamicObject> callbacks) {
+        return callbacks.containsAll(getCallbacks());
+    }
+
+    /**
+     * @return the callbacks called by the handlers of this factory
+     */
+    public List<JSDynamicObject> getCallbacks() {
+        ArrayList<JSDynamicObject> result = new ArrayList<>();
+        for (JSDynamicObject callback : new JSDynamicObject[]{pre, post, enter, onInput, onException}) {
+            if (callback != null) {
+                result.add(callback);
+            }
+        }
+        return result;
+    }
+
     /**
      * Only interop type can be passed to JS
      *
@@ -149,120 +319,278 @@ public abstract class AbstractFactory implements
         return result;
     }
 
-    @TruffleBoundary
     private static Object parseErrorObject(Throwable exception) {
-        return exception instanceof GraalJSException ? ((GraalJSException) exception).getErrorObject() : Strings.fromJavaString(exception.getMessage());
+        return exception instanceof GraalJSException ? ((GraalJSException) exception).getErrorObject() : getMessage(exception);
     }
 
     @TruffleBoundary
-    protected static Object createWrappedException(Throwable exception) {
-        if (exception == null) {
-            return GlobalObjectCache.getInstance().getEmptyWrappedException();
-        } else {
-            JSContext ctx = GlobalObjectCache.getInstance().getJSContext();
-            JSRealm realm = JSRealm.get(null);
-            JSDynamicObject wrapped = JSOrdinary.create(ctx, realm);
-            if (exception instanceof YieldException) {
-                JSObject.set(wrapped, YIELD_STR, true);
-            } else {
-                Object errObj = parseErrorObject(exception);
-                JSObject.set(wrapped, EXCEPTION_STR, errObj == null ? UNKNOWN_EXCEPTION_STR : errObj);
-            }
-            return wrapped;
-        }
-    }
-
-    /**
-     * nestedControl is a tag to avoid instrumentation of the Jalangi analysis being called
-     * recursively
-     */
-    private static boolean nestedControl = false;
-
-    /**
-     * @return true to proceed with the call or false to skip the call
-     */
-    private static boolean beforeCall() {
-        if (nestedControl) {
-            return false;
-        }
-        nestedControl = true;
-        return true;
+    private static Object callOutOfLine(JSDynamicObject callback, Object[] args) {
+        CallbackInlining.countBoundaryCall();
+        return JSFunction.getCallTarget(callback).call(args);
     }
 
-    /**
-     * afterCall to reset nestedControl
-     */
-    private static void afterCall() {
-        nestedControl = false;
-        return;
+    @TruffleBoundary
+    private static Object getMessage(Throwable exception) {
+        return Strings.fromJavaString(exception.getMessage());
     }
 
     public class CallbackNode extends Node {
+        /**
+         * the calls of the callbacks, null for the callbacks called out of line (see
+         * CallbackInlining.BOUNDARY)
+         */
         @Node.Child
-        DirectCallNode preCall = pre != null ? Truffle.getRuntime().createDirectCallNode(JSFunction.getCallTarget(pre)) : null;
+        DirectCallNode preCall = createCall(pre);
         @Node.Child
-        DirectCallNode postCall = post != null ? Truffle.getRuntime().createDirectCallNode(JSFunction.getCallTarget(post)) : null;
+        DirectCallNode postCall = createCall(post);
 
         @Node.Child
-        DirectCallNode onInputCall = onInput != null ? Truffle.getRuntime().createDirectCallNode(JSFunction.getCallTarget(onInput)) : null;
+        DirectCallNode onInputCall = createCall(onInput);
 
         @Node.Child
-        DirectCallNode onExceptionCall = onException != null ? Truffle.getRuntime().createDirectCallNode(JSFunction.getCallTarget(onException)) : null;
+        DirectCallNode onExceptionCall = createCall(onException);
 
         @Node.Child
-        DirectCallNode enterCall = enter != null ? Truffle.getRuntime().createDirectCallNode(JSFunction.getCallTarget(enter)) : null;
+        DirectCallNode enterCall = createCall(enter);
+
+        /**
+         * the batch and the indices of the batched callbacks, or -1 for the callbacks called for
+         * each event (see EventBatch)
+         */
+        private final EventBatch eventBatch = batch;
+
+        private final ContextThreadLocal<ThreadState> threadStates = AbstractFactory.this.threadStates;
+
+        /**
+         * @return true to proceed with the call or false to skip the call, i.e., if the Jalangi
+         *         analysis is being called recursively on this thread (see
+         *         ThreadState.nestedControl)
+         */
+        private boolean beforeCall() {
+            ThreadState state = ThreadState.get(threadStates);
+            if (state.isNestedControl()) {
+                return false;
+            }
+            state.setNestedControl(true);
+            return true;
+        }
 
-        @Child
-        private InteropLibrary interopLibrary = InteropLibrary.getFactory().createDispatched(3);
+        /**
+         * afterCall to reset nestedControl
+         */
+        private void afterCall() {
+            ThreadState.get(threadStates).setNestedControl(false);
+        }
+        private final int preBatchId = batch != null ? batch.getId(pre) : -1;
+        private final int postBatchId = batch != null ? batch.getId(post) : -1;
+        private final int onInputBatchId = batch != null ? batch.getId(onInput) : -1;
+        private final int onExceptionBatchId = batch != null ? batch.getId(onException) : -1;
+        private final int enterBatchId = batch != null ? batch.getId(enter) : -1;
+
+        /**
+         * the countdowns of the callbacks sampled at their own rate, null for the callbacks called
+         * for every event (see setSamplingRates)
+         */
+        private final SampleCountdown preSample = createSample(pre);
+        private final SampleCountdown postSample = createSample(post);
+        private final SampleCountdown onInputSample = createSample(onInput);
+        private final SampleCountdown onExceptionSample = createSample(onException);
+        private final SampleCountdown enterSample = createSample(enter);
+
+        private SampleCountdown createSample(JSDynamicObject callback) {
+            SamplingRate rate = callback != null && samplingRates != null ? samplingRates.get(callback) : null;
+            return rate == null || rate.isAll() ? null : new SampleCountdown(rate);
+        }
 
-        private void checkDeactivate(Object ret, BaseEventHandlerNode handler) {
-            Object deactivate = readReturnMember(ret, "deactivate");
-            if (deactivate == null) return;
+        private boolean isSampled(SampleCountdown sample) {
+            return sample == null || sample.sample();
+        }
 
-            try {
-                if (interopLibrary.asBoolean(deactivate)) {
-                    CompilerDirectives.transferToInterpreterAndInvalidate();
-                    handler.deactivate();
-                }
-            } catch (UnsupportedMessageException e) {
+        private final OverheadGovernor governor = AbstractFactory.this.governor;
+
+        /**
+         * the callbacks of the site are timed if the OverheadGovernor is enabled, until the site
+         * is throttled
+         */
+        @CompilationFinal
+        private boolean governed = governor != null && OverheadGovernor.isEnabled();
+        // callbacks until the next timed one
+        private int measureCountdown = OverheadGovernor.MEASURE_PERIOD;
+        // the window of siteNanos, see OverheadGovernor.windowOf
+        private long siteWindow = 0;
+        // the estimated time of the callbacks of the site in siteWindow
+        private long siteNanos = 0;
+
+        /**
+         * @return the start time if this callback is timed, 0 otherwise
+         */
+        private long startMeasure() {
+            if (!governed) {
+                return 0;
             }
+            int countdown = measureCountdown - 1;
+            if (countdown > 0) {
+                measureCountdown = countdown;
+                return 0;
+            }
+            measureCountdown = OverheadGovernor.MEASURE_PERIOD;
+            return OverheadGovernor.start();
         }
 
-        private Object readReturnMember(Object obj, String prop) {
-            if (obj == null || obj == Undefined.instance || !JSObject.isJSObject(obj)) return null;
+        private void stopMeasure(BaseEventHandlerNode handler, long start) {
+            if (start == 0) {
+                return;
+            }
+            long nanos = OverheadGovernor.stop(start);
+            long window = OverheadGovernor.windowOf(start);
+            if (window != siteWindow) {
+                siteWindow = window;
+                siteNanos = 0;
+            }
+            siteNanos += nanos;
+            if (governor.exceedsBudget(handler, window, siteNanos, nanos)) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                governed = false;
+                governor.throttle(handler, siteNanos);
+            }
+        }
 
-            try {
-                return interopLibrary.readMember(obj, prop);
-            } catch (UnsupportedMessageException | UnknownIdentifierException e) {
+        private DirectCallNode createCall(JSDynamicObject callback) {
+            if (callback == null) {
                 return null;
             }
+            CallTarget target = JSFunction.getCallTarget(callback);
+            CallbackInlining policy = inlining != null ? inlining.get(callback) : null;
+            if (policy != null) {
+                policy.countSite(target);
+            }
+            if (policy == CallbackInlining.BOUNDARY) {
+                return null;
+            }
+            DirectCallNode call = Truffle.getRuntime().createDirectCallNode(target);
+            if (policy == CallbackInlining.INLINE) {
+                call.forceInlining();
+            } else if (policy == CallbackInlining.SPLIT && call.isCallTargetCloningAllowed()) {
+                call.cloneCallTarget();
+            }
+            return call;
         }
 
-        private Object readResult(Object ret) {
-            // only read return __result prop if ret is no analysis proxy (else it might get injected)
-            Object returnMember = this.readReturnMember(ret, "__isAnalysisProxy") == null ?
-                    readReturnMember(ret, "result")
-                    : null;
+        private Object call(DirectCallNode call, JSDynamicObject callback, Object[] args) {
+            if (call == null) {
+                return callOutOfLine(callback, args);
+            }
+            return call.call(args);
+        }
 
-            if (returnMember != null) {
-                return returnMember;
-            } else if (ret != Undefined.instance) {
-                return ret;
+        /**
+         * the stores of the property of the wrapped exceptions, specialized on the shape of the new
+         * objects
+         */
+        @Child private CreateDataPropertyNode exceptionSet;
+        @Child private CreateDataPropertyNode yieldSet;
+
+        /**
+         * Materializing the error object of an exception is costly, e.g., for internal errors, thus
+         * the wrapped exception is only created if the callback declares its parameter.
+         *
+         * @param exception the exception thrown by the instrumented node or null
+         * @param arity the arity of the callback receiving the wrapped exception, see getArity
+         * @param index the index of the parameter of the wrapped exception in the callback
+         * @return undefined if the callback does not declare the parameter, the shared empty
+         *         object without exception, otherwise a new object with the property exception set
+         *         to the error object, or yield set to true
+         */
+        public Object wrapException(Throwable exception, int arity, int index) {
+            if (arity <= index) {
+                return Undefined.instance;
             }
-            return null;
+            if (exception == null) {
+                return GlobalObjectCache.getInstance().getEmptyWrappedException();
+            }
+            JSContext ctx = GlobalObjectCache.getInstance().getJSContext();
+            JSDynamicObject wrapped = JSOrdinary.create(ctx, JSRealm.get(this));
+            if (exception instanceof YieldException) {
+                if (yieldSet == null) {
+                    CompilerDirectives.transferToInterpreterAndInvalidate();
+                    yieldSet = insert(CreateDataPropertyNode.create(ctx, YIELD_STR));
+                }
+                yieldSet.executeVoid(wrapped, true);
+            } else {
+                if (exceptionSet == null) {
+                    CompilerDirectives.transferToInterpreterAndInvalidate();
+                    exceptionSet = insert(CreateDataPropertyNode.create(ctx, EXCEPTION_STR));
+                }
+                Object errObj = parseErrorObject(exception);
+                exceptionSet.executeVoid(wrapped, errObj == null ? UNKNOWN_EXCEPTION_STR : errObj);
+            }
+            return wrapped;
+        }
+
+        /**
+         * @param exception the exception thrown by the instrumented node
+         * @param arity the arity of the callback receiving the error object, see getArity
+         * @param index the index of the parameter of the error object in the callback
+         * @return the error object of a JavaScript exception if the callback declares the
+         *         parameter, otherwise undefined
+         */
+        public Object getErrorObject(Throwable exception, int arity, int index) {
+            if (arity <= index || !(exception instanceof GraalJSException)) {
+                return Undefined.instance;
+            }
+            Object errorObject = ((GraalJSException) exception).getErrorObject();
+            return errorObject != null ? errorObject : Undefined.instance;
+        }
+
+        /**
+         * the reads of the properties of the returned objects, specialized on their shapes
+         */
+        @Child private PropertyGetNode deactivateGet;
+        @Child private PropertyGetNode resultGet;
+
+        /**
+         * Handle the value returned by a callback: undefined and J$.DEACTIVATE are recognized by
+         * reference, other objects can set the properties deactivate and result.
+         *
+         * @return the result replacing the value of the instrumented node, or null
+         */
+        private Object readReturn(Object ret, BaseEventHandlerNode handler) {
+            if (ret == Undefined.instance) {
+                return null;
+            }
+            if (ret == GlobalObjectCache.getInstance().getDeactivateSentinel()) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                handler.deactivate();
+                return null;
+            }
+            if (!JSObject.isJSObject(ret)) {
+                return null;
+            }
+            if (deactivateGet == null) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                JSContext context = JSObject.getJSContext((JSDynamicObject) ret);
+                deactivateGet = insert(PropertyGetNode.create(DEACTIVATE_STR, context));
+                resultGet = insert(PropertyGetNode.create(RESULT_STR, context));
+            }
+            Object deactivate = deactivateGet.getValueOrDefault(ret, null);
+            if (deactivate instanceof Boolean && (Boolean) deactivate) {
+                CompilerDirectives.transferToInterpreterAndInvalidate();
+                handler.deactivate();
+            }
+            return resultGet.getValueOrDefault(ret, null);
         }
 
         public Object preCall(BaseEventHandlerNode handler, Object... args) {
             assertNoStringLeak(args);
 
-            if (pre == null || !beforeCall()) return null;
+            if (pre == null || batch(handler, preBatchId, preSample, args) || !isSampled(preSample) || !beforeCall()) return null;
 
             try {
-                Object ret = preCall.call(args);
-                checkDeactivate(ret, handler);
+                long start = startMeasure();
+                Object ret = call(preCall, pre, args);
+                stopMeasure(handler, start);
 
-                return readReturnMember(ret, "result");
-//                return readResult(ret);
+                return readReturn(ret, handler);
             } catch (JSInterruptedExecutionException e) {
                 Logger.error("execution cancelled probably due to timeout");
                 return null;
@@ -273,15 +601,16 @@ public abstract class AbstractFactory implements
 
         public Object postCall(BaseEventHandlerNode handler, Object... args) {
             assertNoStringLeak(args);
-            if (post == null || !beforeCall()) return null;
+            if (post == null || batch(handler, postBatchId, postSample, args) || !isSampled(postSample) || !beforeCall()) return null;
 
             try {
-                Object ret = postCall.call(args);
-                checkDeactivate(ret, handler);
+                long start = startMeasure();
+                Object ret = call(postCall, post, args);
+                stopMeasure(handler, start);
 
                 // Get result from js call and return it to change node result if needed
                 // Maybe this would be nicer to do in the specific factories for more fine-grained control
-                return readReturnMember(ret, "result");
+                return readReturn(ret, handler);
 
             } catch (JSInterruptedExecutionException e) {
                 Logger.error("execution cancelled probably due to timeout");
@@ -294,12 +623,13 @@ public abstract class AbstractFactory implements
 
         public Object onInputCall(BaseEventHandlerNode handler, Object... args) {
             assertNoStringLeak(args);
-            if (onInput == null || !beforeCall()) return null;
+            if (onInput == null || batch(handler, onInputBatchId, onInputSample, args) || !isSampled(onInputSample) || !beforeCall()) return null;
 
             try {
-                Object ret = onInputCall.call(args);
-                checkDeactivate(ret, handler);
-                return readReturnMember(ret, "result");
+                long start = startMeasure();
+                Object ret = call(onInputCall, onInput, args);
+                stopMeasure(handler, start);
+                return readReturn(ret, handler);
             } catch (JSInterruptedExecutionException e) {
                 Logger.error("execution cancelled probably due to timeout");
                 return null;
@@ -310,12 +640,13 @@ public abstract class AbstractFactory implements
 
         public Object onExceptionCall(BaseEventHandlerNode handler, Object... args) {
             assertNoStringLeak(args);
-            if (onException == null || !beforeCall()) return null;
+            if (onException == null || batch(handler, onExceptionBatchId, onExceptionSample, args) || !isSampled(onExceptionSample) || !beforeCall()) return null;
 
             try {
-                Object ret = onExceptionCall.call(args);
-                checkDeactivate(ret, handler);
-                return readReturnMember(ret, "result");
+                long start = startMeasure();
+                Object ret = call(onExceptionCall, onException, args);
+                stopMeasure(handler, start);
+                return readReturn(ret, handler);
             } catch (JSInterruptedExecutionException e) {
                 Logger.error("execution cancelled probably due to timeout");
                 return null;
@@ -325,11 +656,13 @@ public abstract class AbstractFactory implements
         }
 
         public void enterCall(BaseEventHandlerNode handler, Object... args) {
-            if (enter == null || !beforeCall()) return;
+            if (enter == null || batch(handler, enterBatchId, enterSample, args) || !isSampled(enterSample) || !beforeCall()) return;
 
             try {
-                Object ret = enterCall.call(args);
-                checkDeactivate(ret, handler);
+                long start = startMeasure();
+                Object ret = call(enterCall, enter, args);
+                stopMeasure(handler, start);
+                readReturn(ret, handler);
             } catch (JSInterruptedExecutionException e) {
                 Logger.error("execution cancelled probably due to timeout");
             } finally {
@@ -337,6 +670,67 @@ public abstract class AbstractFactory implements
             }
         }
 
+        /**
+         * The factories check these before computing the arguments of a callback, which are not
+         * needed if the callback is batched.
+         *
+         * @return true if the callback is batched, the event is then appended to the batch
+         */
+        public boolean batchPre(BaseEventHandlerNode handler) {
+            return batchValue(handler, preBatchId, preSample, null);
+        }
+
+        public boolean batchPost(BaseEventHandlerNode handler) {
+            return batchValue(handler, postBatchId, postSample, null);
+        }
+
+        /**
+         * @param value the value of the event, see EventBatch.flush
+         */
+        public boolean batchPost(BaseEventHandlerNode handler, Object value) {
+            return batchValue(handler, postBatchId, postSample, value);
+        }
+
+        public boolean batchOnInput(BaseEventHandlerNode handler) {
+            return batchValue(handler, onInputBatchId, onInputSample, null);
+        }
+
+        public boolean batchOnException(BaseEventHandlerNode handler) {
+            return batchValue(handler, onExceptionBatchId, onExceptionSample, null);
+        }
+
+        /**
+         * @param id the index of the callback in the batch or -1
+         * @param sample the countdown of the callback or null
+         * @param args the arguments of the call, holding the value of the event
+         * @return true if the callback is batched
+         */
+        private boolean batch(BaseEventHandlerNode handler, int id, SampleCountdown sample, Object[] args) {
+            if (id < 0) {
+                return false;
+            }
+            return batchValue(handler, id, sample, eventBatch.getValue(id, args));
+        }
+
+        /**
+         * @param value the value of the event or null
+         * @return true if the callback is batched
+         */
+        private boolean batchValue(BaseEventHandlerNode handler, int id, SampleCountdown sample, Object value) {
+            if (id < 0) {
+                return false;
+            }
+            if (isSampled(sample) && beforeCall()) {
+                try {
+                    int tag = handler instanceof BaseSingleTagEventHandler ? ((BaseSingleTagEventHandler) handler).getTag().ordinal() : -1;
+                    eventBatch.add(handler.getSourceIID(), id, tag, value);
+                } finally {
+                    afterCall();
+                }
+            }
+            return true;
+        }
+
         private void assertNoStringLeak(Object[] args) {
             for (Object arg : args) {
                 assert !(arg instanceof String);
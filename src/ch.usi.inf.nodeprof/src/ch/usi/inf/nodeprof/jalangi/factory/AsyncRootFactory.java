@@ -51,7 +51,7 @@ public class AsyncRootFactory extends AbstractFactory {
 
                 if (post != null && this.isAsyncRoot()) {
                     assert (result instanceof DynamicObject);
-                    cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), result, createWrappedException(null));
+                    cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), result, cbNode.wrapException(null, postArity, 2));
                 }
 
                 return null;
@@ -60,7 +60,7 @@ public class AsyncRootFactory extends AbstractFactory {
             @Override
             public Object executeExceptional(VirtualFrame frame, Throwable exception, Object[] inputs) throws InteropException {
                 if (post != null) {
-                    cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), Undefined.instance, createWrappedException(exception));
+                    cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), Undefined.instance, cbNode.wrapException(exception, postArity, 2));
                 }
                 return null;
             }
@@ -48,7 +48,8 @@ public class BuiltinFactory extends AbstractFactory {
             @Override
             public Object executePre(VirtualFrame frame, Object[] inputs) throws InteropException {
                 if (isTarget && pre != null) {
-                    return cbNode.preCall(this, jalangiAnalysis, pre, getBuiltinName(), getFunction(frame), getReceiver(frame), makeArgs.executeArguments(getArguments(frame)));
+                    return cbNode.preCall(this, jalangiAnalysis, pre, getBuiltinName(), getFunction(frame), getReceiver(frame),
+                                    preArity > 3 ? makeArgs.executeArguments(getArguments(frame)) : Undefined.instance);
                 }
                 return null;
             }
@@ -57,9 +58,10 @@ public class BuiltinFactory extends AbstractFactory {
             public Object executePost(VirtualFrame frame, Object result,
                             Object[] inputs) throws InteropException {
                 if (isTarget && post != null) {
-                    return cbNode.postCall(this, jalangiAnalysis, post, this.getBuiltinName(), getFunction(frame), getReceiver(frame), makeArgs.executeArguments(getArguments(frame)),
+                    return cbNode.postCall(this, jalangiAnalysis, post, this.getBuiltinName(), getFunction(frame), getReceiver(frame),
+                                    postArity > 3 ? makeArgs.executeArguments(getArguments(frame)) : Undefined.instance,
                                     convertResult(result),
-                                    createWrappedException(null));
+                                    cbNode.wrapException(null, postArity, 5));
                 }
 
                 return null;
@@ -68,9 +70,10 @@ public class BuiltinFactory extends AbstractFactory {
             @Override
             public Object executeExceptional(VirtualFrame frame, Throwable exception, Object[] inputs) throws InteropException {
                 if (isTarget && post != null) {
-                    cbNode.postCall(this, jalangiAnalysis, post, this.getBuiltinName(), getFunction(frame), getReceiver(frame), makeArgs.executeArguments(getArguments(frame)),
+                    cbNode.postCall(this, jalangiAnalysis, post, this.getBuiltinName(), getFunction(frame), getReceiver(frame),
+                                    postArity > 3 ? makeArgs.executeArguments(getArguments(frame)) : Undefined.instance,
                                     Undefined.instance,
-                                    createWrappedException(null));
+                                    cbNode.wrapException(null, postArity, 5));
 
                 }
                 return null;
@@ -42,12 +42,24 @@ public class ConditionalFactory extends AbstractFactory {
         this.isValue = isValue;
     }
 
+    @Override
+    public long getInputMask() {
+        // the handlers of value conditionals read no input
+        return isValue ? 0L : 1L;
+    }
+
     @Override
     public BaseEventHandlerNode create(EventContext context) {
         return new ConditionalEventHandler(context, isValue) {
             @Child
             CallbackNode cbNode = new CallbackNode();
 
+            @Override
+            public long getInputMask() {
+                // only the condition is passed to the callback
+                return !isValue && isConditional() ? 1L : 0L;
+            }
+
             @Override
             public Object executePost(VirtualFrame frame, Object result,
                                       Object[] inputs) throws InteropException {
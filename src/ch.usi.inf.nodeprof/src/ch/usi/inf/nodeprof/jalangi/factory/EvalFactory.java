@@ -40,6 +40,11 @@ public class EvalFactory extends AbstractFactory {
         this.isInvoke = isInvoke;
     }
 
+    @Override
+    public long getInputMask() {
+        return isInvoke ? BaseEventHandlerNode.ALL_INPUTS : 1L << 1;
+    }
+
     @Override
     public BaseEventHandlerNode create(EventContext context) {
         return new EvalEventHandler(context) {
@@ -48,6 +53,12 @@ public class EvalFactory extends AbstractFactory {
             @Node.Child
             MakeArgumentArrayNode makeArgs = isInvoke ? (MakeArgumentArrayNodeGen.create(pre == null ? post : pre, 1, 0)) : null;
 
+            @Override
+            public long getInputMask() {
+                // only the code is passed to the callbacks of a direct eval
+                return isInvoke ? ALL_INPUTS : 1L << 1;
+            }
+
             @Override
             public Object executePre(VirtualFrame frame, Object[] inputs) throws InteropException {
                 if (pre != null) {
@@ -55,7 +66,8 @@ public class EvalFactory extends AbstractFactory {
                         return cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), getCode(inputs));
                     } else {
                         inputs[1] = getCode(inputs);
-                        return cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), inputs[0], Undefined.instance, makeArgs.executeArguments(inputs), false, false, Strings.fromJavaString("<builtin>"), 0, 0);
+                        return cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), inputs[0], Undefined.instance, preArity > 3 ? makeArgs.executeArguments(inputs) : Undefined.instance, false, false,
+                                        Strings.fromJavaString("<builtin>"), 0, 0);
                     }
                 }
                 return null;
@@ -69,7 +81,8 @@ public class EvalFactory extends AbstractFactory {
                         return cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), getCode(inputs), convertResult(result));
                     } else {
                         inputs[1] = getCode(inputs);
-                        return cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), inputs[0], Undefined.instance, makeArgs.executeArguments(inputs), convertResult(result), false, false, Strings.fromJavaString("<builtin>"), 0);
+                        return cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), inputs[0], Undefined.instance, postArity > 3 ? makeArgs.executeArguments(inputs) : Undefined.instance,
+                                        convertResult(result), false, false, Strings.fromJavaString("<builtin>"), 0);
                     }
                 }
 
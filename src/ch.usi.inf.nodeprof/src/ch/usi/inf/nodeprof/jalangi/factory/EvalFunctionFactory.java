@@ -53,7 +53,7 @@ public class EvalFunctionFactory extends AbstractFactory {
             public Object executePost(VirtualFrame frame, Object result,
                             Object[] inputs) throws InteropException {
                 if (isTarget && post != null) {
-                    return cbNode.postCall(this, jalangiAnalysis, post, makeArgs.executeArguments(getArguments(frame)), convertResult(result), createWrappedException(null));
+                    return cbNode.postCall(this, jalangiAnalysis, post, makeArgs.executeArguments(getArguments(frame)), convertResult(result), cbNode.wrapException(null, postArity, 2));
                 }
 
                 return null;
@@ -62,7 +62,7 @@ public class EvalFunctionFactory extends AbstractFactory {
             @Override
             public Object executeExceptional(VirtualFrame frame, Throwable exception, Object[] inputs) throws InteropException {
                 if (isTarget && post != null) {
-                    cbNode.postCall(this, jalangiAnalysis, post, makeArgs.executeArguments(getArguments(frame)), Undefined.instance, createWrappedException(exception));
+                    cbNode.postCall(this, jalangiAnalysis, post, makeArgs.executeArguments(getArguments(frame)), Undefined.instance, cbNode.wrapException(exception, postArity, 2));
                 }
                 return null;
             }
@@ -43,10 +43,15 @@ public class GetElementFactory extends AbstractFactory {
             @Child
             CallbackNode cbNode = new CallbackNode();
 
+            @Override
+            public boolean usesIndexedInputs() {
+                return true;
+            }
+
             @Override
             public Object executePre(VirtualFrame frame, Object[] inputs) throws InteropException {
                 if (pre != null) {
-                    return cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), getReceiver(inputs), getProperty(inputs), true, isOpAssign(), isMethodCall());
+                    return cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), getReceiver(frame, inputs), getProperty(frame, inputs), true, isOpAssign(), isMethodCall());
                 }
                 return null;
             }
@@ -55,16 +60,16 @@ public class GetElementFactory extends AbstractFactory {
             public Object executePost(VirtualFrame frame, Object result,
                                       Object[] inputs) throws InteropException {
                 if (post != null) {
-                    Object scope = result == Undefined.instance ? getContextScope() : Undefined.instance;
+                    Object scope = postArity > 7 && result == Undefined.instance ? getContextScope() : Undefined.instance;
 
                     Object functionScope = Undefined.instance;
                     boolean isAsync = false;
-                    if (result instanceof JSFunctionObject) {
+                    if (postArity > 5 && result instanceof JSFunctionObject) {
                         functionScope = getScopeOf(((JSFunctionObject) result).getSourceLocation().getSource());
                         isAsync = ((JSFunctionObject) result).getFunctionData().isAsync();
                     }
 
-                    return cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), getReceiver(inputs), getProperty(inputs), convertResult(result), true, functionScope, isAsync, scope);
+                    return cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), getReceiver(frame, inputs), getProperty(frame, inputs), convertResult(result), true, functionScope, isAsync, scope);
                 }
 
                 return null;
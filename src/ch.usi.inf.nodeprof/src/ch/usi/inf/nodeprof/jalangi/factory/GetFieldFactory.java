@@ -56,10 +56,15 @@ public class GetFieldFactory extends AbstractFactory {
             @Child
             CallbackNode cbNode = new CallbackNode();
 
+            @Override
+            public boolean usesIndexedInputs() {
+                return true;
+            }
+
             @Override
             public Object executePre(VirtualFrame frame, Object[] inputs) throws InteropException {
-                if (pre != null && !this.isGlobal(inputs)) {
-                    return cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), getReceiver(inputs), getProperty(), false, isOpAssign(), isMethodCall());
+                if (pre != null && !this.isGlobal(frame, inputs) && !cbNode.batchPre(this)) {
+                    return cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), getReceiver(frame, inputs), getProperty(), false, isOpAssign(), isMethodCall());
                 }
                 return null;
             }
@@ -67,12 +72,12 @@ public class GetFieldFactory extends AbstractFactory {
             @Override
             public Object executePost(VirtualFrame frame, Object result,
                                       Object[] inputs) throws InteropException {
-                if (post != null && !this.isGlobal(inputs)) {
+                if (post != null && !this.isGlobal(frame, inputs) && !cbNode.batchPost(this, result)) {
                     // Only fetch scope when we have an undefine prop read -> this is specific to our case to improve performance
                     // To generalize remove
                     Object scope = result == Undefined.instance ? getContextScope() : Undefined.instance;
 
-                    return cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), getReceiver(inputs), getProperty(), convertResult(result), false, scope);
+                    return cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), getReceiver(frame, inputs), getProperty(), convertResult(result), false, scope);
                 }
                 return null;
             }
@@ -71,14 +71,11 @@ public class InitialRootFactory extends AbstractFactory {
                 return -1;
             }
 
-            @Override
-            public BaseEventHandlerNode wantsToUpdateHandler() {
-                // remove after initial execution
-                return null;
-            }
-
             @Override
             public Object executePre(VirtualFrame frame, Object[] inputs) throws InteropException {
+                // remove right after the initial execution is entered, i.e., before its nested
+                // executions, and keep it removed if the bindings are attached again
+                onSiteHit();
                 checkForSymbolicLocation(context.getInstrumentedNode(), getArguments(frame));
 
                 if (post == null) {
@@ -28,7 +28,6 @@ import ch.usi.inf.nodeprof.ProfiledTagEnum;
 import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
 import ch.usi.inf.nodeprof.handlers.FunctionCallEventHandler;
 import com.oracle.truffle.api.source.Source;
-import com.oracle.truffle.js.runtime.GraalJSException;
 import com.oracle.truffle.js.runtime.Strings;
 import com.oracle.truffle.js.runtime.builtins.JSArray;
 import com.oracle.truffle.js.runtime.builtins.JSFunction;
@@ -69,7 +68,7 @@ public class InvokeFactory extends AbstractFactory {
 
             @Override
             public Object executePre(VirtualFrame frame, Object[] inputs) throws InteropException {
-                if (pre != null) {
+                if (pre != null && !cbNode.batchPre(this)) {
                     Object funInput = getFunction(inputs);
                     Object receiver = getReceiver(inputs);
 
@@ -77,7 +76,10 @@ public class InvokeFactory extends AbstractFactory {
 
                     Object proxy = Undefined.instance;
 
-                    if (funInput instanceof JSFunctionObject) {
+                    // the parameters after iid are only computed if invokeFunPre declares them
+                    if (preArity <= 1) {
+                        fun = funInput;
+                    } else if (funInput instanceof JSFunctionObject) {
                         fun = funInput;
                     } else if (funInput instanceof InteropBoundFunction) {
                         fun = ((InteropBoundFunction) funInput).getFunction();
@@ -91,10 +93,15 @@ public class InvokeFactory extends AbstractFactory {
 
                         proxy = funInput;
                     }
-                    Source src = fun instanceof JSFunctionObject ? ((JSFunctionObject) fun).getSourceLocation().getSource() : null;
+                    Object args = preArity > 3 ? makeArgs.executeArguments(inputs) : Undefined.instance;
+                    Object scope = Undefined.instance;
+                    if (preArity > 6) {
+                        Source src = fun instanceof JSFunctionObject ? ((JSFunctionObject) fun).getSourceLocation().getSource() : null;
+                        scope = getScopeOf(src);
+                    }
 
                     // TODO Jalangi's function iid/sid are set to be 0/0
-                    return cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), fun, receiver, makeArgs.executeArguments(inputs), isNew(), isInvoke(), getScopeOf(src), proxy, originalFun, 0, 0);
+                    return cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), fun, receiver, args, isNew(), isInvoke(), scope, proxy, originalFun, 0, 0);
                 }
                 return null;
             }
@@ -102,7 +109,7 @@ public class InvokeFactory extends AbstractFactory {
             @Override
             public Object executePost(VirtualFrame frame, Object result,
                                       Object[] inputs) throws InteropException {
-                if (post != null) {
+                if (post != null && !cbNode.batchPost(this, result)) {
                     Object funInput = getFunction(inputs);
                     Object receiver = getReceiver(inputs);
 
@@ -110,7 +117,10 @@ public class InvokeFactory extends AbstractFactory {
 
                     Object proxy = Undefined.instance;
 
-                    if (funInput instanceof JSFunctionObject) {
+                    // the parameters after iid are only computed if invokeFun declares them
+                    if (postArity <= 1) {
+                        fun = funInput;
+                    } else if (funInput instanceof JSFunctionObject) {
                         fun = funInput;
                     } else if (funInput instanceof InteropBoundFunction) {
                         fun = ((InteropBoundFunction) funInput).getFunction();
@@ -119,10 +129,15 @@ public class InvokeFactory extends AbstractFactory {
                         fun = ((JSProxyObject) funInput).getProxyTarget();
                         proxy = funInput;
                     }
-                    Source src = fun instanceof JSFunctionObject ? ((JSFunctionObject) fun).getSourceLocation().getSource() : null;
+                    Object args = postArity > 3 ? makeArgs.executeArguments(inputs) : Undefined.instance;
+                    Object scope = Undefined.instance;
+                    if (postArity > 7) {
+                        Source src = fun instanceof JSFunctionObject ? ((JSFunctionObject) fun).getSourceLocation().getSource() : null;
+                        scope = getScopeOf(src);
+                    }
                     // TODO Jalangi's function iid/sid are set to be 0/0
-                    return cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), fun, receiver, makeArgs.executeArguments(inputs), convertResult(result), isNew(),
-                            isInvoke(), getScopeOf(src), 0, 0);
+                    return cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), fun, receiver, args, convertResult(result), isNew(),
+                            isInvoke(), scope, 0, 0);
                 }
                 return null;
             }
@@ -138,7 +153,7 @@ public class InvokeFactory extends AbstractFactory {
                 }
 
                 // only call input call when the function is read
-                if (inputIndex != getOffSet() - 1) return null;
+                if (inputIndex != getOffSet() - 1 || cbNode.batchOnInput(this)) return null;
 
                 /* Most of the time the function object is a JSFunctionObject, but sometimes it's an InteropBoundFunction
                    I'm not sure when/why this is the case - it differs sometime even for the same program
@@ -151,7 +166,7 @@ public class InvokeFactory extends AbstractFactory {
                 }
 
                 boolean isAsync = fun instanceof JSFunctionObject && ((JSFunctionObject) fun).getFunctionData().isAsync();
-                Object scope = fun instanceof JSFunctionObject ? getScopeOf(((JSFunctionObject) fun).getSourceLocation().getSource()) : Undefined.instance;
+                Object scope = onInputArity > 6 && fun instanceof JSFunctionObject ? getScopeOf(((JSFunctionObject) fun).getSourceLocation().getSource()) : Undefined.instance;
 
                 Object newFun = cbNode.onInputCall(
                         this,
@@ -175,14 +190,13 @@ public class InvokeFactory extends AbstractFactory {
 
             @Override
             public Object executeExceptional(VirtualFrame frame, Throwable exception, Object[] inputs) throws InteropException {
-                if (onException == null) return null;
+                if (onException == null || cbNode.batchOnException(this)) return null;
 
                 // It is possible that function and receiver are not set (if e.g. receiver throws)
                 Object function = inputs.length >= this.getOffSet() && inputs[this.getOffSet() - 1] != null ? inputs[this.getOffSet() - 1] : Undefined.instance;
                 Object receiver = !this.isNew() && inputs.length > 0 && inputs[0] != null ? inputs[0] : Undefined.instance;
-                Object args = inputs.length >= this.getOffSet() ? makeArgs.executeArguments(inputs) : Undefined.instance;
-                Object jsErrorObject = exception instanceof GraalJSException ? ((GraalJSException) exception).getErrorObject() : null; // get it eager, else it is null --> check performance implications
-                return cbNode.onExceptionCall(this, jalangiAnalysis, onException, getSourceIID(), jsErrorObject != null ? jsErrorObject : Undefined.instance, function, receiver, args);
+                Object args = onExceptionArity > 4 && inputs.length >= this.getOffSet() ? makeArgs.executeArguments(inputs) : Undefined.instance;
+                return cbNode.onExceptionCall(this, jalangiAnalysis, onException, getSourceIID(), cbNode.getErrorObject(exception, onExceptionArity, 1), function, receiver, args);
             }
         };
     }
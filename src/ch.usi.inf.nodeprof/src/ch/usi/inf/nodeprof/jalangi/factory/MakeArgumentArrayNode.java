@@ -19,6 +19,7 @@ package ch.usi.inf.nodeprof.jalangi.factory;
 import com.oracle.truffle.api.CompilerDirectives;
 import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
 import com.oracle.truffle.api.dsl.Specialization;
+import com.oracle.truffle.api.nodes.ExplodeLoop;
 import com.oracle.truffle.api.nodes.Node;
 import com.oracle.truffle.js.runtime.JSContext;
 import com.oracle.truffle.js.runtime.JSRealm;
@@ -26,15 +27,21 @@ import com.oracle.truffle.js.runtime.builtins.JSArray;
 import com.oracle.truffle.js.runtime.objects.JSDynamicObject;
 
 import ch.usi.inf.nodeprof.utils.GlobalObjectCache;
-import com.oracle.truffle.js.runtime.objects.JSDynamicObject;
 
 /**
  * create a JS array including the arguments for invoke/functionEnter
+ * <p>
+ * The array and its storage are allocated for each call from the number of arguments cached for
+ * the site, so that they do not escape if the callback does not keep or read the arguments, and the
+ * compiler materializes them only on the paths where the callback uses them.
  */
 public abstract class MakeArgumentArrayNode extends Node {
     private final JSContext jsContext;
 
-    @CompilationFinal(dimensions = 0) private Object[] arguments;
+    /**
+     * the number of arguments of the site, -1 before the first call
+     */
+    @CompilationFinal private int argumentCount = -1;
 
     /**
      * offset marks where the first argument is in the inputs
@@ -54,17 +61,16 @@ public abstract class MakeArgumentArrayNode extends Node {
 
     public abstract Object executeArguments(Object[] input);
 
-    private void copy(Object[] input) {
-        for (int i = 0; i < arguments.length; i++) {
+    @ExplodeLoop
+    private Object[] copyCached(Object[] input) {
+        Object[] arguments = new Object[argumentCount];
+        for (int i = 0; i < argumentCount; i++) {
             arguments[i] = input[i + offset];
         }
+        return arguments;
     }
 
-    public Object[] getArguments() {
-        return this.arguments;
-    }
-
-    private Object toJSArray() {
+    private Object toJSArray(Object[] arguments) {
         return JSArray.createConstantObjectArray(jsContext, JSRealm.get(this), arguments);
     }
 
@@ -73,7 +79,7 @@ public abstract class MakeArgumentArrayNode extends Node {
     }
 
     protected boolean argumentsMatch(Object[] input) {
-        return arguments != null && (input.length == (arguments.length + offset + tillEnd));
+        return argumentCount >= 0 && (input.length == (argumentCount + offset + tillEnd));
     }
 
     /**
@@ -86,15 +92,18 @@ public abstract class MakeArgumentArrayNode extends Node {
 
     @Specialization(guards = "argumentsMatch(input)")
     public Object executeCache(Object[] input) {
-        copy(input);
-        return toJSArray();
+        return toJSArray(copyCached(input));
     }
 
     @Specialization
     public Object executeOther(Object[] input) {
-        CompilerDirectives.transferToInterpreterAndInvalidate();
-        this.arguments = new Object[input.length - offset - tillEnd];
-        copy(input);
-        return toJSArray();
+        if (argumentCount < 0) {
+            // cache the number of arguments of the first call
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            argumentCount = input.length - offset - tillEnd;
+        }
+        Object[] arguments = new Object[input.length - offset - tillEnd];
+        System.arraycopy(input, offset, arguments, 0, arguments.length);
+        return toJSArray(arguments);
     }
 }
@@ -37,10 +37,15 @@ public class PutElementFactory extends AbstractFactory {
         return new ElementWriteEventHandler(context) {
             @Child CallbackNode cbNode = new CallbackNode();
 
+            @Override
+            public boolean usesIndexedInputs() {
+                return true;
+            }
+
             @Override
             public Object executePre(VirtualFrame frame, Object[] inputs) throws InteropException {
                 if (pre != null) {
-                    return cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), getReceiver(inputs), getProperty(inputs), getValue(inputs), true, isOpAssign());
+                    return cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), getReceiver(frame, inputs), getProperty(frame, inputs), getValue(frame, inputs), true, isOpAssign());
                 }
                 return null;
             }
@@ -49,7 +54,7 @@ public class PutElementFactory extends AbstractFactory {
             public Object executePost(VirtualFrame frame, Object result,
                             Object[] inputs) throws InteropException {
                 if (post != null) {
-                    return cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), getReceiver(inputs), getProperty(inputs), getValue(inputs), true, isOpAssign());
+                    return cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), getReceiver(frame, inputs), getProperty(frame, inputs), getValue(frame, inputs), true, isOpAssign());
                 }
                 return null;
             }
@@ -38,10 +38,15 @@ public class PutFieldFactory extends AbstractFactory {
             @Child
             CallbackNode cbNode = new CallbackNode();
 
+            @Override
+            public boolean usesIndexedInputs() {
+                return true;
+            }
+
             @Override
             public Object executePre(VirtualFrame frame, Object[] inputs) throws InteropException {
-                if (pre != null && !this.isGlobal(inputs)) {
-                    return cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), getReceiver(inputs), getProperty(), getValue(inputs), false, isOpAssign());
+                if (pre != null && !this.isGlobal(frame, inputs)) {
+                    return cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), getReceiver(frame, inputs), getProperty(), getValue(frame, inputs), false, isOpAssign());
                 }
                 return null;
             }
@@ -49,8 +54,8 @@ public class PutFieldFactory extends AbstractFactory {
             @Override
             public Object executePost(VirtualFrame frame, Object result,
                                       Object[] inputs) throws InteropException {
-                if (post != null && !this.isGlobal(inputs)) {
-                    return cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), getReceiver(inputs), getProperty(), getValue(inputs), false, isOpAssign());
+                if (post != null && !this.isGlobal(frame, inputs)) {
+                    return cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), getReceiver(frame, inputs), getProperty(), getValue(frame, inputs), false, isOpAssign());
                 }
                 return null;
             }
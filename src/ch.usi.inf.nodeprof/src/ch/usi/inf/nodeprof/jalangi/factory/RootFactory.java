@@ -52,7 +52,8 @@ public class RootFactory extends AbstractFactory {
                 }
 
                 if (!this.isBuiltin && pre != null) {
-                    return cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), getFunction(frame), getReceiver(frame), makeArgs.executeArguments(getArguments(frame)));
+                    return cbNode.preCall(this, jalangiAnalysis, pre, getSourceIID(), getFunction(frame), getReceiver(frame),
+                                    preArity > 3 ? makeArgs.executeArguments(getArguments(frame)) : Undefined.instance);
                 }
                 return null;
             }
@@ -64,7 +65,7 @@ public class RootFactory extends AbstractFactory {
                     return null;
                 }
 
-                return cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), convertResult(result), createWrappedException(null));
+                return cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), convertResult(result), cbNode.wrapException(null, postArity, 2));
             }
 
             @Override
@@ -74,7 +75,7 @@ public class RootFactory extends AbstractFactory {
                 }
 
                 if (!this.isBuiltin && post != null) {
-                    cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), Undefined.instance, createWrappedException(exception));
+                    cbNode.postCall(this, jalangiAnalysis, post, getSourceIID(), Undefined.instance, cbNode.wrapException(exception, postArity, 2));
                 }
                 return null;
             }
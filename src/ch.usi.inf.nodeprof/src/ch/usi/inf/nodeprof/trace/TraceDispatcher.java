@@ -0,0 +1,91 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.trace;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+
+/**
+ * Dispatches the events of a trace to handlers registered by tag, as NodeProfAnalysis.onCallback
+ * does for the events of a running application, e.g., to replay a trace with the aggregation of
+ * an existing analysis.
+ * <p>
+ * The handlers see the recorded values (see TraceFormat), not the values of the application. The
+ * inputs of an event are delivered with their index before its post event, as they were recorded
+ * by TraceRecorder.
+ */
+public class TraceDispatcher implements TraceReader.Listener {
+
+    /**
+     * receives the events of one tag, in the order of the handler methods of BaseEventHandlerNode
+     */
+    public interface TagHandler {
+        default void onPre(int iid) {
+        }
+
+        /**
+         * @param index the index of the input
+         * @param type the value type, see TraceFormat.NONE etc.
+         * @param payload the payload of the value type
+         */
+        default void onInput(int iid, int index, int type, long payload) {
+        }
+
+        default void onPost(int iid, int type, long payload) {
+        }
+
+        default void onException(int iid) {
+        }
+    }
+
+    private final TagHandler[] handlers = new TagHandler[ProfiledTagEnum.values().length];
+
+    // the index of the next input of the current event
+    private int nextInput = 0;
+
+    /**
+     * register the handler of a tag, replacing the previous one
+     */
+    public void onCallback(ProfiledTagEnum tag, TagHandler handler) {
+        handlers[tag.ordinal()] = handler;
+    }
+
+    @Override
+    public void onEvent(int iid, ProfiledTagEnum tag, int kind, int type, long payload) {
+        int input = kind == TraceFormat.INPUT ? nextInput++ : 0;
+        if (kind != TraceFormat.INPUT) {
+            nextInput = 0;
+        }
+        TagHandler handler = handlers[tag.ordinal()];
+        if (handler == null) {
+            return;
+        }
+        switch (kind) {
+            case TraceFormat.PRE:
+                handler.onPre(iid);
+                break;
+            case TraceFormat.INPUT:
+                handler.onInput(iid, input, type, payload);
+                break;
+            case TraceFormat.POST:
+                handler.onPost(iid, type, payload);
+                break;
+            default:
+                handler.onException(iid);
+                break;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.trace;
+
+import java.nio.ByteBuffer;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.strings.TruffleString;
+import com.oracle.truffle.js.runtime.BigInt;
+import com.oracle.truffle.js.runtime.SafeInteger;
+import com.oracle.truffle.js.runtime.Strings;
+import com.oracle.truffle.js.runtime.Symbol;
+import com.oracle.truffle.js.runtime.builtins.JSArray;
+import com.oracle.truffle.js.runtime.builtins.JSFunction;
+import com.oracle.truffle.js.runtime.objects.JSDynamicObject;
+import com.oracle.truffle.js.runtime.objects.Null;
+import com.oracle.truffle.js.runtime.objects.Undefined;
+
+/**
+ * The binary format of the segment files of a trace.
+ * <p>
+ * A segment starts with MAGIC and VERSION, followed by records of the form:
+ *
+ * <pre>
+ * iid (varint) | tag ordinal << 2 | kind (byte) | value type (byte) | payload
+ * </pre>
+ *
+ * The payload depends on the value type: a zigzag varint for BOOLEAN and INT, the 8 bytes of the
+ * bits for DOUBLE, the varint length for STRING, and nothing for the other types. The IIDs start
+ * at 1, so a zero byte in place of an IID ends the segment (the unused part of a segment is
+ * zeroed). The locations of the IIDs are written to LOCATIONS as "iid\tlocation" lines.
+ */
+public final class TraceFormat {
+
+    public static final int MAGIC = 0x4e505452; // NPTR
+    public static final byte VERSION = 1;
+    public static final int HEADER_SIZE = 5;
+    public static final int MAX_RECORD_SIZE = 5 + 1 + 1 + 10;
+
+    public static final String SEGMENT_PREFIX = "segment-";
+    public static final String SEGMENT_SUFFIX = ".trace";
+    /**
+     * the prefix of the segments of a thread until the trace is closed (see TraceWriter)
+     */
+    public static final String STREAM_PREFIX = "stream-";
+    public static final String LOCATIONS = "locations.txt";
+
+    /**
+     * the kinds of event
+     */
+    public static final int PRE = 0;
+    public static final int INPUT = 1;
+    public static final int POST = 2;
+    public static final int EXCEPTION = 3;
+
+    /**
+     * the value types
+     */
+    public static final int NONE = 0;
+    public static final int UNDEFINED = 1;
+    public static final int NULL = 2;
+    public static final int BOOLEAN = 3;
+    public static final int INT = 4;
+    public static final int DOUBLE = 5;
+    public static final int STRING = 6;
+    public static final int BIGINT = 7;
+    public static final int SYMBOL = 8;
+    public static final int FUNCTION = 9;
+    public static final int ARRAY = 10;
+    public static final int OBJECT = 11;
+    public static final int OTHER = 12;
+
+    private TraceFormat() {
+    }
+
+    public static String segmentName(int index) {
+        return String.format("%s%05d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX);
+    }
+
+    public static String streamSegmentName(int stream, int index) {
+        return String.format("%s%03d-%05d%s", STREAM_PREFIX, stream, index, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * @return the value type of a JavaScript value
+     */
+    @TruffleBoundary
+    public static int typeOf(Object value) {
+        if (value == null) {
+            return NONE;
+        } else if (value == Undefined.instance) {
+            return UNDEFINED;
+        } else if (value == Null.instance) {
+            return NULL;
+        } else if (value instanceof Boolean) {
+            return BOOLEAN;
+        } else if (value instanceof Integer || value instanceof SafeInteger || value instanceof Long) {
+            return INT;
+        } else if (value instanceof Double) {
+            return DOUBLE;
+        } else if (value instanceof TruffleString) {
+            return STRING;
+        } else if (value instanceof BigInt) {
+            return BIGINT;
+        } else if (value instanceof Symbol) {
+            return SYMBOL;
+        } else if (JSFunction.isJSFunction(value)) {
+            return FUNCTION;
+        } else if (JSArray.isJSArray(value)) {
+            return ARRAY;
+        } else if (value instanceof JSDynamicObject) {
+            return OBJECT;
+        }
+        return OTHER;
+    }
+
+    /**
+     * @return the payload of a value of the given type
+     */
+    @TruffleBoundary
+    public static long payloadOf(Object value, int type) {
+        switch (type) {
+            case BOOLEAN:
+                return (Boolean) value ? 1 : 0;
+            case INT:
+                return ((Number) value).longValue();
+            case DOUBLE:
+                return Double.doubleToRawLongBits((Double) value);
+            case STRING:
+                return Strings.length((TruffleString) value);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return the value replayed for a record, undefined for the types without the value in the
+     *         payload, e.g., the objects and the strings
+     */
+    public static Object toValue(int type, long payload) {
+        switch (type) {
+            case NULL:
+                return Null.instance;
+            case BOOLEAN:
+                return payload != 0;
+            case INT:
+                return payload == (int) payload ? (Object) (int) payload : (Object) (double) payload;
+            case DOUBLE:
+                return Double.longBitsToDouble(payload);
+            default:
+                return Undefined.instance;
+        }
+    }
+
+    public static void putVarint(ByteBuffer buffer, long value) {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    public static long getVarint(ByteBuffer buffer) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalStateException("malformed varint at " + buffer.position());
+    }
+
+    public static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * append a record, the buffer must have MAX_RECORD_SIZE remaining bytes
+     */
+    public static void putRecord(ByteBuffer buffer, int iid, int tag, int kind, int type, long payload) {
+        putVarint(buffer, iid & 0xFFFFFFFFL);
+        buffer.put((byte) (tag << 2 | kind));
+        buffer.put((byte) type);
+        switch (type) {
+            case BOOLEAN:
+            case INT:
+                putVarint(buffer, zigzag(payload));
+                break;
+            case DOUBLE:
+                buffer.putLong(payload);
+                break;
+            case STRING:
+                putVarint(buffer, payload);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * decode the payload of a record of the given type
+     */
+    public static long getPayload(ByteBuffer buffer, int type) {
+        switch (type) {
+            case BOOLEAN:
+            case INT:
+                return unzigzag(getVarint(buffer));
+            case DOUBLE:
+                return buffer.getLong();
+            case STRING:
+                return getVarint(buffer);
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.trace;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+
+/**
+ * Reads the traces written by TraceRecorder, without a running application.
+ * <p>
+ * The replay splits the segments of a trace into contiguous shards decoded in parallel, each shard
+ * by its own listener, so the listeners aggregate without synchronization and are merged after the
+ * replay. The events of a shard are delivered in the order their thread recorded them (see
+ * TraceWriter). TraceDispatcher dispatches the events by tag to handlers, the analyses replay the
+ * traces with NodeProfAnalysis.replay and the Jalangi analyses with the replayTrace API.
+ */
+public final class TraceReader {
+
+    /**
+     * receives the events of a trace
+     */
+    public interface Listener {
+        /**
+         * @param kind see TraceFormat.PRE etc.
+         * @param type the value type, see TraceFormat.NONE etc.
+         * @param payload the payload of the value type, e.g., the bits of a DOUBLE
+         */
+        void onEvent(int iid, ProfiledTagEnum tag, int kind, int type, long payload);
+    }
+
+    private static final ProfiledTagEnum[] TAGS = ProfiledTagEnum.values();
+
+    private TraceReader() {
+    }
+
+    /**
+     * @return the segment files of the trace in the order they were written
+     */
+    public static File[] getSegments(File dir) {
+        File[] segments = dir.listFiles((d, name) -> name.startsWith(TraceFormat.SEGMENT_PREFIX) && name.endsWith(TraceFormat.SEGMENT_SUFFIX));
+        if (segments == null) {
+            return new File[0];
+        }
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    /**
+     * @return the locations of the IIDs of the trace
+     */
+    public static HashMap<Integer, String> readLocations(File dir) throws IOException {
+        HashMap<Integer, String> locations = new HashMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(new File(dir, TraceFormat.LOCATIONS)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    locations.put(Integer.parseInt(line.substring(0, tab)), line.substring(tab + 1));
+                }
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * deliver the events of a segment to the listener
+     *
+     * @return the number of events
+     */
+    public static long read(File segment, Listener listener) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+            ByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (buffer.remaining() < TraceFormat.HEADER_SIZE || buffer.getInt() != TraceFormat.MAGIC || buffer.get() != TraceFormat.VERSION) {
+                throw new IOException("not a trace segment: " + segment);
+            }
+            long events = 0;
+            while (buffer.hasRemaining()) {
+                int iid = (int) TraceFormat.getVarint(buffer);
+                if (iid == 0) {
+                    break;
+                }
+                int tagAndKind = buffer.get() & 0xFF;
+                int type = buffer.get();
+                long payload = TraceFormat.getPayload(buffer, type);
+                listener.onEvent(iid, TAGS[tagAndKind >>> 2], tagAndKind & 3, type, payload);
+                events++;
+            }
+            return events;
+        }
+    }
+
+    /**
+     * deliver the events of the trace to the listener on the calling thread, e.g., to replay them
+     * to the handlers of an analysis in the context they run in
+     *
+     * @return the number of events
+     */
+    public static long replay(File dir, Listener listener) throws IOException {
+        long events = 0;
+        for (File segment : getSegments(dir)) {
+            events += read(segment, listener);
+        }
+        return events;
+    }
+
+    /**
+     * deliver the events of the trace in the given number of shards decoded in parallel
+     *
+     * @param dir the directory of the trace
+     * @param shards the maximum number of shards
+     * @param listenerFactory creates the listener of each shard
+     * @return the listeners of the shards, in the order of the trace
+     */
+    public static <T extends Listener> List<T> replay(File dir, int shards, Supplier<T> listenerFactory) throws IOException {
+        File[] segments = getSegments(dir);
+        int n = Math.max(1, Math.min(shards, segments.length));
+        ArrayList<T> listeners = new ArrayList<>();
+        ArrayList<Future<?>> results = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(n);
+        try {
+            for (int i = 0; i < n; i++) {
+                T listener = listenerFactory.get();
+                listeners.add(listener);
+                List<File> shard = Arrays.asList(segments).subList(segments.length * i / n, segments.length * (i + 1) / n);
+                results.add(executor.submit(() -> {
+                    for (File segment : shard) {
+                        read(segment, listener);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("replay of " + dir + " interrupted");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return listeners;
+    }
+}
@@ -0,0 +1,126 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.trace;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.frame.VirtualFrame;
+import com.oracle.truffle.api.instrumentation.EventContext;
+import com.oracle.truffle.api.instrumentation.Instrumenter;
+import com.oracle.truffle.api.instrumentation.TruffleInstrument.Env;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+import ch.usi.inf.nodeprof.analysis.AnalysisFactory;
+import ch.usi.inf.nodeprof.analysis.NodeProfAnalysis;
+import ch.usi.inf.nodeprof.handlers.BaseEventHandlerNode;
+import ch.usi.inf.nodeprof.handlers.BaseSingleTagEventHandler;
+import ch.usi.inf.nodeprof.utils.GlobalConfiguration;
+import ch.usi.inf.nodeprof.utils.SourceMapping;
+
+/**
+ * Records the events of all tags to a trace, to be replayed offline with TraceReader.
+ * <p>
+ * Enabled with --nodeprof.Analysis=ch.usi.inf.nodeprof.trace.TraceRecorder, the trace is written
+ * to the directory given by the option TraceDir. Each event is recorded with the type of its value
+ * and small primitive payloads (see TraceFormat): the inputs and the result at post, nothing at
+ * pre and exceptional returns.
+ */
+public class TraceRecorder extends NodeProfAnalysis {
+
+    private final TraceWriter writer;
+    private final HashSet<Integer> iids = new HashSet<>();
+
+    public TraceRecorder(Instrumenter instrumenter, Env env) {
+        this(instrumenter, env, new TraceWriter(new File(GlobalConfiguration.TRACE_DIR), GlobalConfiguration.TRACE_SEGMENT_SIZE << 20));
+    }
+
+    public TraceRecorder(Instrumenter instrumenter, Env env, TraceWriter writer) {
+        super("TraceRecorder", instrumenter, env);
+        this.writer = writer;
+    }
+
+    @TruffleBoundary
+    private void addSite(int iid) {
+        synchronized (iids) {
+            iids.add(iid);
+        }
+    }
+
+    @Override
+    public void initCallbacks() {
+        for (ProfiledTagEnum tag : ProfiledTagEnum.values()) {
+            final int ordinal = tag.ordinal();
+            this.onCallback(tag, new AnalysisFactory<BaseEventHandlerNode>() {
+                @Override
+                public BaseEventHandlerNode create(EventContext context) {
+                    return new BaseSingleTagEventHandler(context, tag) {
+                        {
+                            addSite(getSourceIID());
+                        }
+
+                        @Override
+                        public Object executePre(VirtualFrame frame, Object[] inputs) {
+                            writer.write(getSourceIID(), ordinal, TraceFormat.PRE, null);
+                            return null;
+                        }
+
+                        @Override
+                        public Object executePost(VirtualFrame frame, Object result, Object[] inputs) {
+                            if (inputs != null) {
+                                for (Object input : inputs) {
+                                    writer.write(getSourceIID(), ordinal, TraceFormat.INPUT, input);
+                                }
+                            }
+                            writer.write(getSourceIID(), ordinal, TraceFormat.POST, result);
+                            return null;
+                        }
+
+                        @Override
+                        public Object executeExceptional(VirtualFrame frame, Throwable exception, Object[] inputs) {
+                            writer.write(getSourceIID(), ordinal, TraceFormat.EXCEPTION, null);
+                            return null;
+                        }
+                    };
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onClear() {
+        synchronized (iids) {
+            iids.clear();
+        }
+    }
+
+    /**
+     * write the last segment and the locations of the recorded sites
+     */
+    @Override
+    public void printResult() {
+        HashMap<Integer, String> locations = new HashMap<>();
+        synchronized (iids) {
+            for (int iid : iids) {
+                locations.put(iid, SourceMapping.getLocationForIID(iid));
+            }
+        }
+        writer.close(locations);
+    }
+}
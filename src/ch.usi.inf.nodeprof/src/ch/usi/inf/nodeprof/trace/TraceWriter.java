@@ -0,0 +1,234 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+
+import ch.usi.inf.nodeprof.utils.Logger;
+
+/**
+ * Writes the records of a trace to memory-mapped segment files of a fixed size (see TraceFormat).
+ * <p>
+ * Each thread writes its records to its own stream of segments, so the threads do not contend on
+ * write. Closing the trace merges the streams into one sequence of segments, stream after stream,
+ * i.e., the records of a thread stay in the order they were written. If writing a stream fails,
+ * the stream is truncated and its following records are dropped.
+ */
+public final class TraceWriter {
+    private final File dir;
+    private final int segmentSize;
+
+    /**
+     * the streams of the threads in the order they were created, guarded by this
+     */
+    private final ArrayList<Stream> streams = new ArrayList<>();
+    private final ThreadLocal<Stream> currentStream = ThreadLocal.withInitial(this::createStream);
+    private boolean prepared = false;
+    private boolean prepareFailed = false;
+    private volatile boolean closed = false;
+
+    /**
+     * the segments of one thread, only written by this thread until the trace is closed
+     */
+    private final class Stream {
+        private final int id;
+        private int segments = 0;
+        private long records = 0;
+        private long bytes = 0;
+        private RandomAccessFile file;
+        private MappedByteBuffer buffer;
+        private boolean failed = false;
+
+        private Stream(int id, boolean failed) {
+            this.id = id;
+            this.failed = failed;
+        }
+
+        // the lock is only contended by close
+        private synchronized void write(int iid, int tag, int kind, Object value) {
+            if (failed || closed) {
+                return;
+            }
+            // keep a zero byte after the last record
+            if (buffer == null || buffer.remaining() <= TraceFormat.MAX_RECORD_SIZE) {
+                if (!nextSegment()) {
+                    return;
+                }
+            }
+            int type = TraceFormat.typeOf(value);
+            TraceFormat.putRecord(buffer, iid, tag, kind, type, TraceFormat.payloadOf(value, type));
+            records++;
+        }
+
+        private boolean nextSegment() {
+            try {
+                closeSegment();
+                file = new RandomAccessFile(new File(dir, TraceFormat.streamSegmentName(id, segments++)), "rw");
+                file.setLength(0);
+                buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+                buffer.putInt(TraceFormat.MAGIC);
+                buffer.put(TraceFormat.VERSION);
+                return true;
+            } catch (IOException e) {
+                Logger.error("TraceWriter: cannot write segment " + segments + " of stream " + id + " in " + dir + ": " + e.getMessage());
+                failed = true;
+                buffer = null;
+                return false;
+            }
+        }
+
+        private void closeSegment() throws IOException {
+            if (buffer != null) {
+                int length = buffer.position();
+                bytes += length;
+                buffer.force();
+                buffer = null;
+                // drop the unused part of the segment, but the zero byte ending it
+                file.getChannel().truncate(Math.min(length + 1, segmentSize));
+                file.close();
+                file = null;
+            }
+        }
+    }
+
+    /**
+     * @param dir the directory of the segment files, created if needed
+     * @param segmentSize the size of a segment file in bytes
+     */
+    @TruffleBoundary
+    public TraceWriter(File dir, int segmentSize) {
+        if (segmentSize < TraceFormat.HEADER_SIZE + TraceFormat.MAX_RECORD_SIZE + 1) {
+            throw new IllegalArgumentException("trace segment size too small: " + segmentSize);
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * append a record to the stream of the current thread
+     *
+     * @param tag the ordinal of the ProfiledTagEnum of the event
+     * @param kind see TraceFormat.PRE etc.
+     * @param value the value of the event or null
+     */
+    @TruffleBoundary
+    public void write(int iid, int tag, int kind, Object value) {
+        currentStream.get().write(iid, tag, kind, value);
+    }
+
+    private synchronized Stream createStream() {
+        if (!prepared) {
+            prepared = true;
+            try {
+                prepareDir();
+            } catch (IOException e) {
+                Logger.error("TraceWriter: cannot prepare " + dir + ": " + e.getMessage());
+                prepareFailed = true;
+            }
+        }
+        Stream stream = new Stream(streams.size(), prepareFailed);
+        streams.add(stream);
+        return stream;
+    }
+
+    // create the directory or remove the segments of a previous trace
+    private void prepareDir() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        File[] old = dir.listFiles((d, name) -> (name.startsWith(TraceFormat.SEGMENT_PREFIX) || name.startsWith(TraceFormat.STREAM_PREFIX)) && name.endsWith(TraceFormat.SEGMENT_SUFFIX));
+        if (old != null) {
+            for (File f : old) {
+                if (!f.delete()) {
+                    throw new IOException("cannot delete " + f);
+                }
+            }
+        }
+    }
+
+    /**
+     * write the last segments, merge the streams and write the locations of the IIDs, the records
+     * written after close are dropped. The streams failing to close are truncated to the segments
+     * merged, the locations are written as long as the directory of the trace is usable.
+     *
+     * @param locations the locations of the IIDs
+     */
+    @TruffleBoundary
+    public synchronized void close(Map<Integer, String> locations) {
+        closed = true;
+        int segments = 0;
+        long records = 0;
+        long bytes = 0;
+        int failed = 0;
+        if (!prepared) {
+            prepared = true;
+            try {
+                prepareDir();
+            } catch (IOException e) {
+                Logger.error("TraceWriter: cannot prepare " + dir + ": " + e.getMessage());
+                prepareFailed = true;
+            }
+        }
+        if (prepareFailed) {
+            return;
+        }
+        for (Stream stream : streams) {
+            synchronized (stream) {
+                try {
+                    stream.closeSegment();
+                    for (int i = 0; i < stream.segments; i++) {
+                        File from = new File(dir, TraceFormat.streamSegmentName(stream.id, i));
+                        if (!from.renameTo(new File(dir, TraceFormat.segmentName(segments)))) {
+                            throw new IOException("cannot rename " + from);
+                        }
+                        segments++;
+                    }
+                } catch (IOException e) {
+                    Logger.error("TraceWriter: cannot close stream " + stream.id + " in " + dir + ": " + e.getMessage());
+                    stream.failed = true;
+                }
+                records += stream.records;
+                bytes += stream.bytes;
+                if (stream.failed) {
+                    failed++;
+                }
+            }
+        }
+        try (PrintWriter out = new PrintWriter(new File(dir, TraceFormat.LOCATIONS), "UTF-8")) {
+            for (Map.Entry<Integer, String> entry : new TreeMap<>(locations).entrySet()) {
+                out.println(entry.getKey() + "\t" + entry.getValue());
+            }
+        } catch (IOException e) {
+            Logger.error("TraceWriter: cannot write the locations in " + dir + ": " + e.getMessage());
+        }
+        Logger.info("TraceWriter: " + records + " records, " + streams.size() + " streams (" + failed + " truncated), " + segments + " segments, " + bytes + " bytes in " + dir);
+    }
+}
@@ -0,0 +1,157 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2021, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.utils;
+
+import java.util.ArrayList;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+import com.oracle.truffle.api.source.Source;
+import com.oracle.truffle.api.source.SourceSection;
+
+/**
+ * Records the time spent instrumenting the nodes of each source, enabled with the option
+ * TraceAttachCost and reported at dispose.
+ * <p>
+ * The time of CREATE is the one of the whole ExecutionEventNodeFactory.create calls, thus it
+ * includes the time of the ATTRIBUTES and IID phases, which happen while the handlers are created.
+ */
+public final class AttachCostTracer {
+
+    public enum Phase {
+        // creating the event nodes
+        CREATE,
+        // reading the attributes of the instrumented nodes
+        ATTRIBUTES,
+        // assigning the IIDs of the instrumented nodes
+        IID;
+
+        static final int NUM_PHASES = values().length;
+    }
+
+    /**
+     * the costs of a source, with the time spent in each phase in nanoseconds and the number of
+     * nodes created
+     */
+    private static final class SourceCost {
+        private final LongAdder[] nanos = new LongAdder[Phase.NUM_PHASES];
+        private final LongAdder nodes = new LongAdder();
+
+        private SourceCost() {
+            for (int i = 0; i < nanos.length; i++) {
+                nanos[i] = new LongAdder();
+            }
+        }
+    }
+
+    private static final ConcurrentHashMap<String, SourceCost> costs = new ConcurrentHashMap<>();
+
+    private AttachCostTracer() {
+    }
+
+    /**
+     * @return the start time to pass to stop, or 0 if tracing is disabled
+     */
+    public static long start() {
+        if (!GlobalConfiguration.TRACE_ATTACH_COST) {
+            return 0;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * record the time since start for the phase
+     *
+     * @param phase the phase to record
+     * @param section the instrumented source section, or null
+     * @param start as returned by start
+     */
+    @TruffleBoundary
+    public static void stop(Phase phase, SourceSection section, long start) {
+        if (start == 0 || section == null) {
+            return;
+        }
+        SourceCost cost = getCost(section.getSource());
+        cost.nanos[phase.ordinal()].add(System.nanoTime() - start);
+        if (phase == Phase.CREATE) {
+            cost.nodes.increment();
+        }
+    }
+
+    private static SourceCost getCost(Source source) {
+        String name = source.getPath() != null ? source.getPath() : source.getName();
+        SourceCost cost = costs.get(name);
+        if (cost == null) {
+            costs.putIfAbsent(name, new SourceCost());
+            cost = costs.get(name);
+        }
+        return cost;
+    }
+
+    /**
+     * @return the time in nanoseconds spent in the phase for the source (by path or name)
+     */
+    @TruffleBoundary
+    public static long getNanos(String sourceName, Phase phase) {
+        SourceCost cost = costs.get(sourceName);
+        return cost == null ? 0 : cost.nanos[phase.ordinal()].sum();
+    }
+
+    /**
+     * @return the number of times a node of the source was passed to a factory
+     */
+    @TruffleBoundary
+    public static long getNodes(String sourceName) {
+        SourceCost cost = costs.get(sourceName);
+        return cost == null ? 0 : cost.nodes.sum();
+    }
+
+    /**
+     * log the costs of all sources, the most expensive first, and reset them
+     */
+    @TruffleBoundary
+    public static void report() {
+        if (costs.isEmpty()) {
+            return;
+        }
+        ArrayList<Entry<String, SourceCost>> entries = new ArrayList<>(costs.entrySet());
+        entries.sort((Entry<String, SourceCost> a, Entry<String, SourceCost> b) -> Long.compare(
+                        b.getValue().nanos[Phase.CREATE.ordinal()].sum(), a.getValue().nanos[Phase.CREATE.ordinal()].sum()));
+        long[] total = new long[Phase.NUM_PHASES];
+        long totalNodes = 0;
+        for (Entry<String, SourceCost> entry : entries) {
+            SourceCost cost = entry.getValue();
+            StringBuilder builder = new StringBuilder("AttachCost: ").append(entry.getKey());
+            builder.append(" nodes ").append(cost.nodes.sum());
+            totalNodes += cost.nodes.sum();
+            for (Phase phase : Phase.values()) {
+                long nanos = cost.nanos[phase.ordinal()].sum();
+                total[phase.ordinal()] += nanos;
+                builder.append(' ').append(phase.toString().toLowerCase()).append(' ').append(nanos / 1000).append("us");
+            }
+            Logger.info(builder.toString());
+        }
+        StringBuilder builder = new StringBuilder("AttachCost: total sources ").append(entries.size()).append(" nodes ").append(totalNodes);
+        for (Phase phase : Phase.values()) {
+            builder.append(' ').append(phase.toString().toLowerCase()).append(' ').append(total[phase.ordinal()] / 1000).append("us");
+        }
+        Logger.info(builder.toString());
+        costs.clear();
+    }
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2023, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.usi.inf.nodeprof.utils;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An array indexed by int growing without copying its elements, backed by chunks of CHUNK_SIZE
+ * elements allocated on demand.
+ * <p>
+ * The reads are wait-free (the directory of chunks, the chunk, the element) and the writes into
+ * an existing chunk are lock-free. Only installing a chunk, i.e., once per CHUNK_SIZE elements,
+ * takes the lock of the array, so that a chunk installed while the directory grows is not lost.
+ */
+public final class ChunkedArray<T> {
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int INITIAL_CHUNKS = 16;
+
+    private volatile AtomicReferenceArray<AtomicReferenceArray<T>> chunks = new AtomicReferenceArray<>(INITIAL_CHUNKS);
+
+    /**
+     * @return the element at index or null if it is not set
+     */
+    public T get(int index) {
+        if (index < 0) {
+            return null;
+        }
+        AtomicReferenceArray<AtomicReferenceArray<T>> directory = chunks;
+        int chunkIndex = index >>> CHUNK_BITS;
+        if (chunkIndex >= directory.length()) {
+            return null;
+        }
+        AtomicReferenceArray<T> chunk = directory.get(chunkIndex);
+        return chunk == null ? null : chunk.get(index & CHUNK_MASK);
+    }
+
+    public void set(int index, T value) {
+        AtomicReferenceArray<AtomicReferenceArray<T>> directory = chunks;
+        int chunkIndex = index >>> CHUNK_BITS;
+        AtomicReferenceArray<T> chunk = chunkIndex < directory.length() ? directory.get(chunkIndex) : null;
+        if (chunk == null) {
+            chunk = installChunk(chunkIndex);
+        }
+        chunk.set(index & CHUNK_MASK, value);
+    }
+
+    private synchronized AtomicReferenceArray<T> installChunk(int chunkIndex) {
+        AtomicReferenceArray<AtomicReferenceArray<T>> directory = chunks;
+        if (chunkIndex >= directory.length()) {
+            AtomicReferenceArray<AtomicReferenceArray<T>> grown = new AtomicReferenceArray<>(Math.max(chunkIndex + 1, directory.length() * 2));
+            for (int i = 0; i < directory.length(); i++) {
+                grown.set(i, directory.get(i));
+            }
+            directory = grown;
+            chunks = grown;
+        }
+        AtomicReferenceArray<T> chunk = directory.get(chunkIndex);
+        if (chunk == null) {
+            chunk = new AtomicReferenceArray<>(CHUNK_SIZE);
+            directory.set(chunkIndex, chunk);
+        }
+        return chunk;
+    }
+
+    /**
+     * remove all elements, the writes racing with clear may be lost
+     */
+    public synchronized void clear() {
+        chunks = new AtomicReferenceArray<>(INITIAL_CHUNKS);
+    }
+}
@@ -0,0 +1,68 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2023, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.utils;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+
+/**
+ * Periodically logs a snapshot of the event counters of all tags (see ProfiledTagEnum.snapshot)
+ * from a background daemon thread, thus without any cost for the instrumented threads.
+ * <p>
+ * Each NodeProfInstrument owns its exporter and stops it when disposed, so that the snapshot
+ * thread does not outlive the engine.
+ */
+public final class CounterSnapshotExporter {
+    private ScheduledExecutorService executor = null;
+
+    /**
+     * @param intervalMillis interval between two snapshots in milliseconds, 0 or less to disable
+     */
+    public synchronized void start(long intervalMillis) {
+        if (intervalMillis <= 0 || executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+            Thread thread = new Thread(r, "nodeprof-counter-snapshots");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(CounterSnapshotExporter::export, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * stop the periodic snapshots after exporting a last one
+     */
+    public synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        executor = null;
+        export();
+    }
+
+    private static void export() {
+        String snapshot = ProfiledTagEnum.snapshot();
+        if (!snapshot.isEmpty()) {
+            Logger.info("Counters: " + snapshot);
+        }
+    }
+}
@@ -69,6 +69,44 @@ public class GlobalConfiguration {
      */
     @CompilationFinal public static boolean SYMBOLIC_LOCATIONS;
 
+    /**
+     * interval in milliseconds to log snapshots of the event counters, 0 to disable
+     */
+    @CompilationFinal public static int COUNTER_SNAPSHOT_INTERVAL;
+
+    /**
+     * record the time spent instrumenting each source, see AttachCostTracer
+     */
+    @CompilationFinal public static boolean TRACE_ATTACH_COST;
+
+    /**
+     * the sampling rates per tag, see SamplingRate.parse
+     */
+    @CompilationFinal public static String SAMPLING;
+
+    /**
+     * the budgets in milliseconds per second of the callbacks of a site and of a tag, 0 to disable,
+     * see OverheadGovernor
+     */
+    @CompilationFinal public static int GOVERNOR_SITE_BUDGET;
+    @CompilationFinal public static int GOVERNOR_TAG_BUDGET;
+
+    /**
+     * the sampling period of the throttled sites, 0 to deactivate them
+     */
+    @CompilationFinal public static int GOVERNOR_THROTTLE_PERIOD;
+
+    /**
+     * the inlining policies of the Jalangi callbacks, see CallbackInlining.parse
+     */
+    @CompilationFinal public static String CALLBACK_INLINING;
+
+    /**
+     * the directory and size in megabytes of the segment files of TraceRecorder
+     */
+    @CompilationFinal public static String TRACE_DIR;
+    @CompilationFinal public static int TRACE_SEGMENT_SIZE;
+
     @TruffleBoundary
     public static void setup(Env env) {
         DEBUG_TRACING = env.getOptions().get(NodeProfCLI.TRACE_EVENTS);
@@ -79,5 +117,14 @@ public class GlobalConfiguration {
         IGNORE_JALANGI_EXCEPTION = env.getOptions().get(NodeProfCLI.IGNORE_JALANGI_EXCEPTION);
         LOG_ABSOLUTE_PATH = env.getOptions().get(NodeProfCLI.LOG_ABSOLUTE_PATH);
         SYMBOLIC_LOCATIONS = env.getOptions().get(NodeProfCLI.SYMBOLIC_LOCATIONS);
+        COUNTER_SNAPSHOT_INTERVAL = env.getOptions().get(NodeProfCLI.COUNTER_SNAPSHOT_INTERVAL);
+        TRACE_ATTACH_COST = env.getOptions().get(NodeProfCLI.TRACE_ATTACH_COST);
+        SAMPLING = env.getOptions().get(NodeProfCLI.SAMPLING);
+        GOVERNOR_SITE_BUDGET = env.getOptions().get(NodeProfCLI.GOVERNOR_SITE_BUDGET);
+        GOVERNOR_TAG_BUDGET = env.getOptions().get(NodeProfCLI.GOVERNOR_TAG_BUDGET);
+        GOVERNOR_THROTTLE_PERIOD = env.getOptions().get(NodeProfCLI.GOVERNOR_THROTTLE_PERIOD);
+        CALLBACK_INLINING = env.getOptions().get(NodeProfCLI.CALLBACK_INLINING);
+        TRACE_DIR = env.getOptions().get(NodeProfCLI.TRACE_DIR);
+        TRACE_SEGMENT_SIZE = env.getOptions().get(NodeProfCLI.TRACE_SEGMENT_SIZE);
     }
 }
@@ -21,6 +21,7 @@ import com.oracle.truffle.api.CompilerDirectives.CompilationFinal;
 import com.oracle.truffle.api.nodes.Node;
 import com.oracle.truffle.js.runtime.JSContext;
 import com.oracle.truffle.js.runtime.JSRealm;
+import com.oracle.truffle.js.runtime.Strings;
 import com.oracle.truffle.js.runtime.builtins.JSOrdinary;
 import com.oracle.truffle.js.runtime.objects.JSDynamicObject;
 import com.oracle.truffle.js.runtime.objects.JSObject;
@@ -39,6 +40,8 @@ public class GlobalObjectCache extends Node {
     private JSDynamicObject arrayConstructor = null;
     @CompilationFinal
     private JSDynamicObject emptyWrappedException = null;
+    @CompilationFinal
+    private JSDynamicObject deactivateSentinel = null;
 
     private static GlobalObjectCache cache = new GlobalObjectCache();
 
@@ -115,4 +118,20 @@ public class GlobalObjectCache extends Node {
         }
         return this.emptyWrappedException;
     }
+
+    /**
+     * @return Singleton object returned by callbacks to deactivate their handler (J$.DEACTIVATE),
+     *         a frozen {deactivate: true}
+     */
+    public Object getDeactivateSentinel() {
+        if (this.deactivateSentinel == null) {
+            assert (jscontext != null);
+            CompilerDirectives.transferToInterpreterAndInvalidate();
+            JSDynamicObject sentinel = JSOrdinary.create(jscontext, JSRealm.get(null));
+            JSObject.set(sentinel, Strings.constant("deactivate"), true);
+            JSObject.setIntegrityLevel(sentinel, true);
+            this.deactivateSentinel = sentinel;
+        }
+        return this.deactivateSentinel;
+    }
 }
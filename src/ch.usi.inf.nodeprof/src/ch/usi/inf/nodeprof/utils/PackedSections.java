@@ -0,0 +1,383 @@
+/*******************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2023, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.usi.inf.nodeprof.utils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.oracle.truffle.api.source.Source;
+import com.oracle.truffle.api.source.SourceSection;
+
+/**
+ * The source sections of the IIDs packed into primitive arrays, so that the IIDs do not keep a
+ * SourceSection each alive.
+ * <p>
+ * An IID is stored as the index of its source and its char range, in WORDS longs of a chunk of
+ * CHUNK_SIZE IIDs, and its section is created again from the source when needed (see get). The
+ * sections are indexed by an open addressing table of IIDs whose keys are compared with the packed
+ * ranges, so that the index costs a few ints per IID instead of a map entry, a boxed IID and a
+ * section.
+ * <p>
+ * The lookups and the allocations take no lock. An allocation claims the empty slot of the section
+ * in the index with a CAS (PENDING), reserves the next IID, writes its range, stores the IID in the
+ * slot, and publishes the IIDs in order with a CAS on count, so that a thread seeing an IID sees
+ * its range and the IIDs up to count are dense. A thread probing a PENDING slot waits for its IID,
+ * so two threads never allocate an IID for the same section. Growing the index freezes the slots
+ * of the old table (MOVED) while copying them, the threads meeting a MOVED slot wait for the copy
+ * and continue in the new table. The waits are short, they spin and then yield in case the thread
+ * waited for is not running. Only installing a chunk, i.e., once per CHUNK_SIZE IIDs, takes the
+ * lock of the sections, as in ChunkedArray.
+ */
+public final class PackedSections {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int INITIAL_CHUNKS = 16;
+    private static final int INITIAL_INDEX_SIZE = 1 << 10;
+    // the longs per IID: the source index + 1 (0 for no section) and the char index, the char
+    // length (-1 for an unavailable section)
+    private static final int WORDS = 2;
+
+    // the slot values of the index besides 0 (empty) and the IIDs
+    private static final int PENDING = -1;
+    private static final int MOVED = Integer.MIN_VALUE;
+    // the spins before a waiting thread yields
+    private static final int MAX_SPINS = 64;
+
+    /**
+     * a table of the index, replaced by next when it is half full
+     */
+    private static final class Index {
+        private final AtomicIntegerArray slots;
+        private final AtomicReference<Index> next = new AtomicReference<>();
+        // set when all slots are copied to next
+        private volatile boolean moved = false;
+
+        private Index(int size) {
+            this.slots = new AtomicIntegerArray(size);
+        }
+    }
+
+    private volatile long[][] chunks = new long[INITIAL_CHUNKS][];
+    private volatile Index index = new Index(INITIAL_INDEX_SIZE);
+    // the last IID reserved, the IIDs are numbered from 1
+    private final AtomicInteger reserved = new AtomicInteger();
+    // the last IID published, all IIDs up to count have their range written
+    private final AtomicInteger count = new AtomicInteger();
+    // the IID of the null section, 0 if none or PENDING
+    private final AtomicInteger nullIID = new AtomicInteger();
+
+    // the sources of the IIDs by index, in the order of their first IID
+    private final ConcurrentHashMap<Source, Integer> sourceToIndex = new ConcurrentHashMap<>();
+    private final ChunkedArray<Source> sources = new ChunkedArray<>();
+    private final AtomicInteger sourceCount = new AtomicInteger();
+
+    /**
+     * @return the IID of the section, allocated if it has none
+     */
+    public int getIID(SourceSection section) {
+        if (section == null) {
+            return getNullIID();
+        }
+        int sourceIndex = sourceToIndex.computeIfAbsent(section.getSource(), source -> {
+            int i = sourceCount.getAndIncrement();
+            sources.set(i, source);
+            return i;
+        });
+        long source = packSource(sourceIndex, section);
+        long length = packLength(section);
+        Index table = index;
+        int spins = 0;
+        for (;;) {
+            AtomicIntegerArray slots = table.slots;
+            int mask = slots.length() - 1;
+            int slot = hash(source, length) & mask;
+            for (;;) {
+                int iid = slots.get(slot);
+                if (iid == 0) {
+                    if (!slots.compareAndSet(slot, 0, PENDING)) {
+                        continue;
+                    }
+                    iid = allocate(source, length);
+                    slots.set(slot, iid);
+                    publish(iid);
+                    if (iid > slots.length() / 2) {
+                        grow(table);
+                    }
+                    return iid;
+                } else if (iid == PENDING) {
+                    spins = backOff(spins);
+                } else if (iid == MOVED) {
+                    table = awaitMoved(table);
+                    break;
+                } else if (matches(iid, source, length)) {
+                    return iid;
+                } else {
+                    slot = (slot + 1) & mask;
+                }
+            }
+        }
+    }
+
+    private int getNullIID() {
+        int spins = 0;
+        for (;;) {
+            int iid = nullIID.get();
+            if (iid > 0) {
+                return iid;
+            } else if (iid == 0 && nullIID.compareAndSet(0, PENDING)) {
+                iid = allocate(0, 0);
+                nullIID.set(iid);
+                publish(iid);
+                return iid;
+            }
+            spins = backOff(spins);
+        }
+    }
+
+    /**
+     * @return the IID of the section, or 0 if it has none
+     */
+    public int lookup(SourceSection section) {
+        if (section == null) {
+            return Math.max(nullIID.get(), 0);
+        }
+        Integer sourceIndex = sourceToIndex.get(section.getSource());
+        if (sourceIndex == null) {
+            return 0;
+        }
+        long source = packSource(sourceIndex, section);
+        long length = packLength(section);
+        Index table = index;
+        int spins = 0;
+        for (;;) {
+            AtomicIntegerArray slots = table.slots;
+            int mask = slots.length() - 1;
+            int slot = hash(source, length) & mask;
+            for (;;) {
+                int iid = slots.get(slot);
+                if (iid == 0) {
+                    return 0;
+                } else if (iid == PENDING) {
+                    spins = backOff(spins);
+                } else if (iid == MOVED) {
+                    table = awaitMoved(table);
+                    break;
+                } else if (matches(iid, source, length)) {
+                    return iid;
+                } else {
+                    slot = (slot + 1) & mask;
+                }
+            }
+        }
+    }
+
+    /**
+     * reserve the next IID and write its range
+     */
+    private int allocate(long source, long length) {
+        int iid = reserved.incrementAndGet();
+        assert iid < Integer.MAX_VALUE;
+        long[] chunk = getOrInstallChunk(iid >>> CHUNK_BITS);
+        int offset = (iid & CHUNK_MASK) * WORDS;
+        chunk[offset] = source;
+        chunk[offset + 1] = length;
+        return iid;
+    }
+
+    /**
+     * publish the IIDs in the order they were reserved, i.e., after the IIDs before
+     */
+    private void publish(int iid) {
+        int spins = 0;
+        while (!count.compareAndSet(iid - 1, iid)) {
+            spins = backOff(spins);
+        }
+    }
+
+    /**
+     * wait for another thread, yielding after a few spins in case it is not running, e.g., if the
+     * threads outnumber the processors
+     *
+     * @return the spins so far
+     */
+    private static int backOff(int spins) {
+        if (spins < MAX_SPINS) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+        return spins + 1;
+    }
+
+    private boolean matches(int iid, long source, long length) {
+        long[] chunk = chunks[iid >>> CHUNK_BITS];
+        int offset = (iid & CHUNK_MASK) * WORDS;
+        return chunk[offset] == source && chunk[offset + 1] == length;
+    }
+
+    private static long packSource(int sourceIndex, SourceSection section) {
+        int charIndex = section.isAvailable() ? section.getCharIndex() : 0;
+        return ((long) (sourceIndex + 1) << 32) | (charIndex & 0xFFFFFFFFL);
+    }
+
+    private static long packLength(SourceSection section) {
+        return section.isAvailable() ? section.getCharLength() : -1;
+    }
+
+    private static int hash(long source, long length) {
+        long h = source * 0x9E3779B97F4A7C15L + length;
+        return (int) (h ^ (h >>> 29));
+    }
+
+    /**
+     * Copy the table to a table of twice its size, if no other thread does it. The slots are
+     * frozen one by one, so that no IID is inserted into a slot already copied.
+     */
+    private void grow(Index table) {
+        Index grown = new Index(table.slots.length() * 2);
+        if (!table.next.compareAndSet(null, grown)) {
+            return;
+        }
+        AtomicIntegerArray slots = table.slots;
+        for (int slot = 0; slot < slots.length(); slot++) {
+            int spins = 0;
+            for (;;) {
+                int iid = slots.get(slot);
+                if (iid == PENDING) {
+                    spins = backOff(spins);
+                } else if (iid == 0) {
+                    if (slots.compareAndSet(slot, 0, MOVED)) {
+                        break;
+                    }
+                } else {
+                    insert(grown, iid);
+                    slots.set(slot, MOVED);
+                    break;
+                }
+            }
+        }
+        index = grown;
+        table.moved = true;
+    }
+
+    // only called by the thread growing the index, before other threads use it
+    private void insert(Index table, int iid) {
+        long[] chunk = chunks[iid >>> CHUNK_BITS];
+        int offset = (iid & CHUNK_MASK) * WORDS;
+        AtomicIntegerArray slots = table.slots;
+        int mask = slots.length() - 1;
+        int slot = hash(chunk[offset], chunk[offset + 1]) & mask;
+        while (slots.get(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots.set(slot, iid);
+    }
+
+    /**
+     * @return the table following a table being moved, once all its slots are copied
+     */
+    private static Index awaitMoved(Index table) {
+        int spins = 0;
+        while (!table.moved) {
+            spins = backOff(spins);
+        }
+        return table.next.get();
+    }
+
+    private long[] getOrInstallChunk(int chunkIndex) {
+        long[][] directory = chunks;
+        if (chunkIndex < directory.length && directory[chunkIndex] != null) {
+            return directory[chunkIndex];
+        }
+        return installChunk(chunkIndex);
+    }
+
+    private synchronized long[] installChunk(int chunkIndex) {
+        long[][] directory = chunks;
+        if (chunkIndex >= directory.length) {
+            long[][] grown = new long[Math.max(chunkIndex + 1, directory.length * 2)][];
+            System.arraycopy(directory, 0, grown, 0, directory.length);
+            directory = grown;
+        }
+        if (directory[chunkIndex] == null) {
+            directory[chunkIndex] = new long[CHUNK_SIZE * WORDS];
+        }
+        // publish the chunk with the volatile write of the directory
+        chunks = directory;
+        return directory[chunkIndex];
+    }
+
+    /**
+     * @return the section of the IID created from its source and range, or null
+     */
+    public SourceSection get(int iid) {
+        int sourceIndex = getSourceIndex(iid);
+        if (sourceIndex < 0) {
+            return null;
+        }
+        long[] chunk = chunks[iid >>> CHUNK_BITS];
+        int offset = (iid & CHUNK_MASK) * WORDS;
+        Source source = sources.get(sourceIndex);
+        int length = (int) chunk[offset + 1];
+        return length < 0 ? source.createUnavailableSection() : source.createSection((int) chunk[offset], length);
+    }
+
+    /**
+     * @return the index of the source of the IID, or -1 if the IID has no section
+     */
+    public int getSourceIndex(int iid) {
+        if (iid <= 0 || iid > count.get()) {
+            return -1;
+        }
+        long[] chunk = chunks[iid >>> CHUNK_BITS];
+        return (int) (chunk[(iid & CHUNK_MASK) * WORDS] >>> 32) - 1;
+    }
+
+    /**
+     * @return the source at index, or null
+     */
+    public Source getSource(int sourceIndex) {
+        return sources.get(sourceIndex);
+    }
+
+    /**
+     * @return the number of IIDs, they are numbered from 1
+     */
+    public int getCount() {
+        return count.get();
+    }
+
+    public int getSourceCount() {
+        return sourceCount.get();
+    }
+
+    /**
+     * @return the bytes of the chunks and the index allocated so far
+     */
+    public long getFootprint() {
+        long bytes = (long) index.slots.length() * Integer.BYTES;
+        for (long[] chunk : chunks) {
+            if (chunk != null) {
+                bytes += (long) chunk.length * Long.BYTES;
+            }
+        }
+        return bytes;
+    }
+}
@@ -19,7 +19,9 @@ package ch.usi.inf.nodeprof.utils;
 import static ch.usi.inf.nodeprof.utils.ObjectHelper.setConfigProperty;
 
 import java.io.File;
-import java.util.HashMap;
+import java.nio.IntBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -38,19 +40,33 @@ import com.oracle.truffle.js.runtime.objects.JSDynamicObject;
 import com.oracle.truffle.js.runtime.objects.Undefined;
 
 public abstract class SourceMapping {
-    private static int iidGen = 0;
-    @CompilationFinal private static HashMap<Integer, String> iidToLocationCache;
-    @CompilationFinal private static HashMap<SourceSection, Integer> sourceSet;
-    @CompilationFinal private static HashMap<Integer, SourceSection> idToSource;
-    @CompilationFinal private static HashMap<SourceSection, String> syntheticLocations;
+    /**
+     * the columns of a row of the IID table (see fillIIDTable): the index of the source (see
+     * getJSObjectForSourceIndex), the start line and column, the end line and column (inclusive,
+     * as in getJSObjectForSourceSection) and the char range
+     */
+    public static final int IID_TABLE_COLUMNS = 7;
+
+    /**
+     * The sections are instrumented concurrently, e.g., by Node.js worker threads. The IIDs are
+     * allocated and their sections kept as packed source indexes and char ranges (see
+     * PackedSections), so that millions of IIDs do not keep a SourceSection each alive, and looking
+     * up an IID does not take a lock. The locations and the code are only kept for the IIDs asked
+     * for, and read from the cache without a boundary (see getCachedLocationForIID).
+     */
+    private static volatile PackedSections sections;
+    @CompilationFinal private static ChunkedArray<String> iidToLocationCache;
+    @CompilationFinal private static ChunkedArray<String> iidToCodeCache;
+    private static final LongAdder cachedLocations = new LongAdder();
+    @CompilationFinal private static ConcurrentHashMap<SourceSection, String> syntheticLocations;
 
     @TruffleBoundary
     private static void init() {
         CompilerDirectives.transferToInterpreterAndInvalidate();
-        iidToLocationCache = new HashMap<>();
-        sourceSet = new HashMap<>();
-        idToSource = new HashMap<>();
-        syntheticLocations = new HashMap<>();
+        sections = new PackedSections();
+        iidToLocationCache = new ChunkedArray<>();
+        iidToCodeCache = new ChunkedArray<>();
+        syntheticLocations = new ConcurrentHashMap<>();
     }
 
     static {
@@ -59,41 +75,112 @@ public abstract class SourceMapping {
 
     @TruffleBoundary
     public static int getIIDForSourceSection(SourceSection sourceSection) {
-        if (sourceSet.containsKey(sourceSection)) {
-            return sourceSet.get(sourceSection);
+        return sections.getIID(sourceSection);
+    }
+
+    /**
+     * @return the number of IIDs, they are numbered from 1
+     */
+    public static int getIIDCount() {
+        return sections.getCount();
+    }
+
+    /**
+     * @return the number of sources of the IIDs
+     */
+    public static int getSourceCount() {
+        return sections.getSourceCount();
+    }
+
+    /**
+     * write one row of IID_TABLE_COLUMNS ints per IID, so that the locations of many IIDs can be
+     * read without one call and one location per IID
+     *
+     * @param table the rows
+     * @param firstIID the IID of the first row
+     * @return the number of rows written, bounded by the size of table and the number of IIDs
+     */
+    @TruffleBoundary
+    public static int fillIIDTable(IntBuffer table, int firstIID) {
+        PackedSections packed = sections;
+        int rows = Math.max(0, Math.min(table.remaining() / IID_TABLE_COLUMNS, packed.getCount() - firstIID + 1));
+        for (int iid = firstIID; iid < firstIID + rows; iid++) {
+            SourceSection section = packed.get(iid);
+            if (section == null || !section.isAvailable()) {
+                for (int i = 0; i < IID_TABLE_COLUMNS; i++) {
+                    table.put(-1);
+                }
+                continue;
+            }
+            table.put(packed.getSourceIndex(iid));
+            table.put(section.getStartLine());
+            table.put(section.getStartColumn());
+            table.put(section.getEndLine());
+            table.put(section.getEndColumn());
+            table.put(section.getCharIndex());
+            table.put(section.getCharEndIndex());
         }
-        int newIId = ++iidGen;
-        assert (newIId < Integer.MAX_VALUE);
-        sourceSet.put(sourceSection, newIId);
-        idToSource.put(newIId, sourceSection);
-        return newIId;
+        return rows;
+    }
+
+    /**
+     * @param index the index of the source in the IID table
+     * @return the source object as in getJSObjectForSource, or undefined
+     */
+    @TruffleBoundary
+    public static JSDynamicObject getJSObjectForSourceIndex(int index) {
+        Source source = sections.getSource(index);
+        return source != null ? getJSObjectForSource(source) : Undefined.instance;
+    }
+
+    /**
+     * @return the location of the IID if it was asked for before (see getLocationForIID), or null
+     */
+    public static String getCachedLocationForIID(int iid) {
+        return iidToLocationCache.get(iid);
+    }
+
+    /**
+     * @return the code of the IID if it was asked for before (see getCodeForIID), or null
+     */
+    public static String getCachedCodeForIID(int iid) {
+        return iidToCodeCache.get(iid);
     }
 
     @TruffleBoundary
     public static String getLocationForIID(int iid) {
-        if (iidToLocationCache.containsKey(iid)) {
-            return iidToLocationCache.get(iid);
-        } else if (idToSource.containsKey(iid)) {
-            String res = makeLocationString(idToSource.get(iid)).toString();
-            iidToLocationCache.put(iid, res);
-            return res;
-        } else {
+        String location = iidToLocationCache.get(iid);
+        if (location != null) {
+            return location;
+        }
+        SourceSection section = sections.get(iid);
+        if (section == null) {
             return null;
         }
+        location = makeLocationString(section).toString();
+        iidToLocationCache.set(iid, location);
+        cachedLocations.increment();
+        return location;
     }
 
     @TruffleBoundary
     public static String getCodeForIID(int iid) {
-        if (idToSource.containsKey(iid)) {
-            return idToSource.get(iid).getCharacters().toString();
-        } else {
+        String code = iidToCodeCache.get(iid);
+        if (code != null) {
+            return code;
+        }
+        SourceSection section = sections.get(iid);
+        if (section == null) {
             return null;
         }
+        code = section.getCharacters().toString();
+        iidToCodeCache.set(iid, code);
+        return code;
     }
 
     @TruffleBoundary
     public static SourceSection getSourceSectionForIID(int iid) {
-        return idToSource.get(iid);
+        return sections.get(iid);
     }
 
     @TruffleBoundary
@@ -168,10 +255,24 @@ public abstract class SourceMapping {
 
     @TruffleBoundary
     public static synchronized void reset() {
-        iidGen = 0;
+        sections = new PackedSections();
         iidToLocationCache.clear();
-        sourceSet.clear();
-        idToSource.clear();
+        iidToCodeCache.clear();
+        cachedLocations.reset();
+    }
+
+    /**
+     * log the number of IIDs and sources, the bytes of their packed sections and the number of
+     * locations kept, if any IID is mapped
+     */
+    @TruffleBoundary
+    public static void report() {
+        PackedSections packed = sections;
+        if (packed.getCount() == 0) {
+            return;
+        }
+        Logger.info("SourceMapping: IIDs " + packed.getCount() + " sources " + packed.getSourceCount() + " packed sections " + packed.getFootprint() / 1024 + "KB cached locations " +
+                        cachedLocations.sum());
     }
 
     /**
@@ -219,9 +320,10 @@ public abstract class SourceMapping {
     public static void addSyntheticLocation(SourceSection sourceSection, String name) {
         assert GlobalConfiguration.SYMBOLIC_LOCATIONS : "SYMBOLIC_LOCATIONS not enabled";
         boolean added = syntheticLocations.put(sourceSection, name) != null;
-        if (added) {
+        int iid = sections.lookup(sourceSection);
+        if (added && iid != 0) {
             // invalidate cache
-            iidToLocationCache.remove(sourceSet.get(sourceSection));
+            iidToLocationCache.set(iid, null);
         }
     }
 
@@ -0,0 +1,234 @@
+/* *****************************************************************************
+ * Copyright 2018 Dynamic Analysis Group, Università della Svizzera Italiana (USI)
+ * Copyright (c) 2018, 2023, Oracle and/or its affiliates. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * *****************************************************************************/
+package ch.usi.inf.nodeprof.utils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.oracle.truffle.api.ContextThreadLocal;
+import com.oracle.truffle.api.CompilerDirectives.TruffleBoundary;
+
+import ch.usi.inf.nodeprof.ProfiledTagEnum;
+
+/**
+ * State of NodeProf which is confined to one thread of a context, e.g., to the main thread or to
+ * one of the worker threads of Node.js
+ * <p>
+ * The state is kept in a ContextThreadLocal owned by the NodeProfInstrument of the engine (see
+ * NodeProfInstrument.getThreadStates), which is as cheap as a field read in compiled code and thus
+ * needs neither synchronization nor a TruffleBoundary. The nodes keep the thread local of their
+ * engine in a final field, so that the engines of a JVM do not share it.
+ */
+public final class ThreadState {
+    /**
+     * for the threads initialized before the instrument was created (e.g., if the instrument is
+     * looked up after the context has been created), which have no ThreadState in local
+     */
+    private static final ThreadLocal<ThreadState> uninitialized = ThreadLocal.withInitial(ThreadState::newUninitialized);
+
+    /**
+     * the states in uninitialized by their thread, to retire them when their thread is disposed
+     * (see retireUninitialized)
+     */
+    private static final Map<Thread, ThreadState> uninitializedStates = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * set by retire, a retired state in uninitialized is replaced on its next use
+     */
+    private volatile boolean isRetired = false;
+
+    /**
+     * nestedControl is a tag to avoid instrumentation of the Jalangi analysis being called
+     * recursively (see AbstractFactory)
+     */
+    private boolean nestedControl = false;
+
+    /**
+     * the event counters of this thread (see ProfiledTagEnum.countPreHit and so on), only written by
+     * this thread and summed over all threads on demand
+     */
+    private final long[] counters = new long[ProfiledTagEnum.getNumCounters()];
+
+    /**
+     * the buffers of this thread by index of their event batch (see EventBatch), dropped with the
+     * state if the thread is disposed before they are flushed
+     */
+    private Object[] batchBuffers = new Object[0];
+
+    /**
+     * an object confined to the thread of a state, released when the thread is disposed
+     */
+    public interface Retirable {
+        void retire();
+    }
+
+    /**
+     * the rings of this thread by index of their event pipeline (see EventPipeline), retired with
+     * the state so that their consumer forgets them once drained
+     */
+    private Retirable[] pipelineRings = new Retirable[0];
+
+    /**
+     * the thread states not retired yet, to sum up their counters
+     */
+    private static final Set<ThreadState> allStates = ConcurrentHashMap.newKeySet();
+
+    /**
+     * the counters of the retired thread states
+     */
+    private static final AtomicLongArray retired = new AtomicLongArray(ProfiledTagEnum.getNumCounters());
+
+    public ThreadState() {
+        allStates.add(this);
+    }
+
+    /**
+     * @param local the thread local of the instrument, or null
+     * @return the state of the current thread
+     */
+    public static ThreadState get(ContextThreadLocal<ThreadState> local) {
+        ThreadState state = local == null ? null : local.get();
+        if (state == null) {
+            return getUninitialized();
+        }
+        return state;
+    }
+
+    @TruffleBoundary
+    private static ThreadState getUninitialized() {
+        ThreadState state = uninitialized.get();
+        if (state.isRetired) {
+            uninitialized.remove();
+            state = uninitialized.get();
+        }
+        return state;
+    }
+
+    private static ThreadState newUninitialized() {
+        ThreadState state = new ThreadState();
+        uninitializedStates.put(Thread.currentThread(), state);
+        return state;
+    }
+
+    /**
+     * Retire the state of thread in uninitialized, if any, called with the state of the thread in
+     * the thread local of the instrument (see NodeProfInstrument.onThreadDisposed).
+     *
+     * @param thread the disposed thread
+     */
+    @TruffleBoundary
+    public static void retireUninitialized(Thread thread) {
+        ThreadState state = uninitializedStates.remove(thread);
+        if (state != null) {
+            state.retire();
+        }
+    }
+
+    public boolean isNestedControl() {
+        return nestedControl;
+    }
+
+    public void setNestedControl(boolean value) {
+        this.nestedControl = value;
+    }
+
+    /**
+     * @param index of the counter to increment for the current thread
+     */
+    public void count(int index) {
+        counters[index]++;
+    }
+
+    /**
+     * @param index of the event batch
+     * @return the buffer of the batch for this thread, or null if it has none yet
+     */
+    public Object getBatchBuffer(int index) {
+        Object[] buffers = batchBuffers;
+        return index < buffers.length ? buffers[index] : null;
+    }
+
+    @TruffleBoundary
+    public void setBatchBuffer(int index, Object buffer) {
+        if (index >= batchBuffers.length) {
+            batchBuffers = Arrays.copyOf(batchBuffers, index + 1);
+        }
+        batchBuffers[index] = buffer;
+    }
+
+    /**
+     * @param index of the event pipeline
+     * @return the ring of the pipeline for this thread, or null if it has none yet
+     */
+    public Retirable getPipelineRing(int index) {
+        Retirable[] rings = pipelineRings;
+        return index < rings.length ? rings[index] : null;
+    }
+
+    @TruffleBoundary
+    public void setPipelineRing(int index, Retirable ring) {
+        if (index >= pipelineRings.length) {
+            pipelineRings = Arrays.copyOf(pipelineRings, index + 1);
+        }
+        pipelineRings[index] = ring;
+    }
+
+    /**
+     * Fold the counters of this state into the retired counters, retire its pipeline rings and
+     * forget it, called when its thread is disposed (see NodeProfInstrument.onThreadDisposed). A
+     * sum racing with retire might miss the counters of this state.
+     */
+    @TruffleBoundary
+    public void retire() {
+        isRetired = true;
+        Retirable[] rings = pipelineRings;
+        pipelineRings = new Retirable[0];
+        for (Retirable ring : rings) {
+            if (ring != null) {
+                ring.retire();
+            }
+        }
+        if (allStates.remove(this)) {
+            for (int i = 0; i < counters.length; i++) {
+                if (counters[i] != 0) {
+                    retired.addAndGet(i, counters[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * The counters of other threads are read without synchronization, i.e., the sum might miss
+     * their most recent events.
+     *
+     * @param index of the counter
+     * @return the sum of the counter over all threads
+     */
+    @TruffleBoundary
+    public static long sum(int index) {
+        long result = retired.get(index);
+        for (ThreadState state : allStates) {
+            result += state.counters[index];
+        }
+        return result;
+    }
+}